@@ -0,0 +1,64 @@
+#!/usr/bin/env bash
+# 对比 POOL / VIRTUAL / NIO 三种探测模式的总耗时和峰值RSS
+#
+# 用法：
+#   ./mvnw package -DskipTests && ./mvnw test-compile
+#   JAVA=/path/to/jdk21/bin/java scripts/compare-modes.sh 1000 10000
+#
+# 启动两个本地桩DNS服务器（非特权端口，不需要root）：
+#   127.0.0.1:STUB_PORT（默认15353）  延迟 STUB_DELAY_MS 毫秒后应答
+#   127.0.0.1:DEAD_PORT（默认15354）  丢弃所有请求，模拟失效服务器（占列表的 DEAD_PERCENT%）
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+
+JAVA=${JAVA:-java}
+JAR=${JAR:-$(ls target/*-runner.jar | head -n 1)}
+STUB_PORT=${STUB_PORT:-15353}
+DEAD_PORT=${DEAD_PORT:-15354}
+STUB_DELAY_MS=${STUB_DELAY_MS:-20}
+DEAD_PERCENT=${DEAD_PERCENT:-1}
+MODES=${MODES:-"POOL VIRTUAL NIO"}
+SIZES=("$@")
+[ ${#SIZES[@]} -eq 0 ] && SIZES=(1000 10000)
+
+WORK=$(mktemp -d)
+STUB_CP=target/test-classes:target/classes
+
+"$JAVA" -cp "$STUB_CP" com.lunarstra.dnsspeedtest.StubDNSServer 127.0.0.1 "$STUB_PORT" "$STUB_DELAY_MS" > "$WORK/stub1.log" &
+STUB1=$!
+"$JAVA" -cp "$STUB_CP" com.lunarstra.dnsspeedtest.StubDNSServer 127.0.0.1 "$DEAD_PORT" drop > "$WORK/stub2.log" &
+STUB2=$!
+trap 'kill $STUB1 $STUB2 2>/dev/null; rm -rf "$WORK"' EXIT
+sleep 1
+
+# 采样 /proc/<pid>/status 中的 VmHWM（峰值RSS），进程退出前最后一次采样即为峰值
+run_measured() {
+    local start end hwm=0 sample
+    start=$(date +%s%N)
+    "$@" > /dev/null 2>&1 &
+    local pid=$!
+    while kill -0 "$pid" 2>/dev/null; do
+        sample=$(awk '/VmHWM/ {print $2}' "/proc/$pid/status" 2>/dev/null || true)
+        [ -n "$sample" ] && hwm=$sample
+        sleep 0.05
+    done
+    wait "$pid" || true
+    end=$(date +%s%N)
+    echo "$(( (end - start) / 1000000 )) $(( hwm / 1024 ))"
+}
+
+"$JAVA" -version 2>&1 | head -n 1
+echo "stub=127.0.0.1:$STUB_PORT delay=${STUB_DELAY_MS}ms dead=127.0.0.1:$DEAD_PORT (${DEAD_PERCENT}%)"
+printf "%-8s %-8s %12s %12s\n" "servers" "mode" "wall(ms)" "peakRSS(MB)"
+for n in "${SIZES[@]}"; do
+    list="$WORK/dns_$n.txt"
+    : > "$list"
+    for ((i = 0; i < n; i++)); do
+        if (( i % 100 < DEAD_PERCENT )); then echo "127.0.0.1:$DEAD_PORT"; else echo "127.0.0.1:$STUB_PORT"; fi
+    done >> "$list"
+    for mode in $MODES; do
+        read -r wall rss < <(run_measured "$JAVA" -jar "$JAR" "$list" -d www.example.com -m "$mode" -o "$WORK/out.txt")
+        printf "%-8s %-8s %12s %12s\n" "$n" "$mode" "$wall" "$rss"
+    done
+done
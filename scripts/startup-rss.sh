@@ -0,0 +1,91 @@
+#!/usr/bin/env bash
+# 对比 JVM uber-jar 与原生可执行文件的启动时间、总耗时和峰值RSS
+#
+# 用法：
+#   ./mvnw package -DskipTests && ./mvnw test-compile
+#   ./mvnw package -Pnative-cli -DskipTests
+#   scripts/startup-rss.sh [服务器数，默认1000] [重复次数，默认5]
+#
+# 本地桩DNS服务器监听 127.0.0.1:STUB_PORT（默认15353，不需要root），延迟 STUB_DELAY_MS 毫秒后应答。
+# 每项测量重复多次取中位数：
+#   startup  只输出版本号（--version），即进程启动到退出的开销
+#   scan     测试N个服务器（同一个桩服务器，关闭每服务器在途上限）并写出结果文件
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+
+JAVA=${JAVA:-java}
+JVM_OPTS=${JVM_OPTS:-}
+JAR=${JAR:-$(ls target/*-runner.jar | head -n 1)}
+NATIVE=${NATIVE:-$(ls target/*-runner 2>/dev/null | head -n 1 || true)}
+STUB_PORT=${STUB_PORT:-15353}
+STUB_DELAY_MS=${STUB_DELAY_MS:-5}
+MODE=${MODE:-NIO}
+SERVERS=${1:-1000}
+REPEAT=${2:-5}
+
+WORK=$(mktemp -d)
+STUB_CP=target/test-classes:target/classes
+
+"$JAVA" -cp "$STUB_CP" com.lunarstra.dnsspeedtest.StubDNSServer 127.0.0.1 "$STUB_PORT" "$STUB_DELAY_MS" > "$WORK/stub.log" &
+STUB=$!
+trap 'kill $STUB 2>/dev/null; rm -rf "$WORK"' EXIT
+sleep 1
+
+list="$WORK/dns_$SERVERS.txt"
+for ((i = 0; i < SERVERS; i++)); do
+    echo "127.0.0.1:$STUB_PORT"
+done > "$list"
+
+# 采样 /proc/<pid>/status 中的 VmHWM（峰值RSS），进程退出前最后一次采样即为峰值
+run_measured() {
+    local start end hwm=0 sample
+    start=$(date +%s%N)
+    "$@" > /dev/null 2>&1 &
+    local pid=$!
+    while kill -0 "$pid" 2>/dev/null; do
+        sample=$(awk '/VmHWM/ {print $2}' "/proc/$pid/status" 2>/dev/null || true)
+        [ -n "$sample" ] && hwm=$sample
+        sleep 0.01
+    done
+    wait "$pid" || true
+    end=$(date +%s%N)
+    echo "$(( (end - start) / 1000000 )) $(( hwm / 1024 ))"
+}
+
+median() {
+    sort -n | awk '{v[NR] = $1} END {print v[int((NR + 1) / 2)]}'
+}
+
+# 重复运行，输出耗时和峰值RSS的中位数
+measure() {
+    local walls=() rsses=() wall rss
+    for ((r = 0; r < REPEAT; r++)); do
+        read -r wall rss < <(run_measured "$@")
+        walls+=("$wall")
+        rsses+=("$rss")
+    done
+    echo "$(printf '%s\n' "${walls[@]}" | median) $(printf '%s\n' "${rsses[@]}" | median)"
+}
+
+report() {
+    local name=$1
+    shift
+    local wall rss
+    read -r wall rss < <(measure "$@" --version)
+    printf "%-8s %-8s %12s %12s\n" "$name" "startup" "$wall" "$rss"
+    read -r wall rss < <(measure "$@" "$list" -d www.example.com -m "$MODE" --max-per-server 0 \
+        --answer-check off -o "$WORK/out_$name.txt")
+    printf "%-8s %-8s %12s %12s\n" "$name" "scan" "$wall" "$rss"
+}
+
+"$JAVA" -version 2>&1 | head -n 1
+echo "servers=$SERVERS repeat=$REPEAT mode=$MODE stub=127.0.0.1:$STUB_PORT delay=${STUB_DELAY_MS}ms"
+printf "%-8s %-8s %12s %12s\n" "build" "run" "wall(ms)" "peakRSS(MB)"
+# shellcheck disable=SC2086
+report jvm "$JAVA" $JVM_OPTS -jar "$JAR"
+if [ -n "$NATIVE" ] && [ -x "$NATIVE" ]; then
+    report native "$NATIVE"
+else
+    echo "未找到原生可执行文件（target/*-runner），跳过；可用 NATIVE=路径 指定"
+fi
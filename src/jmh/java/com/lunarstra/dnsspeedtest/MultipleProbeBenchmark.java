@@ -0,0 +1,77 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量测试的吞吐：服务器列表轮流指向几个回环桩服务器，比较三种探测模式在不同列表规模下的总耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class MultipleProbeBenchmark {
+
+    private static final int STUBS = 4;
+
+    @Param({"100", "1000", "10000"})
+    public int servers;
+
+    @Param({"POOL", "VIRTUAL", "NIO"})
+    public ProbeMode mode;
+
+    private final List<StubDNSServer> stubs = new ArrayList<>();
+    private DNSSpeedTest dnsSpeedTest;
+    private List<String> names;
+    private List<InetSocketAddress> addresses;
+    private List<DNSQuery> queries;
+    private ScanOptions options;
+
+    @Setup
+    public void setUp() throws Exception {
+        for (int i = 0; i < STUBS; i++) {
+            stubs.add(new StubDNSServer().answer("10.0.0." + (i + 1)));
+        }
+        dnsSpeedTest = new DNSSpeedTest();
+        names = new ArrayList<>(servers);
+        addresses = new ArrayList<>(servers);
+        for (int i = 0; i < servers; i++) {
+            names.add("stub-" + i);
+            addresses.add(stubs.get(i % STUBS).getAddress());
+        }
+        queries = Collections.nCopies(servers, new DNSQuery("www.example.com"));
+        // 桩服务器在突发流量下可能丢包，缩短超时避免个别丢包主导结果；
+        // 全部目标只对应少数几个桩服务器，取消每服务器的在途上限以测量探测路径本身
+        options = new ScanOptions().mode(mode).timeout(TimeoutPolicy.fixed(1000)).maxPerServer(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (StubDNSServer stub : stubs) {
+            stub.close();
+        }
+    }
+
+    @Benchmark
+    public List<DNSResult> testMultipleDNS() {
+        return dnsSpeedTest.testMultipleDNS(names, addresses, queries, options, result -> { });
+    }
+}
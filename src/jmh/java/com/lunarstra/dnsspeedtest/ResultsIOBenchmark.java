@@ -0,0 +1,121 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 输入输出路径：读取DNS服务器列表、结果排序以及写入各种格式的结果文件
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultsIOBenchmark {
+
+    @Param({"1000", "10000"})
+    public int servers;
+
+    private Path dir;
+    private Path dnsFile;
+    private Path outputFile;
+    private DNSSpeedTestRunner runner;
+    private List<DNSResult> results;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("dnsspeedtest-bench");
+        dnsFile = dir.resolve("dns.txt");
+        outputFile = dir.resolve("result.txt");
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<>(servers + servers / 10);
+        results = new ArrayList<>(servers);
+        for (int i = 0; i < servers; i++) {
+            String ip = "10." + (i >> 16 & 0xFF) + "." + (i >> 8 & 0xFF) + "." + (i & 0xFF);
+            if (i % 10 == 0) {
+                lines.add("# 第" + i + "组");
+            }
+            lines.add(ip);
+            results.add(i % 20 == 0
+                ? new DNSResult(ip, "请求超时")
+                : DNSResult.ofNanos(ip, 1_000_000 + random.nextInt(100_000_000), "1.1.1.1"));
+        }
+        Files.write(dnsFile, lines, StandardCharsets.UTF_8);
+
+        runner = new DNSSpeedTestRunner();
+        runner.dnsSpeedTest = new DNSSpeedTest();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dnsFile);
+        Files.deleteIfExists(outputFile);
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public List<String> readDNSServers() throws IOException {
+        return runner.readDNSServers(dnsFile);
+    }
+
+    @Benchmark
+    public List<DNSResult> sortResults() {
+        List<DNSResult> copy = new ArrayList<>(results);
+        copy.sort(DNSResult::compareTo);
+        return copy;
+    }
+
+    @Benchmark
+    public void writeResults() throws IOException {
+        try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(outputFile.toFile()), StandardCharsets.UTF_8))) {
+            runner.writeResults(results, writer);
+        }
+    }
+
+    @Benchmark
+    public void writeJsonLines() throws IOException {
+        writeRecords(OutputFormat.JSONL);
+    }
+
+    @Benchmark
+    public void writeCsv() throws IOException {
+        writeRecords(OutputFormat.CSV);
+    }
+
+    @Benchmark
+    public void writeBinary() throws IOException {
+        writeRecords(OutputFormat.BIN);
+    }
+
+    private void writeRecords(OutputFormat format) throws IOException {
+        try (ResultWriter writer = ResultWriter.open(outputFile, format)) {
+            for (DNSResult result : results) {
+                writer.write(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单次查询的开销：对进程内回环桩服务器测试，结果基本只包含本地的通道、报文和调度开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SingleProbeBenchmark {
+
+    private StubDNSServer stub;
+    private DNSSpeedTest dnsSpeedTest;
+    private DNSQuery query;
+    private ByteBuffer response;
+
+    @Setup
+    public void setUp() throws Exception {
+        stub = new StubDNSServer().answer("10.0.0.1");
+        dnsSpeedTest = new DNSSpeedTest();
+        query = new DNSQuery("www.example.com");
+
+        // 预先构造一个响应报文，单独测量解析开销
+        byte[] request = query.encode(1);
+        response = ByteBuffer.allocate(request.length + 16);
+        response.put(request);
+        response.putShort(2, (short) 0x8180);
+        response.putShort(6, (short) 1);
+        response.putShort((short) 0xC00C);
+        response.putShort((short) DNSMessage.TYPE_A);
+        response.putShort((short) DNSMessage.CLASS_IN);
+        response.putInt(300);
+        response.putShort((short) 4);
+        response.put(new byte[]{10, 0, 0, 1});
+        response.flip();
+    }
+
+    @TearDown
+    public void tearDown() {
+        stub.close();
+    }
+
+    @Benchmark
+    public DNSResult testSingleDNS() {
+        return dnsSpeedTest.testSingleDNS("stub", stub.getAddress(), query);
+    }
+
+    @Benchmark
+    public DNSResult encodeAndDecode() {
+        query.encode(1);
+        return DNSSpeedTest.toResult("stub", query, response.duplicate(), 1000);
+    }
+}
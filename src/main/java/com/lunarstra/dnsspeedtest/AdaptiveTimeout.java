@@ -0,0 +1,121 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 一次测试过程中根据已观测的响应时间动态计算查询超时
+ * 响应时间记录在对数分桶的直方图中（每个2的幂区间分4个子桶，精度约25%），
+ * 记录和查询都是无锁的，可以在多个探测线程间共享
+ */
+final class AdaptiveTimeout {
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = MAX_EXPONENT * SUB_BUCKETS;
+    // 样本不足时p95不可靠，继续使用最大超时
+    private static final int MIN_SAMPLES = 16;
+    // 每记录若干个样本重新计算一次超时
+    private static final int RECOMPUTE_INTERVAL = 16;
+    private static final double PERCENTILE = 0.95;
+
+    private final TimeoutPolicy policy;
+    private final long maxNanos;
+    private final long minNanos;
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private volatile long currentNanos;
+
+    AdaptiveTimeout(TimeoutPolicy policy) {
+        this.policy = policy;
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(policy.getMaxMs());
+        this.minNanos = TimeUnit.MILLISECONDS.toNanos(policy.getMinMs());
+        this.currentNanos = maxNanos;
+    }
+
+    /**
+     * 记录一次成功查询的响应时间
+     */
+    void record(long rttNanos) {
+        if (!policy.isAdaptive()) {
+            return;
+        }
+        histogram.incrementAndGet(bucketOf(TimeUnit.NANOSECONDS.toMicros(rttNanos)));
+        long n = count.incrementAndGet();
+        if (n >= MIN_SAMPLES && n % RECOMPUTE_INTERVAL == 0) {
+            long p95 = percentileNanos(PERCENTILE);
+            currentNanos = clamp((long) (p95 * policy.getMultiplier()));
+        }
+    }
+
+    /**
+     * 当前的全局超时
+     */
+    long timeoutNanos() {
+        return currentNanos;
+    }
+
+    /**
+     * 针对单个服务器的超时：已有该服务器的样本时，按它自己观测到的最大响应时间收紧
+     * @param ownWorstNanos 该服务器已观测到的最大响应时间，没有样本时为0
+     */
+    long timeoutNanos(long ownWorstNanos) {
+        long global = currentNanos;
+        if (!policy.isAdaptive() || ownWorstNanos <= 0) {
+            return global;
+        }
+        return Math.min(global, clamp((long) (ownWorstNanos * policy.getMultiplier())));
+    }
+
+    long maxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * 直方图中的百分位数，取所在桶的上界
+     */
+    long percentileNanos(double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += histogram.get(i);
+        }
+        if (total == 0) {
+            return maxNanos;
+        }
+        long target = (long) Math.ceil(total * quantile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram.get(i);
+            if (seen >= target) {
+                return TimeUnit.MICROSECONDS.toNanos(bucketUpperBound(i));
+            }
+        }
+        return maxNanos;
+    }
+
+    private long clamp(long nanos) {
+        return Math.max(minNanos, Math.min(maxNanos, nanos));
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(0, micros);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return (exponent - 1) * SUB_BUCKETS + sub;
+    }
+
+    static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+        int exponent = bucket / SUB_BUCKETS + 1;
+        int sub = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub + 1) << (exponent - 2);
+    }
+}
@@ -0,0 +1,13 @@
+package com.lunarstra.dnsspeedtest;
+
+/**
+ * 解析结果正确性检查的处理方式
+ */
+public enum AnswerCheckMode {
+    /** 不检查 */
+    OFF,
+    /** 检查并标注可疑的结果，排名不变 */
+    FLAG,
+    /** 检查并把可疑的结果排在全部正常结果之后 */
+    DEMOTE
+}
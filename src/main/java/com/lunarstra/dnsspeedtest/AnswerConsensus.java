@@ -0,0 +1,220 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按域名比较各服务器的解析结果，找出被污染、劫持或做了NXDOMAIN重定向的服务器
+ * 每个域名的可信网络取自参考服务器的应答；没有参考服务器的应答时，取被足够多服务器返回的网络（/24或/48）。
+ * 应答与可信网络没有交集的服务器判为不一致。
+ * 另外向每个服务器查询一个不存在的随机域名（金丝雀），参考服务器或多数服务器返回NXDOMAIN时，
+ * 返回了地址的服务器判为NXDOMAIN重定向。
+ * 网络以long编码，计数使用开放寻址的原始类型哈希表，服务器数量很大时也不产生装箱对象和字符串
+ */
+final class AnswerConsensus {
+
+    // 没有参考服务器时，参与多数判断至少需要的有效应答数
+    static final int MIN_RESPONDERS = 3;
+
+    private final Set<String> references;
+    private final double minShare;
+
+    /**
+     * @param references 参考服务器，其应答直接作为可信结果
+     * @param minShare 没有参考服务器时，一个网络至少被多大比例的服务器返回才算可信（至少2个服务器）
+     */
+    AnswerConsensus(Collection<String> references, double minShare) {
+        this.references = new HashSet<>(references);
+        this.minShare = minShare;
+    }
+
+    /**
+     * 判定全部结果
+     * @param results 测试结果
+     * @param canaries 金丝雀查询的结果，为空时不检查NXDOMAIN重定向
+     * @param mode FLAG时只标注，DEMOTE时还把可疑结果排在正常结果之后
+     * @return 标注了判定的结果，顺序与输入一致（DEMOTE时重新排序）
+     */
+    List<DNSResult> apply(List<DNSResult> results, List<DNSResult> canaries, AnswerCheckMode mode) {
+        if (mode == AnswerCheckMode.OFF) {
+            return results;
+        }
+        Map<String, List<Integer>> byDomain = new HashMap<>();
+        for (int i = 0; i < results.size(); i++) {
+            DNSResult result = results.get(i);
+            if (result.isSuccess() && !result.getAnswers().isEmpty()) {
+                byDomain.computeIfAbsent(result.getDomain(), domain -> new ArrayList<>()).add(i);
+            }
+        }
+        AnswerVerdict[] verdicts = new AnswerVerdict[results.size()];
+        for (List<Integer> indexes : byDomain.values()) {
+            judgeDomain(results, indexes, verdicts);
+        }
+        Set<String> redirecting = findRedirecting(canaries);
+
+        List<DNSResult> judged = new ArrayList<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            DNSResult result = results.get(i);
+            AnswerVerdict verdict = verdicts[i] != null ? verdicts[i] : AnswerVerdict.UNCHECKED;
+            if (result.isSuccess() && redirecting.contains(result.getDnsServer())) {
+                verdict = AnswerVerdict.NXDOMAIN_REDIRECT;
+            }
+            judged.add(verdict == AnswerVerdict.UNCHECKED ? result : result.withAnswerVerdict(verdict));
+        }
+        if (mode == AnswerCheckMode.DEMOTE) {
+            // 稳定排序：正常结果、可疑结果、失败结果，各组内保持原有顺序
+            judged.sort(Comparator.comparingInt(AnswerConsensus::demotionRank));
+        }
+        return judged;
+    }
+
+    private static int demotionRank(DNSResult result) {
+        if (!result.isSuccess()) {
+            return 2;
+        }
+        return result.getAnswerVerdict().isSuspect() ? 1 : 0;
+    }
+
+    /**
+     * 判定同一域名下的全部有效应答
+     */
+    private void judgeDomain(List<DNSResult> results, List<Integer> indexes, AnswerVerdict[] verdicts) {
+        int maxSize = 0;
+        for (int index : indexes) {
+            maxSize = Math.max(maxSize, results.get(index).getAnswers().size());
+        }
+        long[] networks = new long[maxSize];
+        LongCounter trusted = new LongCounter(indexes.size() * 2);
+        int threshold = 1;
+        for (int index : indexes) {
+            DNSResult result = results.get(index);
+            if (references.contains(result.getDnsServer())) {
+                int count = result.getAnswers().networks(networks);
+                for (int i = 0; i < count; i++) {
+                    trusted.increment(networks[i]);
+                }
+            }
+        }
+        if (trusted.isEmpty()) {
+            if (indexes.size() < MIN_RESPONDERS) {
+                return;
+            }
+            // 每个服务器对它返回的每个网络各投一票
+            for (int index : indexes) {
+                int count = results.get(index).getAnswers().networks(networks);
+                for (int i = 0; i < count; i++) {
+                    trusted.increment(networks[i]);
+                }
+            }
+            threshold = Math.max(2, (int) Math.ceil(minShare * indexes.size()));
+        }
+        for (int index : indexes) {
+            int count = results.get(index).getAnswers().networks(networks);
+            boolean consistent = false;
+            for (int i = 0; i < count && !consistent; i++) {
+                consistent = trusted.get(networks[i]) >= threshold;
+            }
+            verdicts[index] = consistent ? AnswerVerdict.CONSISTENT : AnswerVerdict.DIVERGENT;
+        }
+    }
+
+    /**
+     * @return 对不存在的域名返回了地址的服务器
+     */
+    private Set<String> findRedirecting(List<DNSResult> canaries) {
+        int nxdomain = 0;
+        int answered = 0;
+        Boolean referenceSaysNxdomain = null;
+        for (DNSResult canary : canaries) {
+            if (!canary.isSuccess()) {
+                continue;
+            }
+            boolean redirected = !canary.getAnswers().isEmpty();
+            if (redirected) {
+                answered++;
+            } else {
+                nxdomain++;
+            }
+            if (references.contains(canary.getDnsServer())) {
+                referenceSaysNxdomain = (referenceSaysNxdomain == null || referenceSaysNxdomain) && !redirected;
+            }
+        }
+        boolean expectNxdomain = referenceSaysNxdomain != null ? referenceSaysNxdomain : nxdomain > answered;
+        Set<String> redirecting = new HashSet<>();
+        if (expectNxdomain) {
+            for (DNSResult canary : canaries) {
+                if (canary.isSuccess() && !canary.getAnswers().isEmpty()) {
+                    redirecting.add(canary.getDnsServer());
+                }
+            }
+        }
+        return redirecting;
+    }
+
+    /**
+     * long到计数的开放寻址哈希表（线性探测），只增不删
+     */
+    static final class LongCounter {
+        private long[] keys;
+        private int[] counts;
+        private int size;
+
+        LongCounter(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(16, expected * 2) - 1) << 1;
+            keys = new long[capacity];
+            counts = new int[capacity];
+        }
+
+        void increment(long key) {
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+            }
+            int slot = slotOf(keys, counts, key);
+            if (counts[slot] == 0) {
+                keys[slot] = key;
+                size++;
+            }
+            counts[slot]++;
+        }
+
+        int get(long key) {
+            return counts[slotOf(keys, counts, key)];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * 计数为0的槽位视为空
+         */
+        private static int slotOf(long[] keys, int[] counts, long key) {
+            int mask = keys.length - 1;
+            int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+            while (counts[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            counts = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldCounts[i] != 0) {
+                    int slot = slotOf(keys, counts, oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.util.Arrays;
+
+/**
+ * 一次响应的全部地址记录，地址编码为long后排序去重保存，比较时不需要生成字符串
+ * IPv4地址编码为 2^32 | 地址；IPv6地址只保留前64位（网络前缀），接口标识不参与比较
+ */
+public final class AnswerSet {
+
+    /** 没有地址记录的应答 */
+    public static final AnswerSet EMPTY = new AnswerSet(new long[0], -1);
+
+    private static final long IPV4_TAG = 1L << 32;
+
+    private final long[] addresses;
+    private final long minTtl;
+
+    private AnswerSet(long[] addresses, long minTtl) {
+        this.addresses = addresses;
+        this.minTtl = minTtl;
+    }
+
+    /**
+     * 由已编码、排序去重的地址还原
+     */
+    static AnswerSet of(long[] addresses, long minTtl) {
+        return addresses.length == 0 ? EMPTY : new AnswerSet(addresses.clone(), minTtl);
+    }
+
+    /**
+     * 收集响应中全部A/AAAA记录及其最小TTL，CNAME等其它记录忽略
+     */
+    static AnswerSet of(DNSMessage.Response response) {
+        long[] addresses = new long[response.getAnswers().size()];
+        int count = 0;
+        long minTtl = -1;
+        for (DNSMessage.Record record : response.getAnswers()) {
+            byte[] rdata = record.getRdata();
+            if (record.getType() == DNSMessage.TYPE_A && rdata.length == 4) {
+                addresses[count++] = IPV4_TAG | (readLong(rdata, 0, 4) & 0xFFFFFFFFL);
+            } else if (record.getType() == DNSMessage.TYPE_AAAA && rdata.length == 16) {
+                addresses[count++] = readLong(rdata, 0, 8);
+            } else {
+                continue;
+            }
+            minTtl = minTtl < 0 ? record.getTtl() : Math.min(minTtl, record.getTtl());
+        }
+        if (count == 0) {
+            return EMPTY;
+        }
+        Arrays.sort(addresses, 0, count);
+        int distinct = 1;
+        for (int i = 1; i < count; i++) {
+            if (addresses[i] != addresses[distinct - 1]) {
+                addresses[distinct++] = addresses[i];
+            }
+        }
+        return new AnswerSet(Arrays.copyOf(addresses, distinct), minTtl);
+    }
+
+    /**
+     * 合并两个应答的地址，用于把同一域名的A、AAAA查询结果合在一起比较
+     * @return 排序去重后的全部地址，TTL取两者中较小的
+     */
+    AnswerSet union(AnswerSet other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+        long[] merged = new long[addresses.length + other.addresses.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < addresses.length || j < other.addresses.length) {
+            long next;
+            if (j == other.addresses.length || (i < addresses.length && addresses[i] <= other.addresses[j])) {
+                next = addresses[i++];
+            } else {
+                next = other.addresses[j++];
+            }
+            if (count == 0 || merged[count - 1] != next) {
+                merged[count++] = next;
+            }
+        }
+        return new AnswerSet(Arrays.copyOf(merged, count), Math.min(minTtl, other.minTtl));
+    }
+
+    private static long readLong(byte[] bytes, int from, int length) {
+        long value = 0;
+        for (int i = from; i < from + length; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * 地址所在的网络：IPv4取/24，IPv6取/48，同一CDN节点的地址轮换不算作不一致
+     */
+    static long networkOf(long address) {
+        return isIPv4(address) ? address & ~0xFFL : address & ~0xFFFFL;
+    }
+
+    private static boolean isIPv4(long address) {
+        return (address >>> 32) == 1;
+    }
+
+    /**
+     * 把地址所在的网络按升序去重写入into
+     * @param into 长度不小于 {@link #size()}
+     * @return 网络个数
+     */
+    int networks(long[] into) {
+        int count = 0;
+        for (long address : addresses) {
+            long network = networkOf(address);
+            if (count == 0 || into[count - 1] != network) {
+                into[count++] = network;
+            }
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return addresses.length == 0;
+    }
+
+    /**
+     * @return 去重后的地址数
+     */
+    public int size() {
+        return addresses.length;
+    }
+
+    /**
+     * @return 记录中最小的TTL（秒），没有地址记录时为-1
+     */
+    public long getMinTtl() {
+        return minTtl;
+    }
+
+    /**
+     * @return 第index个地址的编码值
+     */
+    long address(int index) {
+        return addresses[index];
+    }
+
+    /**
+     * @return 第index个地址的文本形式，IPv6只显示网络前缀
+     */
+    public String addressText(int index) {
+        long address = addresses[index];
+        if (isIPv4(address)) {
+            return (address >>> 24 & 0xFF) + "." + (address >>> 16 & 0xFF) + "." + (address >>> 8 & 0xFF) + "."
+                + (address & 0xFF);
+        }
+        return String.format("%x:%x:%x:%x::/64", address >>> 48, address >>> 32 & 0xFFFF,
+            address >>> 16 & 0xFFFF, address & 0xFFFF);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < addresses.length; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(addressText(i));
+        }
+        return text.toString();
+    }
+}
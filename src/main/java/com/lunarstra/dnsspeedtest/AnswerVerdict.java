@@ -0,0 +1,35 @@
+package com.lunarstra.dnsspeedtest;
+
+/**
+ * 解析结果正确性的判定
+ */
+public enum AnswerVerdict {
+    /** 没有检查：检查关闭、查询失败、没有地址记录或有效样本太少 */
+    UNCHECKED(null),
+    /** 与参考服务器或多数服务器的解析结果有交集 */
+    CONSISTENT(null),
+    /** 解析结果与参考服务器或多数服务器没有任何交集，可能被污染或劫持 */
+    DIVERGENT("解析结果与多数服务器不一致"),
+    /** 不存在的域名返回了地址（NXDOMAIN重定向），常见于广告注入 */
+    NXDOMAIN_REDIRECT("不存在的域名返回了地址");
+
+    private final String warning;
+
+    AnswerVerdict(String warning) {
+        this.warning = warning;
+    }
+
+    /**
+     * @return 是否可疑
+     */
+    public boolean isSuspect() {
+        return warning != null;
+    }
+
+    /**
+     * @return 可疑时的提示，否则为null
+     */
+    public String getWarning() {
+        return warning;
+    }
+}
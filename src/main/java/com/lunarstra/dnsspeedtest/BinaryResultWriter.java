@@ -0,0 +1,155 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 定长二进制结果文件，全部数值为小端序，便于内存映射后按偏移直接读取
+ * <pre>
+ * 文件头（16字节）
+ *   0  int    魔数 0x42534E44（"DNSB"）
+ *   4  short  版本号 1
+ *   6  short  记录长度 320
+ *   8  long   记录数，关闭时写入；写入中断时为0，可用 (文件长度 - 16) / 320 计算
+ * 记录（320字节）
+ *   0  long   响应时间（纳秒），失败时为-1
+ *   8  long   建立连接时间（纳秒），明文UDP时为0
+ *  16  long   最小值  24 long 最大值  32 long 中位数  40 long p90  48 long p99（纳秒，没有多轮采样时为0）
+ *  56  double 平均值  64 double 标准差（纳秒）
+ *  72  int    成功采样数  76 int 发出的请求数
+ *  80  byte   标志位：1 成功，2 有多轮采样统计，4 有文本字段被截断，8 UDP响应被截断后改用了TCP
+ *  81  byte   解析结果判定：0 未检查，1 一致，2 不一致，3 NXDOMAIN重定向
+ *  82  short  地址记录数
+ *  84  int    地址记录的最小TTL（秒），没有地址记录时为-1
+ *  88  服务器地址（64字节）  152 域名（64字节）  216 解析结果（48字节）  264 错误信息（56字节）
+ *      文本为UTF-8，不足部分补0，过长时在字符边界截断
+ * </pre>
+ */
+final class BinaryResultWriter implements ResultWriter {
+
+    static final int MAGIC = 0x42534E44;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 320;
+
+    static final int OFFSET_RESPONSE = 0;
+    static final int OFFSET_CONNECT = 8;
+    static final int OFFSET_MIN = 16;
+    static final int OFFSET_MAX = 24;
+    static final int OFFSET_MEDIAN = 32;
+    static final int OFFSET_P90 = 40;
+    static final int OFFSET_P99 = 48;
+    static final int OFFSET_MEAN = 56;
+    static final int OFFSET_STDDEV = 64;
+    static final int OFFSET_SAMPLES = 72;
+    static final int OFFSET_ATTEMPTS = 76;
+    static final int OFFSET_FLAGS = 80;
+    static final int OFFSET_VERDICT = 81;
+    static final int OFFSET_ANSWERS = 82;
+    static final int OFFSET_TTL = 84;
+    static final int OFFSET_SERVER = 88;
+    static final int OFFSET_DOMAIN = 152;
+    static final int OFFSET_RESOLVED = 216;
+    static final int OFFSET_ERROR = 264;
+
+    static final int FLAG_SUCCESS = 1;
+    static final int FLAG_STATS = 2;
+    static final int FLAG_TRUNCATED = 4;
+    static final int FLAG_TCP_FALLBACK = 8;
+
+    // 缓冲区为记录长度的整数倍，每次写满后整块写入文件
+    private static final int BUFFER_RECORDS = 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * BUFFER_RECORDS)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private long records;
+
+    BinaryResultWriter(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE).putLong(0);
+    }
+
+    @Override
+    public void write(DNSResult result) throws IOException {
+        if (buffer.remaining() < RECORD_SIZE) {
+            drain();
+        }
+        int base = buffer.position();
+        LatencyStats stats = result.getStats();
+        int flags = (result.isSuccess() ? FLAG_SUCCESS : 0) | (stats != null ? FLAG_STATS : 0)
+            | (result.isTcpFallback() ? FLAG_TCP_FALLBACK : 0);
+        buffer.putLong(base + OFFSET_RESPONSE, result.isSuccess() ? result.getResponseTimeNanos() : -1);
+        buffer.putLong(base + OFFSET_CONNECT, result.getConnectNanos());
+        buffer.putLong(base + OFFSET_MIN, stats != null ? stats.getMin() : 0);
+        buffer.putLong(base + OFFSET_MAX, stats != null ? stats.getMax() : 0);
+        buffer.putLong(base + OFFSET_MEDIAN, stats != null ? stats.getMedian() : 0);
+        buffer.putLong(base + OFFSET_P90, stats != null ? stats.getP90() : 0);
+        buffer.putLong(base + OFFSET_P99, stats != null ? stats.getP99() : 0);
+        buffer.putDouble(base + OFFSET_MEAN, stats != null ? stats.getMean() : 0);
+        buffer.putDouble(base + OFFSET_STDDEV, stats != null ? stats.getStddev() : 0);
+        buffer.putInt(base + OFFSET_SAMPLES, stats != null ? stats.getSamples() : 0);
+        buffer.putInt(base + OFFSET_ATTEMPTS, stats != null ? stats.getAttempts() : 0);
+        boolean truncated = putText(base + OFFSET_SERVER, OFFSET_DOMAIN - OFFSET_SERVER, result.getDnsServer());
+        truncated |= putText(base + OFFSET_DOMAIN, OFFSET_RESOLVED - OFFSET_DOMAIN, result.getDomain());
+        truncated |= putText(base + OFFSET_RESOLVED, OFFSET_ERROR - OFFSET_RESOLVED, result.getResolvedIP());
+        truncated |= putText(base + OFFSET_ERROR, RECORD_SIZE - OFFSET_ERROR, result.getErrorMessage());
+        AnswerSet answers = result.getAnswers();
+        buffer.put(base + OFFSET_VERDICT, (byte) result.getAnswerVerdict().ordinal());
+        buffer.putShort(base + OFFSET_ANSWERS, (short) Math.min(answers.size(), Short.MAX_VALUE));
+        buffer.putInt(base + OFFSET_TTL, (int) Math.min(answers.getMinTtl(), Integer.MAX_VALUE));
+        buffer.put(base + OFFSET_FLAGS, (byte) (flags | (truncated ? FLAG_TRUNCATED : 0)));
+        buffer.position(base + RECORD_SIZE);
+        records++;
+    }
+
+    /**
+     * 把文本按UTF-8写入定长字段，剩余部分补0
+     * @return 是否被截断
+     */
+    private boolean putText(int offset, int length, String value) {
+        ByteBuffer field = buffer.duplicate();
+        field.clear().position(offset).limit(offset + length);
+        boolean truncated = false;
+        if (value != null) {
+            encoder.reset();
+            truncated = encoder.encode(CharBuffer.wrap(value), field, true).isOverflow();
+        }
+        while (field.hasRemaining()) {
+            field.put((byte) 0);
+        }
+        return truncated;
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+            ByteBuffer count = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            count.putLong(0, records);
+            channel.write(count, 8);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.net.IDN;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * DNS报文编解码工具类
+ * 按RFC 1035线路格式直接构造查询报文并解析响应，不依赖JNDI
+ */
+public final class DNSMessage {
+
+    public static final int TYPE_A = 1;
+    public static final int TYPE_CNAME = 5;
+    public static final int TYPE_AAAA = 28;
+    public static final int TYPE_SVCB = 64;
+    public static final int TYPE_HTTPS = 65;
+    public static final int CLASS_IN = 1;
+
+    public static final int RCODE_NOERROR = 0;
+    public static final int RCODE_FORMERR = 1;
+    public static final int RCODE_SERVFAIL = 2;
+    public static final int RCODE_NXDOMAIN = 3;
+    public static final int RCODE_NOTIMP = 4;
+    public static final int RCODE_REFUSED = 5;
+
+    /** 报文头长度 */
+    public static final int HEADER_SIZE = 12;
+    /** 不带EDNS时UDP报文的最大长度 */
+    public static final int MAX_UDP_SIZE = 512;
+    /** TCP传输时报文的最大长度（2字节长度前缀） */
+    public static final int MAX_TCP_SIZE = 65535;
+
+    private static final int FLAG_QR = 0x8000;
+    private static final int FLAG_TC = 0x0200;
+    private static final int FLAG_RD = 0x0100;
+    private static final int MAX_NAME_LENGTH = 255;
+    private static final int MAX_LABEL_LENGTH = 63;
+    private static final int MAX_POINTER_JUMPS = 16;
+
+    private DNSMessage() {
+    }
+
+    /**
+     * 编码一个递归查询报文
+     * @param id 事务ID（低16位有效）
+     * @param domain 要查询的域名，支持国际化域名
+     * @param qtype 查询类型，例如 {@link #TYPE_A}
+     * @return 完整的查询报文
+     */
+    public static byte[] encodeQuery(int id, String domain, int qtype) {
+        byte[] qname = encodeName(domain);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + qname.length + 4);
+        buf.putShort((short) id);
+        buf.putShort((short) FLAG_RD);
+        buf.putShort((short) 1); // QDCOUNT
+        buf.putShort((short) 0); // ANCOUNT
+        buf.putShort((short) 0); // NSCOUNT
+        buf.putShort((short) 0); // ARCOUNT
+        buf.put(qname);
+        buf.putShort((short) qtype);
+        buf.putShort((short) CLASS_IN);
+        return buf.array();
+    }
+
+    /**
+     * 改写报文中的事务ID，用于复用预先编码好的查询报文
+     */
+    public static void setId(byte[] message, int id) {
+        message[0] = (byte) (id >>> 8);
+        message[1] = (byte) id;
+    }
+
+    /**
+     * 读取报文中的事务ID，不改变缓冲区位置
+     */
+    public static int getId(ByteBuffer message) {
+        return message.getShort(message.position()) & 0xFFFF;
+    }
+
+    /**
+     * 读取报文头中的响应码，不改变缓冲区位置
+     */
+    public static int getRcode(ByteBuffer message) {
+        return message.get(message.position() + 3) & 0x0F;
+    }
+
+    /**
+     * 读取报文头中的应答记录数，不改变缓冲区位置
+     */
+    public static int getAnswerCount(ByteBuffer message) {
+        return message.getShort(message.position() + 6) & 0xFFFF;
+    }
+
+    /**
+     * 读取报文头中的截断标志（TC），不改变缓冲区位置
+     * 置位时应答不完整，需要改用TCP重新查询
+     */
+    public static boolean isTruncated(ByteBuffer message) {
+        return (message.getShort(message.position() + 2) & FLAG_TC) != 0;
+    }
+
+    /**
+     * 将域名编码为QNAME格式（长度前缀的标签序列，以0结尾）
+     */
+    static byte[] encodeName(String domain) {
+        if (domain == null || domain.trim().isEmpty()) {
+            throw new IllegalArgumentException("域名不能为空");
+        }
+        String ascii = IDN.toASCII(domain.trim(), IDN.ALLOW_UNASSIGNED);
+        if (ascii.endsWith(".")) {
+            ascii = ascii.substring(0, ascii.length() - 1);
+        }
+        byte[] raw = ascii.getBytes(StandardCharsets.US_ASCII);
+        byte[] out = new byte[raw.length + 2];
+        int labelStart = 0;
+        int pos = 0;
+        for (int i = 0; i <= raw.length; i++) {
+            if (i == raw.length || raw[i] == '.') {
+                int len = i - labelStart;
+                if (len == 0 || len > MAX_LABEL_LENGTH) {
+                    throw new IllegalArgumentException("非法的域名标签: " + domain);
+                }
+                out[pos++] = (byte) len;
+                System.arraycopy(raw, labelStart, out, pos, len);
+                pos += len;
+                labelStart = i + 1;
+            }
+        }
+        out[pos] = 0;
+        if (out.length > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("域名过长: " + domain);
+        }
+        return out;
+    }
+
+    /**
+     * 解析响应报文
+     * @param message 从position到limit为完整的响应报文
+     * @return 解析后的响应
+     * @throws IllegalArgumentException 报文格式错误时抛出
+     */
+    public static Response decode(ByteBuffer message) {
+        ByteBuffer buf = message.slice();
+        if (buf.remaining() < HEADER_SIZE) {
+            throw new IllegalArgumentException("报文长度不足");
+        }
+        int id = buf.getShort(0) & 0xFFFF;
+        int flags = buf.getShort(2) & 0xFFFF;
+        int qdCount = buf.getShort(4) & 0xFFFF;
+        int anCount = buf.getShort(6) & 0xFFFF;
+        if ((flags & FLAG_QR) == 0) {
+            throw new IllegalArgumentException("不是响应报文");
+        }
+
+        int pos = HEADER_SIZE;
+        for (int i = 0; i < qdCount; i++) {
+            pos = skipName(buf, pos) + 4;
+        }
+
+        List<Record> answers = anCount == 0 ? Collections.emptyList() : new ArrayList<>(anCount);
+        for (int i = 0; i < anCount; i++) {
+            pos = skipName(buf, pos);
+            checkAvailable(buf, pos, 10);
+            int type = buf.getShort(pos) & 0xFFFF;
+            long ttl = buf.getInt(pos + 4) & 0xFFFFFFFFL;
+            int rdLength = buf.getShort(pos + 8) & 0xFFFF;
+            pos += 10;
+            checkAvailable(buf, pos, rdLength);
+            byte[] rdata = new byte[rdLength];
+            buf.get(pos, rdata);
+            answers.add(new Record(type, ttl, rdata));
+            pos += rdLength;
+        }
+        return new Response(id, flags & 0x000F, (flags & FLAG_TC) != 0, answers);
+    }
+
+    /**
+     * 跳过报文中的一个域名（支持压缩指针）
+     * @return 域名之后的位置
+     */
+    private static int skipName(ByteBuffer buf, int pos) {
+        int jumps = 0;
+        int end = -1;
+        while (true) {
+            checkAvailable(buf, pos, 1);
+            int len = buf.get(pos) & 0xFF;
+            if ((len & 0xC0) == 0xC0) {
+                checkAvailable(buf, pos, 2);
+                if (end < 0) {
+                    end = pos + 2;
+                }
+                if (++jumps > MAX_POINTER_JUMPS) {
+                    throw new IllegalArgumentException("压缩指针循环");
+                }
+                pos = ((len & 0x3F) << 8) | (buf.get(pos + 1) & 0xFF);
+            } else if (len == 0) {
+                return end < 0 ? pos + 1 : end;
+            } else {
+                pos += len + 1;
+            }
+        }
+    }
+
+    private static void checkAvailable(ByteBuffer buf, int pos, int length) {
+        if (pos + length > buf.limit()) {
+            throw new IllegalArgumentException("报文被截断");
+        }
+    }
+
+    /**
+     * 将RCODE转换为可读描述
+     */
+    public static String rcodeText(int rcode) {
+        switch (rcode) {
+            case RCODE_NOERROR:
+                return "NOERROR";
+            case RCODE_FORMERR:
+                return "格式错误 (FORMERR)";
+            case RCODE_SERVFAIL:
+                return "服务器失败 (SERVFAIL)";
+            case RCODE_NXDOMAIN:
+                return "域名不存在 (NXDOMAIN)";
+            case RCODE_NOTIMP:
+                return "不支持的查询 (NOTIMP)";
+            case RCODE_REFUSED:
+                return "拒绝查询 (REFUSED)";
+            default:
+                return "响应码 " + rcode;
+        }
+    }
+
+    /**
+     * 解析后的DNS响应
+     */
+    public static final class Response {
+        private final int id;
+        private final int rcode;
+        private final boolean truncated;
+        private final List<Record> answers;
+
+        Response(int id, int rcode, boolean truncated, List<Record> answers) {
+            this.id = id;
+            this.rcode = rcode;
+            this.truncated = truncated;
+            this.answers = answers;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public int getRcode() {
+            return rcode;
+        }
+
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        public List<Record> getAnswers() {
+            return answers;
+        }
+
+        /**
+         * @return 指定类型的应答记录数
+         */
+        public int count(int type) {
+            int count = 0;
+            for (Record record : answers) {
+                if (record.getType() == type) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * 返回指定类型的第一条地址记录
+         * @return 地址字符串，没有时返回null
+         */
+        public String firstAddress(int type) {
+            for (Record record : answers) {
+                if (record.getType() == type) {
+                    return record.toAddressString();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 应答区中的一条资源记录
+     */
+    public static final class Record {
+        private final int type;
+        private final long ttl;
+        private final byte[] rdata;
+
+        Record(int type, long ttl, byte[] rdata) {
+            this.type = type;
+            this.ttl = ttl;
+            this.rdata = rdata;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public long getTtl() {
+            return ttl;
+        }
+
+        public byte[] getRdata() {
+            return rdata;
+        }
+
+        /**
+         * 将A/AAAA记录的数据转换为IP地址字符串
+         * @return IP地址，其它类型返回null
+         */
+        public String toAddressString() {
+            if ((type == TYPE_A && rdata.length == 4) || (type == TYPE_AAAA && rdata.length == 16)) {
+                try {
+                    return InetAddress.getByAddress(rdata).getHostAddress();
+                } catch (UnknownHostException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+}
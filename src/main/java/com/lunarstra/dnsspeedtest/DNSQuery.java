@@ -0,0 +1,121 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 一次测试要发出的查询
+ * 普通模式下报文预先编码，每次只改写事务ID；
+ * 缓存穿透模式下每次在域名前加一个随机标签，迫使服务器进行完整的递归解析。
+ * 未指定查询类型时查询A记录，结果按旧的规则判定（没有A记录算失败）；指定类型时只要求NOERROR
+ */
+public final class DNSQuery {
+
+    private static final char[] LABEL_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+    private static final int RANDOM_LABEL_LENGTH = 12;
+
+    private final String domain;
+    private final boolean cacheBusting;
+    private final QueryType type;
+    private final byte[] template;
+
+    public DNSQuery(String domain) {
+        this(domain, false);
+    }
+
+    /**
+     * @param domain 要解析的域名
+     * @param cacheBusting 是否在每次查询时添加随机前缀标签
+     */
+    public DNSQuery(String domain, boolean cacheBusting) {
+        this(domain, cacheBusting, null);
+    }
+
+    /**
+     * @param domain 要解析的域名
+     * @param cacheBusting 是否在每次查询时添加随机前缀标签
+     * @param type 查询类型，为null时按未指定类型的A查询处理
+     */
+    public DNSQuery(String domain, boolean cacheBusting, QueryType type) {
+        this.domain = domain;
+        this.cacheBusting = cacheBusting;
+        this.type = type;
+        int code = getTypeCode();
+        // 提前编码一次，域名非法时在构造时就抛出异常
+        this.template = DNSMessage.encodeQuery(0, domain, code);
+        if (cacheBusting) {
+            // 加上随机标签后的长度同样要合法
+            DNSMessage.encodeQuery(0, randomLabel() + "." + domain, code);
+        }
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public boolean isCacheBusting() {
+        return cacheBusting;
+    }
+
+    /**
+     * @return 指定的查询类型，未指定时为null
+     */
+    public QueryType getType() {
+        return type;
+    }
+
+    /**
+     * @return 报文中的查询类型编码，未指定类型时为A
+     */
+    public int getTypeCode() {
+        return type != null ? type.getCode() : DNSMessage.TYPE_A;
+    }
+
+    /**
+     * 生成带指定事务ID的查询报文
+     * @param id 事务ID
+     * @return 新的报文数组，调用方可以自由修改
+     */
+    public byte[] encode(int id) {
+        ByteBuffer message = ByteBuffer.allocate(encodedLength());
+        encodeInto(message, id);
+        return message.array();
+    }
+
+    /**
+     * 将带指定事务ID的查询报文写入缓冲区，不分配对象
+     * 缓存穿透模式下随机标签直接写在预编码的域名之前
+     * @param target 目标缓冲区，从0开始写入，写完后position为0、limit为报文长度
+     * @param id 事务ID
+     */
+    public void encodeInto(ByteBuffer target, int id) {
+        target.clear();
+        target.put(template, 0, DNSMessage.HEADER_SIZE);
+        if (cacheBusting) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            target.put((byte) RANDOM_LABEL_LENGTH);
+            for (int i = 0; i < RANDOM_LABEL_LENGTH; i++) {
+                target.put((byte) LABEL_CHARS[random.nextInt(LABEL_CHARS.length)]);
+            }
+        }
+        target.put(template, DNSMessage.HEADER_SIZE, template.length - DNSMessage.HEADER_SIZE);
+        target.putShort(0, (short) id);
+        target.flip();
+    }
+
+    /**
+     * @return 查询报文的长度
+     */
+    public int encodedLength() {
+        return cacheBusting ? template.length + 1 + RANDOM_LABEL_LENGTH : template.length;
+    }
+
+    private static String randomLabel() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] label = new char[RANDOM_LABEL_LENGTH];
+        for (int i = 0; i < label.length; i++) {
+            label[i] = LABEL_CHARS[random.nextInt(LABEL_CHARS.length)];
+        }
+        return new String(label);
+    }
+}
@@ -1,38 +1,222 @@
 package com.lunarstra.dnsspeedtest;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * DNS测试结果封装类
  * 用于存储DNS服务器地址、响应时间和解析结果
  */
 public class DNSResult implements Comparable<DNSResult> {
     private final String dnsServer;
-    private final long responseTime; // 以毫秒为单位
+    private final long responseTimeNanos; // 以纳秒为单位，来自单调时钟 System.nanoTime()
     private final boolean success;
     private final String errorMessage;
     private final String resolvedIP; // 解析出的IP地址
+    private final LatencyStats stats; // 多轮采样统计，单次测试时为null
+    private final String domain; // 测试的域名，单域名测试时可能为null
+    private final long connectNanos; // 加密传输建立连接（TCP+TLS握手）的时间，明文UDP时为0
+    private final AnswerSet answers; // 响应中的全部地址记录
+    private final AnswerVerdict answerVerdict; // 解析结果正确性的判定
+    private final QueryType queryType; // 指定的查询类型，未指定类型的查询和合并后的结果为null
+    private final boolean tcpFallback; // UDP响应被截断后改用TCP重新查询
+    private final List<DNSResult> typeResults; // 合并结果中各查询类型的结果，其它结果为空
 
+    /**
+     * @param responseTime 响应时间（毫秒）
+     */
     public DNSResult(String dnsServer, long responseTime, String resolvedIP) {
+        this(dnsServer, TimeUnit.MILLISECONDS.toNanos(responseTime), resolvedIP, null);
+    }
+
+    private DNSResult(String dnsServer, long responseTimeNanos, String resolvedIP, LatencyStats stats) {
+        this(dnsServer, null, responseTimeNanos, true, null, resolvedIP, stats, 0, AnswerSet.EMPTY,
+            AnswerVerdict.UNCHECKED, null, false, Collections.emptyList());
+    }
+
+    private DNSResult(String dnsServer, String domain, long responseTimeNanos, boolean success,
+                      String errorMessage, String resolvedIP, LatencyStats stats, long connectNanos,
+                      AnswerSet answers, AnswerVerdict answerVerdict, QueryType queryType, boolean tcpFallback,
+                      List<DNSResult> typeResults) {
         this.dnsServer = dnsServer;
-        this.responseTime = responseTime;
-        this.success = true;
-        this.errorMessage = null;
+        this.domain = domain;
+        this.connectNanos = connectNanos;
+        this.responseTimeNanos = responseTimeNanos;
+        this.success = success;
+        this.errorMessage = errorMessage;
         this.resolvedIP = resolvedIP;
+        this.stats = stats;
+        this.answers = answers;
+        this.answerVerdict = answerVerdict;
+        this.queryType = queryType;
+        this.tcpFallback = tcpFallback;
+        this.typeResults = typeResults;
+    }
+
+    /**
+     * 以纳秒精度的响应时间创建成功结果
+     * @param responseTimeNanos 响应时间（纳秒）
+     */
+    public static DNSResult ofNanos(String dnsServer, long responseTimeNanos, String resolvedIP) {
+        return new DNSResult(dnsServer, responseTimeNanos, resolvedIP, null);
+    }
+
+    /**
+     * 按全部字段还原结果，用于接收其它进程送来的结果
+     */
+    static DNSResult restore(String dnsServer, String domain, long responseTimeNanos, boolean success,
+                             String errorMessage, String resolvedIP, LatencyStats stats, long connectNanos,
+                             AnswerSet answers, AnswerVerdict answerVerdict, QueryType queryType,
+                             boolean tcpFallback, List<DNSResult> typeResults) {
+        return new DNSResult(dnsServer, domain, responseTimeNanos, success, errorMessage, resolvedIP, stats,
+            connectNanos, answers, answerVerdict, queryType, tcpFallback, typeResults);
+    }
+
+    /**
+     * 多轮采样的成功结果，响应时间取排序统计量的值
+     */
+    public DNSResult(String dnsServer, LatencyStats stats, RankingStatistic rankBy, String resolvedIP) {
+        this(dnsServer, rankBy.valueOf(stats), resolvedIP, stats);
     }
 
     public DNSResult(String dnsServer, String errorMessage) {
-        this.dnsServer = dnsServer;
-        this.responseTime = Long.MAX_VALUE; // 失败的DNS设置为最大值，排序时会排在最后
-        this.success = false;
-        this.errorMessage = errorMessage;
-        this.resolvedIP = null;
+        // 失败的DNS设置为最大值，排序时会排在最后
+        this(dnsServer, null, Long.MAX_VALUE, false, errorMessage, null, null, 0, AnswerSet.EMPTY,
+            AnswerVerdict.UNCHECKED, null, false, Collections.emptyList());
+    }
+
+    /**
+     * 返回标注了测试域名的副本
+     */
+    public DNSResult withDomain(String domain) {
+        return new DNSResult(dnsServer, domain, responseTimeNanos, success, errorMessage, resolvedIP, stats,
+            connectNanos, answers, answerVerdict, queryType, tcpFallback, typeResults);
+    }
+
+    /**
+     * 返回标注了测试域名和查询类型的副本
+     */
+    public DNSResult withQuery(DNSQuery query) {
+        return new DNSResult(dnsServer, query.getDomain(), responseTimeNanos, success, errorMessage, resolvedIP,
+            stats, connectNanos, answers, answerVerdict, query.getType(), tcpFallback, typeResults);
+    }
+
+    /**
+     * 返回标注了TCP回退的副本
+     */
+    public DNSResult withTcpFallback() {
+        return new DNSResult(dnsServer, domain, responseTimeNanos, success, errorMessage, resolvedIP, stats,
+            connectNanos, answers, answerVerdict, queryType, true, typeResults);
+    }
+
+    /**
+     * 把同一服务器、同一域名下并行发出的各类型查询合并为一个结果，模拟浏览器的Happy Eyeballs：
+     * 各类型都返回后才能开始连接，响应时间取其中最慢的一个；任一类型失败时整体失败，错误取第一个失败的类型。
+     * 解析结果优先取A记录，其次AAAA；地址记录取各类型的并集
+     * @param parts 各类型的结果，按查询类型排列
+     */
+    static DNSResult combine(String dnsServer, String domain, List<DNSResult> parts) {
+        long slowest = 0;
+        long connectNanos = 0;
+        boolean tcpFallback = false;
+        String errorMessage = null;
+        String v4 = null;
+        String v6 = null;
+        String other = null;
+        AnswerSet answers = AnswerSet.EMPTY;
+        for (DNSResult part : parts) {
+            tcpFallback |= part.tcpFallback;
+            connectNanos = Math.max(connectNanos, part.connectNanos);
+            if (!part.success) {
+                if (errorMessage == null) {
+                    errorMessage = part.queryType + ": " + part.errorMessage;
+                }
+                continue;
+            }
+            slowest = Math.max(slowest, part.responseTimeNanos);
+            answers = answers.union(part.answers);
+            if (part.queryType == QueryType.A) {
+                v4 = part.resolvedIP;
+            } else if (part.queryType == QueryType.AAAA) {
+                v6 = part.resolvedIP;
+            } else if (other == null) {
+                other = part.resolvedIP;
+            }
+        }
+        List<DNSResult> typeResults = Collections.unmodifiableList(new ArrayList<>(parts));
+        if (errorMessage != null) {
+            return new DNSResult(dnsServer, domain, Long.MAX_VALUE, false, errorMessage, null, null, connectNanos,
+                AnswerSet.EMPTY, AnswerVerdict.UNCHECKED, null, tcpFallback, typeResults);
+        }
+        String resolvedIP = v4 != null ? v4 : v6 != null ? v6 : other;
+        return new DNSResult(dnsServer, domain, slowest, true, null, resolvedIP, null, connectNanos, answers,
+            AnswerVerdict.UNCHECKED, null, tcpFallback, typeResults);
+    }
+
+    /**
+     * 返回附带建立连接时间的副本
+     * @param connectNanos 建立连接的时间（纳秒），不计入响应时间
+     */
+    public DNSResult withConnectNanos(long connectNanos) {
+        return new DNSResult(dnsServer, domain, responseTimeNanos, success, errorMessage, resolvedIP, stats,
+            connectNanos, answers, answerVerdict, queryType, tcpFallback, typeResults);
+    }
+
+    /**
+     * 返回附带全部地址记录的副本
+     */
+    public DNSResult withAnswers(AnswerSet answers) {
+        return new DNSResult(dnsServer, domain, responseTimeNanos, success, errorMessage, resolvedIP, stats,
+            connectNanos, answers, answerVerdict, queryType, tcpFallback, typeResults);
+    }
+
+    /**
+     * 返回附带正确性判定的副本
+     */
+    public DNSResult withAnswerVerdict(AnswerVerdict answerVerdict) {
+        return new DNSResult(dnsServer, domain, responseTimeNanos, success, errorMessage, resolvedIP, stats,
+            connectNanos, answers, answerVerdict, queryType, tcpFallback, typeResults);
     }
 
     public String getDnsServer() {
         return dnsServer;
     }
 
+    /**
+     * @return 测试的域名，单域名测试时可能为null
+     */
+    public String getDomain() {
+        return domain;
+    }
+
+    /**
+     * @return 响应时间（毫秒，向下取整），失败时为Long.MAX_VALUE
+     */
     public long getResponseTime() {
-        return responseTime;
+        return success ? TimeUnit.NANOSECONDS.toMillis(responseTimeNanos) : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return 响应时间（微秒），失败时为Long.MAX_VALUE
+     */
+    public long getResponseTimeMicros() {
+        return success ? TimeUnit.NANOSECONDS.toMicros(responseTimeNanos) : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return 响应时间（纳秒），失败时为Long.MAX_VALUE
+     */
+    public long getResponseTimeNanos() {
+        return responseTimeNanos;
+    }
+
+    /**
+     * @return 带小数的毫秒数，用于显示
+     */
+    public double getResponseTimeMillis() {
+        return responseTimeNanos / 1_000_000.0;
     }
 
     public boolean isSuccess() {
@@ -47,19 +231,96 @@ public class DNSResult implements Comparable<DNSResult> {
         return resolvedIP;
     }
 
+    /**
+     * @return 多轮采样统计，单次测试时为null
+     */
+    public LatencyStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return 加密传输建立连接（TCP+TLS握手）的时间（纳秒），明文UDP时为0
+     */
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    /**
+     * @return 响应中的全部地址记录，失败时为空
+     */
+    public AnswerSet getAnswers() {
+        return answers;
+    }
+
+    /**
+     * @return 解析结果正确性的判定，未检查时为UNCHECKED
+     */
+    public AnswerVerdict getAnswerVerdict() {
+        return answerVerdict;
+    }
+
+    /**
+     * @return 指定的查询类型，未指定类型的查询和合并后的结果为null
+     */
+    public QueryType getQueryType() {
+        return queryType;
+    }
+
+    /**
+     * @return 是否因UDP响应被截断而改用TCP重新查询；合并结果中任一类型回退即为true
+     */
+    public boolean isTcpFallback() {
+        return tcpFallback;
+    }
+
+    /**
+     * @return 合并结果中各查询类型的结果，按查询类型排列；不是合并结果时为空
+     */
+    public List<DNSResult> getTypeResults() {
+        return typeResults;
+    }
+
     @Override
     public int compareTo(DNSResult other) {
-        // 按响应时间升序排序
-        return Long.compare(this.responseTime, other.responseTime);
+        // 按响应时间升序排序，纳秒精度避免亚毫秒级的服务器并列
+        return Long.compare(this.responseTimeNanos, other.responseTimeNanos);
     }
 
     @Override
     public String toString() {
-        if (success) {
-            return String.format("%s (%dms) -> %s", dnsServer, responseTime, resolvedIP);
+        String connect = connectNanos > 0 ? String.format("; 建连 %.3fms", connectNanos / 1_000_000.0) : "";
+        String warning = answerVerdict.isSuspect() ? " [可疑: " + answerVerdict.getWarning() + "]" : "";
+        String types = typesText();
+        if (success && stats != null) {
+            return String.format("%s (%.3fms; %s%s) -> %s%s%s", dnsServer, getResponseTimeMillis(), stats, connect,
+                resolvedIP, types, warning);
+        } else if (success) {
+            return String.format("%s (%.3fms%s) -> %s%s%s", dnsServer, getResponseTimeMillis(), connect, resolvedIP,
+                types, warning);
         } else {
-            return String.format("%s (失败: %s)", dnsServer, errorMessage);
+            return String.format("%s (失败: %s)%s", dnsServer, errorMessage, types);
+        }
+    }
+
+    /**
+     * 合并结果列出各类型的响应时间，单个结果只标注TCP回退
+     */
+    private String typesText() {
+        if (typeResults.isEmpty()) {
+            return tcpFallback ? " [TCP回退]" : "";
+        }
+        StringBuilder text = new StringBuilder(" [");
+        for (DNSResult part : typeResults) {
+            if (text.length() > 2) {
+                text.append(", ");
+            }
+            text.append(part.queryType).append(' ');
+            text.append(part.success ? String.format("%.3fms", part.getResponseTimeMillis()) : "失败");
+            if (part.tcpFallback) {
+                text.append(" TCP回退");
+            }
         }
+        return text.append(']').toString();
     }
 
     /**
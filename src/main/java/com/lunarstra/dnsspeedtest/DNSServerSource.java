@@ -0,0 +1,193 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 流式读取DNS服务器列表
+ * 后台线程逐行读取并解析，IP字面量立即交给测试方，主机名交给有限的解析线程并行解析，
+ * 每个主机名的解析时间有上限。大文件的前面部分在后面部分还没读完时就可以开始测试。
+ * 无效的行和无法解析的主机名通过警告回调报告后跳过，与逐行校验时的行为一致
+ */
+public final class DNSServerSource implements AutoCloseable {
+
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final int MAX_BATCH = 256;
+    private static final Server END = new Server(null, null);
+
+    private final BlockingQueue<Server> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ExecutorService resolvers;
+    private final Semaphore lookups;
+    private final int maxLookups;
+    private final long resolveTimeoutMs;
+    private final Consumer<String> onWarning;
+    private final Thread reader;
+    private boolean ended;
+
+    /**
+     * @param input 服务器列表，每行一个地址，#或//开头的行为注释，读完后关闭
+     * @param resolverThreads 并行解析主机名的线程数
+     * @param resolveTimeoutMs 单个主机名的解析时间上限（毫秒）
+     * @param onWarning 警告回调，可能在读取线程或解析线程中调用
+     */
+    public DNSServerSource(Reader input, int resolverThreads, long resolveTimeoutMs, Consumer<String> onWarning) {
+        this.resolvers = Executors.newFixedThreadPool(Math.max(1, resolverThreads), r -> {
+            Thread thread = new Thread(r, "dns-server-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 在途解析数限制为线程数的4倍，避免主机名很多时任务无限堆积
+        this.maxLookups = Math.max(1, resolverThreads) * 4;
+        this.lookups = new Semaphore(maxLookups);
+        this.resolveTimeoutMs = resolveTimeoutMs;
+        this.onWarning = onWarning;
+        this.reader = new Thread(() -> read(input), "dns-server-reader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    private void read(Reader input) {
+        try (BufferedReader lines = new BufferedReader(input)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = lines.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+
+                // 跳过空行和注释行
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("//")) {
+                    continue;
+                }
+
+                ServerAddress address;
+                try {
+                    address = ServerAddress.parse(line);
+                } catch (IllegalArgumentException e) {
+                    onWarning.accept(String.format("警告：第%d行包含无效的DNS地址: %s", lineNumber, line));
+                    continue;
+                }
+                if (address.isLiteral()) {
+                    queue.put(new Server(address.getText(), address.toSocketAddress()));
+                } else {
+                    resolveAsync(address, lineNumber);
+                }
+            }
+        } catch (IOException e) {
+            onWarning.accept("警告：读取DNS服务器列表失败: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            // 等待所有解析完成后再结束
+            lookups.acquire(maxLookups);
+            queue.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 在解析线程中解析主机名，超时或完成后同样在解析线程中交给测试方
+     * 超时由JDK共用的延时线程触发，交付可能因队列已满而阻塞，因此不在触发超时的线程中进行。
+     * 在途许可在解析任务真正结束（超时后getByName仍可能在运行）并且交付完成后才归还，
+     * 读取线程取回全部许可时，所有已解析的服务器都已入队
+     */
+    private void resolveAsync(ServerAddress address, int lineNumber) throws InterruptedException {
+        lookups.acquire();
+        CompletableFuture<InetSocketAddress> lookup = CompletableFuture
+            .supplyAsync(() -> ServerAddress.resolve(address.toSocketAddress()), resolvers);
+        CompletableFuture<Void> delivered = lookup.copy()
+            .orTimeout(resolveTimeoutMs, TimeUnit.MILLISECONDS)
+            .handleAsync((resolved, error) -> {
+                try {
+                    if (error == null && !resolved.isUnresolved()) {
+                        queue.put(new Server(address.getText(), resolved));
+                    } else {
+                        onWarning.accept(String.format("警告：第%d行的主机名无法解析: %s", lineNumber, address));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }, resolvers);
+        CompletableFuture.allOf(lookup, delivered).whenComplete((ignored, error) -> lookups.release());
+    }
+
+    /**
+     * 取出下一批已就绪的服务器
+     * @param timeoutNanos 没有就绪的服务器时最多等待的时间
+     * @return 一批服务器（等待超时时为空列表），全部读完后返回null
+     */
+    public List<Server> poll(long timeoutNanos) throws InterruptedException {
+        if (ended) {
+            return null;
+        }
+        Server first = timeoutNanos > 0 ? queue.poll(timeoutNanos, TimeUnit.NANOSECONDS) : queue.poll();
+        List<Server> batch = new ArrayList<>();
+        if (first == null) {
+            return batch;
+        }
+        batch.add(first);
+        queue.drainTo(batch, MAX_BATCH - 1);
+        if (batch.get(batch.size() - 1) == END) {
+            batch.remove(batch.size() - 1);
+            ended = true;
+            if (batch.isEmpty()) {
+                return null;
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * 读取全部服务器
+     */
+    public List<Server> readAll() throws InterruptedException {
+        List<Server> all = new ArrayList<>();
+        List<Server> batch;
+        while ((batch = poll(TimeUnit.SECONDS.toNanos(1))) != null) {
+            all.addAll(batch);
+        }
+        return all;
+    }
+
+    @Override
+    public void close() {
+        reader.interrupt();
+        resolvers.shutdownNow();
+    }
+
+    /**
+     * 一个可以测试的服务器：显示名称和已解析的地址
+     */
+    public static final class Server {
+        private final String name;
+        private final InetSocketAddress address;
+
+        Server(String name, InetSocketAddress address) {
+            this.name = name;
+            this.address = address;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+    }
+}
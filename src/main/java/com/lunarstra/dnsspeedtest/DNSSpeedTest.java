@@ -1,31 +1,122 @@
 package com.lunarstra.dnsspeedtest;
 
+import jakarta.annotation.PreDestroy;
 import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
 import java.net.UnknownHostException;
-import java.time.Duration;
-import java.time.Instant;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.*;
-import javax.naming.Context;
-import javax.naming.NamingException;
-import javax.naming.directory.Attribute;
-import javax.naming.directory.Attributes;
-import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
+import java.util.function.Consumer;
 
 /**
  * DNS测速核心类
- * 提供DNS解析时间测量功能，使用Java标准库实现
+ * 提供DNS解析时间测量功能，直接通过UDP收发DNS报文实现
  */
 @Singleton
 public class DNSSpeedTest {
-    
-    private static final int TIMEOUT_MS = 5000; // 5秒超时
+
+    private static final Logger LOG = Logger.getLogger(DNSSpeedTest.class);
+
     private static final int MAX_THREADS = 50; // 最大并发线程数
+    private static final int DNS_PORT = 53;
+    private static final int NIO_CHANNELS = 4; // 多路复用模式下的UDP通道数
+    private static final int NIO_MAX_IN_FLIGHT = 2048; // 多路复用模式下的最大在途请求数
+    private static final long TOP_K_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10); // 前K名模式下检查提前结束的间隔
+    private static final long TASK_START_SLACK_NANOS = TimeUnit.MILLISECONDS.toNanos(1); // 任务开始到实际发出查询之间的准备时间
+    private static final int MAX_IDLE_PROBE_CONTEXTS = MAX_THREADS * 4; // 最多保留的空闲UDP查询上下文数
+    // 是否运行在原生可执行文件中，GraalVM在原生镜像运行时把该属性设为runtime
+    private static final boolean NATIVE_IMAGE = System.getProperty("org.graalvm.nativeimage.imagecode") != null;
+
+    @ConfigProperty(name = "dnsspeedtest.mode", defaultValue = "POOL")
+    ProbeMode defaultMode;
+
+    @ConfigProperty(name = "dnsspeedtest.virtual.max-concurrency", defaultValue = "1000")
+    int virtualMaxConcurrency = 1000;
+
+    @ConfigProperty(name = "dnsspeedtest.timeout.max-ms", defaultValue = "5000")
+    long timeoutMaxMs = TimeoutPolicy.DEFAULT_TIMEOUT_MS;
+
+    @ConfigProperty(name = "dnsspeedtest.timeout.adaptive", defaultValue = "false")
+    boolean timeoutAdaptive;
+
+    @ConfigProperty(name = "dnsspeedtest.timeout.multiplier", defaultValue = "3.0")
+    double timeoutMultiplier = 3.0;
+
+    @ConfigProperty(name = "dnsspeedtest.timeout.min-ms", defaultValue = "100")
+    long timeoutMinMs = 100;
+
+    @ConfigProperty(name = "dnsspeedtest.resolve.threads", defaultValue = "8")
+    int resolveThreads = 8;
+
+    @ConfigProperty(name = "dnsspeedtest.resolve.timeout-ms", defaultValue = "2000")
+    long resolveTimeoutMs = 2000;
+
+    @ConfigProperty(name = "dnsspeedtest.tls.trust-store")
+    Optional<String> tlsTrustStore = Optional.empty();
+
+    @ConfigProperty(name = "dnsspeedtest.tls.trust-store-password", defaultValue = "changeit")
+    String tlsTrustStorePassword = "changeit";
+
+    // 加密传输校验证书使用的SSL上下文，为null时按配置的信任库创建
+    SSLContext sslContext;
+    // 单服务器测试共用的加密传输客户端，批量测试各自创建
+    private SecureDNSClient secureClient;
+
+    @ConfigProperty(name = "dnsspeedtest.pacing.qps", defaultValue = "0")
+    double pacingQps;
+
+    @ConfigProperty(name = "dnsspeedtest.pacing.max-per-server", defaultValue = "0")
+    int pacingMaxPerServer;
+
+    @ConfigProperty(name = "dnsspeedtest.answer-check.mode", defaultValue = "OFF")
+    AnswerCheckMode answerCheckMode;
+
+    @ConfigProperty(name = "dnsspeedtest.answer-check.reference")
+    Optional<List<String>> answerReferences = Optional.empty();
+
+    @ConfigProperty(name = "dnsspeedtest.answer-check.min-share", defaultValue = "0.01")
+    double answerMinShare = 0.01;
+
+    @ConfigProperty(name = "dnsspeedtest.answer-check.nxdomain", defaultValue = "false")
+    boolean answerNxdomainCheck;
+
+    @ConfigProperty(name = "dnsspeedtest.answer-check.canary-domain", defaultValue = "example.com")
+    String canaryDomain = "example.com";
+
+    private final ProbeCounters counters = new ProbeCounters();
+
+    private final ProbePhases phases = new ProbePhases();
+
+    // 线程池和虚拟线程模式下复用的UDP查询上下文
+    private final ProbeContext.Pool probeContexts = new ProbeContext.Pool(MAX_IDLE_PROBE_CONTEXTS);
+
+    // 按域名缓存预编码的查询
+    private final ConcurrentMap<String, DNSQuery> queries = new ConcurrentHashMap<>();
     
     /**
      * 测试单个DNS服务器的响应时间
@@ -35,51 +126,171 @@ public class DNSSpeedTest {
      */
     public DNSResult testSingleDNS(String dnsServer, String domain) {
         try {
-            // 配置DNS服务器
-            Properties env = new Properties();
-            env.setProperty(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.dns.DnsContextFactory");
-            env.setProperty(Context.PROVIDER_URL, "dns://" + dnsServer + "/");
-            env.setProperty("com.sun.jndi.dns.timeout.initial", String.valueOf(TIMEOUT_MS));
-            env.setProperty("com.sun.jndi.dns.timeout.retries", "1");
-            
-            // 记录开始时间
-            Instant startTime = Instant.now();
-            
-            // 创建DNS上下文并执行查询
-            DirContext ctx = null;
-            try {
-                ctx = new InitialDirContext(env);
-                Attributes attrs = ctx.getAttributes(domain, new String[]{"A"});
-                
-                // 记录结束时间
-                Instant endTime = Instant.now();
-                
-                // 检查是否有A记录
-                Attribute aRecord = attrs.get("A");
-                if (aRecord != null && aRecord.size() > 0) {
-                    long responseTime = Duration.between(startTime, endTime).toMillis();
-                    // 获取第一个解析结果IP地址
-                    String resolvedIP = aRecord.get(0).toString();
-                    return new DNSResult(dnsServer, responseTime, resolvedIP);
-                } else {
-                    return new DNSResult(dnsServer, "没有找到A记录");
-                }
-            } finally {
-                if (ctx != null) {
-                    try {
-                        ctx.close();
-                    } catch (NamingException e) {
-                        // 忽略关闭异常
-                    }
-                }
-            }
-            
-        } catch (NamingException e) {
-            return new DNSResult(dnsServer, "DNS查询失败: " + e.getMessage());
+            return testSingleDNS(dnsServer, ServerAddress.resolve(ServerAddress.parse(dnsServer).toSocketAddress()), domain);
         } catch (Exception e) {
             return new DNSResult(dnsServer, "测试异常: " + e.getMessage());
         }
     }
+
+    DNSResult testSingleDNS(String dnsServer, InetSocketAddress address, String domain) {
+        DNSQuery query;
+        try {
+            query = queryFor(domain);
+        } catch (IllegalArgumentException e) {
+            return new DNSResult(dnsServer, "DNS查询失败: " + e.getMessage());
+        }
+        return testSingleDNS(dnsServer, address, query);
+    }
+
+    DNSResult testSingleDNS(String dnsServer, InetSocketAddress address, DNSQuery query) {
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMaxMs);
+        if (SecureDNSClient.isSecure(dnsServer)) {
+            return sharedSecureClient().query(dnsServer, address, query, timeoutNanos).join();
+        }
+        return testSingleDNS(dnsServer, address, query, timeoutNanos);
+    }
+
+    /**
+     * 通过UDP直接向指定地址发送DNS查询并测量响应时间
+     * 只统计发送到收到匹配响应之间的时间，通道和报文的准备不计入；通道和缓冲区取自复用的查询上下文
+     * @param dnsServer 结果中显示的DNS服务器名称
+     * @param address DNS服务器的socket地址
+     * @param query 要发出的查询
+     * @param timeoutNanos 本次查询的超时时间（纳秒）
+     * @return DNS测试结果
+     */
+    DNSResult testSingleDNS(String dnsServer, InetSocketAddress address, DNSQuery query, long timeoutNanos) {
+        long now = System.nanoTime();
+        return testSingleDNS(dnsServer, address, query, timeoutNanos, now, now);
+    }
+
+    /**
+     * @param queuedNanos 查询提交的时间，见 {@link ProbePhase#QUEUE}
+     * @param startNanos 取得发送令牌的时间，取出查询上下文的时间从这里算起
+     */
+    private DNSResult testSingleDNS(String dnsServer, InetSocketAddress address, DNSQuery query, long timeoutNanos,
+                                    long queuedNanos, long startNanos) {
+        if (address.isUnresolved()) {
+            return new DNSResult(dnsServer, "无法解析DNS服务器地址");
+        }
+        ProbeContext probe;
+        try {
+            probe = probeContexts.acquire();
+        } catch (IOException e) {
+            return new DNSResult(dnsServer, "测试异常: " + e.getMessage());
+        }
+        try {
+            return exchange(probe, dnsServer, address, query, timeoutNanos, null, queuedNanos, startNanos);
+        } finally {
+            probeContexts.release(probe);
+        }
+    }
+
+    /**
+     * 用查询上下文发出一次UDP查询，完成（收到响应或超时）的查询计入各阶段耗时
+     * @param known 该服务器此前对同一查询的成功结果。不为null且本次响应的报文头表明同样成功时，不再解析报文而直接返回它，
+     *              本次的响应时间由 {@link ProbeContext#getLastNanos()} 给出；多轮采样的后续轮次因此不分配对象
+     * @param queuedNanos 查询提交的时间，见 {@link ProbePhase#QUEUE}
+     * @param startNanos 取得发送令牌的时间
+     * @return DNS测试结果
+     */
+    private DNSResult exchange(ProbeContext probe, String dnsServer, InetSocketAddress address, DNSQuery query,
+                               long timeoutNanos, DNSResult known, long queuedNanos, long startNanos) {
+        long nanos;
+        try {
+            nanos = probe.exchange(address, query, timeoutNanos, counters);
+        } catch (PortUnreachableException e) {
+            return new DNSResult(dnsServer, "DNS查询失败: 端口不可达");
+        } catch (IOException e) {
+            // 通道可能已经不可用，关闭后不再复用
+            probe.close();
+            return new DNSResult(dnsServer, "测试异常: " + e.getMessage());
+        }
+        DNSResult result = resultOf(probe, dnsServer, query, nanos, known);
+        phases.record(dnsServer, query, result, queuedNanos, startNanos,
+            probe.getSendNanos(), probe.getSentNanos(), probe.getReceivedNanos(), System.nanoTime());
+        return result;
+    }
+
+    private static DNSResult resultOf(ProbeContext probe, String dnsServer, DNSQuery query, long nanos,
+                                      DNSResult known) {
+        if (nanos == ProbeContext.TIMED_OUT) {
+            return new DNSResult(dnsServer, "请求超时");
+        }
+        if (nanos == ProbeContext.FALLBACK_FAILED) {
+            return new DNSResult(dnsServer, "TCP回退失败: " + probe.getFallbackError());
+        }
+        ByteBuffer response = probe.response();
+        if (known != null && isSuccessHeader(query, response)) {
+            return known;
+        }
+        DNSResult result = toResult(dnsServer, query, response, nanos);
+        return probe.isFallback() ? result.withTcpFallback() : result;
+    }
+
+    /**
+     * 只看报文头判断响应是否成功：未截断、NOERROR且带有应答记录，缓存穿透模式下NXDOMAIN也算成功
+     * 不检查应答中是否确实有所查类型的记录，只用于已经成功解析过同一查询的服务器
+     */
+    private static boolean isSuccessHeader(DNSQuery query, ByteBuffer response) {
+        if (DNSMessage.isTruncated(response)) {
+            return false;
+        }
+        int rcode = DNSMessage.getRcode(response);
+        return rcode == DNSMessage.RCODE_NOERROR && DNSMessage.getAnswerCount(response) > 0
+            || query.isCacheBusting() && rcode == DNSMessage.RCODE_NXDOMAIN;
+    }
+
+    /**
+     * 将收到的响应报文转换为测试结果
+     * 缓存穿透模式下随机子域名通常不存在，NXDOMAIN同样代表一次完整的递归解析，按成功计。
+     * 指定了查询类型时，没有该类型记录的NOERROR响应（NODATA，例如没有IPv6地址的域名）同样按成功计；
+     * 被截断的响应不完整，按失败计，应改用TCP重新查询
+     * @param dnsServer DNS服务器地址
+     * @param query 发出的查询
+     * @param response 完整的响应报文
+     * @param responseTimeNanos 响应时间（纳秒）
+     * @return DNS测试结果
+     */
+    static DNSResult toResult(String dnsServer, DNSQuery query, ByteBuffer response, long responseTimeNanos) {
+        DNSMessage.Response message;
+        try {
+            message = DNSMessage.decode(response);
+        } catch (IllegalArgumentException e) {
+            return new DNSResult(dnsServer, "DNS查询失败: " + e.getMessage());
+        }
+        if (message.isTruncated()) {
+            return new DNSResult(dnsServer, "DNS查询失败: 响应被截断");
+        }
+        if (query.isCacheBusting() && message.getRcode() == DNSMessage.RCODE_NXDOMAIN) {
+            return DNSResult.ofNanos(dnsServer, responseTimeNanos, "NXDOMAIN");
+        }
+        if (message.getRcode() != DNSMessage.RCODE_NOERROR) {
+            return new DNSResult(dnsServer, "DNS查询失败: " + DNSMessage.rcodeText(message.getRcode()));
+        }
+        QueryType type = query.getType();
+        if (type != null) {
+            int count = message.count(type.getCode());
+            if (count == 0) {
+                return DNSResult.ofNanos(dnsServer, responseTimeNanos, "NODATA");
+            }
+            // 地址类型取第一条记录，服务绑定类型只报告记录数
+            String detail = type.isAddress() ? message.firstAddress(type.getCode()) : count + "条" + type + "记录";
+            return DNSResult.ofNanos(dnsServer, responseTimeNanos, detail).withAnswers(AnswerSet.of(message));
+        }
+
+        // 获取第一个A记录作为解析结果IP地址
+        String resolvedIP = message.firstAddress(DNSMessage.TYPE_A);
+        if (resolvedIP == null && query.isCacheBusting()) {
+            // 泛解析域名下随机子域名可能只有CNAME等记录
+            return DNSResult.ofNanos(dnsServer, responseTimeNanos, "NODATA");
+        }
+        if (resolvedIP != null) {
+            return DNSResult.ofNanos(dnsServer, responseTimeNanos, resolvedIP).withAnswers(AnswerSet.of(message));
+        } else {
+            return new DNSResult(dnsServer, "没有找到A记录");
+        }
+    }
     
     /**
      * 并行测试多个DNS服务器
@@ -88,33 +299,741 @@ public class DNSSpeedTest {
      * @return DNS测试结果列表，按响应时间升序排序
      */
     public List<DNSResult> testMultipleDNS(List<String> dnsServers, String domain) {
-        ExecutorService executor = Executors.newFixedThreadPool(
-            Math.min(MAX_THREADS, dnsServers.size())
-        );
-        
-        List<Future<DNSResult>> futures = new ArrayList<>();
-        
+        return testMultipleDNS(dnsServers, domain, getDefaultMode());
+    }
+
+    /**
+     * 按指定的探测模式并行测试多个DNS服务器
+     * @param dnsServers DNS服务器列表
+     * @param domain 要解析的域名
+     * @param mode 探测模式
+     * @return DNS测试结果列表，按响应时间升序排序
+     */
+    public List<DNSResult> testMultipleDNS(List<String> dnsServers, String domain, ProbeMode mode) {
+        return testMultipleDNS(dnsServers, domain, mode, result -> { });
+    }
+
+    /**
+     * 按指定的探测模式并行测试多个DNS服务器，每完成一个测试立即回调
+     * 回调按完成顺序在调用线程中依次执行，不需要额外同步；
+     * 全部完成后返回排序后的完整结果
+     * @param dnsServers DNS服务器列表
+     * @param domain 要解析的域名
+     * @param mode 探测模式
+     * @param onResult 单个结果完成时的回调
+     * @return DNS测试结果列表，按响应时间升序排序
+     */
+    public List<DNSResult> testMultipleDNS(List<String> dnsServers, String domain, ProbeMode mode,
+                                           Consumer<DNSResult> onResult) {
+        return testMultipleDNS(dnsServers, domain, mode, SamplingOptions.SINGLE, onResult);
+    }
+
+    /**
+     * 按指定的探测模式对多个DNS服务器进行多轮采样测试
+     * 每个服务器先发出预热查询（结果丢弃），再进行指定轮数的查询并统计延迟分布，
+     * 按指定的统计量排序
+     * @param dnsServers DNS服务器列表
+     * @param domain 要解析的域名
+     * @param mode 探测模式
+     * @param sampling 多轮采样参数
+     * @param onResult 单个服务器全部采样完成时的回调
+     * @return DNS测试结果列表，按排序统计量升序排序
+     */
+    public List<DNSResult> testMultipleDNS(List<String> dnsServers, String domain, ProbeMode mode,
+                                           SamplingOptions sampling, Consumer<DNSResult> onResult) {
+        DNSQuery query;
         try {
-            // 提交所有DNS测试任务
+            query = queryFor(domain);
+        } catch (IllegalArgumentException e) {
+            List<DNSResult> results = new ArrayList<>();
+            for (String dnsServer : dnsServers) {
+                DNSResult result = new DNSResult(dnsServer, "DNS查询失败: " + e.getMessage());
+                results.add(result);
+                onResult.accept(result);
+            }
+            return results;
+        }
+        return testMultipleDNS(dnsServers, Collections.nCopies(dnsServers.size(), query),
+            new ScanOptions().mode(mode).sampling(sampling), onResult);
+    }
+
+    /**
+     * 测试多个DNS服务器与多个域名的全部组合
+     * 任务按域名优先的顺序排列：先把第一个域名发给所有服务器，再发第二个，依此类推，
+     * 相邻的任务落在不同的服务器上，避免同一服务器在短时间内收到大量查询。
+     * 指定了查询类型（{@link ScanOptions#types}）时，同一服务器的各类型查询相邻排列、几乎同时发出，
+     * 到齐后合并为一个结果，响应时间取其中最慢的一个
+     * @param dnsServers DNS服务器列表
+     * @param domains 要解析的域名列表
+     * @param cacheBusting 是否在每次查询时添加随机前缀标签，测量不命中缓存时的递归解析时间
+     * @param mode 探测模式
+     * @param sampling 多轮采样参数
+     * @param onResult 单个组合完成时的回调
+     * @return 每个组合一个结果（已标注域名），按响应时间升序排序
+     * @throws IllegalArgumentException 域名格式非法时抛出
+     */
+    public List<DNSResult> testMatrix(List<String> dnsServers, List<String> domains, boolean cacheBusting,
+                                      ProbeMode mode, SamplingOptions sampling, Consumer<DNSResult> onResult) {
+        return testMatrix(dnsServers, domains,
+            new ScanOptions().mode(mode).sampling(sampling).cacheBusting(cacheBusting), onResult);
+    }
+
+    /**
+     * 按给定的测试参数测试多个DNS服务器与多个域名的全部组合
+     * 全部完成后比较各服务器的解析结果，标注可疑的结果；回调时还没有判定
+     * @param dnsServers DNS服务器列表
+     * @param domains 要解析的域名列表
+     * @param options 测试参数
+     * @param onResult 单个组合完成时的回调
+     * @return 每个组合一个结果（已标注域名），按响应时间升序排序
+     * @throws IllegalArgumentException 域名格式非法时抛出
+     */
+    public List<DNSResult> testMatrix(List<String> dnsServers, List<String> domains, ScanOptions options,
+                                      Consumer<DNSResult> onResult) {
+        DNSQuery canary = canaryFor(domains, options);
+        List<List<DNSQuery>> domainQueries = domainQueries(domains, options, canary);
+        List<String> names = new ArrayList<>();
+        List<DNSQuery> matrix = new ArrayList<>();
+        for (List<DNSQuery> group : domainQueries) {
             for (String dnsServer : dnsServers) {
-                Future<DNSResult> future = executor.submit(() -> testSingleDNS(dnsServer, domain));
-                futures.add(future);
+                for (DNSQuery query : group) {
+                    names.add(dnsServer);
+                    matrix.add(query);
+                }
+            }
+        }
+        List<DNSResult> results = testMultipleDNS(names, matrix, options,
+            combiningTypes(withoutCanary(onResult, canary), options.getTypes()));
+        return checkAnswers(combineTypes(results, options.getTypes()), canary, options);
+    }
+
+    /**
+     * 边读取服务器列表边测试：先读到的服务器先开始测试，不必等整个列表读完
+     * 全部完成后比较各服务器的解析结果，标注可疑的结果；回调时还没有判定
+     * @param source 服务器列表，由调用方负责关闭
+     * @param domains 要解析的域名列表
+     * @param options 测试参数
+     * @param onResult 单个组合完成时的回调
+     * @return 每个组合一个结果（已标注域名），按响应时间升序排序
+     * @throws IllegalArgumentException 域名格式非法时抛出
+     */
+    public List<DNSResult> testMatrix(DNSServerSource source, List<String> domains, ScanOptions options,
+                                      Consumer<DNSResult> onResult) {
+        DNSQuery canary = canaryFor(domains, options);
+        List<DNSResult> results = testMultipleDNS(TargetFeed.streaming(source, domainQueries(domains, options, canary)),
+            options, combiningTypes(withoutCanary(onResult, canary), options.getTypes()));
+        return checkAnswers(combineTypes(results, options.getTypes()), canary, options);
+    }
+
+    /**
+     * 每个域名一组查询：未指定查询类型时只有一个A查询，否则每个类型一个；
+     * 需要检查NXDOMAIN重定向时最后附加金丝雀查询（不分类型）
+     */
+    private List<List<DNSQuery>> domainQueries(List<String> domains, ScanOptions options, DNSQuery canary) {
+        List<QueryType> types = options.getTypes();
+        List<List<DNSQuery>> domainQueries = new ArrayList<>(domains.size() + 1);
+        for (String domain : domains) {
+            if (types.isEmpty()) {
+                domainQueries.add(Collections.singletonList(
+                    options.isCacheBusting() ? new DNSQuery(domain, true) : queryFor(domain)));
+                continue;
+            }
+            List<DNSQuery> group = new ArrayList<>(types.size());
+            for (QueryType type : types) {
+                group.add(options.isCacheBusting() ? new DNSQuery(domain, true, type) : queryFor(domain, type));
+            }
+            domainQueries.add(group);
+        }
+        if (canary != null) {
+            domainQueries.add(Collections.singletonList(canary));
+        }
+        return domainQueries;
+    }
+
+    /**
+     * 同一服务器、同一域名的各类型结果到齐后合并为一个结果再回调，未指定类型的结果直接回调
+     * 回调在调用线程中依次执行，这里的状态不需要同步
+     */
+    private static Consumer<DNSResult> combiningTypes(Consumer<DNSResult> onResult, List<QueryType> types) {
+        if (types.isEmpty()) {
+            return onResult;
+        }
+        Map<String, List<DNSResult>> pending = new HashMap<>();
+        return result -> {
+            if (result.getQueryType() == null) {
+                onResult.accept(result);
+                return;
+            }
+            String key = result.getDnsServer() + '\n' + result.getDomain();
+            List<DNSResult> parts = pending.computeIfAbsent(key, k -> new ArrayList<>(types.size()));
+            parts.add(result);
+            if (parts.size() == types.size()) {
+                pending.remove(key);
+                onResult.accept(combine(parts));
+            }
+        };
+    }
+
+    /**
+     * 把全部结果中各类型的结果按 服务器×域名 合并，返回按响应时间排序的列表
+     */
+    private static List<DNSResult> combineTypes(List<DNSResult> results, List<QueryType> types) {
+        if (types.isEmpty()) {
+            return results;
+        }
+        List<DNSResult> combined = new ArrayList<>(results.size() / types.size() + 1);
+        Map<String, List<DNSResult>> groups = new LinkedHashMap<>();
+        for (DNSResult result : results) {
+            if (result.getQueryType() == null) {
+                combined.add(result);
+            } else {
+                groups.computeIfAbsent(result.getDnsServer() + '\n' + result.getDomain(), k -> new ArrayList<>())
+                    .add(result);
+            }
+        }
+        for (List<DNSResult> parts : groups.values()) {
+            combined.add(combine(parts));
+        }
+        combined.sort(DNSResult::compareTo);
+        return combined;
+    }
+
+    private static DNSResult combine(List<DNSResult> parts) {
+        parts.sort(Comparator.comparing(DNSResult::getQueryType));
+        return DNSResult.combine(parts.get(0).getDnsServer(), parts.get(0).getDomain(), parts);
+    }
+
+    /**
+     * 金丝雀查询：在配置的域名前加随机标签，正常的服务器应当返回NXDOMAIN
+     * 只在开启检查且明确要求检查NXDOMAIN重定向时发出；
+     * 启用前K名提前结束（金丝雀的结果会干扰排名）或者被测域名本身就是金丝雀域名时不发出
+     * @return 金丝雀查询，不需要时返回null
+     */
+    private DNSQuery canaryFor(List<String> domains, ScanOptions options) {
+        boolean nxdomainCheck = options.getNxdomainCheck() != null ? options.getNxdomainCheck() : answerNxdomainCheck;
+        if (answerCheckModeOf(options) == AnswerCheckMode.OFF || !nxdomainCheck
+                || canaryDomain == null || canaryDomain.isBlank()
+                || (options.getSampling().isSingle() && options.getTopK() > 0)) {
+            return null;
+        }
+        for (String domain : domains) {
+            if (domain.equalsIgnoreCase(canaryDomain)) {
+                return null;
+            }
+        }
+        return new DNSQuery(canaryDomain, true);
+    }
+
+    /**
+     * 金丝雀查询的结果只用于判定，不回调
+     */
+    private static Consumer<DNSResult> withoutCanary(Consumer<DNSResult> onResult, DNSQuery canary) {
+        if (canary == null) {
+            return onResult;
+        }
+        return result -> {
+            if (!canary.getDomain().equals(result.getDomain())) {
+                onResult.accept(result);
             }
+        };
+    }
+
+    /**
+     * 比较各服务器的解析结果，标注可疑的结果并去掉金丝雀查询的结果
+     */
+    private List<DNSResult> checkAnswers(List<DNSResult> results, DNSQuery canary, ScanOptions options) {
+        AnswerCheckMode mode = answerCheckModeOf(options);
+        List<DNSResult> tested = results;
+        List<DNSResult> canaries = Collections.emptyList();
+        if (canary != null) {
+            tested = new ArrayList<>(results.size());
+            canaries = new ArrayList<>();
+            for (DNSResult result : results) {
+                (canary.getDomain().equals(result.getDomain()) ? canaries : tested).add(result);
+            }
+        }
+        if (mode == AnswerCheckMode.OFF) {
+            return tested;
+        }
+        List<String> references = options.getReferenceServers() != null
+            ? options.getReferenceServers() : getDefaultReferenceServers();
+        return new AnswerConsensus(references, answerMinShare).apply(tested, canaries, mode);
+    }
+
+    /**
+     * 比较各服务器的解析结果并标注可疑的结果，没有金丝雀查询，不检查NXDOMAIN重定向
+     * 用于分布式测试中由协调进程对合并后的全部结果统一判定
+     */
+    List<DNSResult> checkAnswers(List<DNSResult> results, ScanOptions options) {
+        return checkAnswers(results, null, options);
+    }
+
+    private AnswerCheckMode answerCheckModeOf(ScanOptions options) {
+        return options.getAnswerCheck() != null ? options.getAnswerCheck() : getDefaultAnswerCheck();
+    }
+
+    /**
+     * 按配置的解析线程数和超时时间打开服务器列表
+     * @param input 服务器列表，每行一个地址，读完后关闭
+     * @param onWarning 无效行和无法解析的主机名的警告回调
+     */
+    public DNSServerSource openServerSource(Reader input, Consumer<String> onWarning) {
+        return new DNSServerSource(input, resolveThreads, resolveTimeoutMs, onWarning);
+    }
+
+    private List<DNSResult> testMultipleDNS(List<String> names, List<DNSQuery> queries, ScanOptions options,
+                                            Consumer<DNSResult> onResult) {
+        // IP字面量在本地直接转换，主机名推迟到探测时由各个任务并行解析
+        List<InetSocketAddress> addresses = new ArrayList<>(names.size());
+        for (String name : names) {
+            addresses.add(addressOf(name));
+        }
+        return testMultipleDNS(names, addresses, queries, options, onResult);
+    }
+
+    /**
+     * 按探测模式分派，names、addresses与queries一一对应
+     * @param names 结果中显示的DNS服务器名称
+     * @param addresses DNS服务器的socket地址，未解析的地址在探测前解析
+     * @param queries 每个服务器要发出的查询
+     * @param options 测试参数
+     * @param onResult 单个结果完成时的回调
+     * @return DNS测试结果列表，按响应时间升序排序
+     */
+    List<DNSResult> testMultipleDNS(List<String> names, List<InetSocketAddress> addresses, List<DNSQuery> queries,
+                                    ScanOptions options, Consumer<DNSResult> onResult) {
+        return testMultipleDNS(TargetFeed.of(names, addresses, queries), options, onResult);
+    }
+
+    private List<DNSResult> testMultipleDNS(TargetFeed feed, ScanOptions options, Consumer<DNSResult> onResult) {
+        ProbeMode mode = options.getMode() != null ? options.getMode() : getDefaultMode();
+        TimeoutPolicy timeout = options.getTimeout() != null ? options.getTimeout() : getDefaultTimeout();
+        SamplingOptions sampling = options.getSampling();
+        // 多轮采样按统计量排序，单次的响应时间不足以判断能否进入前K名；分类型查询按合并后的时间排名，同样不提前结束
+        int topK = sampling.isSingle() && options.getTypes().isEmpty() ? options.getTopK() : 0;
+        double qps = options.getQps() != null ? options.getQps() : pacingQps;
+        int maxPerServer = options.getMaxPerServer() != null ? options.getMaxPerServer() : pacingMaxPerServer;
+        // 同一次测试中，对同一加密服务器的查询共用连接
+        try (SecureDNSClient secure = newSecureClient()) {
+            ScanContext context = new ScanContext(new AdaptiveTimeout(timeout), secure, new RateLimiter(qps),
+                maxPerServer, counters, phases);
+            if (mode == ProbeMode.NIO) {
+                return testMultipleDNSMultiplexed(feed, sampling, timeout, topK, onResult, context);
+            }
+            if (mode == ProbeMode.VIRTUAL) {
+                ExecutorService executor = newVirtualThreadExecutor();
+                if (executor != null) {
+                    return testMultipleDNS(feed, sampling, context, new TopKTracker(topK),
+                        onResult, executor, new Semaphore(virtualMaxConcurrency));
+                }
+                LOG.warn(NATIVE_IMAGE ? "原生可执行文件不使用虚拟线程模式，回退到线程池模式"
+                    : "当前JDK不支持虚拟线程（需要JDK 21+），回退到线程池模式");
+            }
+            // 流式读取时服务器总数未知，按上限创建线程池
+            int threads = feed.isExhausted() ? Math.max(1, Math.min(MAX_THREADS, feed.size())) : MAX_THREADS;
+            return testMultipleDNS(feed, sampling, context, new TopKTracker(topK),
+                onResult, Executors.newFixedThreadPool(threads), null);
+        }
+    }
+
+    /**
+     * @return 本进程累计的发送与丢包计数
+     */
+    public ProbeCounters getCounters() {
+        return counters;
+    }
+
+    /**
+     * @return 本进程累计的UDP查询各阶段耗时
+     */
+    public ProbePhases getPhases() {
+        return phases;
+    }
+
+    /**
+     * 关闭空闲的UDP查询上下文和单服务器测试共用的加密连接
+     */
+    @PreDestroy
+    void close() {
+        probeContexts.close();
+        synchronized (this) {
+            if (secureClient != null) {
+                secureClient.close();
+                secureClient = null;
+            }
+        }
+    }
+
+    /**
+     * 单服务器测试共用的加密传输客户端，多次调用复用已建立的连接；上次建立失败的连接在这里丢弃，本次重新建立
+     */
+    private synchronized SecureDNSClient sharedSecureClient() {
+        if (secureClient == null) {
+            secureClient = newSecureClient();
+        } else {
+            secureClient.discardFailedConnections();
+        }
+        return secureClient;
+    }
+
+    /**
+     * 创建加密传输的客户端，使用配置的信任库校验服务器证书
+     */
+    SecureDNSClient newSecureClient() {
+        return new SecureDNSClient(getSSLContext(), timeoutMaxMs);
+    }
+
+    private synchronized SSLContext getSSLContext() {
+        if (sslContext == null && tlsTrustStore.isPresent()) {
+            try (InputStream in = Files.newInputStream(Paths.get(tlsTrustStore.get()))) {
+                KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+                trustStore.load(in, tlsTrustStorePassword.toCharArray());
+                TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                trustManagers.init(trustStore);
+                SSLContext context = SSLContext.getInstance("TLS");
+                context.init(null, trustManagers.getTrustManagers(), null);
+                sslContext = context;
+            } catch (IOException | GeneralSecurityException e) {
+                throw new IllegalStateException("无法加载TLS信任库 " + tlsTrustStore.get() + ": " + e.getMessage(), e);
+            }
+        }
+        return sslContext;
+    }
+
+    /**
+     * 对单个DNS服务器进行多轮采样测试，各轮依次进行
+     * @param dnsServer DNS服务器地址
+     * @param domain 要解析的域名
+     * @param sampling 多轮采样参数
+     * @return DNS测试结果，多轮时附带统计信息
+     */
+    public DNSResult testSingleDNS(String dnsServer, String domain, SamplingOptions sampling) {
+        if (sampling.isSingle()) {
+            return testSingleDNS(dnsServer, domain);
+        }
+        try {
+            return testSingleDNS(dnsServer, ServerAddress.resolve(ServerAddress.parse(dnsServer).toSocketAddress()),
+                queryFor(domain), sampling);
+        } catch (Exception e) {
+            return new DNSResult(dnsServer, "测试异常: " + e.getMessage());
+        }
+    }
+
+    DNSResult testSingleDNS(String dnsServer, InetSocketAddress address, String domain, SamplingOptions sampling) {
+        return testSingleDNS(dnsServer, address, queryFor(domain), sampling);
+    }
+
+    DNSResult testSingleDNS(String dnsServer, InetSocketAddress address, DNSQuery query, SamplingOptions sampling) {
+        return testSingleDNS(dnsServer, address, query, sampling, new ScanContext(new AdaptiveTimeout(getDefaultTimeout()),
+            sharedSecureClient(), new RateLimiter(pacingQps), 0, counters, phases));
+    }
+
+    /**
+     * 对单个DNS服务器进行测试，每次查询的超时由context中的超时估计给出，成功的响应时间反馈给它
+     * 多轮采样时，已有成功样本的服务器按自己观测到的最大响应时间收紧超时；
+     * 加密传输的各轮查询复用同一条连接；每次查询发出前先取得全局发送令牌
+     */
+    DNSResult testSingleDNS(String dnsServer, InetSocketAddress address, DNSQuery query, SamplingOptions sampling,
+                            ScanContext context) {
+        return testSingleDNS(dnsServer, address, query, sampling, context, System.nanoTime());
+    }
+
+    /**
+     * @param queuedNanos 任务提交的时间，到第一次查询取得发送令牌为止计入 {@link ProbePhase#QUEUE}
+     */
+    private DNSResult testSingleDNS(String dnsServer, InetSocketAddress address, DNSQuery query,
+                                    SamplingOptions sampling, ScanContext context, long queuedNanos) {
+        if (sampling.isSingle()) {
+            return probeOnce(dnsServer, address, query, context, 0, null, null, queuedNanos);
+        }
+        if (SecureDNSClient.isSecure(dnsServer) || address.isUnresolved()) {
+            return sample(dnsServer, address, query, sampling, context, null, queuedNanos);
+        }
+        // 各轮UDP查询使用同一个查询上下文，不重复连接
+        ProbeContext probe;
+        try {
+            probe = probeContexts.acquire();
+        } catch (IOException e) {
+            return new DNSResult(dnsServer, "测试异常: " + e.getMessage());
+        }
+        try {
+            return sample(dnsServer, address, query, sampling, context, probe, queuedNanos);
+        } finally {
+            probeContexts.release(probe);
+        }
+    }
+
+    /**
+     * 多轮采样；第一次成功后，后续成功的UDP轮次只记录响应时间，不解析报文也不生成结果对象
+     * @param probe UDP查询使用的上下文，加密传输时为null
+     * @param queuedNanos 任务提交的时间；之后各轮从上一轮结束时起排队
+     */
+    private DNSResult sample(String dnsServer, InetSocketAddress address, DNSQuery query, SamplingOptions sampling,
+                             ScanContext context, ProbeContext probe, long queuedNanos) {
+        long worstNanos = 0;
+        long connectNanos = 0;
+        long queued = queuedNanos;
+        // 第一次成功的查询（含预热），解析结果取自它
+        DNSResult firstSuccess = null;
+        for (int i = 0; i < sampling.getWarmup(); i++) {
+            DNSResult warmup = probeOnce(dnsServer, address, query, context, worstNanos, probe, firstSuccess, queued);
+            queued = System.nanoTime();
+            if (warmup.isSuccess()) {
+                worstNanos = Math.max(worstNanos, responseNanos(warmup, probe));
+                firstSuccess = warmup;
+            }
+            connectNanos = Math.max(connectNanos, warmup.getConnectNanos());
+        }
+        long[] samples = new long[sampling.getRounds()];
+        int count = 0;
+        String lastError = null;
+        for (int i = 0; i < sampling.getRounds(); i++) {
+            DNSResult sample = probeOnce(dnsServer, address, query, context, worstNanos, probe, firstSuccess, queued);
+            queued = System.nanoTime();
+            connectNanos = Math.max(connectNanos, sample.getConnectNanos());
+            if (sample.isSuccess()) {
+                long nanos = responseNanos(sample, probe);
+                worstNanos = Math.max(worstNanos, nanos);
+                samples[count++] = nanos;
+                if (firstSuccess == null) {
+                    firstSuccess = sample;
+                }
+            } else {
+                lastError = sample.getErrorMessage();
+            }
+        }
+        return toSampledResult(dnsServer, samples, 0, count, sampling, firstSuccess, lastError)
+            .withConnectNanos(connectNanos);
+    }
+
+    /**
+     * 成功查询的响应时间；经查询上下文的查询可能返回此前的结果对象，时间取自上下文
+     */
+    private static long responseNanos(DNSResult success, ProbeContext probe) {
+        return probe != null ? probe.getLastNanos() : success.getResponseTimeNanos();
+    }
+
+    /**
+     * @param probe UDP查询使用的上下文，为null时从池中临时取一个
+     * @param known 该服务器此前对同一查询的成功结果，见 {@link #exchange}
+     * @param queuedNanos 本次查询开始排队的时间
+     */
+    private DNSResult probeOnce(String dnsServer, InetSocketAddress address, DNSQuery query, ScanContext context,
+                                long worstNanos, ProbeContext probe, DNSResult known, long queuedNanos) {
+        try {
+            context.limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new DNSResult(dnsServer, "测试被中断");
+        }
+        context.onProbeStart();
+        long startNanos = System.nanoTime();
+        long timeoutNanos = context.timeouts.timeoutNanos(worstNanos);
+        DNSResult result;
+        if (SecureDNSClient.isSecure(dnsServer)) {
+            context.counters.onSent();
+            result = context.secure.query(dnsServer, address, query, timeoutNanos).join();
+            context.counters.onResult(result);
+        } else if (probe != null) {
+            result = exchange(probe, dnsServer, address, query, timeoutNanos, known, queuedNanos, startNanos);
+        } else {
+            result = testSingleDNS(dnsServer, address, query, timeoutNanos, queuedNanos, startNanos);
+        }
+        if (result.isSuccess()) {
+            context.timeouts.record(responseNanos(result, probe));
+        }
+        return result;
+    }
+
+    /**
+     * 根据多轮采样值生成测试结果，全部失败时返回最后一次的错误
+     * @param samples 采样值数组，[from, from + count)区间会被就地排序
+     * @param firstSuccess 第一次成功的采样，解析结果取自它；count为0时为null
+     */
+    static DNSResult toSampledResult(String dnsServer, long[] samples, int from, int count,
+                                     SamplingOptions sampling, DNSResult firstSuccess, String lastError) {
+        if (count == 0) {
+            return new DNSResult(dnsServer, lastError != null ? lastError : "没有成功的采样");
+        }
+        LatencyStats stats = LatencyStats.of(samples, from, count, sampling.getRounds());
+        return new DNSResult(dnsServer, stats, sampling.getRankBy(), firstSuccess.getResolvedIP())
+            .withAnswers(firstSuccess.getAnswers());
+    }
+
+    /**
+     * 取得域名对应的预编码查询
+     * @throws IllegalArgumentException 域名格式非法时抛出
+     */
+    private DNSQuery queryFor(String domain) {
+        return queries.computeIfAbsent(domain, DNSQuery::new);
+    }
+
+    /**
+     * 取得域名指定类型的预编码查询
+     * @throws IllegalArgumentException 域名格式非法时抛出
+     */
+    private DNSQuery queryFor(String domain, QueryType type) {
+        return queries.computeIfAbsent(type + " " + domain, key -> new DNSQuery(domain, false, type));
+    }
+
+    /**
+     * 配置的默认探测模式
+     */
+    public ProbeMode getDefaultMode() {
+        return defaultMode != null ? defaultMode : ProbeMode.POOL;
+    }
+
+    /**
+     * 配置的全局每秒查询数上限，0表示不限速
+     */
+    public double getDefaultQps() {
+        return pacingQps;
+    }
+
+    /**
+     * 配置的每个服务器在途查询上限，0表示不限制
+     */
+    public int getDefaultMaxPerServer() {
+        return pacingMaxPerServer;
+    }
+
+    /**
+     * 配置的解析结果检查方式
+     */
+    public AnswerCheckMode getDefaultAnswerCheck() {
+        return answerCheckMode != null ? answerCheckMode : AnswerCheckMode.OFF;
+    }
+
+    /**
+     * 配置的参考服务器
+     */
+    public List<String> getDefaultReferenceServers() {
+        return answerReferences.orElse(Collections.emptyList());
+    }
+
+    /**
+     * 配置的默认超时策略
+     */
+    public TimeoutPolicy getDefaultTimeout() {
+        if (timeoutAdaptive) {
+            return TimeoutPolicy.adaptive(timeoutMaxMs, timeoutMultiplier, timeoutMinMs);
+        }
+        return TimeoutPolicy.fixed(timeoutMaxMs);
+    }
+
+    /**
+     * 使用单线程多路复用探测器测试多个DNS服务器
+     */
+    private List<DNSResult> testMultipleDNSMultiplexed(TargetFeed targets, SamplingOptions sampling,
+                                                       TimeoutPolicy timeout, int topK,
+                                                       Consumer<DNSResult> onResult, ScanContext context) {
+        // 流式读取的服务器已由读取方解析；一次给全的列表中的主机名交给解析线程并行解析，
+        // 探测线程先测试IP字面量，主机名解析完成后再逐批加入，与流式读取的方式相同
+        // 截断响应的TCP回退同样在这些线程中进行，不阻塞探测线程
+        ExecutorService resolvers = Executors.newFixedThreadPool(Math.max(1, resolveThreads), r -> {
+            Thread thread = new Thread(r, "dns-server-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        TargetFeed feed = targets.isExhausted()
+            ? TargetFeed.resolving(targets.names, targets.addresses, targets.queries, resolvers, resolveTimeoutMs)
+            : targets;
+        List<DNSResult> results;
+        try {
+            MultiplexedDNSProber prober = new MultiplexedDNSProber(NIO_CHANNELS, NIO_MAX_IN_FLIGHT, timeout, topK);
+            results = new ArrayList<>(prober.probe(feed, sampling, onResult, context, resolvers));
+        } catch (Exception e) {
+            results = new ArrayList<>();
+            for (int i = 0; i < targets.size(); i++) {
+                DNSResult result = new DNSResult(targets.names.get(i), "执行异常: " + e.getMessage())
+                    .withQuery(targets.queries.get(i));
+                results.add(result);
+                onResult.accept(result);
+            }
+        } finally {
+            resolvers.shutdownNow();
+        }
+
+        // 按响应时间排序
+        results.sort(DNSResult::compareTo);
+        return results;
+    }
+
+    /**
+     * 在给定的执行器上测试多个DNS服务器，每个任务阻塞等待一个请求
+     * 结果通过CompletionService按完成顺序收集，慢服务器不会挡住已完成的结果。
+     * 流式读取时，等待下一批服务器的间隙同样收集已完成的结果。
+     * 启用前K名时，所有任务都已开始、且最晚开始的任务已等待的时间也超过第K名的响应时间后，
+     * 剩余任务不可能再进入前K名，直接取消。
+     * 提交前先取得目标服务器的在途许可，取不到时暂存在该服务器的队列中，等它的上一个查询完成后再提交，
+     * 等待许可不占用执行器的线程；任务逐个查询取得全局发送令牌，等待期间不计入“已开始”，
+     * 从进入队列（含等待并发许可）到取得令牌的时间计入 {@link ProbePhase#QUEUE}
+     * @param context 本次测试共享的状态
+     * @param topK 前K名跟踪，未启用时测试全部服务器
+     * @param executor 执行器，调用结束后关闭
+     * @param permits 限制同时执行的任务数，为null时由执行器自身的线程数限制
+     */
+    private List<DNSResult> testMultipleDNS(TargetFeed feed, SamplingOptions sampling, ScanContext context,
+                                            TopKTracker topK, Consumer<DNSResult> onResult,
+                                            ExecutorService executor, Semaphore permits) {
+        CompletionService<DNSResult> completionService = new ExecutorCompletionService<>(executor);
+        Map<Future<DNSResult>, Integer> pending = new HashMap<>();
+        // 在途查询已满的服务器的等待队列，元素为 {序号, 进入队列的时间}
+        Map<InetSocketAddress, Deque<long[]>> waiting = new HashMap<>();
+        List<String> dnsServers = feed.names;
+        List<DNSQuery> queries = feed.queries;
+        List<DNSResult> results = new ArrayList<>(feed.size());
+        int submitted = 0;
+        
+        try {
+            // 提交所有DNS测试任务，提交间隙顺带取出已完成的结果；已提交的任务都处理完后再等待下一批服务器
+            do {
+                for (; submitted < feed.size(); submitted++) {
+                    InetSocketAddress address = feed.addresses.get(submitted);
+                    long queuedNanos = System.nanoTime();
+                    Semaphore serverPermits = context.permitsFor(address);
+                    if (serverPermits != null && !serverPermits.tryAcquire()) {
+                        waiting.computeIfAbsent(address, key -> new ArrayDeque<>())
+                            .add(new long[] {submitted, queuedNanos});
+                    } else {
+                        submit(completionService, pending, feed, submitted, sampling, context, permits, queuedNanos);
+                    }
+
+                    Future<DNSResult> done;
+                    while ((done = completionService.poll()) != null) {
+                        topK.offer(collect(done, completionService, pending, waiting, feed, sampling, context,
+                            permits, results, onResult));
+                    }
+                }
+                Future<DNSResult> done;
+                while ((done = completionService.poll()) != null) {
+                    topK.offer(collect(done, completionService, pending, waiting, feed, sampling, context,
+                        permits, results, onResult));
+                }
+            } while (feed.fill(TOP_K_POLL_NANOS) >= 0);
             
-            // 收集结果
-            List<DNSResult> results = new ArrayList<>();
-            for (int i = 0; i < futures.size(); i++) {
-                try {
-                    Future<DNSResult> future = futures.get(i);
-                    DNSResult result = future.get(TIMEOUT_MS + 1000, TimeUnit.MILLISECONDS);
-                    results.add(result);
-                } catch (TimeoutException e) {
-                    // 如果超时，创建一个超时结果
-                    String dnsServer = dnsServers.get(i);
-                    results.add(new DNSResult(dnsServer, "请求超时"));
-                } catch (Exception e) {
-                    String dnsServer = dnsServers.get(i);
-                    results.add(new DNSResult(dnsServer, "执行异常: " + e.getMessage()));
+            // 按完成顺序收集剩余结果，多轮采样时单个任务最长需要 查询数 * 超时时间
+            long waitNanos = context.timeouts.maxNanos() * sampling.getTotalQueries() + TimeUnit.SECONDS.toNanos(1);
+            long deadline = System.nanoTime() + waitNanos;
+            while (!pending.isEmpty()) {
+                long remaining = deadline - System.nanoTime();
+                Future<DNSResult> done = remaining <= 0 ? null : completionService.poll(
+                    topK.isEnabled() ? Math.min(remaining, TOP_K_POLL_NANOS) : remaining, TimeUnit.NANOSECONDS);
+                if (done != null) {
+                    topK.offer(collect(done, completionService, pending, waiting, feed, sampling, context,
+                        permits, results, onResult));
+                    deadline = System.nanoTime() + waitNanos;
+                    continue;
+                }
+                if (topK.isEnabled() && context.getProbesStarted() == dnsServers.size()
+                        && topK.canStop(System.nanoTime() - context.getLastProbeNanos() - TASK_START_SLACK_NANOS)) {
+                    cancelPending(pending, waiting, topK.cancelledMessage(), dnsServers, queries, results, onResult);
+                    break;
+                }
+                if (deadline - System.nanoTime() <= 0) {
+                    // 如果超时，剩余的任务全部记为超时
+                    cancelPending(pending, waiting, "请求超时", dnsServers, queries, results, onResult);
+                    break;
                 }
             }
             
@@ -122,7 +1041,18 @@ public class DNSSpeedTest {
             results.sort(DNSResult::compareTo);
             
             return results;
-            
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // 保留已收集（并已回调）的结果，只把未完成和未提交的服务器记为中断
+            cancelPending(pending, waiting, "测试被中断", dnsServers, queries, results, onResult);
+            for (int index = submitted; index < feed.size(); index++) {
+                DNSResult result = new DNSResult(dnsServers.get(index), "测试被中断").withQuery(queries.get(index));
+                results.add(result);
+                onResult.accept(result);
+            }
+            results.sort(DNSResult::compareTo);
+            return results;
         } finally {
             executor.shutdown();
             try {
@@ -135,19 +1065,154 @@ public class DNSSpeedTest {
             }
         }
     }
+
+    /**
+     * 提交一个查询任务，调用前已取得目标服务器的在途许可（不限制时无需许可）
+     * @param permits 限制同时执行的任务数，为null时不限制；在这里等待，任务结束时释放
+     */
+    private void submit(CompletionService<DNSResult> completionService, Map<Future<DNSResult>, Integer> pending,
+                        TargetFeed feed, int index, SamplingOptions sampling, ScanContext context,
+                        Semaphore permits, long queuedNanos) throws InterruptedException {
+        String dnsServer = feed.names.get(index);
+        InetSocketAddress address = feed.addresses.get(index);
+        DNSQuery query = feed.queries.get(index);
+        if (permits != null) {
+            permits.acquire();
+        }
+        Future<DNSResult> future = completionService.submit(() -> {
+            try {
+                return testSingleDNS(dnsServer, ServerAddress.resolve(address), query, sampling, context, queuedNanos);
+            } finally {
+                if (permits != null) {
+                    permits.release();
+                }
+            }
+        });
+        pending.put(future, index);
+    }
+
+    /**
+     * 取消所有未完成的任务和仍在等待在途许可的查询，以给定的错误信息记录结果
+     */
+    private static void cancelPending(Map<Future<DNSResult>, Integer> pending,
+                                      Map<InetSocketAddress, Deque<long[]>> waiting, String errorMessage, List<String> dnsServers, List<DNSQuery> queries,
+                                      List<DNSResult> results, Consumer<DNSResult> onResult) {
+        List<Integer> indexes = new ArrayList<>();
+        for (Map.Entry<Future<DNSResult>, Integer> entry : pending.entrySet()) {
+            entry.getKey().cancel(true);
+            indexes.add(entry.getValue());
+        }
+        for (Deque<long[]> queue : waiting.values()) {
+            for (long[] entry : queue) {
+                indexes.add((int) entry[0]);
+            }
+        }
+        for (int index : indexes) {
+            DNSResult result = new DNSResult(dnsServers.get(index), errorMessage)
+                .withQuery(queries.get(index));
+            results.add(result);
+            onResult.accept(result);
+        }
+        pending.clear();
+        waiting.clear();
+    }
+
+    /**
+     * 取出一个已完成任务的结果并回调，再把该服务器的在途许可交给它等待队列中的下一个查询，没有等待的查询时释放许可
+     * @return 已标注域名的结果
+     */
+    private DNSResult collect(Future<DNSResult> done, CompletionService<DNSResult> completionService,
+                              Map<Future<DNSResult>, Integer> pending, Map<InetSocketAddress, Deque<long[]>> waiting,
+                              TargetFeed feed, SamplingOptions sampling, ScanContext context, Semaphore permits,
+                              List<DNSResult> results, Consumer<DNSResult> onResult) throws InterruptedException {
+        int index = pending.get(done);
+        DNSResult result = collect(done, pending, feed.names, feed.queries, results, onResult);
+        InetSocketAddress address = feed.addresses.get(index);
+        Semaphore serverPermits = context.permitsFor(address);
+        if (serverPermits != null) {
+            Deque<long[]> queue = waiting.get(address);
+            long[] next = queue != null ? queue.peek() : null;
+            if (next != null) {
+                // 提交成功后才移出队列，等待并发许可时被中断的查询仍按未完成记录
+                submit(completionService, pending, feed, (int) next[0], sampling, context, permits, next[1]);
+                queue.poll();
+            } else {
+                serverPermits.release();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 取出一个已完成任务的结果并回调
+     * @return 已标注域名的结果
+     */
+    private static DNSResult collect(Future<DNSResult> done, Map<Future<DNSResult>, Integer> pending,
+                                List<String> dnsServers, List<DNSQuery> queries,
+                                List<DNSResult> results, Consumer<DNSResult> onResult) {
+        int index = pending.remove(done);
+        String dnsServer = dnsServers.get(index);
+        DNSResult result;
+        try {
+            result = done.get();
+        } catch (ExecutionException e) {
+            result = new DNSResult(dnsServer, "执行异常: " + e.getCause().getMessage());
+        } catch (Exception e) {
+            result = new DNSResult(dnsServer, "执行异常: " + e.getMessage());
+        }
+        result = result.withQuery(queries.get(index));
+        results.add(result);
+        onResult.accept(result);
+        return result;
+    }
+
+    /**
+     * 服务器名称转换为socket地址，IP字面量直接转换，主机名和无法识别的名称留待探测时解析
+     */
+    private static InetSocketAddress addressOf(String dnsServer) {
+        try {
+            return ServerAddress.parse(dnsServer).toSocketAddress();
+        } catch (IllegalArgumentException e) {
+            return InetSocketAddress.createUnresolved(dnsServer, DNS_PORT);
+        }
+    }
+
+    /**
+     * 通过反射创建每任务一个虚拟线程的执行器，保证在JDK 17上也能编译运行
+     * 原生可执行文件中不走反射，直接不使用虚拟线程模式
+     * @return 执行器，当前JDK不支持虚拟线程或运行在原生可执行文件中时返回null
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        if (NATIVE_IMAGE) {
+            return null;
+        }
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
     
     /**
      * 验证DNS服务器地址格式
-     * @param dnsServer DNS服务器地址
-     * @return 是否为有效的IP地址
+     * IP字面量只检查格式，主机名需要能够解析
+     * @param dnsServer DNS服务器地址，可带端口
+     * @return 是否为有效的DNS服务器地址
      */
     public boolean isValidDNSServer(String dnsServer) {
-        if (dnsServer == null || dnsServer.trim().isEmpty()) {
+        ServerAddress address;
+        try {
+            address = ServerAddress.parse(dnsServer);
+        } catch (IllegalArgumentException e) {
             return false;
         }
+        if (address.isLiteral()) {
+            return true;
+        }
         
         try {
-            InetAddress.getByName(dnsServer.trim());
+            InetAddress.getByName(address.getHost());
             return true;
         } catch (UnknownHostException e) {
             return false;
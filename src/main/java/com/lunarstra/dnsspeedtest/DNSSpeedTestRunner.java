@@ -1,14 +1,19 @@
 package com.lunarstra.dnsspeedtest;
 
+import io.quarkus.runtime.Quarkus;
 import io.quarkus.runtime.QuarkusApplication;
 import io.quarkus.runtime.annotations.QuarkusMain;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -18,6 +23,8 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * DNS测速工具命令行主类
@@ -34,23 +41,180 @@ public class DNSSpeedTestRunner implements Callable<Integer>, QuarkusApplication
     @Parameters(index = "0", description = "包含DNS服务器地址的文本文件路径（每行一个DNS地址），默认：dns.txt", defaultValue = "dns.txt")
     private String dnsFile = "dns.txt";
 
-    @Option(names = {"-d", "--domain"}, description = "要解析的域名（默认：www.baidu.com）")
-    private String domain = "www.baidu.com";
+    @Option(names = {"-d", "--domain"}, description = "要解析的域名，可多次指定（默认：www.baidu.com）")
+    private List<String> domains = new ArrayList<>();
+
+    @Option(names = {"--domain-file"}, description = "域名列表文件（每行一个域名），与 -d 合并")
+    private String domainFile;
+
+    @Option(names = {"--cache-bust"}, description = "在每次查询的域名前添加随机标签，测量不命中缓存时的递归解析时间")
+    private boolean cacheBusting;
+
+    @Option(names = {"--types"}, split = ",", paramLabel = "TYPE", description = "每个服务器并行发出的查询类型，逗号分隔：A、AAAA、SVCB、HTTPS；指定后同时报告各类型和合并后（取最慢）的响应时间，不指定时只查A记录")
+    private List<QueryType> types = new ArrayList<>();
 
     @Option(names = {"-o", "--output"}, description = "输出文件路径（默认：dns_speed_result_时间戳.txt）")
     private String outputFile;
 
+    @Option(names = {"-f", "--format"}, description = "结果文件格式：TEXT（服务器列表）、JSONL、CSV 或 BIN（定长二进制记录），默认：TEXT")
+    private OutputFormat format = OutputFormat.TEXT;
+
+    @Option(names = {"-m", "--mode"}, description = "探测模式：POOL（线程池）、VIRTUAL（虚拟线程，JDK 21+）或 NIO（单线程多路复用），默认取配置 dnsspeedtest.mode")
+    private ProbeMode mode;
+
+    @Option(names = {"-n", "--rounds"}, description = "每个DNS服务器计入统计的查询轮数（默认：1）")
+    private int rounds = 1;
+
+    @Option(names = {"-w", "--warmup"}, description = "每个DNS服务器的预热查询次数，结果不计入统计（默认：0）")
+    private int warmup = 0;
+
+    @Option(names = {"--rank-by"}, description = "多轮采样时的排序统计量：MIN、MEDIAN、P90、P99、MEAN（默认：MEDIAN）")
+    private RankingStatistic rankBy = RankingStatistic.MEDIAN;
+
+    @Option(names = {"-t", "--timeout"}, description = "单次查询的超时时间（毫秒），自适应超时时作为上限，默认取配置 dnsspeedtest.timeout.max-ms")
+    private Long timeoutMs;
+
+    @Option(names = {"--adaptive-timeout"}, description = "根据已观测响应时间的p95动态收紧超时，倍数和下限取配置 dnsspeedtest.timeout.*")
+    private boolean adaptiveTimeout;
+
+    @Option(names = {"--top"}, paramLabel = "K", description = "确认最快的K个服务器后取消其余查询（只在单轮测试时生效，默认：0，测试全部）")
+    private int topK = 0;
+
+    @Option(names = {"--qps"}, description = "全局每秒最多发出的查询数，0表示不限速，默认取配置 dnsspeedtest.pacing.qps")
+    private Double qps;
+
+    @Option(names = {"--max-per-server"}, paramLabel = "N", description = "每个DNS服务器同时在途的最大查询数，0表示不限制，默认取配置 dnsspeedtest.pacing.max-per-server")
+    private Integer maxPerServer;
+
+    @Option(names = {"--answer-check"}, description = "解析结果正确性检查：OFF（不检查）、FLAG（标注可疑结果）或 DEMOTE（可疑结果排在正常结果之后），默认取配置 dnsspeedtest.answer-check.mode")
+    private AnswerCheckMode answerCheck;
+
+    @Option(names = {"--nxdomain-check"}, description = "检查NXDOMAIN重定向：每个服务器额外查询一次不存在的域名；未指定 --answer-check 时按 FLAG 开启检查")
+    private boolean nxdomainCheck;
+
+    @Option(names = {"--reference"}, description = "应答可信的参考DNS服务器（须在DNS文件中），可多次指定；不指定时按多数服务器的应答判断")
+    private List<String> referenceServers;
+
+    @Option(names = {"--store"}, description = "历史结果存储文件，指定后每次测试结果都会合并保存（--incremental 时默认：dns_results.db）")
+    private String storeFile;
+
+    @Option(names = {"--incremental"}, description = "增量测试：只重新测试没有历史记录、记录已过期或响应时间波动过大的服务器，其余复用历史结果")
+    private boolean incremental;
+
+    @Option(names = {"--max-age"}, paramLabel = "MINUTES", description = "增量测试时历史记录的有效期（分钟，默认：60）")
+    private long maxAgeMinutes = 60;
+
+    @Option(names = {"--max-variation"}, description = "增量测试时允许的最大变异系数（标准差/平均值），超过时重新测试（默认：0.5）")
+    private double maxVariation = 0.5;
+
+    @Option(names = {"--phases"}, description = "测试结束后输出UDP查询各阶段（排队、准备、发送、等待响应、解析）的平均和最大耗时，用于调整并发参数")
+    private boolean phaseStats;
+
+    @Option(names = {"--serve"}, description = "服务模式：定时测试并通过HTTP提供结果，需以 -Dquarkus.profile=serve 启动以开启HTTP端口，HTTP没有开启时报错退出")
+    private boolean serve;
+
+    @Option(names = {"--watch"}, description = "监视模式：定时反复测试，按各服务器最近的响应时间检查p95、丢失率和突变，输出告警")
+    private boolean watch;
+
+    @Option(names = {"--interval"}, paramLabel = "SECONDS", description = "服务模式和监视模式下两轮测试之间的间隔（秒，默认：300）")
+    private long intervalSeconds = 300;
+
+    @Option(names = {"--coordinator"}, paramLabel = "PORT", description = "分布式测试的协调进程：在该TCP端口等待工作进程连接，把服务器列表分给各工作进程并合并结果")
+    private Integer coordinatorPort;
+
+    @Option(names = {"--workers"}, paramLabel = "N", description = "协调进程等待的工作进程数（默认：2）")
+    private int workers = 2;
+
+    @Option(names = {"--worker-timeout"}, paramLabel = "SECONDS", description = "协调进程等待工作进程连接、以及等待同一工作进程下一批数据的最长时间，超时的分片记为失败（秒，默认：300）")
+    private long workerTimeoutSeconds = 300;
+
+    @Option(names = {"--worker"}, paramLabel = "HOST:PORT", description = "分布式测试的工作进程：连接协调进程，测试分到的服务器并送回结果；域名和测试参数由协调进程下发")
+    private String coordinatorAddress;
+
+    @Inject
+    ProbeScheduler probeScheduler;
+
+    @ConfigProperty(name = "quarkus.http.host", defaultValue = "0.0.0.0")
+    String httpHost;
+
+    @ConfigProperty(name = "quarkus.http.port", defaultValue = "-1")
+    int httpPort;
+
+    private static final String DEFAULT_STORE_FILE = "dns_results.db";
+    private static final String VERDICT_FILE_SUFFIX = ".verdicts.csv";
+
     @Override
     public int run(String... args) throws Exception {
-        return new CommandLine(this).execute(args);
+        return new CommandLine(this).setCaseInsensitiveEnumValuesAllowed(true).execute(args);
     }
 
     @Override
     public Integer call() throws Exception {
         try {
+            if (coordinatorAddress != null) {
+                return runWorker();
+            }
+            if (mode == null) {
+                mode = dnsSpeedTest.getDefaultMode();
+            }
+            if (qps == null) {
+                qps = dnsSpeedTest.getDefaultQps();
+            }
+            if (maxPerServer == null) {
+                maxPerServer = dnsSpeedTest.getDefaultMaxPerServer();
+            }
+            if (answerCheck == null) {
+                AnswerCheckMode configured = dnsSpeedTest.getDefaultAnswerCheck();
+                answerCheck = nxdomainCheck && configured == AnswerCheckMode.OFF ? AnswerCheckMode.FLAG : configured;
+            }
+            if (referenceServers == null) {
+                referenceServers = dnsSpeedTest.getDefaultReferenceServers();
+            }
+
+            if (domainFile != null) {
+                Path domainFilePath = Paths.get(domainFile);
+                if (!Files.exists(domainFilePath)) {
+                    System.err.println("错误：域名文件不存在: " + domainFile);
+                    return 1;
+                }
+                domains.addAll(readLines(domainFilePath));
+            }
+            if (domains.isEmpty()) {
+                domains.add("www.baidu.com");
+            }
+
             System.out.println("=== DNS测速工具 ===");
             System.out.println("DNS文件: " + dnsFile);
-            System.out.println("目标域名: " + domain);
+            System.out.println("目标域名: " + String.join(", ", domains));
+            if (cacheBusting) {
+                System.out.println("缓存穿透: 每次查询添加随机前缀标签");
+            }
+            if (!types.isEmpty()) {
+                List<String> typeNames = new ArrayList<>();
+                for (QueryType type : new ScanOptions().types(types).getTypes()) {
+                    typeNames.add(type.name());
+                }
+                System.out.println("查询类型: " + String.join(", ", typeNames) + "（并行发出，合并后的响应时间取最慢的一个）");
+            }
+            System.out.println("探测模式: " + mode);
+            SamplingOptions sampling = new SamplingOptions(rounds, warmup, rankBy);
+            if (!sampling.isSingle()) {
+                System.out.printf("采样: 每个服务器 %d 轮（预热 %d 次），按 %s 排序%n", rounds, warmup, rankBy);
+            }
+            TimeoutPolicy timeout = resolveTimeout();
+            System.out.println("超时: " + timeout);
+            System.out.printf("发送节奏: 全局 %s，每个服务器最多 %s 个在途查询%n", new RateLimiter(qps),
+                maxPerServer > 0 ? String.valueOf(maxPerServer) : "不限");
+            if (answerCheck != AnswerCheckMode.OFF) {
+                System.out.println("解析结果检查: " + answerCheck + (referenceServers.isEmpty()
+                    ? "，按多数服务器的应答判断" : "，参考服务器 " + String.join(", ", referenceServers))
+                    + (nxdomainCheck ? "，检查NXDOMAIN重定向" : ""));
+            }
+            if (topK > 0) {
+                System.out.println(sampling.isSingle()
+                    ? "提前结束: 确认最快的 " + topK + " 个结果后取消其余查询"
+                    : "提前结束: 多轮采样时不生效，测试全部服务器");
+            }
             
             // 检查DNS文件是否存在
             Path dnsFilePath = Paths.get(dnsFile);
@@ -58,38 +222,36 @@ public class DNSSpeedTestRunner implements Callable<Integer>, QuarkusApplication
                 System.err.println("错误：DNS文件不存在: " + dnsFile);
                 return 1;
             }
-
-            // 读取DNS服务器列表
-            List<String> dnsServers = readDNSServers(dnsFilePath);
-            if (dnsServers.isEmpty()) {
-                System.err.println("错误：DNS文件为空或没有有效的DNS服务器地址");
+            if (serve && !httpListening()) {
+                System.err.println("错误：服务模式需要HTTP端口，但HTTP服务没有在监听（quarkus.http.port=" + httpPort
+                    + "），请以 -Dquarkus.profile=serve 启动或用 -Dquarkus.http.port 指定端口");
                 return 1;
             }
 
-            System.out.println("找到 " + dnsServers.size() + " 个DNS服务器");
-            System.out.println("开始测试...\n");
-
-            // 执行DNS测速
-            List<DNSResult> results = dnsSpeedTest.testMultipleDNS(dnsServers, domain);
-
-            // 显示结果
-            System.out.println("=== 测试结果 ===");
-            for (int i = 0; i < results.size(); i++) {
-                DNSResult result = results.get(i);
-                System.out.printf("%2d. %s%n", i + 1, result.toString());
+            // 服务模式、监视模式、增量测试和分布式测试需要先读完整个服务器列表，其余情况边读边测
+            List<String> dnsServers = null;
+            if (serve || watch || incremental || coordinatorPort != null) {
+                dnsServers = readDNSServers(dnsFilePath);
+                if (dnsServers.isEmpty()) {
+                    System.err.println("错误：DNS文件为空或没有有效的DNS服务器地址");
+                    return 1;
+                }
+                System.out.println("找到 " + dnsServers.size() + " 个DNS服务器");
             }
 
-            // 生成输出文件名
-            if (outputFile == null) {
-                String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-                outputFile = "dns_speed_result_" + timestamp + ".txt";
+            if (serve) {
+                return serve(dnsServers, sampling, timeout);
+            }
+            if (watch) {
+                return watch(dnsServers, sampling, timeout);
             }
 
-            // 写入结果文件
-            writeResults(results, outputFile);
-            System.out.println("\n结果已保存到文件: " + outputFile);
-
-            return 0;
+            if (storeFile == null && incremental) {
+                storeFile = DEFAULT_STORE_FILE;
+            }
+            try (ResultStore store = storeFile != null ? ResultStore.open(Paths.get(storeFile)) : null) {
+                return runTests(dnsFilePath, dnsServers, sampling, timeout, store);
+            }
             
         } catch (Exception e) {
             System.err.println("发生错误: " + e.getMessage());
@@ -99,67 +261,424 @@ public class DNSSpeedTestRunner implements Callable<Integer>, QuarkusApplication
     }
 
     /**
-     * 从文件中读取DNS服务器列表（使用UTF-8编码）
+     * 分布式测试的工作进程：完成协调进程分来的测试后退出，结果由协调进程汇总和保存
      */
-    private List<String> readDNSServers(Path filePath) throws IOException {
-        List<String> dnsServers = new ArrayList<>();
-        
-        try (BufferedReader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8)) {
-            String line;
-            int lineNumber = 0;
-            
-            while ((line = reader.readLine()) != null) {
-                lineNumber++;
-                line = line.trim();
-                
-                // 跳过空行和注释行
-                if (line.isEmpty() || line.startsWith("#") || line.startsWith("//")) {
-                    continue;
-                }
-                
-                // 验证DNS服务器地址
-                if (dnsSpeedTest.isValidDNSServer(line)) {
-                    dnsServers.add(line);
-                } else {
-                    System.out.printf("警告：第%d行包含无效的DNS地址: %s%n", lineNumber, line);
-                }
-            }
+    private int runWorker() throws IOException {
+        int colon = coordinatorAddress.lastIndexOf(':');
+        int port;
+        try {
+            port = colon > 0 ? Integer.parseInt(coordinatorAddress.substring(colon + 1)) : -1;
+        } catch (NumberFormatException e) {
+            port = -1;
         }
-        
-        return dnsServers;
+        if (port <= 0 || port > 65535) {
+            System.err.println("错误：协调进程地址格式应为 主机:端口，实际为: " + coordinatorAddress);
+            return 1;
+        }
+        String host = coordinatorAddress.substring(0, colon);
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        System.out.println("=== DNS测速工具（工作进程） ===");
+        System.out.println("协调进程: " + coordinatorAddress);
+        int[] completed = {0};
+        List<DNSResult> results = new ScanWorker(dnsSpeedTest).run(host, port,
+            result -> System.out.printf("[%d] [%s] %s%n", ++completed[0], result.getDomain(), result));
+        System.out.println("\n本分片共 " + results.size() + " 个结果，已送回协调进程");
+        return 0;
     }
 
     /**
-     * 将结果写入文件（使用UTF-8编码）
+     * 服务模式：后台定时测试，阻塞直到进程收到退出信号
      */
-    private void writeResults(List<DNSResult> results, String fileName) throws IOException {
-        try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8))) {
-            // 写入文件头信息
-            writer.println("# DNS测速结果 - 生成时间: " + 
-                          LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
-            writer.println("# 目标域名: " + domain);
-            writer.println("# 按响应时间升序排序");
-            writer.println();
-            
-            // 写入DNS服务器列表（按响应时间排序）
+    private int serve(List<String> dnsServers, SamplingOptions sampling, TimeoutPolicy timeout) {
+        if (intervalSeconds <= 0) {
+            System.err.println("错误：测试间隔必须为正数");
+            return 1;
+        }
+        probeScheduler.start(dnsServers, domains, scanOptions(sampling, timeout), intervalSeconds);
+        System.out.printf("服务模式: 每 %d 秒测试一次，接口 /ranking、/resolver/{ip}、/alerts、/metrics%n", intervalSeconds);
+        Quarkus.waitForExit();
+        return 0;
+    }
+
+    /**
+     * 默认配置关闭了HTTP端口，只加 --serve 时会一直测试却没有接口可访问；
+     * 这里检查端口已开启，并且（端口固定时）确实能连上，否则服务模式直接报错退出
+     */
+    private boolean httpListening() {
+        if (httpPort < 0) {
+            return false;
+        }
+        if (httpPort == 0) {
+            // 随机端口无法从配置得知实际端口，只要求端口已开启
+            return true;
+        }
+        InetSocketAddress bound = new InetSocketAddress(httpHost, httpPort);
+        InetSocketAddress target = bound.getAddress() != null && bound.getAddress().isAnyLocalAddress()
+            ? new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort) : bound;
+        try (Socket socket = new Socket()) {
+            socket.connect(target, 1000);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 监视模式：后台定时测试，每轮结束后输出概况和告警的变化，阻塞直到进程收到退出信号
+     */
+    private int watch(List<String> dnsServers, SamplingOptions sampling, TimeoutPolicy timeout) {
+        if (intervalSeconds <= 0) {
+            System.err.println("错误：测试间隔必须为正数");
+            return 1;
+        }
+        int[] rounds = {0};
+        DateTimeFormatter time = DateTimeFormatter.ofPattern("HH:mm:ss");
+        probeScheduler.start(dnsServers, domains, scanOptions(sampling, timeout), intervalSeconds, alerts -> {
+            List<DNSResult> results = probeScheduler.getSnapshot().getResults();
+            int succeeded = 0;
             for (DNSResult result : results) {
                 if (result.isSuccess()) {
-                    writer.println(result.toFileFormat());
+                    succeeded++;
                 }
             }
-            
-            // 如果有失败的DNS，追加到文件末尾
-            boolean hasFailures = false;
+            System.out.printf("[%s] 第 %d 轮：成功 %d/%d，未解除的告警 %d 个%n", LocalDateTime.now().format(time),
+                ++rounds[0], succeeded, results.size(), probeScheduler.getActiveAlerts().size());
+            for (WatchAlert alert : alerts) {
+                System.out.println("  " + alert);
+            }
+        });
+        System.out.printf("监视模式: 每 %d 秒测试一次，按ctrl+c退出%n", intervalSeconds);
+        Quarkus.waitForExit();
+        return 0;
+    }
+
+    /**
+     * 由命令行参数得到测试参数
+     */
+    private ScanOptions scanOptions(SamplingOptions sampling, TimeoutPolicy timeout) {
+        return new ScanOptions()
+            .mode(mode)
+            .sampling(sampling)
+            .cacheBusting(cacheBusting)
+            .types(types)
+            .timeout(timeout)
+            .topK(topK)
+            .qps(qps)
+            .maxPerServer(maxPerServer)
+            .answerCheck(answerCheck)
+            .nxdomainCheck(nxdomainCheck ? Boolean.TRUE : null)
+            .referenceServers(referenceServers);
+    }
+
+    /**
+     * 执行测试并输出结果
+     * @param dnsFilePath DNS服务器列表文件，dnsServers为null时边读取边测试
+     * @param dnsServers 已读取的DNS服务器列表，为null时从文件流式读取
+     * @param store 历史结果存储，为null时不读写历史
+     */
+    private int runTests(Path dnsFilePath, List<String> dnsServers, SamplingOptions sampling, TimeoutPolicy timeout,
+                         ResultStore store) throws IOException {
+        // 增量测试：只要某个域名的记录需要更新，就重新测试该服务器的全部域名
+        List<String> toProbe = dnsServers;
+        List<DNSResult> reused = new ArrayList<>();
+        if (store != null && incremental && dnsServers != null) {
+            long now = System.currentTimeMillis();
+            long maxAgeMillis = TimeUnit.MINUTES.toMillis(maxAgeMinutes);
+            toProbe = new ArrayList<>();
+            for (String dnsServer : dnsServers) {
+                boolean stale = false;
+                for (String domain : domains) {
+                    stale |= store.isStale(dnsServer, domain, now, maxAgeMillis, maxVariation);
+                }
+                if (stale) {
+                    toProbe.add(dnsServer);
+                } else {
+                    for (String domain : domains) {
+                        reused.add(store.get(dnsServer, domain).toResult());
+                    }
+                }
+            }
+            System.out.printf("增量测试: %d 个服务器需要重新测试，复用 %d 个服务器的历史结果%n",
+                toProbe.size(), dnsServers.size() - toProbe.size());
+        }
+
+        // 生成输出文件名
+        if (outputFile == null) {
+            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+            outputFile = "dns_speed_result_" + timestamp + format.getExtension();
+        }
+
+        System.out.println("开始测试...\n");
+
+        List<DNSResult> results;
+        // 文本格式写出服务器列表，其余格式逐条写出结果的全部字段
+        boolean text = format == OutputFormat.TEXT;
+        try (PrintWriter writer = text ? new PrintWriter(new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8)) : null;
+             ResultWriter records = text ? null : ResultWriter.open(Paths.get(outputFile), format)) {
+            if (writer != null) {
+                writeHeader(writer);
+            }
+
+            // 执行DNS测速，每完成一个就实时输出并追加到文件；流式读取时总数未知
+            boolean multiDomain = domains.size() > 1;
+            int total = toProbe != null ? toProbe.size() * domains.size() : 0;
+            int[] completed = {0};
+            ScanOptions options = scanOptions(sampling, timeout);
+            Consumer<DNSResult> onResult = result -> {
+                completed[0]++;
+                String line = multiDomain ? "[" + result.getDomain() + "] " + result.toString() : result.toString();
+                if (total > 0) {
+                    System.out.printf("[%d/%d] %s%n", completed[0], total, line);
+                } else {
+                    System.out.printf("[%d] %s%n", completed[0], line);
+                }
+                if (writer != null) {
+                    writer.println("# " + line);
+                    writer.flush();
+                } else {
+                    try {
+                        records.write(result);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+            ProbeCounters.Snapshot before = dnsSpeedTest.getCounters().snapshot();
+            ProbePhases.Snapshot phasesBefore = dnsSpeedTest.getPhases().snapshot();
+            ProbeCounters.Snapshot traffic = null;
+            if (coordinatorPort != null) {
+                if (workers < 1) {
+                    System.err.println("错误：工作进程数必须大于0");
+                    return 1;
+                }
+                if (workerTimeoutSeconds <= 0) {
+                    System.err.println("错误：工作进程超时必须为正数");
+                    return 1;
+                }
+                try (ScanCoordinator coordinator = new ScanCoordinator(coordinatorPort,
+                        TimeUnit.SECONDS.toMillis(workerTimeoutSeconds))) {
+                    System.out.printf("分布式测试: 在端口 %d 等待 %d 个工作进程连接（--worker 主机:%d）%n",
+                        coordinator.getPort(), workers, coordinator.getPort());
+                    // 各工作进程只看到自己的分片，解析结果在合并后统一检查
+                    results = dnsSpeedTest.checkAnswers(
+                        coordinator.run(workers, toProbe, domains, options, onResult), options);
+                    traffic = coordinator.getTraffic();
+                }
+            } else if (toProbe != null) {
+                results = dnsSpeedTest.testMatrix(toProbe, domains, options, onResult);
+            } else {
+                try (DNSServerSource source = openServerSource(dnsFilePath)) {
+                    results = dnsSpeedTest.testMatrix(source, domains, options, onResult);
+                }
+                if (results.isEmpty()) {
+                    System.err.println("错误：DNS文件为空或没有有效的DNS服务器地址");
+                    return 1;
+                }
+                System.out.println("\n共测试 " + results.size() / domains.size() + " 个DNS服务器");
+            }
+            int suspects = 0;
             for (DNSResult result : results) {
-                if (!result.isSuccess()) {
-                    if (!hasFailures) {
-                        writer.println();
-                        writer.println("# 以下DNS服务器测试失败:");
-                        hasFailures = true;
+                if (result.getAnswerVerdict().isSuspect()) {
+                    suspects++;
+                }
+            }
+            // 解析结果的判定在全部完成后才有，流式写出的记录中判定为UNCHECKED，判定另外写入旁路文件
+            if (records != null && answerCheck != AnswerCheckMode.OFF) {
+                Path verdictFile = Paths.get(outputFile + VERDICT_FILE_SUFFIX);
+                TextResultWriter.writeVerdicts(verdictFile, results);
+                System.out.println("\n解析结果检查的判定已保存到: " + verdictFile);
+            }
+            if (suspects > 0) {
+                System.out.printf("%n警告：%d 个结果的解析地址可疑（与多数服务器不一致或劫持不存在的域名），已在结果中标注%n", suspects);
+            }
+            if (coordinatorPort == null) {
+                traffic = dnsSpeedTest.getCounters().snapshot().minus(before);
+            }
+            if (traffic != null) {
+                System.out.println("\n收发统计" + (coordinatorPort != null ? "（全部工作进程）" : "") + ": " + traffic);
+            }
+            if (phaseStats && coordinatorPort == null) {
+                System.out.println("阶段耗时: " + dnsSpeedTest.getPhases().snapshot().minus(phasesBefore));
+            }
+            if (traffic != null && traffic.isLocalBottleneck()) {
+                System.out.println("警告：测速主机自身出现丢包或发送受阻，慢速结果可能来自本机瓶颈，建议降低 --qps 或 --max-per-server");
+            }
+
+            if (store != null) {
+                store.record(results, System.currentTimeMillis());
+            }
+            if (!reused.isEmpty()) {
+                if (records != null) {
+                    for (DNSResult result : reused) {
+                        records.write(result);
+                    }
+                }
+                results = new ArrayList<>(results);
+                results.addAll(reused);
+                results.sort(DNSResult::compareTo);
+            }
+
+            if (multiDomain) {
+                // 按域名分组显示
+                for (String domain : domains) {
+                    System.out.println("\n=== 测试结果: " + domain + " ===");
+                    int rank = 0;
+                    for (DNSResult result : results) {
+                        if (domain.equals(result.getDomain())) {
+                            System.out.printf("%2d. %s%n", ++rank, result.toString());
+                        }
                     }
-                    writer.println("# " + result.toFileFormat() + " - " + result.getErrorMessage());
                 }
+
+                // 综合得分
+                List<ServerScore> scores = ServerScore.aggregate(results);
+                System.out.println("\n=== 综合排名 ===");
+                for (int i = 0; i < scores.size(); i++) {
+                    System.out.printf("%2d. %s%n", i + 1, scores.get(i).toString());
+                }
+                if (writer != null) {
+                    writeScores(scores, writer);
+                }
+            } else {
+                // 显示结果
+                System.out.println("\n=== 测试结果 ===");
+                for (int i = 0; i < results.size(); i++) {
+                    DNSResult result = results.get(i);
+                    System.out.printf("%2d. %s%n", i + 1, result.toString());
+                }
+
+                // 写入排序后的汇总
+                if (writer != null) {
+                    writeResults(results, writer);
+                }
+            }
+        }
+        System.out.println("\n结果已保存到文件: " + outputFile);
+        if (store != null) {
+            System.out.println("历史结果已更新: " + storeFile);
+        }
+
+        return 0;
+    }
+
+    /**
+     * 合并命令行参数与配置得到超时策略
+     */
+    private TimeoutPolicy resolveTimeout() {
+        TimeoutPolicy defaults = dnsSpeedTest.getDefaultTimeout();
+        long maxMs = timeoutMs != null ? timeoutMs : defaults.getMaxMs();
+        if (adaptiveTimeout || defaults.isAdaptive()) {
+            return TimeoutPolicy.adaptive(maxMs, defaults.getMultiplier(), defaults.getMinMs());
+        }
+        return TimeoutPolicy.fixed(maxMs);
+    }
+
+    /**
+     * 从文件中读取全部DNS服务器（使用UTF-8编码）
+     * IP字面量直接校验格式，主机名并行解析，无效或无法解析的行输出警告后跳过
+     */
+    List<String> readDNSServers(Path filePath) throws IOException {
+        List<String> dnsServers = new ArrayList<>();
+        try (DNSServerSource source = openServerSource(filePath)) {
+            for (DNSServerSource.Server server : source.readAll()) {
+                dnsServers.add(server.getName());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("读取DNS服务器列表被中断");
+        }
+        return dnsServers;
+    }
+
+    /**
+     * 打开DNS服务器列表文件（使用UTF-8编码），警告直接输出到控制台
+     */
+    private DNSServerSource openServerSource(Path filePath) throws IOException {
+        return dnsSpeedTest.openServerSource(Files.newBufferedReader(filePath, StandardCharsets.UTF_8),
+            System.out::println);
+    }
+
+    /**
+     * 写入文件头信息，实时结果随后按完成顺序以注释形式追加
+     */
+    private void writeHeader(PrintWriter writer) {
+        writer.println("# DNS测速结果 - 生成时间: " + 
+                      LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+        writer.println("# 目标域名: " + String.join(", ", domains));
+        writer.println();
+        writer.println("# 以下为按完成顺序实时记录的结果");
+        writer.flush();
+    }
+
+    /**
+     * 将排序后的汇总结果追加到文件
+     */
+    void writeResults(List<DNSResult> results, PrintWriter writer) {
+        writer.println();
+        writer.println("# 按响应时间升序排序");
+        
+        // 写入DNS服务器列表（按响应时间排序）
+        for (DNSResult result : results) {
+            if (result.isSuccess()) {
+                if (result.getAnswerVerdict().isSuspect()) {
+                    writer.println("# 可疑: " + result.getAnswerVerdict().getWarning());
+                }
+                writer.println(result.toFileFormat());
+            }
+        }
+        
+        // 如果有失败的DNS，追加到文件末尾
+        boolean hasFailures = false;
+        for (DNSResult result : results) {
+            if (!result.isSuccess()) {
+                if (!hasFailures) {
+                    writer.println();
+                    writer.println("# 以下DNS服务器测试失败:");
+                    hasFailures = true;
+                }
+                writer.println("# " + result.toFileFormat() + " - " + result.getErrorMessage());
+            }
+        }
+    }
+
+    /**
+     * 将多域名测试的综合排名追加到文件
+     */
+    private void writeScores(List<ServerScore> scores, PrintWriter writer) {
+        writer.println();
+        writer.println("# 按综合得分排序（成功域名数优先，其次为平均响应时间）");
+        for (ServerScore score : scores) {
+            if (score.isSuccess()) {
+                writer.println(score.getDnsServer());
+            }
+        }
+
+        boolean hasFailures = false;
+        for (ServerScore score : scores) {
+            if (!score.isSuccess()) {
+                if (!hasFailures) {
+                    writer.println();
+                    writer.println("# 以下DNS服务器测试失败:");
+                    hasFailures = true;
+                }
+                writer.println("# " + score.getDnsServer() + " - " + score.getFirstError());
+            }
+        }
+    }
+
+    /**
+     * 读取文本文件中的非空、非注释行（使用UTF-8编码）
+     */
+    private List<String> readLines(Path filePath) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(filePath, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#") && !line.startsWith("//")) {
+                lines.add(line);
             }
         }
+        return lines;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,45 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.util.Locale;
+
+/**
+ * DNS查询的传输方式，在服务器地址前以 协议:// 指定，不指定时为UDP
+ */
+public enum DNSTransport {
+    /** 明文UDP，默认端口53 */
+    UDP("udp", 53),
+    /** DNS over TLS（RFC 7858），默认端口853 */
+    TLS("tls", 853),
+    /** DNS over HTTPS（RFC 8484），默认端口443 */
+    HTTPS("https", 443);
+
+    private final String scheme;
+    private final int defaultPort;
+
+    DNSTransport(String scheme, int defaultPort) {
+        this.scheme = scheme;
+        this.defaultPort = defaultPort;
+    }
+
+    public String getScheme() {
+        return scheme;
+    }
+
+    public int getDefaultPort() {
+        return defaultPort;
+    }
+
+    /**
+     * 按协议名查找传输方式，不区分大小写
+     * @throws IllegalArgumentException 不支持的协议时抛出
+     */
+    public static DNSTransport ofScheme(String scheme) {
+        String lower = scheme.toLowerCase(Locale.ROOT);
+        for (DNSTransport transport : values()) {
+            if (transport.scheme.equals(lower)) {
+                return transport;
+            }
+        }
+        throw new IllegalArgumentException("不支持的协议: " + scheme);
+    }
+}
@@ -0,0 +1,120 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.util.Arrays;
+
+/**
+ * 单个DNS服务器多轮采样的统计结果
+ * 采样值直接存放在原始long数组中，统计完成后只保留汇总值
+ * 所有时间值的单位为纳秒
+ */
+public final class LatencyStats {
+
+    private final int samples;
+    private final int attempts;
+    private final long min;
+    private final long max;
+    private final long median;
+    private final long p90;
+    private final long p99;
+    private final double mean;
+    private final double stddev;
+
+    LatencyStats(int samples, int attempts, long min, long max, long median, long p90, long p99,
+                         double mean, double stddev) {
+        this.samples = samples;
+        this.attempts = attempts;
+        this.min = min;
+        this.max = max;
+        this.median = median;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.mean = mean;
+        this.stddev = stddev;
+    }
+
+    /**
+     * 根据采样值计算统计结果，会就地排序values的[from, from + count)区间
+     * @param values 采样值数组
+     * @param from 起始下标
+     * @param count 成功的采样数
+     * @param attempts 发出的请求数（不含预热），用于计算丢包率
+     * @return 统计结果
+     */
+    public static LatencyStats of(long[] values, int from, int count, int attempts) {
+        if (count == 0) {
+            return new LatencyStats(0, attempts, 0, 0, 0, 0, 0, 0, 0);
+        }
+        int to = from + count;
+        Arrays.sort(values, from, to);
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += values[i];
+        }
+        double mean = sum / count;
+        double squares = 0;
+        for (int i = from; i < to; i++) {
+            double diff = values[i] - mean;
+            squares += diff * diff;
+        }
+        return new LatencyStats(count, attempts, values[from], values[to - 1],
+            percentile(values, from, count, 50), percentile(values, from, count, 90),
+            percentile(values, from, count, 99), mean, Math.sqrt(squares / count));
+    }
+
+    /**
+     * 最近秩法求百分位数，要求区间已排序
+     */
+    private static long percentile(long[] sorted, int from, int count, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * count);
+        return sorted[from + Math.max(0, rank - 1)];
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getMedian() {
+        return median;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getStddev() {
+        return stddev;
+    }
+
+    /**
+     * 丢包率（失败请求占比），范围0到1
+     */
+    public double getLossRate() {
+        return attempts == 0 ? 0 : (double) (attempts - samples) / attempts;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("min %.3f / p50 %.3f / p90 %.3f / p99 %.3f / avg %.3f±%.3f ms, 丢包 %.0f%%",
+            min / 1e6, median / 1e6, p90 / 1e6, p99 / 1e6, mean / 1e6, stddev / 1e6, getLossRate() * 100);
+    }
+}
@@ -0,0 +1,148 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 持续测试时按服务器保存最近的响应时间并检查告警
+ * 每个服务器一个固定大小的滑动窗口（{@link LatencyWindow}），内存占用为 服务器数 × 窗口大小 × 16字节，与运行时长无关。
+ * 每轮测试后检查三项指标：窗口内的p95、丢失率，以及最近几次的中位数相对窗口内更早样本的中位数是否突然升高；
+ * 指标越过界限时产生告警，回到界限内时产生解除记录，持续越界期间不重复告警
+ * 线程安全
+ */
+public final class LatencyWatch {
+
+    // 突变检查要求的最小升高量，避免亚毫秒级的服务器因为微小抖动告警
+    private static final long SHIFT_MIN_DELTA_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final int window;
+    private final int minSamples;
+    private final long p95ThresholdNanos;
+    private final double lossThreshold;
+    private final double shiftFactor;
+    private final int shiftSamples;
+
+    // 按服务器地址排序，告警输出稳定
+    private final Map<String, Series> series = new TreeMap<>();
+    private final long[] scratch;
+
+    /**
+     * @param window 每个服务器保存的样本数
+     * @param minSamples 样本数达到该值后才检查告警
+     * @param p95ThresholdMs p95响应时间的阈值（毫秒）
+     * @param lossThreshold 丢失率的阈值（0~1）
+     * @param shiftFactor 最近中位数超过基线中位数的该倍数时视为突变
+     * @param shiftSamples 突变检查中“最近”的样本数，其余样本作为基线
+     */
+    public LatencyWatch(int window, int minSamples, long p95ThresholdMs, double lossThreshold, double shiftFactor,
+                        int shiftSamples) {
+        if (window < 2 || shiftSamples < 1 || shiftSamples >= window) {
+            throw new IllegalArgumentException("窗口大小必须大于突变检查的样本数");
+        }
+        this.window = window;
+        this.minSamples = Math.max(1, Math.min(minSamples, window));
+        this.p95ThresholdNanos = TimeUnit.MILLISECONDS.toNanos(p95ThresholdMs);
+        this.lossThreshold = lossThreshold;
+        this.shiftFactor = shiftFactor;
+        this.shiftSamples = shiftSamples;
+        this.scratch = new long[window];
+    }
+
+    /**
+     * 记录一个测试结果，被提前取消的查询没有测量值，不计入
+     */
+    public synchronized void record(DNSResult result) {
+        if (TopKTracker.isCancelled(result)) {
+            return;
+        }
+        series.computeIfAbsent(result.getDnsServer(), server -> new Series(window))
+            .window.add(result.isSuccess() ? result.getResponseTimeNanos() : LatencyWindow.LOST);
+    }
+
+    /**
+     * 检查全部服务器，每轮测试结束后调用
+     * @param nowMillis 当前时间
+     * @return 本次新产生和解除的告警，按服务器地址排序
+     */
+    public synchronized List<WatchAlert> evaluate(long nowMillis) {
+        List<WatchAlert> changes = new ArrayList<>();
+        for (Map.Entry<String, Series> entry : series.entrySet()) {
+            Series s = entry.getValue();
+            LatencyWindow samples = s.window;
+            if (samples.size() < minSamples) {
+                continue;
+            }
+            long p95 = samples.percentile(95);
+            update(entry.getKey(), s, WatchAlert.Kind.P95, p95 != LatencyWindow.LOST && p95 > p95ThresholdNanos,
+                p95 / 1e6, p95ThresholdNanos / 1e6, nowMillis, changes);
+
+            double loss = samples.getLossRate();
+            update(entry.getKey(), s, WatchAlert.Kind.LOSS, loss > lossThreshold, loss, lossThreshold, nowMillis,
+                changes);
+
+            long recent = samples.median(0, shiftSamples, scratch);
+            long baseline = samples.median(shiftSamples, samples.size() - shiftSamples, scratch);
+            boolean shifted = recent != LatencyWindow.LOST && baseline != LatencyWindow.LOST
+                && recent > baseline * shiftFactor && recent - baseline >= SHIFT_MIN_DELTA_NANOS;
+            update(entry.getKey(), s, WatchAlert.Kind.SHIFT, shifted, recent / 1e6,
+                baseline != LatencyWindow.LOST ? baseline * shiftFactor / 1e6 : 0, nowMillis, changes);
+        }
+        return changes;
+    }
+
+    /**
+     * 更新一项指标的告警状态，状态变化时记入changes
+     */
+    private static void update(String dnsServer, Series s, WatchAlert.Kind kind, boolean exceeded, double value,
+                               double limit, long nowMillis, List<WatchAlert> changes) {
+        WatchAlert previous = s.active[kind.ordinal()];
+        if (exceeded) {
+            WatchAlert alert = new WatchAlert(dnsServer, kind, true, value, limit,
+                previous != null ? previous.getAtMillis() : nowMillis);
+            s.active[kind.ordinal()] = alert;
+            if (previous == null) {
+                changes.add(alert);
+            }
+        } else if (previous != null) {
+            s.active[kind.ordinal()] = null;
+            changes.add(new WatchAlert(dnsServer, kind, false, value, limit, nowMillis));
+        }
+    }
+
+    /**
+     * @return 当前仍未解除的告警，按服务器地址排序；告警时间为首次越界的时间，数值为最近一次检查的值
+     */
+    public synchronized List<WatchAlert> getActiveAlerts() {
+        List<WatchAlert> alerts = new ArrayList<>();
+        for (Series s : series.values()) {
+            for (WatchAlert alert : s.active) {
+                if (alert != null) {
+                    alerts.add(alert);
+                }
+            }
+        }
+        return alerts;
+    }
+
+    /**
+     * @return 正在跟踪的服务器数
+     */
+    public synchronized int getResolvers() {
+        return series.size();
+    }
+
+    /**
+     * 单个服务器的滑动窗口和各项指标当前的告警
+     */
+    private static final class Series {
+        final LatencyWindow window;
+        final WatchAlert[] active = new WatchAlert[WatchAlert.Kind.values().length];
+
+        Series(int window) {
+            this.window = new LatencyWindow(window);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.util.Arrays;
+
+/**
+ * 单个服务器最近若干次查询的滑动窗口，内存大小固定，与运行时长无关
+ * 环形数组按到达顺序保存响应时间（丢失的查询记为 {@link #LOST}），另一个数组保存窗口内成功查询的有序副本；
+ * 新样本挤掉最旧的样本时只在有序副本中删除、插入各一个元素，百分位数随时可以直接读取
+ * 非线程安全
+ */
+final class LatencyWindow {
+
+    /** 丢失（失败或超时）的查询 */
+    static final long LOST = -1;
+
+    private final long[] ring;
+    private final long[] sorted;
+    private int next;
+    private int size;
+    private int successes;
+
+    /**
+     * @param capacity 窗口保存的样本数
+     */
+    LatencyWindow(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("窗口大小必须大于0");
+        }
+        this.ring = new long[capacity];
+        this.sorted = new long[capacity];
+    }
+
+    /**
+     * 加入一个样本，窗口已满时挤掉最旧的样本
+     * @param nanos 响应时间（纳秒），丢失的查询传入 {@link #LOST}
+     */
+    void add(long nanos) {
+        if (size == ring.length) {
+            long evicted = ring[next];
+            if (evicted != LOST) {
+                int index = Arrays.binarySearch(sorted, 0, successes, evicted);
+                System.arraycopy(sorted, index + 1, sorted, index, successes - index - 1);
+                successes--;
+            }
+        } else {
+            size++;
+        }
+        ring[next] = nanos < 0 ? LOST : nanos;
+        next = next + 1 == ring.length ? 0 : next + 1;
+        if (nanos >= 0) {
+            int index = Arrays.binarySearch(sorted, 0, successes, nanos);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            System.arraycopy(sorted, index, sorted, index + 1, successes - index);
+            sorted[index] = nanos;
+            successes++;
+        }
+    }
+
+    /**
+     * @return 窗口内的样本数
+     */
+    int size() {
+        return size;
+    }
+
+    int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * @return 窗口内丢失的比例，没有样本时为0
+     */
+    double getLossRate() {
+        return size == 0 ? 0 : (double) (size - successes) / size;
+    }
+
+    /**
+     * 按最近秩法求窗口内成功查询的百分位数
+     * @return 响应时间（纳秒），窗口内没有成功的查询时返回 {@link #LOST}
+     */
+    long percentile(int percent) {
+        if (successes == 0) {
+            return LOST;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * successes);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * 求一段连续样本中成功查询的中位数，从最新的样本往前数
+     * @param skip 跳过最新的样本数
+     * @param count 参与计算的样本数（含丢失的）
+     * @param scratch 临时数组，长度不小于窗口大小，避免每次计算分配
+     * @return 中位数（纳秒），这段样本中没有成功的查询时返回 {@link #LOST}
+     */
+    long median(int skip, int count, long[] scratch) {
+        int end = Math.min(size, skip + count);
+        int n = 0;
+        for (int i = skip; i < end; i++) {
+            long value = ring[Math.floorMod(next - 1 - i, ring.length)];
+            if (value != LOST) {
+                scratch[n++] = value;
+            }
+        }
+        if (n == 0) {
+            return LOST;
+        }
+        Arrays.sort(scratch, 0, n);
+        return scratch[(n - 1) / 2];
+    }
+}
@@ -0,0 +1,678 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 单线程多路复用DNS探测器
+ * 所有查询从少量非阻塞DatagramChannel发出，注册在同一个Selector上，
+ * 响应通过事务ID和源地址匹配回对应的请求，超时由时间轮跟踪。
+ * 线程数恒定，内存只随在途请求数增长。
+ * 每个请求的超时在发出时按超时策略确定；启用前K名时，全部请求发出后，
+ * 一旦最后发出的请求已等待的时间也超过第K名的响应时间，其余在途请求直接取消。
+ * 带 tls:// 或 https:// 的服务器交给加密客户端异步查询，完成后唤醒Selector，同样计入在途上限。
+ * 响应带有截断标志（TC）时，同一查询交给阻塞线程池用TCP重新发出，同样经完成队列交回并计入在途上限。
+ * 发送受全局令牌桶限速；同一服务器的在途请求达到上限时，其余请求暂存到该服务器的等待队列，
+ * 有请求完成时再放回发送队列。
+ * 所有查询在同一线程中发出，没有线程池排队，各阶段耗时中的排队时间为0
+ */
+public class MultiplexedDNSProber {
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int WHEEL_SLOTS = 1024;
+    private static final int RECEIVE_BUFFER_BYTES = 1 << 20;
+
+    private final int channelCount;
+    private final int maxInFlight;
+    private final TimeoutPolicy timeout;
+    private final int topK;
+
+    /**
+     * @param channelCount 使用的UDP通道数量
+     * @param maxInFlight 同时在途的最大请求数
+     * @param timeoutMs 单个请求的超时时间（毫秒）
+     */
+    public MultiplexedDNSProber(int channelCount, int maxInFlight, long timeoutMs) {
+        this(channelCount, maxInFlight, TimeoutPolicy.fixed(timeoutMs), 0);
+    }
+
+    /**
+     * @param channelCount 使用的UDP通道数量
+     * @param maxInFlight 同时在途的最大请求数
+     * @param timeout 超时策略
+     * @param topK 确认最快的K个服务器后取消其余请求，0表示不启用；只在单轮查询时生效
+     */
+    public MultiplexedDNSProber(int channelCount, int maxInFlight, TimeoutPolicy timeout, int topK) {
+        if (channelCount <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("探测器参数必须为正数");
+        }
+        this.channelCount = channelCount;
+        this.maxInFlight = maxInFlight;
+        this.timeout = timeout;
+        this.topK = topK;
+    }
+
+    /**
+     * 探测所有DNS服务器
+     * @param dnsServers DNS服务器列表
+     * @param domain 要解析的域名
+     * @return 与输入顺序一致的测试结果
+     */
+    public List<DNSResult> probe(List<String> dnsServers, String domain) throws IOException {
+        return probe(dnsServers, domain, SamplingOptions.SINGLE, result -> { });
+    }
+
+    /**
+     * 探测所有DNS服务器，每个服务器的全部采样完成后立即回调
+     * @param dnsServers DNS服务器列表
+     * @param domain 要解析的域名
+     * @param sampling 多轮采样参数
+     * @param onResult 结果回调，按完成顺序在调用线程中依次执行
+     * @return 与输入顺序一致的测试结果
+     */
+    public List<DNSResult> probe(List<String> dnsServers, String domain, SamplingOptions sampling,
+                                 Consumer<DNSResult> onResult) throws IOException {
+        return probe(dnsServers, Collections.nCopies(dnsServers.size(), new DNSQuery(domain)), sampling, onResult);
+    }
+
+    /**
+     * 探测DNS服务器与查询的组合，dnsServers与queries一一对应，同一服务器可以出现多次
+     * @param dnsServers DNS服务器列表，可带端口
+     * @throws IllegalArgumentException 服务器地址格式非法时抛出
+     * @param queries 每个服务器要发出的查询
+     * @param sampling 多轮采样参数
+     * @param onResult 结果回调，按完成顺序在调用线程中依次执行
+     * @return 与输入顺序一致的测试结果，已标注域名
+     */
+    public List<DNSResult> probe(List<String> dnsServers, List<DNSQuery> queries, SamplingOptions sampling,
+                                 Consumer<DNSResult> onResult) throws IOException {
+        List<InetSocketAddress> addresses = new ArrayList<>(dnsServers.size());
+        for (String dnsServer : dnsServers) {
+            addresses.add(ServerAddress.resolve(ServerAddress.parse(dnsServer).toSocketAddress()));
+        }
+        return probe(dnsServers, addresses, queries, sampling, onResult);
+    }
+
+    /**
+     * 探测指定地址的DNS服务器
+     * 同一服务器的多轮查询依次进行（上一轮完成后才发下一轮），不同服务器之间并发
+     * @param dnsServers 结果中显示的DNS服务器名称
+     * @param addresses 与名称一一对应的socket地址
+     * @param domain 要解析的域名
+     * @param sampling 多轮采样参数
+     * @param onResult 结果回调，按完成顺序在调用线程中依次执行
+     * @return 与输入顺序一致的测试结果
+     */
+    List<DNSResult> probe(List<String> dnsServers, List<InetSocketAddress> addresses, String domain,
+                          SamplingOptions sampling, Consumer<DNSResult> onResult) throws IOException {
+        return probe(dnsServers, addresses, Collections.nCopies(dnsServers.size(), new DNSQuery(domain)),
+            sampling, onResult);
+    }
+
+    List<DNSResult> probe(List<String> dnsServers, List<InetSocketAddress> addresses,
+                          List<DNSQuery> queries, SamplingOptions sampling,
+                          Consumer<DNSResult> onResult) throws IOException {
+        return probe(TargetFeed.of(dnsServers, addresses, queries), sampling, onResult);
+    }
+
+    /**
+     * 探测目标序列中的全部组合，流式目标在探测过程中逐批加入发送队列
+     * @param feed 目标序列，地址应已解析
+     * @param sampling 多轮采样参数
+     * @param onResult 结果回调，按完成顺序在调用线程中依次执行
+     * @return 与目标顺序一致的测试结果，已标注域名
+     */
+    List<DNSResult> probe(TargetFeed feed, SamplingOptions sampling, Consumer<DNSResult> onResult) throws IOException {
+        ExecutorService fallbacks = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "dns-tcp-fallback");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (SecureDNSClient secure = new SecureDNSClient(null, timeout.getMaxMs())) {
+            return probe(feed, sampling, onResult,
+                new ScanContext(new AdaptiveTimeout(timeout), secure, new RateLimiter(0), 0, new ProbeCounters(),
+                    new ProbePhases()), fallbacks);
+        } finally {
+            fallbacks.shutdownNow();
+        }
+    }
+
+    /**
+     * @param context 本次测试共享的超时估计、加密客户端（由调用方关闭）、限速和计数
+     * @param blocking 执行TCP回退等阻塞操作的线程池，由调用方关闭
+     */
+    List<DNSResult> probe(TargetFeed feed, SamplingOptions sampling, Consumer<DNSResult> onResult,
+                          ScanContext context, Executor blocking) throws IOException {
+        if (feed.isExhausted() && feed.size() == 0) {
+            return new ArrayList<>();
+        }
+        Scan scan = new Scan(feed, sampling, onResult, context, blocking);
+        // 流式读取时目标总数未知，直接使用全部通道
+        int channelsNeeded = feed.isExhausted() ? Math.min(channelCount, feed.size()) : channelCount;
+        DatagramChannel[] channels = new DatagramChannel[channelsNeeded];
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < channels.length; i++) {
+                channels[i] = DatagramChannel.open();
+                channels[i].setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_BYTES);
+                channels[i].configureBlocking(false);
+                channels[i].register(selector, SelectionKey.OP_READ);
+            }
+            scan.run(selector, channels);
+        } finally {
+            for (DatagramChannel channel : channels) {
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        // 忽略关闭异常
+                    }
+                }
+            }
+        }
+        return Arrays.asList(Arrays.copyOf(scan.results, feed.size()));
+    }
+
+    /**
+     * 一次探测过程的全部状态
+     * 每个服务器的采样值存放在一个扁平的long数组中，下标为 服务器序号 * 轮数 + 采样序号；
+     * 流式目标加入时各数组按需扩容
+     */
+    private final class Scan {
+        final TargetFeed feed;
+        final List<String> dnsServers;
+        final List<InetSocketAddress> addresses;
+        final List<DNSQuery> queries;
+        final SamplingOptions sampling;
+        final Consumer<DNSResult> onResult;
+        final ByteBuffer response = ByteBuffer.allocate(DNSMessage.MAX_UDP_SIZE);
+        // 每次发送前把查询报文直接编码进来，不为每个查询分配数组
+        final ByteBuffer request = ByteBuffer.allocateDirect(DNSMessage.MAX_UDP_SIZE);
+        final Map<PendingKey, Probe> pending = new HashMap<>();
+        final TimerWheel<Probe> wheel = new TimerWheel<>(TICK_NANOS, WHEEL_SLOTS, System.nanoTime());
+        // 可以发送下一次查询的服务器序号
+        final ArrayDeque<Integer> ready = new ArrayDeque<>();
+        final AdaptiveTimeout timeouts;
+        final TopKTracker fastest;
+        final SecureDNSClient secure;
+        final RateLimiter limiter;
+        final int maxPerServer;
+        final ProbeCounters counters;
+        final ProbePhases phases;
+        final Executor blocking;
+        // 每个服务器的在途请求数，以及因达到上限而暂存的服务器序号
+        final Map<InetSocketAddress, int[]> serverInFlight = new HashMap<>();
+        final Map<InetSocketAddress, ArrayDeque<Integer>> parked = new HashMap<>();
+        int parkedCount;
+        // 加密查询由客户端的线程完成，TCP回退由阻塞线程池完成，结果都经这个队列交回探测线程
+        final Queue<AsyncSample> asyncDone = new ConcurrentLinkedQueue<>();
+        final Set<Probe> asyncInFlight = new HashSet<>();
+        Selector selector;
+
+        DNSResult[] results;
+        int[] sent;
+        int[] received;
+        long[] samples;
+        // 每个服务器第一次成功的采样，解析结果取自它
+        DNSResult[] firstSuccess;
+        String[] lastErrors;
+        // 每个服务器已观测到的最大响应时间，用于收紧后续轮次的超时
+        long[] worstNanos;
+        // 加密传输建立连接的时间
+        long[] connectNanos;
+        int completed;
+        long lastSendNanos;
+
+        Scan(TargetFeed feed, SamplingOptions sampling, Consumer<DNSResult> onResult, ScanContext context,
+             Executor blocking) {
+            int capacity = Math.max(feed.size(), 16);
+            this.feed = feed;
+            this.dnsServers = feed.names;
+            this.addresses = feed.addresses;
+            this.queries = feed.queries;
+            this.sampling = sampling;
+            this.onResult = onResult;
+            this.results = new DNSResult[capacity];
+            this.sent = new int[capacity];
+            this.received = new int[capacity];
+            this.samples = new long[capacity * sampling.getRounds()];
+            this.firstSuccess = new DNSResult[capacity];
+            this.lastErrors = new String[capacity];
+            this.worstNanos = new long[capacity];
+            this.connectNanos = new long[capacity];
+            this.timeouts = context.timeouts;
+            this.secure = context.secure;
+            this.limiter = context.limiter;
+            this.maxPerServer = context.maxPerServer;
+            this.counters = context.counters;
+            this.phases = context.phases;
+            this.blocking = blocking;
+            this.fastest = new TopKTracker(sampling.isSingle() ? topK : 0);
+            admit(0);
+        }
+
+        /**
+         * 把从from开始的新目标加入发送队列
+         */
+        private void admit(int from) {
+            int total = feed.size();
+            if (total > results.length) {
+                int capacity = Math.max(total, results.length * 2);
+                results = Arrays.copyOf(results, capacity);
+                sent = Arrays.copyOf(sent, capacity);
+                received = Arrays.copyOf(received, capacity);
+                samples = Arrays.copyOf(samples, capacity * sampling.getRounds());
+                firstSuccess = Arrays.copyOf(firstSuccess, capacity);
+                lastErrors = Arrays.copyOf(lastErrors, capacity);
+                worstNanos = Arrays.copyOf(worstNanos, capacity);
+                connectNanos = Arrays.copyOf(connectNanos, capacity);
+            }
+            for (int i = from; i < total; i++) {
+                ready.add(i);
+            }
+        }
+
+        void run(Selector selector, DatagramChannel[] channels) throws IOException {
+            this.selector = selector;
+            while (!feed.isExhausted() || completed < feed.size()) {
+                // 取出已读到的新目标，无事可做时才等待下一批
+                if (!feed.isExhausted()) {
+                    int before = feed.size();
+                    boolean idle = ready.isEmpty() && inFlight() == 0;
+                    if (feed.fill(idle ? TICK_NANOS : 0) > 0) {
+                        admit(before);
+                    }
+                }
+
+                // 发送阶段：在在途上限内尽量多发，发送缓冲区满或令牌用完时留到下一轮
+                boolean sendBlocked = false;
+                boolean rateLimited = false;
+                while (!ready.isEmpty() && inFlight() < maxInFlight && !sendBlocked) {
+                    int index = ready.peek();
+                    InetSocketAddress address = addresses.get(index);
+                    boolean secureProbe = SecureDNSClient.isSecure(dnsServers.get(index));
+                    if (!secureProbe && address.isUnresolved()) {
+                        ready.poll();
+                        complete(index, new DNSResult(dnsServers.get(index), "无法解析DNS服务器地址"));
+                        continue;
+                    }
+                    if (isServerBusy(address)) {
+                        ready.poll();
+                        parked.computeIfAbsent(address, key -> new ArrayDeque<>()).add(index);
+                        parkedCount++;
+                        continue;
+                    }
+                    if (!limiter.tryAcquire(System.nanoTime())) {
+                        rateLimited = true;
+                        break;
+                    }
+                    if (secureProbe) {
+                        ready.poll();
+                        sendSecure(index, address);
+                        continue;
+                    }
+                    Probe probe = new Probe(index, sent[index], address, channels[index % channels.length]);
+                    probe.startNanos = System.nanoTime();
+                    probe.id = allocateId(pending, address);
+                    queries.get(index).encodeInto(request, probe.id);
+                    try {
+                        probe.sendNanos = System.nanoTime();
+                        if (probe.channel.send(request, address) == 0) {
+                            counters.onSendBufferFull();
+                            sendBlocked = true;
+                            continue;
+                        }
+                    } catch (IOException e) {
+                        counters.onSendError();
+                        ready.poll();
+                        complete(index, new DNSResult(dnsServers.get(index), "发送失败: " + e.getMessage()));
+                        continue;
+                    }
+                    probe.sentNanos = System.nanoTime();
+                    counters.onSent();
+                    ready.poll();
+                    sent[index]++;
+                    lastSendNanos = probe.sendNanos;
+                    serverInFlight.computeIfAbsent(address, key -> new int[1])[0]++;
+                    pending.put(new PendingKey(probe.id, address), probe);
+                    wheel.schedule(probe, probe.sendNanos + timeouts.timeoutNanos(worstNanos[index]));
+                }
+
+                // 等待阶段：受限速时等到下一个令牌可用，发送被阻塞或还有待发请求时只短暂等待
+                long now = System.nanoTime();
+                if (rateLimited) {
+                    long tokenMillis = TimeUnit.NANOSECONDS.toMillis(limiter.nanosUntilAvailable(now) + 999_999);
+                    selector.select(Math.max(1, Math.min(tokenMillis, wheel.millisUntilNextTick(now))));
+                } else if (sendBlocked || inFlight() == 0 || (!ready.isEmpty() && inFlight() < maxInFlight)) {
+                    selector.selectNow();
+                } else {
+                    selector.select(wheel.millisUntilNextTick(now));
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    DatagramChannel channel = (DatagramChannel) keys.next().channel();
+                    keys.remove();
+                    receiveAll(channel);
+                }
+                AsyncSample done;
+                while ((done = asyncDone.poll()) != null) {
+                    if (asyncInFlight.remove(done.probe)) {
+                        if (done.tcp) {
+                            record(done.probe, done.result, done.receivedNanos);
+                        } else {
+                            counters.onResult(done.result);
+                        }
+                        onSample(done.probe, done.result);
+                    }
+                }
+
+                // 超时处理
+                wheel.advance(System.nanoTime(), probe -> {
+                    if (!probe.done) {
+                        probe.done = true;
+                        pending.remove(new PendingKey(probe.id, probe.address));
+                        counters.onTimeout();
+                        long timeoutNanos = System.nanoTime();
+                        DNSResult timedOut = new DNSResult(dnsServers.get(probe.index), "请求超时");
+                        record(probe, timedOut, timeoutNanos);
+                        onSample(probe, timedOut);
+                    }
+                });
+
+                // 最后发出的请求都已不可能进入前K名时，其余在途请求同样不可能
+                if (fastest.isEnabled() && feed.isExhausted() && ready.isEmpty() && parkedCount == 0 && inFlight() > 0
+                        && fastest.canStop(System.nanoTime() - lastSendNanos)) {
+                    cancelPending();
+                }
+            }
+        }
+
+        private int inFlight() {
+            return pending.size() + asyncInFlight.size();
+        }
+
+        /**
+         * @return 该服务器的在途请求是否已达到上限
+         */
+        private boolean isServerBusy(InetSocketAddress address) {
+            if (maxPerServer <= 0) {
+                return false;
+            }
+            int[] count = serverInFlight.get(address);
+            return count != null && count[0] >= maxPerServer;
+        }
+
+        /**
+         * 该服务器的一个请求已结束，放回一个暂存的服务器序号
+         */
+        private void releaseServer(InetSocketAddress address) {
+            int[] count = serverInFlight.get(address);
+            if (count != null && --count[0] == 0) {
+                serverInFlight.remove(address);
+            }
+            ArrayDeque<Integer> waiting = parked.get(address);
+            if (waiting != null) {
+                ready.add(waiting.poll());
+                parkedCount--;
+                if (waiting.isEmpty()) {
+                    parked.remove(address);
+                }
+            }
+        }
+
+        /**
+         * 通过加密客户端发出一次查询，超时由客户端处理
+         */
+        private void sendSecure(int index, InetSocketAddress address) {
+            Probe probe = new Probe(index, sent[index], address, null);
+            probe.sendNanos = System.nanoTime();
+            sent[index]++;
+            lastSendNanos = probe.sendNanos;
+            counters.onSent();
+            serverInFlight.computeIfAbsent(address, key -> new int[1])[0]++;
+            asyncInFlight.add(probe);
+            secure.query(dnsServers.get(index), address, queries.get(index), timeouts.timeoutNanos(worstNanos[index]))
+                .thenAccept(result -> {
+                    asyncDone.add(new AsyncSample(probe, result, false, 0));
+                    selector.wakeup();
+                });
+        }
+
+        /**
+         * UDP响应被截断，按RFC 7766在阻塞线程池中新建TCP连接重新发出同一查询（缓存穿透模式下随机标签重新生成），
+         * 截止时间沿用这次UDP查询的超时，响应时间从UDP发送算到TCP响应收到为止
+         */
+        private void sendTcp(Probe probe) {
+            String dnsServer = dnsServers.get(probe.index);
+            DNSQuery query = queries.get(probe.index);
+            long deadline = probe.sendNanos + timeouts.timeoutNanos(worstNanos[probe.index]);
+            ByteBuffer tcpRequest = ByteBuffer.allocate(query.encodedLength());
+            query.encodeInto(tcpRequest, probe.id);
+            asyncInFlight.add(probe);
+            blocking.execute(() -> {
+                ByteBuffer tcpResponse = ByteBuffer.allocate(DNSMessage.MAX_TCP_SIZE);
+                DNSResult result;
+                long receivedNanos;
+                try {
+                    receivedNanos = ProbeContext.exchangeTcp(probe.address, tcpRequest, tcpResponse, deadline);
+                    if (tcpResponse.limit() < DNSMessage.HEADER_SIZE || DNSMessage.getId(tcpResponse) != probe.id) {
+                        result = new DNSResult(dnsServer, "TCP回退失败: TCP响应的事务ID不匹配");
+                    } else {
+                        result = DNSSpeedTest.toResult(dnsServer, query, tcpResponse, receivedNanos - probe.sendNanos)
+                            .withTcpFallback();
+                    }
+                } catch (SocketTimeoutException e) {
+                    receivedNanos = System.nanoTime();
+                    result = new DNSResult(dnsServer, "请求超时");
+                } catch (IOException e) {
+                    receivedNanos = System.nanoTime();
+                    result = new DNSResult(dnsServer, "TCP回退失败: " + e.getMessage());
+                }
+                asyncDone.add(new AsyncSample(probe, result, true, receivedNanos));
+                selector.wakeup();
+            });
+        }
+
+        private void cancelPending() {
+            for (Probe probe : pending.values()) {
+                probe.done = true;
+                complete(probe.index, new DNSResult(dnsServers.get(probe.index), fastest.cancelledMessage()));
+            }
+            pending.clear();
+            for (Probe probe : asyncInFlight) {
+                complete(probe.index, new DNSResult(dnsServers.get(probe.index), fastest.cancelledMessage()));
+            }
+            asyncInFlight.clear();
+        }
+
+        private void receiveAll(DatagramChannel channel) throws IOException {
+            while (true) {
+                response.clear();
+                SocketAddress source = channel.receive(response);
+                if (source == null) {
+                    return;
+                }
+                long receiveNanos = System.nanoTime();
+                response.flip();
+                if (response.remaining() < DNSMessage.HEADER_SIZE) {
+                    continue;
+                }
+                Probe probe = pending.remove(new PendingKey(DNSMessage.getId(response), source));
+                if (probe == null) {
+                    continue; // 迟到、重复或伪造的响应
+                }
+                probe.done = true;
+                counters.onReceived();
+                if (DNSMessage.isTruncated(response)) {
+                    sendTcp(probe);
+                    continue;
+                }
+                DNSResult sample = DNSSpeedTest.toResult(dnsServers.get(probe.index), queries.get(probe.index),
+                    response, receiveNanos - probe.sendNanos);
+                record(probe, sample, receiveNanos);
+                onSample(probe, sample);
+            }
+        }
+
+        /**
+         * 记录一次UDP查询的各阶段耗时，结果已经生成
+         * @param receivedNanos 收到响应或判定超时的时间
+         */
+        private void record(Probe probe, DNSResult sample, long receivedNanos) {
+            phases.record(dnsServers.get(probe.index), queries.get(probe.index), sample, probe.startNanos,
+                probe.startNanos, probe.sendNanos, probe.sentNanos, receivedNanos, System.nanoTime());
+        }
+
+        /**
+         * 记录一次查询的结果，采样未完成时把服务器放回发送队列
+         */
+        private void onSample(Probe probe, DNSResult sample) {
+            releaseServer(probe.address);
+            int index = probe.index;
+            connectNanos[index] = Math.max(connectNanos[index], sample.getConnectNanos());
+            if (sample.isSuccess()) {
+                timeouts.record(sample.getResponseTimeNanos());
+                worstNanos[index] = Math.max(worstNanos[index], sample.getResponseTimeNanos());
+            }
+            if (sampling.isSingle()) {
+                complete(index, sample);
+                return;
+            }
+            if (probe.round >= sampling.getWarmup()) {
+                if (sample.isSuccess()) {
+                    samples[index * sampling.getRounds() + received[index]++] = sample.getResponseTimeNanos();
+                    if (firstSuccess[index] == null) {
+                        firstSuccess[index] = sample;
+                    }
+                } else {
+                    lastErrors[index] = sample.getErrorMessage();
+                }
+            }
+            if (sent[index] < sampling.getTotalQueries()) {
+                ready.add(index);
+            } else {
+                complete(index, DNSSpeedTest.toSampledResult(dnsServers.get(index), samples,
+                    index * sampling.getRounds(), received[index], sampling, firstSuccess[index], lastErrors[index])
+                    .withConnectNanos(connectNanos[index]));
+            }
+        }
+
+        private void complete(int index, DNSResult result) {
+            result = result.withQuery(queries.get(index));
+            results[index] = result;
+            completed++;
+            fastest.offer(result);
+            onResult.accept(result);
+        }
+    }
+
+    /**
+     * 为目标地址分配一个当前未被占用的事务ID
+     */
+    private static int allocateId(Map<PendingKey, Probe> pending, InetSocketAddress address) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            int id = random.nextInt(0x10000);
+            if (!pending.containsKey(new PendingKey(id, address))) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * 一个在途请求
+     */
+    private static final class Probe {
+        final int index;
+        final int round;
+        final InetSocketAddress address;
+        final DatagramChannel channel;
+        int id;
+        // 取得发送令牌、开始发送和发送完成的时间
+        long startNanos;
+        long sendNanos;
+        long sentNanos;
+        boolean done;
+
+        Probe(int index, int round, InetSocketAddress address, DatagramChannel channel) {
+            this.index = index;
+            this.round = round;
+            this.address = address;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * 一次在其它线程中完成的查询：加密查询或TCP回退
+     */
+    private static final class AsyncSample {
+        final Probe probe;
+        final DNSResult result;
+        final boolean tcp;
+        // TCP回退收到响应或失败的时间，用于记录各阶段耗时
+        final long receivedNanos;
+
+        AsyncSample(Probe probe, DNSResult result, boolean tcp, long receivedNanos) {
+            this.probe = probe;
+            this.result = result;
+            this.tcp = tcp;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+
+    /**
+     * 响应匹配键：事务ID + 源地址
+     */
+    private static final class PendingKey {
+        final int id;
+        final SocketAddress address;
+
+        PendingKey(int id, SocketAddress address) {
+            this.id = id;
+            this.address = address;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PendingKey)) {
+                return false;
+            }
+            PendingKey other = (PendingKey) o;
+            return id == other.id && address.equals(other.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, address);
+        }
+    }
+}
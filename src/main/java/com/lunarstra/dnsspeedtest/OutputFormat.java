@@ -0,0 +1,28 @@
+package com.lunarstra.dnsspeedtest;
+
+/**
+ * 结果文件的格式
+ */
+public enum OutputFormat {
+    /** 文本：实时结果以注释记录，结束时写入按响应时间排序的服务器列表，可直接作为DNS文件再次测试 */
+    TEXT(".txt"),
+    /** JSON Lines：每行一个JSON对象，包含结果的全部字段 */
+    JSONL(".jsonl"),
+    /** CSV（RFC 4180），首行为列名 */
+    CSV(".csv"),
+    /** 定长二进制记录，可以内存映射后按偏移直接读取，格式见 {@link BinaryResultWriter} */
+    BIN(".bin");
+
+    private final String extension;
+
+    OutputFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @return 默认文件名使用的扩展名（含点号）
+     */
+    public String getExtension() {
+        return extension;
+    }
+}
@@ -0,0 +1,323 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可复用的UDP查询上下文：一个阻塞模式的通道和预先分配的收发缓冲区
+ * 连续查询同一服务器时不重新连接；查询报文直接编码进缓冲区，收到的报文只检查报文头。
+ * 等待响应使用socket的读超时而不是Selector（JDK的Selector按fd查找就绪的通道时会装箱fd），
+ * 预热后一次查询的收发不分配任何对象，不依赖Integer缓存的大小。
+ * 响应带有截断标志（TC）时按RFC 7766改用TCP重新查询，响应时间从UDP发送算到TCP响应收到为止
+ * 非线程安全，同一时刻只能由一个线程使用，用完归还给 {@link Pool}
+ */
+final class ProbeContext implements Closeable {
+
+    /** {@link #exchange} 在超时前没有收到匹配的响应 */
+    static final long TIMED_OUT = -1;
+
+    /** UDP响应被截断，改用TCP重新查询时失败，原因由 {@link #getFallbackError()} 给出 */
+    static final long FALLBACK_FAILED = -2;
+
+    private final DatagramChannel channel;
+    private final DatagramSocket socket;
+    private final ByteBuffer request = ByteBuffer.allocateDirect(DNSMessage.MAX_UDP_SIZE);
+    // 响应经socket接收到数组中，缓冲区包装同一数组
+    private final byte[] responseBytes = new byte[DNSMessage.MAX_UDP_SIZE];
+    private final DatagramPacket responsePacket = new DatagramPacket(responseBytes, responseBytes.length);
+    private final ByteBuffer response = ByteBuffer.wrap(responseBytes);
+    // TCP回退的响应，第一次回退时才分配
+    private ByteBuffer tcpResponse;
+    private ByteBuffer lastResponse = response;
+    private boolean lastFallback;
+    private String fallbackError;
+    private InetSocketAddress connected;
+    private long lastNanos;
+    // 上一次查询各阶段的时间点，见 getSendNanos() 等
+    private long sendNanos;
+    private long sentNanos;
+    private long receivedNanos;
+
+    ProbeContext() throws IOException {
+        channel = DatagramChannel.open();
+        socket = channel.socket();
+    }
+
+    /**
+     * 发出一次查询并等待事务ID匹配的响应，迟到或伪造的报文被忽略
+     * 只统计发送到收到匹配响应之间的时间，连接和报文的准备不计入
+     * @param address 服务器地址，与上一次不同时重新连接
+     * @param query 要发出的查询
+     * @param timeoutNanos 超时时间（纳秒）
+     * @param counters 收发计数
+     * @return 响应时间（纳秒），超时返回 {@link #TIMED_OUT}，TCP回退失败返回 {@link #FALLBACK_FAILED}；
+     *         收到的报文由 {@link #response()} 给出
+     * @throws IOException 发送或接收失败时抛出，例如 {@link java.net.PortUnreachableException}
+     */
+    long exchange(InetSocketAddress address, DNSQuery query, long timeoutNanos, ProbeCounters counters)
+        throws IOException {
+        if (!address.equals(connected)) {
+            if (channel.isConnected()) {
+                channel.disconnect();
+            }
+            connected = null;
+            channel.connect(address);
+            connected = address;
+        }
+        int id = ThreadLocalRandom.current().nextInt(0x10000);
+        query.encodeInto(request, id);
+
+        // 使用单调时钟，开始时间紧贴发送、结束时间紧贴接收
+        long startNanos = System.nanoTime();
+        long deadline = startNanos + timeoutNanos;
+        sendNanos = startNanos;
+        try {
+            channel.write(request);
+        } catch (IOException e) {
+            counters.onSendError();
+            throw e;
+        }
+        sentNanos = System.nanoTime();
+        counters.onSent();
+
+        while (true) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                receivedNanos = System.nanoTime();
+                counters.onTimeout();
+                return TIMED_OUT;
+            }
+            socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, remaining));
+            responsePacket.setData(responseBytes, 0, responseBytes.length);
+            try {
+                socket.receive(responsePacket);
+            } catch (SocketTimeoutException e) {
+                continue;
+            }
+            long endNanos = System.nanoTime();
+            response.clear().limit(responsePacket.getLength());
+            if (response.remaining() >= DNSMessage.HEADER_SIZE && DNSMessage.getId(response) == id) {
+                receivedNanos = endNanos;
+                counters.onReceived();
+                lastResponse = response;
+                lastFallback = false;
+                if (DNSMessage.isTruncated(response)) {
+                    return exchangeTcp(address, id, startNanos, deadline);
+                }
+                lastNanos = endNanos - startNanos;
+                return lastNanos;
+            }
+        }
+    }
+
+    /**
+     * 用TCP重新发出同一查询，使用UDP查询剩余的超时时间
+     * @param startNanos UDP查询的发送时间
+     * @return 从UDP发送到收到TCP响应的时间（纳秒），超时返回 {@link #TIMED_OUT}，其它失败返回 {@link #FALLBACK_FAILED}
+     */
+    private long exchangeTcp(InetSocketAddress address, int id, long startNanos, long deadline) {
+        if (tcpResponse == null) {
+            tcpResponse = ByteBuffer.allocate(DNSMessage.MAX_TCP_SIZE);
+        }
+        long endNanos;
+        try {
+            endNanos = exchangeTcp(address, request, tcpResponse, deadline);
+        } catch (SocketTimeoutException e) {
+            receivedNanos = System.nanoTime();
+            return TIMED_OUT;
+        } catch (IOException e) {
+            receivedNanos = System.nanoTime();
+            fallbackError = e.getMessage();
+            return FALLBACK_FAILED;
+        }
+        receivedNanos = endNanos;
+        if (tcpResponse.limit() < DNSMessage.HEADER_SIZE || DNSMessage.getId(tcpResponse) != id) {
+            fallbackError = "TCP响应的事务ID不匹配";
+            return FALLBACK_FAILED;
+        }
+        lastResponse = tcpResponse;
+        lastFallback = true;
+        lastNanos = endNanos - startNanos;
+        return lastNanos;
+    }
+
+    /**
+     * 用TCP发出一个查询报文（2字节长度前缀）并读取响应
+     * 每次新建连接，与解析器真实的回退过程一致，建立连接的时间计入响应时间；不检查事务ID
+     * @param request 从0到limit为查询报文
+     * @param response 接收响应的堆缓冲区，容量至少为 {@link DNSMessage#MAX_TCP_SIZE}，返回时从0到limit为响应报文
+     * @param deadline 截止时间（{@link System#nanoTime()}）
+     * @return 收到完整响应的时间（关闭连接之前）
+     * @throws SocketTimeoutException 截止时间前没有完成
+     */
+    static long exchangeTcp(InetSocketAddress address, ByteBuffer request, ByteBuffer response, long deadline)
+        throws IOException {
+        byte[] message = new byte[2 + request.limit()];
+        message[0] = (byte) (request.limit() >>> 8);
+        message[1] = (byte) request.limit();
+        request.get(0, message, 2, request.limit());
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.connect(address, remainingMillis(deadline));
+            socket.setSoTimeout(remainingMillis(deadline));
+            OutputStream out = socket.getOutputStream();
+            out.write(message);
+            out.flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            int length = in.readUnsignedShort();
+            in.readFully(response.array(), 0, length);
+            long endNanos = System.nanoTime();
+            response.clear().limit(length);
+            return endNanos;
+        }
+    }
+
+    /**
+     * @return 距截止时间的毫秒数，至少为1（0对socket超时表示不限）
+     */
+    private static int remainingMillis(long deadline) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+    }
+
+    /**
+     * @return 上一次收到的响应报文，从position到limit为完整报文；TCP回退时为TCP的响应。下一次查询时被覆盖
+     */
+    ByteBuffer response() {
+        return lastResponse;
+    }
+
+    /**
+     * @return 上一次查询的UDP响应是否被截断并改用了TCP
+     */
+    boolean isFallback() {
+        return lastFallback;
+    }
+
+    /**
+     * @return 上一次TCP回退失败的原因
+     */
+    String getFallbackError() {
+        return fallbackError;
+    }
+
+    /**
+     * @return 上一次成功的查询的响应时间（纳秒）
+     */
+    long getLastNanos() {
+        return lastNanos;
+    }
+
+    /**
+     * @return 上一次查询开始写入通道的时间（{@link System#nanoTime()}）
+     */
+    long getSendNanos() {
+        return sendNanos;
+    }
+
+    /**
+     * @return 上一次查询写入完成的时间
+     */
+    long getSentNanos() {
+        return sentNanos;
+    }
+
+    /**
+     * @return 上一次查询收到匹配响应（TCP回退时为TCP响应）、超时或回退失败的时间
+     */
+    long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 忽略关闭时的错误
+        }
+    }
+
+    /**
+     * 空闲查询上下文的栈，后归还的先取出；超过上限的上下文在归还时关闭
+     * 用数组而不是并发队列保存，借出和归还都不分配对象
+     */
+    static final class Pool implements Closeable {
+        private final ProbeContext[] idle;
+        private int size;
+        private boolean closed;
+
+        /**
+         * @param maxIdle 最多保留的空闲上下文数
+         */
+        Pool(int maxIdle) {
+            this.idle = new ProbeContext[maxIdle];
+        }
+
+        /**
+         * 取出一个空闲的上下文，没有时新建
+         */
+        ProbeContext acquire() throws IOException {
+            synchronized (this) {
+                if (size > 0) {
+                    ProbeContext context = idle[--size];
+                    idle[size] = null;
+                    return context;
+                }
+            }
+            return new ProbeContext();
+        }
+
+        /**
+         * 归还上下文；已经关闭（例如出错后被丢弃）的不再复用
+         */
+        void release(ProbeContext context) {
+            if (!context.isOpen()) {
+                return;
+            }
+            synchronized (this) {
+                if (!closed && size < idle.length) {
+                    idle[size++] = context;
+                    return;
+                }
+            }
+            context.close();
+        }
+
+        /**
+         * @return 当前空闲的上下文数
+         */
+        synchronized int getIdle() {
+            return size;
+        }
+
+        @Override
+        public void close() {
+            ProbeContext[] contexts;
+            synchronized (this) {
+                closed = true;
+                contexts = Arrays.copyOf(idle, size);
+                Arrays.fill(idle, null);
+                size = 0;
+            }
+            for (ProbeContext context : contexts) {
+                context.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 发送与丢包计数，用于判断测速主机自身是否成为瓶颈
+ * 程序内计数记录发出的查询、收到的响应、超时以及本地发送失败；
+ * 本机的UDP缓冲区溢出计数取自 /proc/net/snmp（只在Linux上可用，是全系统的计数）
+ */
+public final class ProbeCounters {
+
+    private static final Path[] SNMP_FILES = {Paths.get("/proc/net/snmp"), Paths.get("/proc/net/snmp6")};
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder sendErrors = new LongAdder();
+    private final LongAdder sendBufferFull = new LongAdder();
+
+    void onSent() {
+        sent.increment();
+    }
+
+    void onReceived() {
+        received.increment();
+    }
+
+    void onTimeout() {
+        timedOut.increment();
+    }
+
+    void onSendError() {
+        sendErrors.increment();
+    }
+
+    /**
+     * 非阻塞发送时本地发送缓冲区已满
+     */
+    void onSendBufferFull() {
+        sendBufferFull.increment();
+    }
+
+    /**
+     * 按查询结果计数，用于没有逐包计数的路径（加密传输）
+     */
+    void onResult(DNSResult result) {
+        if (result.isSuccess() || (result.getErrorMessage() != null && result.getErrorMessage().startsWith("DNS查询失败"))) {
+            received.increment();
+        } else if ("请求超时".equals(result.getErrorMessage())) {
+            timedOut.increment();
+        }
+    }
+
+    /**
+     * @return 当前的累计值
+     */
+    public Snapshot snapshot() {
+        long[] host = readHostUdpErrors();
+        return new Snapshot(sent.sum(), received.sum(), timedOut.sum(), sendErrors.sum(), sendBufferFull.sum(),
+            host != null ? host[0] : -1, host != null ? host[1] : -1);
+    }
+
+    /**
+     * 读取本机UDP（含IPv6）的接收、发送缓冲区溢出计数
+     * @return {RcvbufErrors, SndbufErrors}，不可用时返回null
+     */
+    static long[] readHostUdpErrors() {
+        long[] total = null;
+        for (Path file : SNMP_FILES) {
+            if (!Files.isReadable(file)) {
+                continue;
+            }
+            try {
+                long[] counts = parseUdpErrors(Files.readAllLines(file, StandardCharsets.US_ASCII));
+                if (counts != null) {
+                    total = total == null ? counts : new long[] {total[0] + counts[0], total[1] + counts[1]};
+                }
+            } catch (IOException e) {
+                // 读取失败时视为不可用
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 解析 /proc/net/snmp 的 “Udp:” 表头行和数值行，以及 /proc/net/snmp6 的 “Udp6RcvbufErrors 值” 格式
+     */
+    static long[] parseUdpErrors(List<String> lines) {
+        long rcvbuf = -1;
+        long sndbuf = -1;
+        for (int i = 0; i < lines.size(); i++) {
+            String[] fields = lines.get(i).trim().split("\\s+");
+            if (fields.length == 2 && fields[0].equals("Udp6RcvbufErrors")) {
+                rcvbuf = Long.parseLong(fields[1]);
+            } else if (fields.length == 2 && fields[0].equals("Udp6SndbufErrors")) {
+                sndbuf = Long.parseLong(fields[1]);
+            } else if (fields[0].equals("Udp:") && i + 1 < lines.size()) {
+                String[] values = lines.get(i + 1).trim().split("\\s+");
+                if (!values[0].equals("Udp:") || values.length != fields.length) {
+                    continue;
+                }
+                for (int j = 1; j < fields.length; j++) {
+                    if (fields[j].equals("RcvbufErrors")) {
+                        rcvbuf = Long.parseLong(values[j]);
+                    } else if (fields[j].equals("SndbufErrors")) {
+                        sndbuf = Long.parseLong(values[j]);
+                    }
+                }
+                i++;
+            }
+        }
+        return rcvbuf >= 0 && sndbuf >= 0 ? new long[] {rcvbuf, sndbuf} : null;
+    }
+
+    /**
+     * 某一时刻的计数
+     */
+    public static final class Snapshot {
+        private final long sent;
+        private final long received;
+        private final long timedOut;
+        private final long sendErrors;
+        private final long sendBufferFull;
+        private final long hostReceiveBufferErrors;
+        private final long hostSendBufferErrors;
+
+        Snapshot(long sent, long received, long timedOut, long sendErrors, long sendBufferFull,
+                 long hostReceiveBufferErrors, long hostSendBufferErrors) {
+            this.sent = sent;
+            this.received = received;
+            this.timedOut = timedOut;
+            this.sendErrors = sendErrors;
+            this.sendBufferFull = sendBufferFull;
+            this.hostReceiveBufferErrors = hostReceiveBufferErrors;
+            this.hostSendBufferErrors = hostSendBufferErrors;
+        }
+
+        /**
+         * @return 从earlier到本次快照之间的增量
+         */
+        public Snapshot minus(Snapshot earlier) {
+            boolean host = hostReceiveBufferErrors >= 0 && earlier.hostReceiveBufferErrors >= 0;
+            return new Snapshot(sent - earlier.sent, received - earlier.received, timedOut - earlier.timedOut,
+                sendErrors - earlier.sendErrors, sendBufferFull - earlier.sendBufferFull,
+                host ? hostReceiveBufferErrors - earlier.hostReceiveBufferErrors : -1,
+                host ? hostSendBufferErrors - earlier.hostSendBufferErrors : -1);
+        }
+
+        /**
+         * @return 与other相加的结果，用于汇总多个进程的计数；任一方没有本机丢包计数时结果也没有
+         */
+        public Snapshot plus(Snapshot other) {
+            boolean host = hostReceiveBufferErrors >= 0 && other.hostReceiveBufferErrors >= 0;
+            return new Snapshot(sent + other.sent, received + other.received, timedOut + other.timedOut,
+                sendErrors + other.sendErrors, sendBufferFull + other.sendBufferFull,
+                host ? hostReceiveBufferErrors + other.hostReceiveBufferErrors : -1,
+                host ? hostSendBufferErrors + other.hostSendBufferErrors : -1);
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public long getReceived() {
+            return received;
+        }
+
+        public long getTimedOut() {
+            return timedOut;
+        }
+
+        public long getSendErrors() {
+            return sendErrors;
+        }
+
+        public long getSendBufferFull() {
+            return sendBufferFull;
+        }
+
+        /**
+         * @return 本机UDP接收缓冲区溢出丢弃的报文数，不可用时为-1
+         */
+        public long getHostReceiveBufferErrors() {
+            return hostReceiveBufferErrors;
+        }
+
+        /**
+         * @return 本机UDP发送缓冲区溢出丢弃的报文数，不可用时为-1
+         */
+        public long getHostSendBufferErrors() {
+            return hostSendBufferErrors;
+        }
+
+        /**
+         * @return 是否观察到本机丢包或发送受阻
+         */
+        public boolean isLocalBottleneck() {
+            return sendErrors > 0 || sendBufferFull > 0
+                || hostReceiveBufferErrors > 0 || hostSendBufferErrors > 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("发送 %d，收到 %d，超时 %d，发送失败 %d，发送缓冲区满 %d",
+                sent, received, timedOut, sendErrors, sendBufferFull));
+            if (hostReceiveBufferErrors >= 0) {
+                text.append(String.format("；本机UDP丢包（全系统）：接收缓冲区 %d，发送缓冲区 %d",
+                    hostReceiveBufferErrors, hostSendBufferErrors));
+            }
+            return text.toString();
+        }
+    }
+}
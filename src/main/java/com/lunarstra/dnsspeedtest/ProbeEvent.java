@@ -0,0 +1,52 @@
+package com.lunarstra.dnsspeedtest;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 一次UDP查询的JFR事件，记录各阶段的耗时
+ * 在查询完成（生成结果）时提交，事件时间为完成时间；事件未启用时不创建事件对象。
+ * 录制方法：java -XX:StartFlightRecording=filename=scan.jfr,settings=profile -jar ...，
+ * 再用 jfr print --events com.lunarstra.dnsspeedtest.Probe scan.jfr 查看
+ */
+@Name("com.lunarstra.dnsspeedtest.Probe")
+@Label("DNS Probe")
+@Category({"DNSpeedtest"})
+@Description("一次UDP DNS查询各阶段的耗时")
+@StackTrace(false)
+final class ProbeEvent extends Event {
+
+    @Label("Server")
+    String server;
+
+    @Label("Domain")
+    String domain;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Queue Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long queueWait;
+
+    @Label("Setup")
+    @Timespan(Timespan.NANOSECONDS)
+    long setup;
+
+    @Label("Send")
+    @Timespan(Timespan.NANOSECONDS)
+    long send;
+
+    @Label("Receive")
+    @Timespan(Timespan.NANOSECONDS)
+    long receive;
+
+    @Label("Decode")
+    @Timespan(Timespan.NANOSECONDS)
+    long decode;
+}
@@ -0,0 +1,13 @@
+package com.lunarstra.dnsspeedtest;
+
+/**
+ * 批量测试时的探测模式
+ */
+public enum ProbeMode {
+    /** 固定大小线程池，每个线程阻塞等待一个请求 */
+    POOL,
+    /** 每个请求一个虚拟线程，由信号量限制并发数；需要JDK 21+，否则（以及在原生可执行文件中）回退到POOL */
+    VIRTUAL,
+    /** 单线程Selector多路复用，所有请求同时在途 */
+    NIO
+}
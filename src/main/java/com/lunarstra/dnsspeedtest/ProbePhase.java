@@ -0,0 +1,30 @@
+package com.lunarstra.dnsspeedtest;
+
+/**
+ * 一次UDP查询依次经过的阶段
+ */
+public enum ProbePhase {
+    /** 提交任务到取得发送令牌：线程池排队、等待在途许可、解析服务器主机名和限速 */
+    QUEUE("排队"),
+    /** 取得令牌到开始发送：取出查询上下文、连接通道和编码报文 */
+    SETUP("准备"),
+    /** 写入通道 */
+    SEND("发送"),
+    /** 发送完成到收到匹配的响应或超时，包括截断后的TCP回退 */
+    RECEIVE("等待响应"),
+    /** 检查或解析响应报文并生成结果 */
+    DECODE("解析");
+
+    private final String label;
+
+    ProbePhase(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return 输出时使用的名称
+     */
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,186 @@
+package com.lunarstra.dnsspeedtest;
+
+import jdk.jfr.FlightRecorder;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * UDP查询各阶段（见 {@link ProbePhase}）的累计耗时，用于判断批量测试的时间花在排队、准备、网络往返还是解析上
+ * 每次查询累加一次次数和各阶段的耗时，并记录各阶段的最大耗时；计数器线程安全，记录时不分配对象。
+ * JFR正在记录且启用了 {@link ProbeEvent} 时，每次查询同时提交一个事件
+ */
+public final class ProbePhases {
+
+    private static final ProbePhase[] PHASES = ProbePhase.values();
+
+    // 只用于查询事件是否启用、从不提交的事件对象；JFR初始化后才创建，此前不加载事件类
+    private static volatile ProbeEvent enabledCheck;
+
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder[] totalNanos = new LongAdder[PHASES.length];
+    private final LongAccumulator[] maxNanos = new LongAccumulator[PHASES.length];
+
+    public ProbePhases() {
+        for (int i = 0; i < PHASES.length; i++) {
+            totalNanos[i] = new LongAdder();
+            maxNanos[i] = new LongAccumulator(Math::max, 0);
+        }
+    }
+
+    /**
+     * 记录一次已完成的查询，参数均为 {@link System#nanoTime()} 的时间点，按先后顺序排列
+     * @param queuedNanos 查询提交（进入排队）的时间
+     * @param startNanos 取得发送令牌的时间
+     * @param sendNanos 开始写入通道的时间
+     * @param sentNanos 写入完成的时间
+     * @param receivedNanos 收到匹配响应或判定超时的时间
+     * @param decodedNanos 生成结果的时间
+     */
+    void record(String dnsServer, DNSQuery query, DNSResult result, long queuedNanos, long startNanos,
+                long sendNanos, long sentNanos, long receivedNanos, long decodedNanos) {
+        long queue = startNanos - queuedNanos;
+        long setup = sendNanos - startNanos;
+        long send = sentNanos - sendNanos;
+        long receive = receivedNanos - sentNanos;
+        long decode = decodedNanos - receivedNanos;
+        probes.increment();
+        add(ProbePhase.QUEUE, queue);
+        add(ProbePhase.SETUP, setup);
+        add(ProbePhase.SEND, send);
+        add(ProbePhase.RECEIVE, receive);
+        add(ProbePhase.DECODE, decode);
+
+        // 事件未启用时不创建事件对象，多轮采样的查询路径保持不分配对象；
+        // JFR一旦初始化就不会回到未初始化状态，因此记录结束或记录中关闭了该事件时也要检查是否启用
+        if (eventEnabled()) {
+            ProbeEvent event = new ProbeEvent();
+            event.server = dnsServer;
+            event.domain = query.getDomain();
+            event.outcome = result.isSuccess() ? "OK" : result.getErrorMessage();
+            event.queueWait = queue;
+            event.setup = setup;
+            event.send = send;
+            event.receive = receive;
+            event.decode = decode;
+            event.commit();
+        }
+    }
+
+    private static boolean eventEnabled() {
+        if (!FlightRecorder.isInitialized()) {
+            return false;
+        }
+        ProbeEvent check = enabledCheck;
+        if (check == null) {
+            // 并发时可能多创建几个，不影响结果
+            check = new ProbeEvent();
+            enabledCheck = check;
+        }
+        return check.isEnabled();
+    }
+
+    private void add(ProbePhase phase, long nanos) {
+        totalNanos[phase.ordinal()].add(nanos);
+        maxNanos[phase.ordinal()].accumulate(nanos);
+    }
+
+    /**
+     * @return 当前的累计值
+     */
+    public Snapshot snapshot() {
+        long[] totals = new long[PHASES.length];
+        long[] maxima = new long[PHASES.length];
+        for (int i = 0; i < PHASES.length; i++) {
+            totals[i] = totalNanos[i].sum();
+            maxima[i] = maxNanos[i].get();
+        }
+        return new Snapshot(probes.sum(), totals, maxima);
+    }
+
+    /**
+     * 某一时刻的累计耗时
+     */
+    public static final class Snapshot {
+        private final long probes;
+        private final long[] totalNanos;
+        private final long[] maxNanos;
+
+        Snapshot(long probes, long[] totalNanos, long[] maxNanos) {
+            this.probes = probes;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * @return 从earlier到本次快照之间的增量；最大耗时无法相减，仍为进程开始以来的最大值
+         */
+        public Snapshot minus(Snapshot earlier) {
+            long[] totals = new long[totalNanos.length];
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] = totalNanos[i] - earlier.totalNanos[i];
+            }
+            return new Snapshot(probes - earlier.probes, totals, maxNanos);
+        }
+
+        /**
+         * @return 记录的查询次数
+         */
+        public long getProbes() {
+            return probes;
+        }
+
+        /**
+         * @return 该阶段的累计耗时（纳秒）
+         */
+        public long getTotalNanos(ProbePhase phase) {
+            return totalNanos[phase.ordinal()];
+        }
+
+        /**
+         * @return 该阶段的最大耗时（纳秒）
+         */
+        public long getMaxNanos(ProbePhase phase) {
+            return maxNanos[phase.ordinal()];
+        }
+
+        /**
+         * @return 该阶段的平均耗时（纳秒），没有记录时为0
+         */
+        public double getMeanNanos(ProbePhase phase) {
+            return probes > 0 ? (double) totalNanos[phase.ordinal()] / probes : 0;
+        }
+
+        /**
+         * 以Prometheus文本格式追加各阶段的累计耗时（summary）和最大耗时（gauge）
+         */
+        void appendPrometheusText(StringBuilder out) {
+            out.append("# HELP dnsspeedtest_probe_phase_seconds UDP查询各阶段的累计耗时\n");
+            out.append("# TYPE dnsspeedtest_probe_phase_seconds summary\n");
+            for (ProbePhase phase : PHASES) {
+                String label = "{phase=\"" + phase.name().toLowerCase(Locale.ROOT) + "\"} ";
+                out.append("dnsspeedtest_probe_phase_seconds_sum").append(label)
+                    .append(getTotalNanos(phase) / 1e9).append('\n');
+                out.append("dnsspeedtest_probe_phase_seconds_count").append(label).append(probes).append('\n');
+            }
+            out.append("# HELP dnsspeedtest_probe_phase_max_seconds UDP查询各阶段的最大耗时\n");
+            out.append("# TYPE dnsspeedtest_probe_phase_max_seconds gauge\n");
+            for (ProbePhase phase : PHASES) {
+                out.append("dnsspeedtest_probe_phase_max_seconds{phase=\"").append(phase.name().toLowerCase(Locale.ROOT))
+                    .append("\"} ").append(getMaxNanos(phase) / 1e9).append('\n');
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("查询 %d 次，平均/最大耗时", probes));
+            for (ProbePhase phase : PHASES) {
+                text.append(String.format("；%s %.3f/%.3f ms", phase.getLabel(),
+                    getMeanNanos(phase) / 1e6, getMaxNanos(phase) / 1e6));
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.lunarstra.dnsspeedtest;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 服务模式和监视模式下的定时测试
+ * 每轮测试在后台线程中完成后，以新的不可变快照整体替换旧快照；
+ * HTTP请求只读取当前快照，不会等待测试，也不会看到测试到一半的结果。
+ * 每个结果同时记入各服务器的滑动窗口，每轮结束后检查告警
+ */
+@Singleton
+public class ProbeScheduler {
+
+    private static final Logger LOG = Logger.getLogger(ProbeScheduler.class);
+
+    @Inject
+    DNSSpeedTest dnsSpeedTest;
+
+    @ConfigProperty(name = "dnsspeedtest.watch.window", defaultValue = "64")
+    int watchWindow = 64;
+
+    @ConfigProperty(name = "dnsspeedtest.watch.min-samples", defaultValue = "10")
+    int watchMinSamples = 10;
+
+    @ConfigProperty(name = "dnsspeedtest.watch.p95-threshold-ms", defaultValue = "500")
+    long watchP95ThresholdMs = 500;
+
+    @ConfigProperty(name = "dnsspeedtest.watch.loss-threshold", defaultValue = "0.2")
+    double watchLossThreshold = 0.2;
+
+    @ConfigProperty(name = "dnsspeedtest.watch.shift-factor", defaultValue = "2.0")
+    double watchShiftFactor = 2.0;
+
+    @ConfigProperty(name = "dnsspeedtest.watch.shift-samples", defaultValue = "8")
+    int watchShiftSamples = 8;
+
+    private final AtomicReference<RankingSnapshot> snapshot = new AtomicReference<>(RankingSnapshot.EMPTY);
+    private final ResolverMetrics metrics = new ResolverMetrics();
+    private volatile LatencyWatch watch;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 开始定时测试，第一轮立即开始；上一轮结束后间隔指定时间再开始下一轮
+     * @param dnsServers DNS服务器列表
+     * @param domains 要解析的域名列表
+     * @param options 测试参数
+     * @param intervalSeconds 两轮测试之间的间隔（秒）
+     */
+    public void start(List<String> dnsServers, List<String> domains, ScanOptions options, long intervalSeconds) {
+        start(dnsServers, domains, options, intervalSeconds, null);
+    }
+
+    /**
+     * 开始定时测试，第一轮立即开始；上一轮结束后间隔指定时间再开始下一轮
+     * @param dnsServers DNS服务器列表
+     * @param domains 要解析的域名列表
+     * @param options 测试参数
+     * @param intervalSeconds 两轮测试之间的间隔（秒）
+     * @param onRound 每轮结束后的回调，参数为本轮新产生和解除的告警；为null时告警写入日志
+     */
+    public synchronized void start(List<String> dnsServers, List<String> domains, ScanOptions options,
+                                   long intervalSeconds, Consumer<List<WatchAlert>> onRound) {
+        if (scheduler != null) {
+            throw new IllegalStateException("定时测试已经启动");
+        }
+        List<String> servers = new ArrayList<>(dnsServers);
+        List<String> targets = new ArrayList<>(domains);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dns-probe-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watch = new LatencyWatch(watchWindow, watchMinSamples, watchP95ThresholdMs, watchLossThreshold,
+            watchShiftFactor, watchShiftSamples);
+        scheduler.scheduleWithFixedDelay(() -> scan(servers, targets, options, onRound), 0, intervalSeconds,
+            TimeUnit.SECONDS);
+    }
+
+    private void scan(List<String> dnsServers, List<String> domains, ScanOptions options,
+                      Consumer<List<WatchAlert>> onRound) {
+        try {
+            long start = System.nanoTime();
+            LatencyWatch samples = watch;
+            List<DNSResult> results = dnsSpeedTest.testMatrix(dnsServers, domains, options, result -> {
+                metrics.record(result);
+                samples.record(result);
+            });
+            publish(results, System.nanoTime() - start);
+            LOG.infof("完成一轮测试：%d 个结果，耗时 %d ms", results.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            // 有回调时告警由回调输出，否则写入日志
+            List<WatchAlert> alerts = samples.evaluate(System.currentTimeMillis());
+            if (onRound != null) {
+                onRound.accept(alerts);
+            } else {
+                for (WatchAlert alert : alerts) {
+                    if (alert.isRaised()) {
+                        LOG.warn(alert);
+                    } else {
+                        LOG.info(alert);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // 异常不能抛出，否则后续的定时任务会被取消
+            LOG.error("定时测试失败", e);
+        }
+    }
+
+    /**
+     * 发布一轮测试的结果
+     * @param results 按响应时间升序排序的结果
+     * @param durationNanos 本轮测试耗时
+     */
+    void publish(List<DNSResult> results, long durationNanos) {
+        long now = System.currentTimeMillis();
+        snapshot.set(new RankingSnapshot(now, durationNanos, results));
+        metrics.onScan(now, durationNanos);
+    }
+
+    /**
+     * @return 最近一轮完成的测试快照，尚未完成任何一轮时为空快照
+     */
+    public RankingSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    public ResolverMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return 当前仍未解除的告警，尚未开始定时测试时为空
+     */
+    public List<WatchAlert> getActiveAlerts() {
+        LatencyWatch current = watch;
+        return current != null ? current.getActiveAlerts() : Collections.emptyList();
+    }
+
+    /**
+     * @return 进程累计的发送与丢包计数
+     */
+    public ProbeCounters.Snapshot getTraffic() {
+        return dnsSpeedTest.getCounters().snapshot();
+    }
+
+    /**
+     * @return 进程累计的UDP查询各阶段耗时
+     */
+    public ProbePhases.Snapshot getPhases() {
+        return dnsSpeedTest.getPhases().snapshot();
+    }
+
+    @PreDestroy
+    synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
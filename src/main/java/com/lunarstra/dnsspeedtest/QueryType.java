@@ -0,0 +1,35 @@
+package com.lunarstra.dnsspeedtest;
+
+/**
+ * 可测试的DNS查询类型，浏览器解析一个域名时通常同时发出A、AAAA和HTTPS查询
+ */
+public enum QueryType {
+    /** IPv4地址 */
+    A(DNSMessage.TYPE_A),
+    /** IPv6地址 */
+    AAAA(DNSMessage.TYPE_AAAA),
+    /** 通用服务绑定（RFC 9460） */
+    SVCB(DNSMessage.TYPE_SVCB),
+    /** HTTPS服务绑定（RFC 9460），带有ALPN、ECH等连接参数 */
+    HTTPS(DNSMessage.TYPE_HTTPS);
+
+    private final int code;
+
+    QueryType(int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return 报文中的类型编码
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return 应答是否为地址记录
+     */
+    public boolean isAddress() {
+        return this == A || this == AAAA;
+    }
+}
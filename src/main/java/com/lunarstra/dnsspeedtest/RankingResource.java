@@ -0,0 +1,165 @@
+package com.lunarstra.dnsspeedtest;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 服务模式的HTTP接口，所有请求只读取内存中的最新快照
+ */
+@Path("/")
+public class RankingResource {
+
+    @Inject
+    ProbeScheduler scheduler;
+
+    /**
+     * 最新一轮测试的综合排名和全部结果
+     */
+    @GET
+    @Path("ranking")
+    @Produces(MediaType.APPLICATION_JSON)
+    public RankingView ranking() {
+        RankingSnapshot snapshot = scheduler.getSnapshot();
+        RankingView view = new RankingView();
+        view.ready = snapshot.isReady();
+        if (snapshot.isReady()) {
+            view.generatedAt = Instant.ofEpochMilli(snapshot.getGeneratedAtMillis()).toString();
+            view.scanDurationMs = snapshot.getDurationNanos() / 1e6;
+        }
+        int rank = 0;
+        for (ServerScore score : snapshot.getScores()) {
+            ScoreView scoreView = new ScoreView();
+            scoreView.rank = ++rank;
+            scoreView.resolver = score.getDnsServer();
+            scoreView.domains = score.getDomains();
+            scoreView.succeeded = score.getSucceeded();
+            scoreView.meanMs = score.isSuccess() ? score.getMeanNanos() / 1e6 : null;
+            scoreView.error = score.getFirstError();
+            view.ranking.add(scoreView);
+        }
+        for (DNSResult result : snapshot.getResults()) {
+            view.results.add(ResultView.of(result));
+        }
+        return view;
+    }
+
+    /**
+     * 单个DNS服务器在最新一轮测试中的结果
+     */
+    @GET
+    @Path("resolver/{ip}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<ResultView> resolver(@PathParam("ip") String ip) {
+        List<DNSResult> results = scheduler.getSnapshot().getResolver(ip);
+        if (results == null) {
+            throw new NotFoundException("没有该DNS服务器的测试结果: " + ip);
+        }
+        List<ResultView> views = new ArrayList<>(results.size());
+        for (DNSResult result : results) {
+            views.add(ResultView.of(result));
+        }
+        return views;
+    }
+
+    /**
+     * 当前仍未解除的告警
+     */
+    @GET
+    @Path("alerts")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<AlertView> alerts() {
+        List<WatchAlert> alerts = scheduler.getActiveAlerts();
+        List<AlertView> views = new ArrayList<>(alerts.size());
+        for (WatchAlert alert : alerts) {
+            AlertView view = new AlertView();
+            view.resolver = alert.getDnsServer();
+            view.kind = alert.getKind();
+            view.value = alert.getValue();
+            view.limit = alert.getLimit();
+            view.since = Instant.ofEpochMilli(alert.getAtMillis()).toString();
+            views.add(view);
+        }
+        return views;
+    }
+
+    /**
+     * Prometheus指标
+     */
+    @GET
+    @Path("metrics")
+    @Produces("text/plain; version=0.0.4; charset=utf-8")
+    public String metrics() {
+        return scheduler.getMetrics().toPrometheusText(scheduler.getTraffic(), scheduler.getPhases());
+    }
+
+    public static class RankingView {
+        public boolean ready;
+        public String generatedAt;
+        public Double scanDurationMs;
+        public List<ScoreView> ranking = new ArrayList<>();
+        public List<ResultView> results = new ArrayList<>();
+    }
+
+    public static class ScoreView {
+        public int rank;
+        public String resolver;
+        public int domains;
+        public int succeeded;
+        public Double meanMs;
+        public String error;
+    }
+
+    public static class AlertView {
+        public String resolver;
+        public WatchAlert.Kind kind;
+        public double value;
+        public double limit;
+        public String since;
+    }
+
+    public static class ResultView {
+        public String resolver;
+        public String domain;
+        public boolean success;
+        public Double responseTimeMs;
+        public String resolvedIp;
+        public String error;
+        public Double minMs;
+        public Double medianMs;
+        public Double p90Ms;
+        public Double p99Ms;
+        public Double lossRate;
+        public AnswerVerdict answerVerdict;
+
+        static ResultView of(DNSResult result) {
+            ResultView view = new ResultView();
+            view.resolver = result.getDnsServer();
+            view.domain = result.getDomain();
+            view.success = result.isSuccess();
+            view.error = result.getErrorMessage();
+            if (result.isSuccess()) {
+                view.responseTimeMs = result.getResponseTimeMillis();
+                view.resolvedIp = result.getResolvedIP();
+                view.answerVerdict = result.getAnswerVerdict();
+            }
+            LatencyStats stats = result.getStats();
+            if (stats != null) {
+                view.minMs = stats.getMin() / 1e6;
+                view.medianMs = stats.getMedian() / 1e6;
+                view.p90Ms = stats.getP90() / 1e6;
+                view.p99Ms = stats.getP99() / 1e6;
+                view.lossRate = stats.getLossRate();
+            }
+            return view;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一轮完整测试的不可变快照
+ * 服务模式下每轮测试结束后整体替换，读取方拿到的始终是某一轮的完整结果，不需要加锁
+ */
+public final class RankingSnapshot {
+
+    /** 第一轮测试完成前的空快照 */
+    static final RankingSnapshot EMPTY = new RankingSnapshot(0, 0, Collections.emptyList());
+
+    private final long generatedAtMillis;
+    private final long durationNanos;
+    private final List<DNSResult> results;
+    private final List<ServerScore> scores;
+    private final Map<String, List<DNSResult>> byResolver;
+
+    /**
+     * @param generatedAtMillis 测试完成的时间（毫秒时间戳）
+     * @param durationNanos 本轮测试耗时（纳秒）
+     * @param results 本轮全部结果，按响应时间升序排序
+     */
+    RankingSnapshot(long generatedAtMillis, long durationNanos, List<DNSResult> results) {
+        this.generatedAtMillis = generatedAtMillis;
+        this.durationNanos = durationNanos;
+        this.results = Collections.unmodifiableList(new ArrayList<>(results));
+        this.scores = Collections.unmodifiableList(ServerScore.aggregate(results));
+        Map<String, List<DNSResult>> grouped = new LinkedHashMap<>();
+        for (DNSResult result : results) {
+            grouped.computeIfAbsent(result.getDnsServer(), server -> new ArrayList<>()).add(result);
+        }
+        this.byResolver = Collections.unmodifiableMap(grouped);
+    }
+
+    /**
+     * @return 是否已有测试结果
+     */
+    public boolean isReady() {
+        return generatedAtMillis > 0;
+    }
+
+    public long getGeneratedAtMillis() {
+        return generatedAtMillis;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public List<DNSResult> getResults() {
+        return results;
+    }
+
+    /**
+     * @return 按综合得分排序的服务器列表
+     */
+    public List<ServerScore> getScores() {
+        return scores;
+    }
+
+    /**
+     * @return 指定服务器在各个域名上的结果，未测试过时返回null
+     */
+    public List<DNSResult> getResolver(String dnsServer) {
+        return byResolver.get(dnsServer);
+    }
+}
@@ -0,0 +1,31 @@
+package com.lunarstra.dnsspeedtest;
+
+/**
+ * 多轮采样时用于排序的统计量
+ */
+public enum RankingStatistic {
+    MIN,
+    MEDIAN,
+    P90,
+    P99,
+    MEAN;
+
+    /**
+     * 从统计结果中取出对应的值
+     */
+    public long valueOf(LatencyStats stats) {
+        switch (this) {
+            case MIN:
+                return stats.getMin();
+            case P90:
+                return stats.getP90();
+            case P99:
+                return stats.getP99();
+            case MEAN:
+                return Math.round(stats.getMean());
+            case MEDIAN:
+            default:
+                return stats.getMedian();
+        }
+    }
+}
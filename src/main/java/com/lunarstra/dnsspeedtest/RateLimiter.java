@@ -0,0 +1,94 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 全局发送速率限制（令牌桶）
+ * 以“下一个令牌的可用时间”表示桶的状态，空闲时最多积累一个突发窗口的令牌，
+ * 取令牌只需一次CAS。速率不大于0时不限速
+ */
+final class RateLimiter {
+
+    // 空闲后允许立即发出的突发量，按时间窗口计算
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final double qps;
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong nextFreeNanos;
+
+    /**
+     * @param qps 每秒最多发出的查询数，不大于0表示不限速
+     */
+    RateLimiter(double qps) {
+        this.qps = qps;
+        this.intervalNanos = qps > 0 ? Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / qps)) : 0;
+        this.burstNanos = Math.max(intervalNanos, BURST_NANOS);
+        this.nextFreeNanos = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    boolean isEnabled() {
+        return intervalNanos > 0;
+    }
+
+    /**
+     * 取一个令牌，没有可用令牌时阻塞等待
+     */
+    void acquire() throws InterruptedException {
+        if (!isEnabled()) {
+            return;
+        }
+        long now = System.nanoTime();
+        long waitNanos = reserve(now) - now;
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * 有可用令牌时取走一个，否则立即返回
+     * @return 是否取到令牌
+     */
+    boolean tryAcquire(long nowNanos) {
+        if (!isEnabled()) {
+            return true;
+        }
+        while (true) {
+            long next = nextFreeNanos.get();
+            long start = Math.max(next, nowNanos - burstNanos);
+            if (start > nowNanos) {
+                return false;
+            }
+            if (nextFreeNanos.compareAndSet(next, start + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return 距离下一个令牌可用的纳秒数，已有可用令牌时为0
+     */
+    long nanosUntilAvailable(long nowNanos) {
+        return isEnabled() ? Math.max(0, nextFreeNanos.get() - nowNanos) : 0;
+    }
+
+    /**
+     * 预约一个令牌
+     * @return 令牌可用的时间点
+     */
+    private long reserve(long nowNanos) {
+        while (true) {
+            long next = nextFreeNanos.get();
+            long start = Math.max(next, nowNanos - burstNanos);
+            if (nextFreeNanos.compareAndSet(next, start + intervalNanos)) {
+                return start;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return isEnabled() ? String.format("%.0f次/秒", qps) : "不限速";
+    }
+}
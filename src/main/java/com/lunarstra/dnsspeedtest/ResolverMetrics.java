@@ -0,0 +1,158 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务模式下按服务器累计的延迟直方图和错误计数，以Prometheus文本格式导出
+ * 记录和导出可以并发进行，各计数器之间不保证同一时刻的一致性
+ */
+public final class ResolverMetrics {
+
+    /** 直方图桶的上界（秒） */
+    private static final double[] BUCKETS_SECONDS = {
+        0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5
+    };
+    private static final long[] BUCKETS_NANOS = new long[BUCKETS_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS_SECONDS.length; i++) {
+            BUCKETS_NANOS[i] = (long) (BUCKETS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    // 按服务器地址排序，导出结果稳定
+    private final Map<String, Series> series = new ConcurrentSkipListMap<>();
+    private final LongAdder scans = new LongAdder();
+    private final AtomicLong lastScanMillis = new AtomicLong();
+    private final AtomicLong lastScanNanos = new AtomicLong();
+
+    /**
+     * 记录一个测试结果，被提前取消的查询没有测量值，不计入
+     */
+    public void record(DNSResult result) {
+        if (TopKTracker.isCancelled(result)) {
+            return;
+        }
+        Series s = series.computeIfAbsent(result.getDnsServer(), server -> new Series());
+        if (!result.isSuccess()) {
+            s.errors.increment();
+            return;
+        }
+        long nanos = result.getResponseTimeNanos();
+        int bucket = 0;
+        while (bucket < BUCKETS_NANOS.length && nanos > BUCKETS_NANOS[bucket]) {
+            bucket++;
+        }
+        s.buckets.incrementAndGet(bucket);
+        s.sumNanos.add(nanos);
+    }
+
+    /**
+     * 记录一轮测试完成
+     */
+    public void onScan(long finishedAtMillis, long durationNanos) {
+        scans.increment();
+        lastScanMillis.set(finishedAtMillis);
+        lastScanNanos.set(durationNanos);
+    }
+
+    /**
+     * 以Prometheus文本格式（0.0.4）导出全部指标
+     */
+    public String toPrometheusText() {
+        return toPrometheusText(null);
+    }
+
+    /**
+     * 以Prometheus文本格式（0.0.4）导出全部指标，附带发送与丢包计数
+     * @param traffic 进程累计的收发计数，为null时不导出
+     */
+    public String toPrometheusText(ProbeCounters.Snapshot traffic) {
+        return toPrometheusText(traffic, null);
+    }
+
+    /**
+     * 以Prometheus文本格式（0.0.4）导出全部指标，附带发送与丢包计数和查询各阶段的耗时
+     * @param traffic 进程累计的收发计数，为null时不导出
+     * @param phases 进程累计的各阶段耗时，为null时不导出
+     */
+    public String toPrometheusText(ProbeCounters.Snapshot traffic, ProbePhases.Snapshot phases) {
+        StringBuilder out = new StringBuilder(256 + series.size() * 1024);
+        out.append("# HELP dnsspeedtest_probe_duration_seconds DNS查询响应时间\n");
+        out.append("# TYPE dnsspeedtest_probe_duration_seconds histogram\n");
+        for (Map.Entry<String, Series> entry : series.entrySet()) {
+            String label = "resolver=\"" + escape(entry.getKey()) + "\"";
+            Series s = entry.getValue();
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS_SECONDS.length; i++) {
+                cumulative += s.buckets.get(i);
+                out.append("dnsspeedtest_probe_duration_seconds_bucket{").append(label)
+                    .append(",le=\"").append(BUCKETS_SECONDS[i]).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += s.buckets.get(BUCKETS_SECONDS.length);
+            out.append("dnsspeedtest_probe_duration_seconds_bucket{").append(label)
+                .append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+            out.append("dnsspeedtest_probe_duration_seconds_sum{").append(label).append("} ")
+                .append(s.sumNanos.sum() / 1e9).append('\n');
+            out.append("dnsspeedtest_probe_duration_seconds_count{").append(label).append("} ")
+                .append(cumulative).append('\n');
+        }
+        out.append("# HELP dnsspeedtest_probe_errors_total 失败的DNS查询数\n");
+        out.append("# TYPE dnsspeedtest_probe_errors_total counter\n");
+        for (Map.Entry<String, Series> entry : series.entrySet()) {
+            out.append("dnsspeedtest_probe_errors_total{resolver=\"").append(escape(entry.getKey())).append("\"} ")
+                .append(entry.getValue().errors.sum()).append('\n');
+        }
+        out.append("# HELP dnsspeedtest_scans_total 已完成的测试轮数\n");
+        out.append("# TYPE dnsspeedtest_scans_total counter\n");
+        out.append("dnsspeedtest_scans_total ").append(scans.sum()).append('\n');
+        out.append("# HELP dnsspeedtest_last_scan_timestamp_seconds 最近一轮测试完成的时间\n");
+        out.append("# TYPE dnsspeedtest_last_scan_timestamp_seconds gauge\n");
+        out.append("dnsspeedtest_last_scan_timestamp_seconds ").append(lastScanMillis.get() / 1e3).append('\n');
+        out.append("# HELP dnsspeedtest_last_scan_duration_seconds 最近一轮测试的耗时\n");
+        out.append("# TYPE dnsspeedtest_last_scan_duration_seconds gauge\n");
+        out.append("dnsspeedtest_last_scan_duration_seconds ").append(lastScanNanos.get() / 1e9).append('\n');
+        if (traffic != null) {
+            appendCounter(out, "dnsspeedtest_queries_sent_total", "发出的DNS查询数", traffic.getSent());
+            appendCounter(out, "dnsspeedtest_responses_received_total", "收到的DNS响应数", traffic.getReceived());
+            appendCounter(out, "dnsspeedtest_queries_timed_out_total", "超时的DNS查询数", traffic.getTimedOut());
+            appendCounter(out, "dnsspeedtest_send_errors_total", "本地发送失败的查询数", traffic.getSendErrors());
+            appendCounter(out, "dnsspeedtest_send_buffer_full_total", "因本地发送缓冲区满而推迟的发送次数",
+                traffic.getSendBufferFull());
+            if (traffic.getHostReceiveBufferErrors() >= 0) {
+                appendCounter(out, "dnsspeedtest_host_udp_rcvbuf_errors_total", "本机UDP接收缓冲区溢出丢弃的报文数（全系统）",
+                    traffic.getHostReceiveBufferErrors());
+                appendCounter(out, "dnsspeedtest_host_udp_sndbuf_errors_total", "本机UDP发送缓冲区溢出丢弃的报文数（全系统）",
+                    traffic.getHostSendBufferErrors());
+            }
+        }
+        if (phases != null) {
+            phases.appendPrometheusText(out);
+        }
+        return out.toString();
+    }
+
+    private static void appendCounter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * 单个服务器的计数器，最后一个桶为+Inf
+     */
+    private static final class Series {
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS_SECONDS.length + 1);
+        final LongAdder sumNanos = new LongAdder();
+        final LongAdder errors = new LongAdder();
+    }
+}
@@ -0,0 +1,354 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 历史测速结果的本地持久化存储
+ * 以追加写的二进制日志保存，每次更新追加一条 服务器×域名 的完整状态，加载时按顺序重放、后写覆盖先写。
+ * 日志中的过期记录超过有效记录数时整体重写压缩。写入中途断电造成的不完整尾部在加载时截掉
+ * 非线程安全，只在命令行主线程中使用
+ */
+public final class ResultStore implements Closeable {
+
+    private static final int MAGIC = 0x444E5352; // "DNSR"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 6;
+    // 指数加权平均的平滑系数，越大越偏重最近的测量
+    private static final double EWMA_ALPHA = 0.3;
+
+    private final Path path;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private DataOutputStream out;
+    private int logRecords;
+
+    private ResultStore(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * 打开存储文件，不存在时创建
+     * @throws IOException 文件不是有效的存储文件或读写失败时抛出
+     */
+    public static ResultStore open(Path path) throws IOException {
+        ResultStore store = new ResultStore(path);
+        store.load();
+        store.out = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        if (Files.size(path) == 0) {
+            store.out.writeInt(MAGIC);
+            store.out.writeShort(VERSION);
+            store.out.flush();
+        }
+        return store;
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(path) || Files.size(path) == 0) {
+            return;
+        }
+        long validLength = HEADER_SIZE;
+        try (InputStream file = Files.newInputStream(path);
+             CountingInputStream counting = new CountingInputStream(new BufferedInputStream(file));
+             DataInputStream in = new DataInputStream(counting)) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("不是有效的结果存储文件: " + path);
+            }
+            short version = in.readShort();
+            if (version != VERSION) {
+                throw new IOException("不支持的结果存储版本: " + version);
+            }
+            while (true) {
+                Entry entry;
+                try {
+                    entry = Entry.read(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                entries.put(key(entry.dnsServer, entry.domain), entry);
+                logRecords++;
+                validLength = counting.count;
+            }
+        } catch (EOFException e) {
+            throw new IOException("结果存储文件头不完整: " + path);
+        }
+        if (validLength < Files.size(path)) {
+            // 截掉写入中断留下的不完整记录
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+    }
+
+    /**
+     * @return 服务器×域名的历史记录，没有时返回null
+     */
+    public Entry get(String dnsServer, String domain) {
+        return entries.get(key(dnsServer, domain));
+    }
+
+    public Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * 判断历史记录是否需要重新测试：没有记录、已超过有效期，或者响应时间波动过大
+     * @param maxAgeMillis 记录的有效期（毫秒）
+     * @param maxVariation 允许的最大变异系数（标准差/平均值）
+     */
+    public boolean isStale(String dnsServer, String domain, long nowMillis, long maxAgeMillis, double maxVariation) {
+        Entry entry = get(dnsServer, domain);
+        if (entry == null || nowMillis - entry.updatedAt >= maxAgeMillis) {
+            return true;
+        }
+        return entry.isSuccess() && entry.getVariation() > maxVariation;
+    }
+
+    /**
+     * 合并一批新的测试结果并追加到日志，被提前取消的查询没有测量值，不记录
+     */
+    public void record(List<DNSResult> results, long nowMillis) throws IOException {
+        for (DNSResult result : results) {
+            if (TopKTracker.isCancelled(result)) {
+                continue;
+            }
+            String key = key(result.getDnsServer(), result.getDomain());
+            Entry entry = entries.get(key);
+            entry = entry == null ? Entry.first(result, nowMillis) : entry.merge(result, nowMillis);
+            entries.put(key, entry);
+            entry.write(out);
+            logRecords++;
+        }
+        out.flush();
+        if (logRecords > 2 * entries.size() && logRecords > 64) {
+            compact();
+        }
+    }
+
+    /**
+     * 只保留每个服务器×域名的最新状态重写日志，先写临时文件再原子替换
+     */
+    void compact() throws IOException {
+        out.close();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            compacted.writeInt(MAGIC);
+            compacted.writeShort(VERSION);
+            for (Entry entry : entries.values()) {
+                entry.write(compacted);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logRecords = entries.size();
+        out = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(path, StandardOpenOption.APPEND)));
+    }
+
+    int getLogRecords() {
+        return logRecords;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private static String key(String dnsServer, String domain) {
+        return dnsServer + '\n' + (domain != null ? domain : "");
+    }
+
+    /**
+     * 一个服务器×域名的历史状态
+     * 响应时间以指数加权的平均值和方差汇总，最近一次的结果原样保留
+     */
+    public static final class Entry {
+        private final String dnsServer;
+        private final String domain;
+        private final long updatedAt;
+        private final int probes;
+        private final int successes;
+        private final double meanNanos;
+        private final double varianceNanos2;
+        private final boolean success;
+        private final long lastNanos;
+        private final String lastDetail; // 成功时为解析结果，失败时为错误信息
+
+        private Entry(String dnsServer, String domain, long updatedAt, int probes, int successes,
+                      double meanNanos, double varianceNanos2, boolean success, long lastNanos, String lastDetail) {
+            this.dnsServer = dnsServer;
+            this.domain = domain;
+            this.updatedAt = updatedAt;
+            this.probes = probes;
+            this.successes = successes;
+            this.meanNanos = meanNanos;
+            this.varianceNanos2 = varianceNanos2;
+            this.success = success;
+            this.lastNanos = lastNanos;
+            this.lastDetail = lastDetail;
+        }
+
+        static Entry first(DNSResult result, long nowMillis) {
+            if (!result.isSuccess()) {
+                return new Entry(result.getDnsServer(), result.getDomain(), nowMillis, 1, 0, 0, 0,
+                    false, 0, result.getErrorMessage());
+            }
+            long nanos = result.getResponseTimeNanos();
+            return new Entry(result.getDnsServer(), result.getDomain(), nowMillis, 1, 1, nanos, 0,
+                true, nanos, result.getResolvedIP());
+        }
+
+        Entry merge(DNSResult result, long nowMillis) {
+            if (!result.isSuccess()) {
+                return new Entry(dnsServer, domain, nowMillis, probes + 1, successes, meanNanos, varianceNanos2,
+                    false, 0, result.getErrorMessage());
+            }
+            long nanos = result.getResponseTimeNanos();
+            double mean = meanNanos;
+            double variance = varianceNanos2;
+            if (successes == 0) {
+                mean = nanos;
+                variance = 0;
+            } else {
+                double delta = nanos - mean;
+                mean += EWMA_ALPHA * delta;
+                variance = (1 - EWMA_ALPHA) * (variance + EWMA_ALPHA * delta * delta);
+            }
+            return new Entry(dnsServer, domain, nowMillis, probes + 1, successes + 1, mean, variance,
+                true, nanos, result.getResolvedIP());
+        }
+
+        /**
+         * 按最近一次的结果还原为测试结果
+         */
+        public DNSResult toResult() {
+            DNSResult result = success
+                ? DNSResult.ofNanos(dnsServer, lastNanos, lastDetail)
+                : new DNSResult(dnsServer, lastDetail);
+            return result.withDomain(domain);
+        }
+
+        public String getDnsServer() {
+            return dnsServer;
+        }
+
+        public String getDomain() {
+            return domain;
+        }
+
+        /**
+         * @return 最近一次更新的时间（毫秒时间戳）
+         */
+        public long getUpdatedAt() {
+            return updatedAt;
+        }
+
+        public int getProbes() {
+            return probes;
+        }
+
+        public int getSuccesses() {
+            return successes;
+        }
+
+        /**
+         * @return 最近一次测试是否成功
+         */
+        public boolean isSuccess() {
+            return success;
+        }
+
+        /**
+         * @return 成功测试响应时间的指数加权平均值（纳秒）
+         */
+        public double getMeanNanos() {
+            return meanNanos;
+        }
+
+        /**
+         * @return 成功测试响应时间的指数加权标准差（纳秒）
+         */
+        public double getStdDevNanos() {
+            return Math.sqrt(varianceNanos2);
+        }
+
+        /**
+         * @return 变异系数（标准差/平均值），没有成功样本时为0
+         */
+        public double getVariation() {
+            return meanNanos > 0 ? getStdDevNanos() / meanNanos : 0;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(dnsServer);
+            out.writeUTF(domain != null ? domain : "");
+            out.writeLong(updatedAt);
+            out.writeInt(probes);
+            out.writeInt(successes);
+            out.writeDouble(meanNanos);
+            out.writeDouble(varianceNanos2);
+            out.writeBoolean(success);
+            out.writeLong(lastNanos);
+            out.writeUTF(lastDetail != null ? lastDetail : "");
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            String dnsServer = in.readUTF();
+            String domain = in.readUTF();
+            return new Entry(dnsServer, domain.isEmpty() ? null : domain, in.readLong(), in.readInt(), in.readInt(),
+                in.readDouble(), in.readDouble(), in.readBoolean(), in.readLong(), in.readUTF());
+        }
+    }
+
+    /**
+     * 记录已读取字节数，用于定位最后一条完整记录的结尾
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * 按完成顺序流式写出测试结果的机器可读格式
+ * 记录先写入大块缓冲区，缓冲区满或关闭时才落盘；非线程安全，由结果回调所在的线程调用
+ */
+public interface ResultWriter extends Closeable {
+
+    /**
+     * 写出一条结果
+     */
+    void write(DNSResult result) throws IOException;
+
+    /**
+     * 创建指定格式的写出器，文件已存在时覆盖
+     * @throws IllegalArgumentException 格式为TEXT时抛出，文本格式由命令行直接写出
+     */
+    static ResultWriter open(Path path, OutputFormat format) throws IOException {
+        switch (format) {
+            case JSONL:
+                return TextResultWriter.jsonLines(path);
+            case CSV:
+                return TextResultWriter.csv(path);
+            case BIN:
+                return new BinaryResultWriter(path);
+            default:
+                throw new IllegalArgumentException("不支持的输出格式: " + format);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.lunarstra.dnsspeedtest;
+
+/**
+ * 多轮采样参数
+ */
+public final class SamplingOptions {
+
+    /** 每个服务器只查询一次，与单次测试行为一致 */
+    public static final SamplingOptions SINGLE = new SamplingOptions(1, 0, RankingStatistic.MEDIAN);
+
+    private final int rounds;
+    private final int warmup;
+    private final RankingStatistic rankBy;
+
+    /**
+     * @param rounds 每个服务器计入统计的查询轮数
+     * @param warmup 预热查询次数，结果丢弃
+     * @param rankBy 排序所用的统计量
+     */
+    public SamplingOptions(int rounds, int warmup, RankingStatistic rankBy) {
+        if (rounds < 1 || warmup < 0) {
+            throw new IllegalArgumentException("轮数必须大于0，预热次数不能为负数");
+        }
+        this.rounds = rounds;
+        this.warmup = warmup;
+        this.rankBy = rankBy != null ? rankBy : RankingStatistic.MEDIAN;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    public int getWarmup() {
+        return warmup;
+    }
+
+    public RankingStatistic getRankBy() {
+        return rankBy;
+    }
+
+    /**
+     * 每个服务器总共发出的查询数（含预热）
+     */
+    public int getTotalQueries() {
+        return warmup + rounds;
+    }
+
+    /**
+     * 是否为单次查询，此时结果不附带统计信息
+     */
+    public boolean isSingle() {
+        return rounds == 1 && warmup == 0;
+    }
+}
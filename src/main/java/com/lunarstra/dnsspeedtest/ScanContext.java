@@ -0,0 +1,69 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次批量测试中各个查询共享的状态：超时估计、加密连接、发送速率限制、每个服务器的在途上限、计数和阶段耗时
+ * 线程安全
+ */
+final class ScanContext {
+
+    final AdaptiveTimeout timeouts;
+    final SecureDNSClient secure;
+    final RateLimiter limiter;
+    // 每个服务器地址同时在途的最大查询数，0表示不限制
+    final int maxPerServer;
+    final ProbeCounters counters;
+    final ProbePhases phases;
+
+    private final Map<InetSocketAddress, Semaphore> serverPermits = new ConcurrentHashMap<>();
+    private final AtomicInteger probesStarted = new AtomicInteger();
+    private final AtomicLong lastProbeNanos = new AtomicLong();
+
+    ScanContext(AdaptiveTimeout timeouts, SecureDNSClient secure, RateLimiter limiter, int maxPerServer,
+                ProbeCounters counters, ProbePhases phases) {
+        this.timeouts = timeouts;
+        this.secure = secure;
+        this.limiter = limiter;
+        this.maxPerServer = maxPerServer;
+        this.counters = counters;
+        this.phases = phases;
+    }
+
+    /**
+     * @return 限制该地址在途查询数的信号量，不限制时返回null
+     */
+    Semaphore permitsFor(InetSocketAddress address) {
+        if (maxPerServer <= 0) {
+            return null;
+        }
+        return serverPermits.computeIfAbsent(address, key -> new Semaphore(maxPerServer));
+    }
+
+    /**
+     * 取得发送令牌后、发出查询前调用
+     */
+    void onProbeStart() {
+        lastProbeNanos.accumulateAndGet(System.nanoTime(), Math::max);
+        probesStarted.incrementAndGet();
+    }
+
+    /**
+     * @return 已经开始（取得令牌）的查询数
+     */
+    int getProbesStarted() {
+        return probesStarted.get();
+    }
+
+    /**
+     * @return 最晚开始的查询的开始时间
+     */
+    long getLastProbeNanos() {
+        return lastProbeNanos.get();
+    }
+}
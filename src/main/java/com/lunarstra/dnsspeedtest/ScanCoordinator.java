@@ -0,0 +1,311 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.jboss.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 分布式测试的协调进程：等待若干工作进程连接，按一致性哈希把服务器列表分给各工作进程，
+ * 接收它们流式送回的结果批次，最后把各批次（每批已按响应时间排序）多路归并成完整的排名
+ * 某个工作进程中途失败、超时没有送回数据或始终没有连接时，它没有送回的组合记为失败，其余工作进程的结果照常合并
+ */
+public class ScanCoordinator implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(ScanCoordinator.class);
+
+    static final long DEFAULT_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private final ServerSocket serverSocket;
+    private final long timeoutMs;
+    private final List<Socket> sockets = new ArrayList<>();
+    private ProbeCounters.Snapshot traffic;
+
+    /**
+     * @param port 监听的TCP端口，0表示任选一个空闲端口
+     */
+    public ScanCoordinator(int port) throws IOException {
+        this(port, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * @param port 监听的TCP端口，0表示任选一个空闲端口
+     * @param timeoutMs 等待全部工作进程连接的最长时间，以及两次收到同一工作进程数据之间的最长间隔（毫秒）
+     */
+    public ScanCoordinator(int port, long timeoutMs) throws IOException {
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("超时必须为正数");
+        }
+        this.timeoutMs = timeoutMs;
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(port));
+    }
+
+    /**
+     * @return 实际监听的端口
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * 等待workers个工作进程连接后分发任务并收集结果，阻塞直到全部工作进程结束或失败；
+     * 超时仍未连接的分片，以及超时没有送回数据的工作进程，剩余的组合都记为失败
+     * @param workers 工作进程数
+     * @param servers 完整的DNS服务器列表
+     * @param domains 要解析的域名列表
+     * @param options 测试参数，未指定的项由工作进程按自己的配置决定；解析结果检查由调用方对返回的结果进行
+     * @param onResult 收到单个结果时的回调，在调用线程中依次执行
+     * @return 每个组合一个结果（已标注域名），按响应时间升序排序
+     */
+    public List<DNSResult> run(int workers, List<String> servers, List<String> domains, ScanOptions options,
+                               Consumer<DNSResult> onResult) throws IOException {
+        if (workers < 1) {
+            throw new IllegalArgumentException("工作进程数必须大于0");
+        }
+        List<List<String>> shards = new ShardRing(workers).partition(servers);
+        List<DataInputStream> inputs = new ArrayList<>(workers);
+        List<String> names = new ArrayList<>(workers);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (inputs.size() < workers) {
+            int shard = inputs.size();
+            Socket socket = accept(deadline);
+            if (socket == null) {
+                break;
+            }
+            sockets.add(socket);
+            try {
+                // 握手和之后的每次读取都受同一个超时限制，停止响应的工作进程不会让协调进程一直等待
+                socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, timeoutMs));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                String name = ScanProtocol.readHello(in);
+                ScanProtocol.writeJob(out, new ScanProtocol.Job(shard, workers, shards.get(shard), domains, options));
+                inputs.add(in);
+                names.add(name);
+                LOG.infof("工作进程 %s（%s）已连接，分片 %d/%d：%d 个服务器", name, socket.getRemoteSocketAddress(),
+                    shard + 1, workers, shards.get(shard).size());
+            } catch (IOException e) {
+                // 握手失败的连接不占用分片，继续等待下一个工作进程
+                LOG.warnf("工作进程 %s 握手失败: %s", socket.getRemoteSocketAddress(), e.getMessage());
+                socket.close();
+            }
+        }
+
+        List<List<DNSResult>> runs = new ArrayList<>();
+        for (int shard = inputs.size(); shard < workers; shard++) {
+            LOG.warnf("分片 %d/%d 在 %d 毫秒内没有工作进程连接", shard + 1, workers, timeoutMs);
+            List<DNSResult> missing = missing(shards.get(shard), domains, Collections.emptySet(), "等待工作进程连接超时");
+            missing.forEach(onResult);
+            runs.add(missing);
+        }
+
+        // 每个工作进程一个读取线程，收到的帧交给调用线程处理，回调因此不必线程安全
+        BlockingQueue<Frame> frames = new LinkedBlockingQueue<>();
+        for (int shard = 0; shard < inputs.size(); shard++) {
+            int index = shard;
+            Thread reader = new Thread(() -> read(index, inputs.get(index), frames), "scan-coordinator-" + shard);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        List<Set<String>> received = new ArrayList<>(inputs.size());
+        for (int shard = 0; shard < inputs.size(); shard++) {
+            received.add(new HashSet<>());
+        }
+        traffic = null;
+        for (int remaining = inputs.size(); remaining > 0; ) {
+            Frame frame;
+            try {
+                frame = frames.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待工作进程的结果被中断");
+            }
+            if (frame.batch != null) {
+                for (DNSResult result : frame.batch) {
+                    received.get(frame.shard).add(key(result.getDnsServer(), result.getDomain()));
+                    onResult.accept(result);
+                }
+                runs.add(frame.batch);
+                continue;
+            }
+            remaining--;
+            if (frame.traffic != null) {
+                traffic = traffic == null ? frame.traffic : traffic.plus(frame.traffic);
+                LOG.infof("工作进程 %s 完成，返回 %d 个结果", names.get(frame.shard), received.get(frame.shard).size());
+            } else {
+                LOG.warnf("工作进程 %s 失败: %s", names.get(frame.shard), frame.error);
+                List<DNSResult> missing = missing(shards.get(frame.shard), domains, received.get(frame.shard),
+                    "工作进程失败: " + frame.error);
+                missing.forEach(onResult);
+                runs.add(missing);
+            }
+        }
+        return merge(runs);
+    }
+
+    /**
+     * 等待下一个工作进程连接，直到deadline（{@link System#nanoTime()} 的时间点）
+     * @return 新连接，超时时返回null
+     */
+    private Socket accept(long deadline) throws IOException {
+        long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remainingMs <= 0) {
+            return null;
+        }
+        serverSocket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, remainingMs));
+        try {
+            return serverSocket.accept();
+        } catch (SocketTimeoutException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return 最近一次测试中全部正常结束的工作进程的收发计数之和，没有时为null
+     */
+    public ProbeCounters.Snapshot getTraffic() {
+        return traffic;
+    }
+
+    /**
+     * 多路归并若干已按响应时间升序排序的结果序列
+     */
+    static List<DNSResult> merge(List<List<DNSResult>> runs) {
+        int total = 0;
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(Math.max(1, runs.size()));
+        for (List<DNSResult> run : runs) {
+            total += run.size();
+            if (!run.isEmpty()) {
+                heads.add(new Cursor(run));
+            }
+        }
+        List<DNSResult> merged = new ArrayList<>(total);
+        while (!heads.isEmpty()) {
+            Cursor head = heads.poll();
+            merged.add(head.current());
+            if (head.advance()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * 分片内还没有收到结果的组合，记为失败，按响应时间排序时排在最后
+     */
+    private static List<DNSResult> missing(List<String> servers, List<String> domains, Set<String> received,
+                                           String errorMessage) {
+        List<DNSResult> missing = new ArrayList<>();
+        for (String domain : domains) {
+            for (String server : servers) {
+                if (!received.contains(key(server, domain))) {
+                    missing.add(new DNSResult(server, errorMessage).withDomain(domain));
+                }
+            }
+        }
+        return missing;
+    }
+
+    private static String key(String server, String domain) {
+        return server + '\n' + domain;
+    }
+
+    private void read(int shard, DataInputStream in, BlockingQueue<Frame> frames) {
+        try {
+            while (true) {
+                byte type = in.readByte();
+                if (type == ScanProtocol.FRAME_BATCH) {
+                    frames.add(new Frame(shard, ScanProtocol.readBatch(in), null, null));
+                } else if (type == ScanProtocol.FRAME_DONE) {
+                    frames.add(new Frame(shard, null, ScanProtocol.readDone(in), null));
+                    return;
+                } else if (type == ScanProtocol.FRAME_ERROR) {
+                    frames.add(new Frame(shard, null, null, in.readUTF()));
+                    return;
+                } else {
+                    frames.add(new Frame(shard, null, null, "未知的帧类型 " + type));
+                    return;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            frames.add(new Frame(shard, null, null, "超过 " + timeoutMs + " 毫秒没有收到数据"));
+        } catch (IOException e) {
+            frames.add(new Frame(shard, null, null, "连接中断 " + e.getMessage()));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 忽略关闭时的错误
+            }
+        }
+        serverSocket.close();
+    }
+
+    /**
+     * 读取线程交给调用线程的一帧：结果批次、结束（附带收发计数）或错误，三者之一
+     */
+    private static final class Frame {
+        final int shard;
+        final List<DNSResult> batch;
+        final ProbeCounters.Snapshot traffic;
+        final String error;
+
+        Frame(int shard, List<DNSResult> batch, ProbeCounters.Snapshot traffic, String error) {
+            this.shard = shard;
+            this.batch = batch;
+            this.traffic = traffic;
+            this.error = error;
+        }
+    }
+
+    /**
+     * 归并时一个序列的当前位置
+     */
+    private static final class Cursor implements Comparable<Cursor> {
+        private final List<DNSResult> run;
+        private int index;
+
+        Cursor(List<DNSResult> run) {
+            this.run = run;
+        }
+
+        DNSResult current() {
+            return run.get(index);
+        }
+
+        boolean advance() {
+            return ++index < run.size();
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return current().compareTo(other.current());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * 一次批量测试的参数
+ * 未设置的项使用默认值：单轮查询、不穿透缓存、测试全部服务器、只查A记录，探测模式、超时策略、发送节奏和解析结果检查取配置
+ */
+public final class ScanOptions {
+
+    private ProbeMode mode;
+    private SamplingOptions sampling = SamplingOptions.SINGLE;
+    private boolean cacheBusting;
+    private TimeoutPolicy timeout;
+    private int topK;
+    private Double qps;
+    private Integer maxPerServer;
+    private AnswerCheckMode answerCheck;
+    private List<String> referenceServers;
+    private Boolean nxdomainCheck;
+    private List<QueryType> types = Collections.emptyList();
+
+    public ProbeMode getMode() {
+        return mode;
+    }
+
+    /**
+     * 探测模式，为null时使用配置的默认模式
+     */
+    public ScanOptions mode(ProbeMode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    public SamplingOptions getSampling() {
+        return sampling;
+    }
+
+    public ScanOptions sampling(SamplingOptions sampling) {
+        this.sampling = sampling;
+        return this;
+    }
+
+    public boolean isCacheBusting() {
+        return cacheBusting;
+    }
+
+    /**
+     * 是否在每次查询时添加随机前缀标签，测量不命中缓存时的递归解析时间
+     */
+    public ScanOptions cacheBusting(boolean cacheBusting) {
+        this.cacheBusting = cacheBusting;
+        return this;
+    }
+
+    public TimeoutPolicy getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * 超时策略，为null时使用配置的默认策略
+     */
+    public ScanOptions timeout(TimeoutPolicy timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    /**
+     * 确认最快的K个服务器后取消其余查询，0表示测试全部服务器；只在单轮测试时生效
+     */
+    public ScanOptions topK(int topK) {
+        this.topK = Math.max(0, topK);
+        return this;
+    }
+
+    public Double getQps() {
+        return qps;
+    }
+
+    /**
+     * 全局每秒发出的查询数上限，0表示不限速，为null时使用配置
+     */
+    public ScanOptions qps(Double qps) {
+        this.qps = qps;
+        return this;
+    }
+
+    public Integer getMaxPerServer() {
+        return maxPerServer;
+    }
+
+    /**
+     * 每个服务器同时在途的最大查询数，0表示不限制，为null时使用配置
+     */
+    public ScanOptions maxPerServer(Integer maxPerServer) {
+        this.maxPerServer = maxPerServer;
+        return this;
+    }
+
+    public AnswerCheckMode getAnswerCheck() {
+        return answerCheck;
+    }
+
+    /**
+     * 解析结果正确性检查的处理方式，为null时使用配置
+     */
+    public ScanOptions answerCheck(AnswerCheckMode answerCheck) {
+        this.answerCheck = answerCheck;
+        return this;
+    }
+
+    public List<String> getReferenceServers() {
+        return referenceServers;
+    }
+
+    /**
+     * 应答可信的参考服务器，须在被测列表中；为null时使用配置
+     */
+    public ScanOptions referenceServers(List<String> referenceServers) {
+        this.referenceServers = referenceServers;
+        return this;
+    }
+
+    public Boolean getNxdomainCheck() {
+        return nxdomainCheck;
+    }
+
+    /**
+     * 是否向每个服务器额外发出一次金丝雀查询，检查NXDOMAIN重定向；只在开启解析结果检查时生效，为null时使用配置
+     */
+    public ScanOptions nxdomainCheck(Boolean nxdomainCheck) {
+        this.nxdomainCheck = nxdomainCheck;
+        return this;
+    }
+
+    public List<QueryType> getTypes() {
+        return types;
+    }
+
+    /**
+     * 每个服务器并行发出的查询类型，结果合并为一个；为空时只发出一个A查询，按原有规则判定
+     * 重复的类型只保留一个，按类型的声明顺序排列
+     */
+    public ScanOptions types(List<QueryType> types) {
+        this.types = types == null || types.isEmpty()
+            ? Collections.emptyList()
+            : Collections.unmodifiableList(new ArrayList<>(EnumSet.copyOf(types)));
+        return this;
+    }
+}
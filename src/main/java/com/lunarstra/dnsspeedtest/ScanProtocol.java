@@ -0,0 +1,289 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 分布式测试中协调进程与工作进程之间的TCP协议，基于 DataOutputStream 的定长字段和UTF字符串
+ * 工作进程连接后先发送问候帧，协调进程回复任务帧（分片内的服务器、域名、查询类型和测试参数），
+ * 之后工作进程发送若干结果批次帧，最后发送结束帧（附带收发计数）或错误帧
+ */
+final class ScanProtocol {
+
+    static final int MAGIC = 0x444E5344; // "DNSD"
+    static final short VERSION = 2;
+
+    /** 工作进程发送的帧类型 */
+    static final byte FRAME_BATCH = 1;
+    static final byte FRAME_DONE = 2;
+    static final byte FRAME_ERROR = 3;
+
+    private ScanProtocol() {
+    }
+
+    /**
+     * 分给一个工作进程的任务
+     */
+    static final class Job {
+        final int shard;
+        final int shards;
+        final List<String> servers;
+        final List<String> domains;
+        final ScanOptions options;
+
+        Job(int shard, int shards, List<String> servers, List<String> domains, ScanOptions options) {
+            this.shard = shard;
+            this.shards = shards;
+            this.servers = servers;
+            this.domains = domains;
+            this.options = options;
+        }
+    }
+
+    static void writeHello(DataOutputStream out, String workerName) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeUTF(workerName);
+        out.flush();
+    }
+
+    /**
+     * @return 工作进程的名称
+     * @throws IOException 不是本协议或版本不一致时抛出
+     */
+    static String readHello(DataInputStream in) throws IOException {
+        checkHeader(in);
+        return in.readUTF();
+    }
+
+    /**
+     * 写出任务；测试参数中未指定的项（探测模式、限速等）由工作进程按自己的配置决定，解析结果检查不下发
+     */
+    static void writeJob(DataOutputStream out, Job job) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(job.shard);
+        out.writeInt(job.shards);
+        ScanOptions options = job.options;
+        writeNullableEnum(out, options.getMode());
+        SamplingOptions sampling = options.getSampling();
+        out.writeInt(sampling.getRounds());
+        out.writeInt(sampling.getWarmup());
+        out.writeByte(sampling.getRankBy().ordinal());
+        out.writeBoolean(options.isCacheBusting());
+        TimeoutPolicy timeout = options.getTimeout();
+        out.writeBoolean(timeout != null);
+        if (timeout != null) {
+            out.writeLong(timeout.getMaxMs());
+            out.writeBoolean(timeout.isAdaptive());
+            out.writeDouble(timeout.getMultiplier());
+            out.writeLong(timeout.getMinMs());
+        }
+        out.writeInt(options.getTopK());
+        out.writeDouble(options.getQps() != null ? options.getQps() : -1);
+        out.writeInt(options.getMaxPerServer() != null ? options.getMaxPerServer() : -1);
+        out.writeByte(options.getTypes().size());
+        for (QueryType type : options.getTypes()) {
+            out.writeByte(type.ordinal());
+        }
+        writeStrings(out, job.domains);
+        writeStrings(out, job.servers);
+        out.flush();
+    }
+
+    static Job readJob(DataInputStream in) throws IOException {
+        checkHeader(in);
+        int shard = in.readInt();
+        int shards = in.readInt();
+        ScanOptions options = new ScanOptions();
+        options.mode(readNullableEnum(in, ProbeMode.values()));
+        int rounds = in.readInt();
+        int warmup = in.readInt();
+        RankingStatistic rankBy = RankingStatistic.values()[in.readUnsignedByte()];
+        options.sampling(new SamplingOptions(rounds, warmup, rankBy));
+        options.cacheBusting(in.readBoolean());
+        if (in.readBoolean()) {
+            long maxMs = in.readLong();
+            boolean adaptive = in.readBoolean();
+            double multiplier = in.readDouble();
+            long minMs = in.readLong();
+            options.timeout(adaptive ? TimeoutPolicy.adaptive(maxMs, multiplier, minMs) : TimeoutPolicy.fixed(maxMs));
+        }
+        options.topK(in.readInt());
+        double qps = in.readDouble();
+        options.qps(qps >= 0 ? qps : null);
+        int maxPerServer = in.readInt();
+        options.maxPerServer(maxPerServer >= 0 ? maxPerServer : null);
+        List<QueryType> types = new ArrayList<>();
+        for (int i = in.readUnsignedByte(); i > 0; i--) {
+            types.add(QueryType.values()[in.readUnsignedByte()]);
+        }
+        options.types(types);
+        // 解析结果由协调进程合并后统一检查
+        options.answerCheck(AnswerCheckMode.OFF);
+        List<String> domains = readStrings(in);
+        List<String> servers = readStrings(in);
+        return new Job(shard, shards, servers, domains, options);
+    }
+
+    /**
+     * 写出一批结果，调用方负责先按响应时间排序
+     */
+    static void writeBatch(DataOutputStream out, List<DNSResult> batch) throws IOException {
+        out.writeByte(FRAME_BATCH);
+        out.writeInt(batch.size());
+        for (DNSResult result : batch) {
+            writeResult(out, result);
+        }
+        out.flush();
+    }
+
+    static List<DNSResult> readBatch(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<DNSResult> batch = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            batch.add(readResult(in));
+        }
+        return batch;
+    }
+
+    static void writeDone(DataOutputStream out, ProbeCounters.Snapshot traffic) throws IOException {
+        out.writeByte(FRAME_DONE);
+        out.writeLong(traffic.getSent());
+        out.writeLong(traffic.getReceived());
+        out.writeLong(traffic.getTimedOut());
+        out.writeLong(traffic.getSendErrors());
+        out.writeLong(traffic.getSendBufferFull());
+        out.writeLong(traffic.getHostReceiveBufferErrors());
+        out.writeLong(traffic.getHostSendBufferErrors());
+        out.flush();
+    }
+
+    static ProbeCounters.Snapshot readDone(DataInputStream in) throws IOException {
+        return new ProbeCounters.Snapshot(in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong(),
+            in.readLong(), in.readLong());
+    }
+
+    static void writeError(DataOutputStream out, String message) throws IOException {
+        out.writeByte(FRAME_ERROR);
+        out.writeUTF(message != null ? message : "未知错误");
+        out.flush();
+    }
+
+    static void writeResult(DataOutputStream out, DNSResult result) throws IOException {
+        out.writeUTF(result.getDnsServer());
+        writeNullableString(out, result.getDomain());
+        out.writeBoolean(result.isSuccess());
+        out.writeLong(result.getResponseTimeNanos());
+        writeNullableString(out, result.getErrorMessage());
+        writeNullableString(out, result.getResolvedIP());
+        out.writeLong(result.getConnectNanos());
+        LatencyStats stats = result.getStats();
+        out.writeBoolean(stats != null);
+        if (stats != null) {
+            out.writeInt(stats.getSamples());
+            out.writeInt(stats.getAttempts());
+            out.writeLong(stats.getMin());
+            out.writeLong(stats.getMax());
+            out.writeLong(stats.getMedian());
+            out.writeLong(stats.getP90());
+            out.writeLong(stats.getP99());
+            out.writeDouble(stats.getMean());
+            out.writeDouble(stats.getStddev());
+        }
+        AnswerSet answers = result.getAnswers();
+        out.writeShort(answers.size());
+        for (int i = 0; i < answers.size(); i++) {
+            out.writeLong(answers.address(i));
+        }
+        out.writeLong(answers.getMinTtl());
+        out.writeByte(result.getAnswerVerdict().ordinal());
+        writeNullableEnum(out, result.getQueryType());
+        out.writeBoolean(result.isTcpFallback());
+        // 合并结果附带各类型的结果，各类型的结果本身不再嵌套
+        out.writeByte(result.getTypeResults().size());
+        for (DNSResult part : result.getTypeResults()) {
+            writeResult(out, part);
+        }
+    }
+
+    static DNSResult readResult(DataInputStream in) throws IOException {
+        String dnsServer = in.readUTF();
+        String domain = readNullableString(in);
+        boolean success = in.readBoolean();
+        long responseTimeNanos = in.readLong();
+        String errorMessage = readNullableString(in);
+        String resolvedIP = readNullableString(in);
+        long connectNanos = in.readLong();
+        LatencyStats stats = null;
+        if (in.readBoolean()) {
+            stats = new LatencyStats(in.readInt(), in.readInt(), in.readLong(), in.readLong(), in.readLong(),
+                in.readLong(), in.readLong(), in.readDouble(), in.readDouble());
+        }
+        long[] addresses = new long[in.readUnsignedShort()];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = in.readLong();
+        }
+        AnswerSet answers = AnswerSet.of(addresses, in.readLong());
+        AnswerVerdict verdict = AnswerVerdict.values()[in.readUnsignedByte()];
+        QueryType queryType = readNullableEnum(in, QueryType.values());
+        boolean tcpFallback = in.readBoolean();
+        int parts = in.readUnsignedByte();
+        List<DNSResult> typeResults = parts == 0 ? Collections.emptyList() : new ArrayList<>(parts);
+        for (int i = 0; i < parts; i++) {
+            typeResults.add(readResult(in));
+        }
+        return DNSResult.restore(dnsServer, domain, responseTimeNanos, success, errorMessage, resolvedIP, stats,
+            connectNanos, answers, verdict, queryType, tcpFallback, typeResults);
+    }
+
+    private static void checkHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("不是DNS测速分布式协议");
+        }
+        short version = in.readShort();
+        if (version != VERSION) {
+            throw new IOException("协议版本不一致: " + version);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(in.readUTF());
+        }
+        return values;
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableEnum(DataOutputStream out, Enum<?> value) throws IOException {
+        out.writeByte(value != null ? value.ordinal() : -1);
+    }
+
+    private static <E extends Enum<E>> E readNullableEnum(DataInputStream in, E[] values) throws IOException {
+        byte ordinal = in.readByte();
+        return ordinal >= 0 ? values[ordinal] : null;
+    }
+}
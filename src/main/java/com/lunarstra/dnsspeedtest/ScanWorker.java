@@ -0,0 +1,123 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.jboss.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 分布式测试的工作进程：连接协调进程，领取一个分片的服务器，测试后把结果分批送回
+ * 结果按完成顺序攒成批次，每批按响应时间排序后发送，协调进程只需归并各批次
+ */
+public class ScanWorker {
+
+    private static final Logger LOG = Logger.getLogger(ScanWorker.class);
+
+    // 每批最多的结果数，以及攒批的最长时间，超过任一项时发送
+    static final int BATCH_SIZE = 256;
+    static final long BATCH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final DNSSpeedTest dnsSpeedTest;
+
+    public ScanWorker(DNSSpeedTest dnsSpeedTest) {
+        this.dnsSpeedTest = dnsSpeedTest;
+    }
+
+    /**
+     * 连接协调进程并完成一个分片的测试，阻塞直到结果全部送回
+     * @param host 协调进程的地址
+     * @param port 协调进程的端口
+     * @param onResult 单个组合完成时的回调
+     * @return 本分片的测试结果，按响应时间升序排序
+     * @throws IOException 连接失败或与协调进程的连接中断时抛出
+     */
+    public List<DNSResult> run(String host, int port, Consumer<DNSResult> onResult) throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            ScanProtocol.writeHello(out, workerName());
+            ScanProtocol.Job job = ScanProtocol.readJob(in);
+            LOG.infof("领取分片 %d/%d：%d 个服务器，%d 个域名", job.shard + 1, job.shards, job.servers.size(),
+                job.domains.size());
+
+            Batcher batcher = new Batcher(out, onResult);
+            ProbeCounters.Snapshot before = dnsSpeedTest.getCounters().snapshot();
+            List<DNSResult> results;
+            try {
+                results = dnsSpeedTest.testMatrix(job.servers, job.domains, job.options, batcher);
+                batcher.flush();
+            } catch (RuntimeException e) {
+                try {
+                    ScanProtocol.writeError(out, e.getMessage());
+                } catch (IOException ignored) {
+                    // 连接已经不可用，协调进程会按连接中断处理
+                }
+                if (e instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e).getCause();
+                }
+                throw e;
+            }
+            ScanProtocol.writeDone(out, dnsSpeedTest.getCounters().snapshot().minus(before));
+            return results;
+        }
+    }
+
+    private static String workerName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "unknown";
+        }
+        return host + "/" + ManagementFactory.getRuntimeMXBean().getPid();
+    }
+
+    /**
+     * 把逐个完成的结果攒成批次发送；回调可能来自多个线程
+     */
+    private static final class Batcher implements Consumer<DNSResult> {
+        private final DataOutputStream out;
+        private final Consumer<DNSResult> onResult;
+        private final List<DNSResult> pending = new ArrayList<>(BATCH_SIZE);
+        private long lastFlushNanos = System.nanoTime();
+
+        Batcher(DataOutputStream out, Consumer<DNSResult> onResult) {
+            this.out = out;
+            this.onResult = onResult;
+        }
+
+        @Override
+        public synchronized void accept(DNSResult result) {
+            onResult.accept(result);
+            pending.add(result);
+            if (pending.size() >= BATCH_SIZE || System.nanoTime() - lastFlushNanos >= BATCH_INTERVAL_NANOS) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        synchronized void flush() throws IOException {
+            lastFlushNanos = System.nanoTime();
+            if (pending.isEmpty()) {
+                return;
+            }
+            pending.sort(DNSResult::compareTo);
+            ScanProtocol.writeBatch(out, pending);
+            pending.clear();
+        }
+    }
+}
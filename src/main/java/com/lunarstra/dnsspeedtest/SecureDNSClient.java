@@ -0,0 +1,376 @@
+package com.lunarstra.dnsspeedtest;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 加密DNS查询客户端：DNS over TLS（RFC 7858）与 DNS over HTTPS（RFC 8484）
+ * 同一服务器的查询复用一条连接：DoT在一条TLS连接上流水线发送，按事务ID匹配乱序返回的响应；
+ * DoH由HttpClient通过HTTP/2在一条连接上多路复用。
+ * 建立连接的时间单独记录，不计入查询的响应时间，测出的是连接复用后的稳态延迟；建立连接时不发送DNS查询。
+ * 查询返回的Future总是正常完成，失败以失败结果表示。线程安全，一次批量测试共用一个实例
+ */
+final class SecureDNSClient implements Closeable {
+
+    private static final String DNS_MESSAGE = "application/dns-message";
+
+    private final SSLContext sslContext;
+    private final long connectTimeoutMs;
+    private final Map<String, CompletableFuture<TlsConnection>> tlsConnections = new ConcurrentHashMap<>();
+    private final Map<URI, CompletableFuture<Long>> httpsOrigins = new ConcurrentHashMap<>();
+    private final ExecutorService connector = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "secure-dns-connect");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private HttpClient httpClient;
+
+    /**
+     * @param sslContext 校验服务器证书使用的SSL上下文，为null时使用JDK默认的信任库
+     * @param connectTimeoutMs 建立连接（含TLS握手）的超时时间（毫秒）
+     */
+    SecureDNSClient(SSLContext sslContext, long connectTimeoutMs) {
+        this.sslContext = sslContext;
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    /**
+     * @return 服务器地址是否使用加密传输
+     */
+    static boolean isSecure(String dnsServer) {
+        return dnsServer.regionMatches(true, 0, "tls://", 0, 6) || dnsServer.regionMatches(true, 0, "https://", 0, 8);
+    }
+
+    /**
+     * 发出一次查询，连接不存在或已断开时先建立连接
+     * @param dnsServer 带协议的服务器地址，同时作为结果中显示的名称
+     * @param address 已解析的服务器地址，DoH由HttpClient自行解析
+     * @param timeoutNanos 查询的超时时间（纳秒），从发出查询开始计算，不含建立连接
+     * @return 测试结果，成功时附带建立连接的时间
+     */
+    CompletableFuture<DNSResult> query(String dnsServer, InetSocketAddress address, DNSQuery query,
+                                       long timeoutNanos) {
+        ServerAddress server;
+        try {
+            server = ServerAddress.parse(dnsServer);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(new DNSResult(dnsServer, "无效的DNS地址: " + e.getMessage()));
+        }
+        CompletableFuture<DNSResult> result = server.getTransport() == DNSTransport.HTTPS
+            ? queryHttps(dnsServer, server, query, timeoutNanos)
+            : queryTls(dnsServer, server, address, query, timeoutNanos);
+        // 建立连接失败时内层的查询没有执行
+        return result.exceptionally(error -> new DNSResult(dnsServer, "建立连接失败: " + messageOf(error)));
+    }
+
+    private CompletableFuture<DNSResult> queryTls(String dnsServer, ServerAddress server, InetSocketAddress address,
+                                                  DNSQuery query, long timeoutNanos) {
+        if (address.isUnresolved()) {
+            return CompletableFuture.completedFuture(new DNSResult(dnsServer, "无法解析DNS服务器地址"));
+        }
+        // 已断开的连接重新建立，建立失败的保留失败状态，本次测试中不再重试
+        CompletableFuture<TlsConnection> connection = tlsConnections.compute(dnsServer, (key, existing) ->
+            existing == null || (existing.isDone() && !existing.isCompletedExceptionally() && existing.join().isClosed())
+                ? CompletableFuture.supplyAsync(() -> connect(server, address), connector)
+                : existing);
+        return connection.thenCompose(tls -> tls.send(query, timeoutNanos)
+            .thenApply(exchange -> DNSSpeedTest.toResult(dnsServer, query, exchange.response, exchange.rttNanos)
+                .withConnectNanos(tls.connectNanos))
+            .exceptionally(error -> failure(dnsServer, error)));
+    }
+
+    private TlsConnection connect(ServerAddress server, InetSocketAddress address) {
+        try {
+            return TlsConnection.open(sslContext(), server, address, (int) connectTimeoutMs);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * HttpClient不单独暴露握手，DoH的建连时间取每个源站一个HEAD请求的耗时：TCP、TLS握手和HTTP/2协商，
+     * 再加上一次不含DNS处理的请求往返，因此比DoT只含TCP和TLS握手的建连时间多一个往返。
+     * HEAD请求的状态码不影响结果（DoH端点通常返回400或405），连接留在HttpClient中供之后的查询复用；
+     * 这个请求完成前，同一源站的其他查询等待，避免并发建立多条连接
+     */
+    private CompletableFuture<DNSResult> queryHttps(String dnsServer, ServerAddress server, DNSQuery query,
+                                                    long timeoutNanos) {
+        URI uri = server.toURI();
+        HttpClient client;
+        try {
+            client = httpClient();
+        } catch (NoSuchAlgorithmException e) {
+            return CompletableFuture.completedFuture(new DNSResult(dnsServer, "建立连接失败: " + e.getMessage()));
+        }
+        CompletableFuture<Long> origin = httpsOrigins.computeIfAbsent(uri, key -> connect(client, key));
+        return origin.thenCompose(connectNanos -> exchange(client, uri, query, timeoutNanos)
+            .thenApply(exchange -> DNSSpeedTest.toResult(dnsServer, query, exchange.response, exchange.rttNanos)
+                .withConnectNanos(connectNanos))
+            .exceptionally(error -> failure(dnsServer, error)));
+    }
+
+    private CompletableFuture<Long> connect(HttpClient client, URI uri) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+            .timeout(Duration.ofMillis(connectTimeoutMs))
+            .method("HEAD", HttpRequest.BodyPublishers.noBody())
+            .build();
+        long startNanos = System.nanoTime();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+            .thenApply(response -> System.nanoTime() - startNanos);
+    }
+
+    private static CompletableFuture<Exchange> exchange(HttpClient client, URI uri, DNSQuery query,
+                                                        long timeoutNanos) {
+        // RFC 8484 建议事务ID固定为0，便于HTTP缓存
+        HttpRequest request = HttpRequest.newBuilder(uri)
+            .timeout(Duration.ofNanos(timeoutNanos))
+            .header("Content-Type", DNS_MESSAGE)
+            .header("Accept", DNS_MESSAGE)
+            .POST(HttpRequest.BodyPublishers.ofByteArray(query.encode(0)))
+            .build();
+        long startNanos = System.nanoTime();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+            long rttNanos = System.nanoTime() - startNanos;
+            if (response.statusCode() != 200) {
+                throw new CompletionException(new IOException("HTTP " + response.statusCode()));
+            }
+            return new Exchange(ByteBuffer.wrap(response.body()), rttNanos);
+        });
+    }
+
+    private synchronized HttpClient httpClient() throws NoSuchAlgorithmException {
+        if (httpClient == null) {
+            httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .sslContext(sslContext())
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+        }
+        return httpClient;
+    }
+
+    private SSLContext sslContext() throws NoSuchAlgorithmException {
+        return sslContext != null ? sslContext : SSLContext.getDefault();
+    }
+
+    /**
+     * 丢弃建立失败的连接，之后的查询重新建立；在多次测试之间共用一个实例时，每次测试开始前调用，
+     * 一次批量测试内仍不重试
+     */
+    void discardFailedConnections() {
+        tlsConnections.values().removeIf(CompletableFuture::isCompletedExceptionally);
+        httpsOrigins.values().removeIf(CompletableFuture::isCompletedExceptionally);
+    }
+
+    private static DNSResult failure(String dnsServer, Throwable error) {
+        Throwable cause = unwrap(error);
+        if (cause instanceof TimeoutException || cause instanceof HttpTimeoutException) {
+            return new DNSResult(dnsServer, "请求超时");
+        }
+        return new DNSResult(dnsServer, "DNS查询失败: " + cause.getMessage());
+    }
+
+    private static String messageOf(Throwable error) {
+        Throwable cause = unwrap(error);
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    @Override
+    public void close() {
+        for (CompletableFuture<TlsConnection> connection : tlsConnections.values()) {
+            if (connection.isDone() && !connection.isCompletedExceptionally()) {
+                connection.join().close();
+            } else {
+                connection.thenAccept(TlsConnection::close);
+            }
+        }
+        tlsConnections.clear();
+        connector.shutdown();
+        synchronized (this) {
+            // JDK 21起HttpClient可以关闭，更早的版本在不再引用后由垃圾回收释放连接
+            if (httpClient instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) httpClient).close();
+                } catch (Exception e) {
+                    // 忽略关闭异常
+                }
+            }
+            httpClient = null;
+        }
+    }
+
+    /**
+     * 一次查询的响应报文和响应时间
+     */
+    private static final class Exchange {
+        final ByteBuffer response;
+        final long rttNanos;
+
+        Exchange(ByteBuffer response, long rttNanos) {
+            this.response = response;
+            this.rttNanos = rttNanos;
+        }
+    }
+
+    /**
+     * 一条DoT连接，报文前加2字节长度（RFC 1035 4.2.2），多个查询可以同时在途，
+     * 由读取线程按事务ID分发响应
+     */
+    private static final class TlsConnection implements Closeable {
+        private final SSLSocket socket;
+        private final DataOutputStream out;
+        private final long connectNanos;
+        private final Map<Integer, InFlight> inFlight = new ConcurrentHashMap<>();
+        private volatile boolean closed;
+
+        private TlsConnection(SSLSocket socket, long connectNanos) throws IOException {
+            this.socket = socket;
+            this.connectNanos = connectNanos;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            Thread reader = new Thread(this::readLoop, "secure-dns-tls-" + socket.getPort());
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * 建立TCP连接并完成TLS握手，证书按服务器的主机名或IP地址校验
+         */
+        static TlsConnection open(SSLContext sslContext, ServerAddress server, InetSocketAddress address,
+                                  int timeoutMs) throws IOException {
+            long startNanos = System.nanoTime();
+            Socket tcp = new Socket();
+            try {
+                tcp.setTcpNoDelay(true);
+                tcp.connect(address, timeoutMs);
+                tcp.setSoTimeout(timeoutMs);
+                SSLSocket tls = (SSLSocket) sslContext.getSocketFactory()
+                    .createSocket(tcp, server.getHost(), server.getPort(), true);
+                SSLParameters parameters = tls.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                tls.setSSLParameters(parameters);
+                tls.startHandshake();
+                tls.setSoTimeout(0);
+                return new TlsConnection(tls, System.nanoTime() - startNanos);
+            } catch (IOException e) {
+                tcp.close();
+                throw e;
+            }
+        }
+
+        CompletableFuture<Exchange> send(DNSQuery query, long timeoutNanos) {
+            InFlight pending = new InFlight();
+            int id = allocateId(pending);
+            byte[] message = query.encode(id);
+            try {
+                synchronized (out) {
+                    pending.sendNanos = System.nanoTime();
+                    out.writeShort(message.length);
+                    out.write(message);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                inFlight.remove(id);
+                close();
+                pending.future.completeExceptionally(e);
+                return pending.future;
+            }
+            if (closed) {
+                // 读取线程在登记之前已经退出
+                pending.future.completeExceptionally(new IOException("连接已关闭"));
+            }
+            pending.future.orTimeout(timeoutNanos, TimeUnit.NANOSECONDS)
+                .whenComplete((exchange, error) -> inFlight.remove(id, pending));
+            return pending.future;
+        }
+
+        private int allocateId(InFlight pending) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (true) {
+                int id = random.nextInt(0x10000);
+                if (inFlight.putIfAbsent(id, pending) == null) {
+                    return id;
+                }
+            }
+        }
+
+        private void readLoop() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                while (true) {
+                    byte[] message = new byte[in.readUnsignedShort()];
+                    in.readFully(message);
+                    long receiveNanos = System.nanoTime();
+                    if (message.length < DNSMessage.HEADER_SIZE) {
+                        continue;
+                    }
+                    ByteBuffer response = ByteBuffer.wrap(message);
+                    InFlight pending = inFlight.remove(DNSMessage.getId(response));
+                    if (pending != null) {
+                        pending.future.complete(new Exchange(response, receiveNanos - pending.sendNanos));
+                    }
+                }
+            } catch (IOException e) {
+                // 对端关闭或连接出错，在途查询全部失败
+            } finally {
+                close();
+            }
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 忽略关闭异常
+            }
+            for (InFlight pending : inFlight.values()) {
+                pending.future.completeExceptionally(new IOException("连接已关闭"));
+            }
+            inFlight.clear();
+        }
+    }
+
+    private static final class InFlight {
+        final CompletableFuture<Exchange> future = new CompletableFuture<>();
+        volatile long sendNanos;
+    }
+}
@@ -0,0 +1,360 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+
+/**
+ * DNS服务器地址，支持 IPv4、IPv6 字面量和主机名，可带端口：
+ * {@code 1.2.3.4}、{@code 1.2.3.4:5353}、{@code 2001:db8::1}、{@code [2001:db8::1]:5353}、{@code dns.google:53}
+ * 加密传输在前面加协议：{@code tls://1.1.1.1}、{@code https://dns.google/dns-query}，HTTPS不写路径时为 /dns-query
+ * IP字面量完全在本地解析，不会触发系统解析器查询
+ */
+public final class ServerAddress {
+
+    public static final int DEFAULT_PORT = 53;
+    public static final String DEFAULT_DOH_PATH = "/dns-query";
+
+    private static final int MAX_HOSTNAME_LENGTH = 253;
+    private static final int MAX_LABEL_LENGTH = 63;
+
+    private final String text;
+    private final DNSTransport transport;
+    private final String host;
+    private final int port;
+    private final String path; // 只用于HTTPS
+    private final byte[] literal; // IP字面量的字节，主机名时为null
+
+    private ServerAddress(String text, DNSTransport transport, String host, int port, String path, byte[] literal) {
+        this.text = text;
+        this.transport = transport;
+        this.host = host;
+        this.port = port;
+        this.path = path;
+        this.literal = literal;
+    }
+
+    /**
+     * 解析地址文本
+     * @throws IllegalArgumentException 格式非法时抛出
+     */
+    public static ServerAddress parse(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            throw new IllegalArgumentException("地址不能为空");
+        }
+        String trimmed = text.trim();
+        DNSTransport transport = DNSTransport.UDP;
+        String authority = trimmed;
+        String path = null;
+        int schemeEnd = trimmed.indexOf("://");
+        if (schemeEnd >= 0) {
+            transport = DNSTransport.ofScheme(trimmed.substring(0, schemeEnd));
+            authority = trimmed.substring(schemeEnd + 3);
+            int slash = authority.indexOf('/');
+            if (slash >= 0) {
+                if (transport != DNSTransport.HTTPS) {
+                    throw new IllegalArgumentException("只有HTTPS地址可以带路径: " + trimmed);
+                }
+                path = authority.substring(slash);
+                authority = authority.substring(0, slash);
+            } else if (transport == DNSTransport.HTTPS) {
+                path = DEFAULT_DOH_PATH;
+            }
+        }
+
+        String host;
+        String portText = null;
+        boolean bracketed = authority.startsWith("[");
+        if (bracketed) {
+            int close = authority.indexOf(']');
+            if (close < 0) {
+                throw new IllegalArgumentException("缺少右方括号: " + trimmed);
+            }
+            host = authority.substring(1, close);
+            String rest = authority.substring(close + 1);
+            if (!rest.isEmpty()) {
+                if (!rest.startsWith(":")) {
+                    throw new IllegalArgumentException("方括号后只能是端口: " + trimmed);
+                }
+                portText = rest.substring(1);
+            }
+        } else {
+            int first = authority.indexOf(':');
+            if (first >= 0 && first == authority.lastIndexOf(':')) {
+                // 只有一个冒号：主机:端口
+                host = authority.substring(0, first);
+                portText = authority.substring(first + 1);
+            } else {
+                // 没有冒号，或者是不带端口的IPv6地址
+                host = authority;
+            }
+        }
+        int port = portText != null ? parsePort(portText, trimmed) : transport.getDefaultPort();
+
+        byte[] literal;
+        if (bracketed || host.indexOf(':') >= 0) {
+            literal = parseIPv6(host);
+            if (literal == null) {
+                throw new IllegalArgumentException("非法的IPv6地址: " + host);
+            }
+        } else if (looksLikeIPv4(host)) {
+            literal = parseIPv4(host);
+            if (literal == null) {
+                throw new IllegalArgumentException("非法的IPv4地址: " + host);
+            }
+        } else {
+            checkHostname(host);
+            literal = null;
+        }
+        ServerAddress address = new ServerAddress(trimmed, transport, host, port, path, literal);
+        if (transport == DNSTransport.HTTPS) {
+            try {
+                address.toURI();
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("非法的HTTPS地址: " + trimmed);
+            }
+        }
+        return address;
+    }
+
+    /**
+     * @return 原始地址文本（已去除首尾空白），用作结果中显示的服务器名称
+     */
+    public String getText() {
+        return text;
+    }
+
+    public DNSTransport getTransport() {
+        return transport;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return HTTPS请求的路径，其他传输方式为null
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return DoH请求的URI，只用于HTTPS
+     */
+    public URI toURI() {
+        String authority = host.indexOf(':') >= 0 ? "[" + host + "]" : host;
+        return URI.create("https://" + authority + ":" + port + path);
+    }
+
+    /**
+     * @return 是否为IP字面量，不需要解析
+     */
+    public boolean isLiteral() {
+        return literal != null;
+    }
+
+    /**
+     * IP字面量返回已解析的地址，主机名返回未解析的地址
+     */
+    public InetSocketAddress toSocketAddress() {
+        if (literal == null) {
+            return InetSocketAddress.createUnresolved(host, port);
+        }
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(literal), port);
+        } catch (UnknownHostException e) {
+            // 长度为4或16时不会发生
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 解析尚未解析的地址（阻塞），解析失败时仍返回未解析的地址，由探测过程报告错误
+     */
+    static InetSocketAddress resolve(InetSocketAddress address) {
+        if (!address.isUnresolved()) {
+            return address;
+        }
+        return new InetSocketAddress(address.getHostString(), address.getPort());
+    }
+
+    private static int parsePort(String portText, String text) {
+        if (portText.isEmpty() || portText.length() > 5 || !isDigits(portText)) {
+            throw new IllegalArgumentException("非法的端口: " + text);
+        }
+        int port = Integer.parseInt(portText);
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("端口超出范围: " + text);
+        }
+        return port;
+    }
+
+    /**
+     * 只由数字和点组成的主机按IPv4处理，避免 999.1.1.1 之类的输入被当作主机名
+     */
+    private static boolean looksLikeIPv4(String host) {
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析点分十进制的IPv4地址
+     * @return 4字节地址，格式非法时返回null
+     */
+    static byte[] parseIPv4(String s) {
+        byte[] out = new byte[4];
+        int part = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i <= s.length(); i++) {
+            if (i == s.length() || s.charAt(i) == '.') {
+                if (digits == 0 || part >= 4) {
+                    return null;
+                }
+                out[part++] = (byte) value;
+                value = 0;
+                digits = 0;
+                continue;
+            }
+            char c = s.charAt(i);
+            if (c < '0' || c > '9' || ++digits > 3) {
+                return null;
+            }
+            value = value * 10 + (c - '0');
+            if (value > 255) {
+                return null;
+            }
+        }
+        return part == 4 ? out : null;
+    }
+
+    /**
+     * 解析IPv6地址，支持 :: 压缩和末尾内嵌的IPv4地址，不支持区域标识
+     * @return 16字节地址，格式非法时返回null
+     */
+    static byte[] parseIPv6(String s) {
+        if (s.isEmpty()) {
+            return null;
+        }
+        int gap = s.indexOf("::");
+        if (gap >= 0 && s.indexOf("::", gap + 1) >= 0) {
+            return null;
+        }
+        byte[] head;
+        byte[] tail;
+        if (gap < 0) {
+            head = parseGroups(s, true);
+            tail = new byte[0];
+            if (head == null || head.length != 16) {
+                return null;
+            }
+        } else {
+            head = parseGroups(s.substring(0, gap), false);
+            tail = parseGroups(s.substring(gap + 2), true);
+            // :: 至少代表一组0
+            if (head == null || tail == null || head.length + tail.length > 14) {
+                return null;
+            }
+        }
+        byte[] out = new byte[16];
+        System.arraycopy(head, 0, out, 0, head.length);
+        System.arraycopy(tail, 0, out, 16 - tail.length, tail.length);
+        return out;
+    }
+
+    /**
+     * 解析冒号分隔的若干组十六进制数
+     * @param allowIPv4 最后一组是否可以是IPv4地址
+     * @return 每组2字节（IPv4为4字节），格式非法时返回null
+     */
+    private static byte[] parseGroups(String s, boolean allowIPv4) {
+        if (s.isEmpty()) {
+            return new byte[0];
+        }
+        String[] groups = s.split(":", -1);
+        if (groups.length > 8) {
+            return null;
+        }
+        byte[] out = new byte[groups.length * 2 + 2];
+        int pos = 0;
+        for (int i = 0; i < groups.length; i++) {
+            String group = groups[i];
+            if (i == groups.length - 1 && allowIPv4 && group.indexOf('.') >= 0) {
+                byte[] v4 = parseIPv4(group);
+                if (v4 == null) {
+                    return null;
+                }
+                System.arraycopy(v4, 0, out, pos, 4);
+                pos += 4;
+                continue;
+            }
+            if (group.isEmpty() || group.length() > 4) {
+                return null;
+            }
+            int value = 0;
+            for (int j = 0; j < group.length(); j++) {
+                int digit = Character.digit(group.charAt(j), 16);
+                if (digit < 0) {
+                    return null;
+                }
+                value = (value << 4) | digit;
+            }
+            out[pos++] = (byte) (value >>> 8);
+            out[pos++] = (byte) value;
+        }
+        byte[] trimmed = new byte[pos];
+        System.arraycopy(out, 0, trimmed, 0, pos);
+        return trimmed;
+    }
+
+    private static void checkHostname(String host) {
+        String name = host.endsWith(".") ? host.substring(0, host.length() - 1) : host;
+        if (name.isEmpty() || name.length() > MAX_HOSTNAME_LENGTH) {
+            throw new IllegalArgumentException("非法的主机名: " + host);
+        }
+        int labelStart = 0;
+        for (int i = 0; i <= name.length(); i++) {
+            if (i == name.length() || name.charAt(i) == '.') {
+                int len = i - labelStart;
+                if (len == 0 || len > MAX_LABEL_LENGTH
+                        || name.charAt(labelStart) == '-' || name.charAt(i - 1) == '-') {
+                    throw new IllegalArgumentException("非法的主机名: " + host);
+                }
+                labelStart = i + 1;
+                continue;
+            }
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '_' || c > 0x7F; // 允许国际化域名
+            if (!valid) {
+                throw new IllegalArgumentException("非法的主机名: " + host);
+            }
+        }
+    }
+
+    private static boolean isDigits(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
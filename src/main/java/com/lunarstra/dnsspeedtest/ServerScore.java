@@ -0,0 +1,91 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单个DNS服务器在多个域名上的综合得分
+ * 先比较成功的域名数，再比较成功域名的平均响应时间
+ */
+public final class ServerScore implements Comparable<ServerScore> {
+
+    private final String dnsServer;
+    private int domains;
+    private int succeeded;
+    private long totalNanos;
+    private String firstError;
+
+    private ServerScore(String dnsServer) {
+        this.dnsServer = dnsServer;
+    }
+
+    /**
+     * 按服务器汇总多域名测试结果
+     * @param results 每个服务器×域名组合的结果
+     * @return 每个服务器一个得分，按综合得分排序
+     */
+    public static List<ServerScore> aggregate(List<DNSResult> results) {
+        Map<String, ServerScore> scores = new LinkedHashMap<>();
+        for (DNSResult result : results) {
+            ServerScore score = scores.computeIfAbsent(result.getDnsServer(), ServerScore::new);
+            score.domains++;
+            if (result.isSuccess()) {
+                score.succeeded++;
+                score.totalNanos += result.getResponseTimeNanos();
+            } else if (score.firstError == null) {
+                score.firstError = result.getErrorMessage();
+            }
+        }
+        List<ServerScore> list = new ArrayList<>(scores.values());
+        list.sort(ServerScore::compareTo);
+        return list;
+    }
+
+    public String getDnsServer() {
+        return dnsServer;
+    }
+
+    public int getDomains() {
+        return domains;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * @return 成功域名的平均响应时间（纳秒），全部失败时为Long.MAX_VALUE
+     */
+    public long getMeanNanos() {
+        return succeeded == 0 ? Long.MAX_VALUE : totalNanos / succeeded;
+    }
+
+    /**
+     * @return 第一个失败域名的错误信息，没有失败时为null
+     */
+    public String getFirstError() {
+        return firstError;
+    }
+
+    public boolean isSuccess() {
+        return succeeded > 0;
+    }
+
+    @Override
+    public int compareTo(ServerScore other) {
+        if (succeeded != other.succeeded) {
+            return Integer.compare(other.succeeded, succeeded);
+        }
+        return Long.compare(getMeanNanos(), other.getMeanNanos());
+    }
+
+    @Override
+    public String toString() {
+        if (succeeded == 0) {
+            return String.format("%s (全部失败: %s)", dnsServer, firstError);
+        }
+        return String.format("%s (平均 %.3fms, %d/%d 个域名成功)", dnsServer, getMeanNanos() / 1e6, succeeded, domains);
+    }
+}
@@ -0,0 +1,97 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一致性哈希环，把服务器分配到各个分片（工作进程）
+ * 每个分片在环上放置若干虚拟节点，服务器归属于它的哈希值之后的第一个节点。
+ * 分片数变化时只有约 1/N 的服务器换到别的分片，同一服务器在多次测试中通常由同一个工作进程测试
+ */
+final class ShardRing {
+
+    // 每个分片的虚拟节点数，越多各分片分到的服务器数越均匀
+    static final int VIRTUAL_NODES = 160;
+
+    private final int shards;
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * @param shards 分片数
+     */
+    ShardRing(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("分片数必须大于0");
+        }
+        this.shards = shards;
+        int size = shards * VIRTUAL_NODES;
+        long[] hashes = new long[size];
+        for (int shard = 0; shard < shards; shard++) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                hashes[shard * VIRTUAL_NODES + node] = hash("shard-" + shard + "#" + node);
+            }
+        }
+        // 按哈希值排序，同时记录每个节点所属的分片
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+        points = new long[size];
+        owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = hashes[order[i]];
+            owners[i] = order[i] / VIRTUAL_NODES;
+        }
+    }
+
+    int getShards() {
+        return shards;
+    }
+
+    /**
+     * @return key所属的分片序号
+     */
+    int shardOf(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        // 超过最后一个节点时回到环的开头
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * 按分片划分，每个分片内保持原有顺序
+     */
+    List<List<String>> partition(List<String> keys) {
+        List<List<String>> parts = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (String key : keys) {
+            parts.get(shardOf(key)).add(key);
+        }
+        return parts;
+    }
+
+    /**
+     * 64位FNV-1a哈希，再经过MurmurHash3的最终混合，使相近的字符串也均匀分布在环上
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,180 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次批量测试的 服务器×查询 目标序列
+ * 目标可以一次给全，也可以随服务器列表的读取逐批追加；已追加的目标按下标访问，下标一经分配不再改变
+ * 非线程安全，只在分派任务的线程中使用
+ */
+final class TargetFeed {
+
+    final List<String> names = new ArrayList<>();
+    final List<InetSocketAddress> addresses = new ArrayList<>();
+    final List<DNSQuery> queries = new ArrayList<>();
+
+    private final DNSServerSource source;
+    private final List<List<DNSQuery>> domainQueries;
+    private final BlockingQueue<Lookup> lookups = new LinkedBlockingQueue<>();
+    private int pendingLookups;
+    private boolean exhausted;
+
+    private TargetFeed(DNSServerSource source, List<List<DNSQuery>> domainQueries) {
+        this.source = source;
+        this.domainQueries = domainQueries;
+    }
+
+    /**
+     * 全部目标已知，names、addresses与queries一一对应
+     */
+    static TargetFeed of(List<String> names, List<InetSocketAddress> addresses, List<DNSQuery> queries) {
+        TargetFeed feed = new TargetFeed(null, null);
+        feed.names.addAll(names);
+        feed.addresses.addAll(addresses);
+        feed.queries.addAll(queries);
+        feed.exhausted = true;
+        return feed;
+    }
+
+    /**
+     * 全部目标已知，但其中有尚未解析的主机名：已解析的目标立即可用，
+     * 每个主机名只解析一次，解析完成（失败或超时时保留未解析的地址，由探测过程报告错误）后追加它的全部目标
+     * @param resolvers 执行解析的线程池
+     * @param resolveTimeoutMs 单个主机名的解析时间上限（毫秒）
+     */
+    static TargetFeed resolving(List<String> names, List<InetSocketAddress> addresses, List<DNSQuery> queries,
+                                Executor resolvers, long resolveTimeoutMs) {
+        TargetFeed feed = new TargetFeed(null, null);
+        Map<InetSocketAddress, Lookup> hosts = new LinkedHashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            InetSocketAddress address = addresses.get(i);
+            if (address.isUnresolved()) {
+                Lookup lookup = hosts.computeIfAbsent(address, Lookup::new);
+                lookup.names.add(names.get(i));
+                lookup.queries.add(queries.get(i));
+            } else {
+                feed.names.add(names.get(i));
+                feed.addresses.add(address);
+                feed.queries.add(queries.get(i));
+            }
+        }
+        for (Lookup lookup : hosts.values()) {
+            CompletableFuture.supplyAsync(() -> ServerAddress.resolve(lookup.address), resolvers)
+                .completeOnTimeout(lookup.address, resolveTimeoutMs, TimeUnit.MILLISECONDS)
+                .whenComplete((resolved, error) -> {
+                    lookup.resolved = resolved != null ? resolved : lookup.address;
+                    feed.lookups.add(lookup);
+                });
+        }
+        feed.pendingLookups = hosts.size();
+        feed.exhausted = hosts.isEmpty();
+        return feed;
+    }
+
+    /**
+     * 随服务器列表的读取逐批追加目标，每批内按域名优先排列，同一服务器的一组查询（各查询类型）相邻
+     * @param domainQueries 每个域名一组查询
+     */
+    static TargetFeed streaming(DNSServerSource source, List<List<DNSQuery>> domainQueries) {
+        return new TargetFeed(source, domainQueries);
+    }
+
+    /**
+     * 等待下一批目标并追加到末尾；等待被中断时视为没有更多目标，并保留中断状态
+     * @param timeoutNanos 最多等待的时间，0表示不等待
+     * @return 新增的目标数，已没有更多目标时返回-1
+     */
+    int fill(long timeoutNanos) {
+        if (exhausted) {
+            return -1;
+        }
+        if (source == null) {
+            return fillResolved(timeoutNanos);
+        }
+        List<DNSServerSource.Server> batch;
+        try {
+            batch = source.poll(timeoutNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch = null;
+        }
+        if (batch == null) {
+            exhausted = true;
+            return -1;
+        }
+        int added = 0;
+        for (List<DNSQuery> group : domainQueries) {
+            for (DNSServerSource.Server server : batch) {
+                for (DNSQuery query : group) {
+                    names.add(server.getName());
+                    addresses.add(server.getAddress());
+                    queries.add(query);
+                }
+            }
+            added += batch.size() * group.size();
+        }
+        return added;
+    }
+
+    private int fillResolved(long timeoutNanos) {
+        List<Lookup> batch = new ArrayList<>();
+        try {
+            Lookup first = timeoutNanos > 0 ? lookups.poll(timeoutNanos, TimeUnit.NANOSECONDS) : lookups.poll();
+            if (first != null) {
+                batch.add(first);
+                lookups.drainTo(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exhausted = true;
+            return -1;
+        }
+        int added = 0;
+        for (Lookup lookup : batch) {
+            for (int i = 0; i < lookup.names.size(); i++) {
+                names.add(lookup.names.get(i));
+                addresses.add(lookup.resolved);
+                queries.add(lookup.queries.get(i));
+            }
+            added += lookup.names.size();
+        }
+        pendingLookups -= batch.size();
+        // 最后一批追加后即视为读完，调用方照常处理本次新增的目标
+        exhausted = pendingLookups == 0;
+        return added;
+    }
+
+    /**
+     * @return 是否已经没有更多目标
+     */
+    boolean isExhausted() {
+        return exhausted;
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    /**
+     * 一个主机名的解析，以及使用它的全部目标
+     */
+    private static final class Lookup {
+        final InetSocketAddress address;
+        final List<String> names = new ArrayList<>();
+        final List<DNSQuery> queries = new ArrayList<>();
+        volatile InetSocketAddress resolved;
+
+        Lookup(InetSocketAddress address) {
+            this.address = address;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * JSON Lines 和 CSV 格式的结果写出器
+ * 两种格式的字段相同，时间值均为纳秒；失败结果的响应时间、没有多轮采样时的统计值留空（JSON中为null）。
+ * 全部地址记录在CSV中以空格分隔，TTL为其中最小的值，没有地址记录时为-1。
+ * 分类型查询的合并结果附带各类型的结果：JSON中为types数组，CSV中为空格分隔的 类型:纳秒，
+ * 失败的类型只有类型名和冒号，改用TCP的类型后加 +tcp；未分类型的结果为null（CSV中留空）
+ */
+final class TextResultWriter implements ResultWriter {
+
+    private static final int BUFFER_CHARS = 1 << 18;
+
+    static final String CSV_HEADER = "server,domain,success,response_time_ns,connect_ns,resolved_ip,error,"
+        + "samples,attempts,min_ns,max_ns,median_ns,p90_ns,p99_ns,mean_ns,stddev_ns,answers,ttl,answer_verdict,"
+        + "tcp_fallback,types";
+
+    static final String VERDICT_CSV_HEADER = "server,domain,answer_verdict";
+
+    private final Writer out;
+    private final boolean json;
+    // 每条记录复用的拼接缓冲
+    private final StringBuilder line = new StringBuilder(256);
+
+    private TextResultWriter(Path path, boolean json) throws IOException {
+        this.out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8),
+            BUFFER_CHARS);
+        this.json = json;
+    }
+
+    static TextResultWriter jsonLines(Path path) throws IOException {
+        return new TextResultWriter(path, true);
+    }
+
+    static TextResultWriter csv(Path path) throws IOException {
+        TextResultWriter writer = new TextResultWriter(path, false);
+        writer.out.write(CSV_HEADER);
+        writer.out.write('\n');
+        return writer;
+    }
+
+    @Override
+    public void write(DNSResult result) throws IOException {
+        line.setLength(0);
+        if (json) {
+            appendJson(result);
+        } else {
+            appendCsv(result);
+        }
+        line.append('\n');
+        out.append(line);
+    }
+
+    private void appendJson(DNSResult result) {
+        line.append("{\"server\":");
+        jsonString(result.getDnsServer());
+        line.append(",\"domain\":");
+        jsonString(result.getDomain());
+        line.append(",\"success\":").append(result.isSuccess());
+        line.append(",\"responseTimeNanos\":");
+        if (result.isSuccess()) {
+            line.append(result.getResponseTimeNanos());
+        } else {
+            line.append("null");
+        }
+        line.append(",\"connectNanos\":").append(result.getConnectNanos());
+        line.append(",\"resolvedIP\":");
+        jsonString(result.getResolvedIP());
+        line.append(",\"error\":");
+        jsonString(result.getErrorMessage());
+        AnswerSet answers = result.getAnswers();
+        line.append(",\"answers\":[");
+        for (int i = 0; i < answers.size(); i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append('"').append(answers.addressText(i)).append('"');
+        }
+        line.append("],\"ttl\":").append(answers.getMinTtl());
+        line.append(",\"answerVerdict\":\"").append(result.getAnswerVerdict()).append('"');
+        LatencyStats stats = result.getStats();
+        line.append(",\"stats\":");
+        if (stats == null) {
+            line.append("null");
+        } else {
+            line.append("{\"samples\":").append(stats.getSamples())
+                .append(",\"attempts\":").append(stats.getAttempts())
+                .append(",\"minNanos\":").append(stats.getMin())
+                .append(",\"maxNanos\":").append(stats.getMax())
+                .append(",\"medianNanos\":").append(stats.getMedian())
+                .append(",\"p90Nanos\":").append(stats.getP90())
+                .append(",\"p99Nanos\":").append(stats.getP99())
+                .append(",\"meanNanos\":").append(stats.getMean())
+                .append(",\"stddevNanos\":").append(stats.getStddev())
+                .append('}');
+        }
+        line.append(",\"tcpFallback\":").append(result.isTcpFallback());
+        line.append(",\"types\":");
+        if (result.getTypeResults().isEmpty()) {
+            line.append("null");
+        } else {
+            line.append('[');
+            for (DNSResult part : result.getTypeResults()) {
+                if (line.charAt(line.length() - 1) != '[') {
+                    line.append(',');
+                }
+                line.append("{\"type\":\"").append(part.getQueryType()).append('"');
+                line.append(",\"success\":").append(part.isSuccess());
+                line.append(",\"responseTimeNanos\":");
+                if (part.isSuccess()) {
+                    line.append(part.getResponseTimeNanos());
+                } else {
+                    line.append("null");
+                }
+                line.append(",\"resolvedIP\":");
+                jsonString(part.getResolvedIP());
+                line.append(",\"error\":");
+                jsonString(part.getErrorMessage());
+                line.append(",\"tcpFallback\":").append(part.isTcpFallback()).append('}');
+            }
+            line.append(']');
+        }
+        line.append('}');
+    }
+
+    private void jsonString(String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    private void appendCsv(DNSResult result) {
+        csvString(result.getDnsServer());
+        line.append(',');
+        csvString(result.getDomain());
+        line.append(',').append(result.isSuccess()).append(',');
+        if (result.isSuccess()) {
+            line.append(result.getResponseTimeNanos());
+        }
+        line.append(',').append(result.getConnectNanos()).append(',');
+        csvString(result.getResolvedIP());
+        line.append(',');
+        csvString(result.getErrorMessage());
+        LatencyStats stats = result.getStats();
+        if (stats == null) {
+            line.append(",,,,,,,,,");
+        } else {
+            line.append(',').append(stats.getSamples())
+                .append(',').append(stats.getAttempts())
+                .append(',').append(stats.getMin())
+                .append(',').append(stats.getMax())
+                .append(',').append(stats.getMedian())
+                .append(',').append(stats.getP90())
+                .append(',').append(stats.getP99())
+                .append(',').append(stats.getMean())
+                .append(',').append(stats.getStddev());
+        }
+        AnswerSet answers = result.getAnswers();
+        line.append(',');
+        for (int i = 0; i < answers.size(); i++) {
+            if (i > 0) {
+                line.append(' ');
+            }
+            line.append(answers.addressText(i));
+        }
+        line.append(',').append(answers.getMinTtl()).append(',').append(result.getAnswerVerdict());
+        line.append(',').append(result.isTcpFallback()).append(',');
+        for (int i = 0; i < result.getTypeResults().size(); i++) {
+            DNSResult part = result.getTypeResults().get(i);
+            if (i > 0) {
+                line.append(' ');
+            }
+            line.append(part.getQueryType()).append(':');
+            if (part.isSuccess()) {
+                line.append(part.getResponseTimeNanos());
+            }
+            if (part.isTcpFallback()) {
+                line.append("+tcp");
+            }
+        }
+    }
+
+    /**
+     * 把解析结果检查的判定写入单独的CSV文件，每个结果一行：服务器、域名、判定
+     * 判定要等全部结果完成后才有，结果文件中流式写出的记录判定均为UNCHECKED，按服务器和域名与这里对应
+     */
+    static void writeVerdicts(Path path, List<DNSResult> results) throws IOException {
+        try (TextResultWriter writer = new TextResultWriter(path, false)) {
+            writer.out.write(VERDICT_CSV_HEADER);
+            writer.out.write('\n');
+            StringBuilder line = writer.line;
+            for (DNSResult result : results) {
+                line.setLength(0);
+                writer.csvString(result.getDnsServer());
+                line.append(',');
+                writer.csvString(result.getDomain());
+                line.append(',').append(result.getAnswerVerdict()).append('\n');
+                writer.out.append(line);
+            }
+        }
+    }
+
+    /**
+     * 含逗号、引号或换行的值加双引号，内部的双引号写两次
+     */
+    private void csvString(String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
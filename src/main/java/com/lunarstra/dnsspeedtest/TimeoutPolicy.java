@@ -0,0 +1,68 @@
+package com.lunarstra.dnsspeedtest;
+
+/**
+ * 单次查询的超时策略
+ * 固定模式下始终使用最大超时；自适应模式下超时取 倍数 × 已观测响应时间的p95，
+ * 并限制在[最小超时, 最大超时]区间内
+ */
+public final class TimeoutPolicy {
+
+    /** 默认的最大超时（毫秒） */
+    public static final long DEFAULT_TIMEOUT_MS = 5000;
+
+    private final long maxMs;
+    private final boolean adaptive;
+    private final double multiplier;
+    private final long minMs;
+
+    private TimeoutPolicy(long maxMs, boolean adaptive, double multiplier, long minMs) {
+        if (maxMs <= 0 || minMs <= 0 || multiplier <= 0) {
+            throw new IllegalArgumentException("超时参数必须为正数");
+        }
+        this.maxMs = maxMs;
+        this.adaptive = adaptive;
+        this.multiplier = multiplier;
+        this.minMs = Math.min(minMs, maxMs);
+    }
+
+    /**
+     * 固定超时
+     */
+    public static TimeoutPolicy fixed(long timeoutMs) {
+        return new TimeoutPolicy(timeoutMs, false, 1, timeoutMs);
+    }
+
+    /**
+     * 自适应超时
+     * @param maxMs 最大超时，样本不足时也使用该值
+     * @param multiplier p95的倍数
+     * @param minMs 最小超时
+     */
+    public static TimeoutPolicy adaptive(long maxMs, double multiplier, long minMs) {
+        return new TimeoutPolicy(maxMs, true, multiplier, minMs);
+    }
+
+    public long getMaxMs() {
+        return maxMs;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public long getMinMs() {
+        return minMs;
+    }
+
+    @Override
+    public String toString() {
+        if (!adaptive) {
+            return maxMs + "ms";
+        }
+        return String.format("自适应 %.1f×p95，范围 %d-%dms", multiplier, minMs, maxMs);
+    }
+}
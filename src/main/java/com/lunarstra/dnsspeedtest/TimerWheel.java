@@ -0,0 +1,109 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 哈希时间轮，用于跟踪大量在途请求的超时
+ * 调度和推进都是O(1)摊销复杂度，取消采用惰性删除：到期时由调用方判断条目是否仍然有效
+ * 非线程安全，只能在单个线程中使用
+ * @param <T> 条目类型
+ */
+public class TimerWheel<T> {
+
+    private final long tickNanos;
+    private final int mask;
+    private final List<Entry<T>>[] slots;
+    private final long startNanos;
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickNanos 每一格的时间跨度（纳秒）
+     * @param slotCount 格数，会向上取整为2的幂
+     * @param nowNanos 当前时间，{@link System#nanoTime()}
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(long tickNanos, int slotCount, long nowNanos) {
+        if (tickNanos <= 0 || slotCount <= 0) {
+            throw new IllegalArgumentException("时间轮参数必须为正数");
+        }
+        int capacity = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+        this.tickNanos = tickNanos;
+        this.mask = capacity - 1;
+        this.slots = new List[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new ArrayList<>();
+        }
+        this.startNanos = nowNanos;
+        this.currentTick = 0;
+    }
+
+    /**
+     * 调度一个条目，在deadlineNanos之后的第一次推进中到期
+     */
+    public void schedule(T item, long deadlineNanos) {
+        long tick = Math.max(currentTick, ceilTick(deadlineNanos));
+        slots[(int) (tick & mask)].add(new Entry<>(item, tick));
+        size++;
+    }
+
+    /**
+     * 推进时间轮到当前时间，并对所有到期条目调用回调
+     */
+    public void advance(long nowNanos, Consumer<T> onExpire) {
+        long targetTick = (nowNanos - startNanos) / tickNanos;
+        // 跨度超过一整圈时每格只需检查一次
+        long from = Math.max(currentTick, targetTick - mask);
+        for (long tick = from; tick <= targetTick; tick++) {
+            List<Entry<T>> slot = slots[(int) (tick & mask)];
+            if (slot.isEmpty()) {
+                continue;
+            }
+            int kept = 0;
+            for (int i = 0; i < slot.size(); i++) {
+                Entry<T> entry = slot.get(i);
+                if (entry.tick <= targetTick) {
+                    size--;
+                    onExpire.accept(entry.item);
+                } else {
+                    slot.set(kept++, entry);
+                }
+            }
+            slot.subList(kept, slot.size()).clear();
+        }
+        currentTick = Math.max(currentTick, targetTick + 1);
+    }
+
+    /**
+     * 距离下一格到来的时间，用作Selector的等待上限
+     * @return 毫秒数，至少为1
+     */
+    public long millisUntilNextTick(long nowNanos) {
+        long next = startNanos + currentTick * tickNanos;
+        return Math.max(1, (next - nowNanos + 999_999) / 1_000_000);
+    }
+
+    /**
+     * 尚未到期的条目数（包括已被惰性取消的条目）
+     */
+    public int size() {
+        return size;
+    }
+
+    private long ceilTick(long nanos) {
+        long elapsed = nanos - startNanos;
+        return elapsed <= 0 ? 0 : (elapsed + tickNanos - 1) / tickNanos;
+    }
+
+    private static final class Entry<T> {
+        final T item;
+        final long tick;
+
+        Entry(T item, long tick) {
+            this.item = item;
+            this.tick = tick;
+        }
+    }
+}
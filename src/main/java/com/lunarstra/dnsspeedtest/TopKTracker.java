@@ -0,0 +1,62 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.util.Collections;
+import java.util.PriorityQueue;
+
+/**
+ * 跟踪已确认的最快K个成功结果，用于提前结束测试
+ * 当所有查询都已发出、K个结果已确认，并且每个未完成的查询已等待的时间都不短于第K名的响应时间时，
+ * 剩余的查询不可能再进入前K名，可以直接取消
+ * 非线程安全，只在收集结果的线程中使用
+ */
+final class TopKTracker {
+
+    private static final String CANCELLED_PREFIX = "已取消";
+
+    private final int k;
+    private final PriorityQueue<Long> fastest = new PriorityQueue<>(Collections.reverseOrder());
+
+    /**
+     * @param k 需要确认的结果数，0表示不启用
+     */
+    TopKTracker(int k) {
+        this.k = k;
+    }
+
+    boolean isEnabled() {
+        return k > 0;
+    }
+
+    void offer(DNSResult result) {
+        if (k <= 0 || !result.isSuccess()) {
+            return;
+        }
+        fastest.add(result.getResponseTimeNanos());
+        if (fastest.size() > k) {
+            fastest.poll();
+        }
+    }
+
+    /**
+     * 被提前取消的查询记录的错误信息
+     */
+    String cancelledMessage() {
+        return CANCELLED_PREFIX + "（已确认前" + k + "名）";
+    }
+
+    /**
+     * @return 结果是否为被提前取消的查询，这类结果没有测量值
+     */
+    static boolean isCancelled(DNSResult result) {
+        return !result.isSuccess() && result.getErrorMessage() != null
+            && result.getErrorMessage().startsWith(CANCELLED_PREFIX);
+    }
+
+    /**
+     * @param youngestElapsedNanos 未完成的查询中等待时间最短的那个已等待的时间
+     * @return 剩余查询是否已经不可能进入前K名
+     */
+    boolean canStop(long youngestElapsedNanos) {
+        return k > 0 && fastest.size() >= k && youngestElapsedNanos >= fastest.peek();
+    }
+}
@@ -0,0 +1,82 @@
+package com.lunarstra.dnsspeedtest;
+
+/**
+ * 持续测试中单个服务器的告警：某项指标越过阈值或突变时产生，恢复正常时再产生一条解除记录
+ */
+public final class WatchAlert {
+
+    /**
+     * 告警的指标
+     */
+    public enum Kind {
+        /** 滑动窗口内响应时间的p95超过阈值 */
+        P95("p95响应时间"),
+        /** 滑动窗口内的丢失率超过阈值 */
+        LOSS("丢失率"),
+        /** 最近几次的响应时间中位数相对此前的基线突然升高 */
+        SHIFT("响应时间突变");
+
+        private final String description;
+
+        Kind(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    private final String dnsServer;
+    private final Kind kind;
+    private final boolean raised;
+    private final double value;
+    private final double limit;
+    private final long atMillis;
+
+    /**
+     * @param raised true表示告警产生或持续，false表示解除
+     * @param value 当前值：响应时间类为毫秒，丢失率为比例
+     * @param limit 比较的界限：P95、LOSS为阈值，SHIFT为基线中位数乘以倍数
+     */
+    WatchAlert(String dnsServer, Kind kind, boolean raised, double value, double limit, long atMillis) {
+        this.dnsServer = dnsServer;
+        this.kind = kind;
+        this.raised = raised;
+        this.value = value;
+        this.limit = limit;
+        this.atMillis = atMillis;
+    }
+
+    public String getDnsServer() {
+        return dnsServer;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public boolean isRaised() {
+        return raised;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public double getLimit() {
+        return limit;
+    }
+
+    public long getAtMillis() {
+        return atMillis;
+    }
+
+    @Override
+    public String toString() {
+        String format = kind == Kind.LOSS ? "%s %s %s: %.1f%%（界限 %.1f%%）" : "%s %s %s: %.3fms（界限 %.3fms）";
+        double scale = kind == Kind.LOSS ? 100 : 1;
+        return String.format(format, raised ? "告警" : "恢复", dnsServer, kind.getDescription(),
+            value * scale, limit * scale);
+    }
+}
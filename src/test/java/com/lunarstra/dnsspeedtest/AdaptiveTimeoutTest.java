@@ -0,0 +1,48 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveTimeoutTest {
+
+    @Test
+    public void testBuckets() {
+        // 每个桶的上界不小于落入该桶的值，且误差在25%以内
+        for (long us = 0; us < 1_000_000; us += 7) {
+            long upper = AdaptiveTimeout.bucketUpperBound(AdaptiveTimeout.bucketOf(us));
+            Assertions.assertTrue(upper > us, "us=" + us);
+            Assertions.assertTrue(upper <= Math.max(us + 1, us * 5 / 4 + 1), "us=" + us);
+        }
+    }
+
+    @Test
+    public void testAdaptiveTimeout() {
+        AdaptiveTimeout timeouts = new AdaptiveTimeout(TimeoutPolicy.adaptive(5000, 3.0, 100));
+        long max = TimeUnit.MILLISECONDS.toNanos(5000);
+
+        // 样本不足时使用最大超时
+        for (int i = 0; i < 15; i++) {
+            timeouts.record(TimeUnit.MILLISECONDS.toNanos(40));
+        }
+        Assertions.assertEquals(max, timeouts.timeoutNanos());
+
+        // 足够样本后收紧到 3 × p95，约120ms
+        timeouts.record(TimeUnit.MILLISECONDS.toNanos(40));
+        long adapted = TimeUnit.NANOSECONDS.toMillis(timeouts.timeoutNanos());
+        Assertions.assertTrue(adapted >= 120 && adapted <= 160, "adapted=" + adapted);
+
+        // 单个服务器的超时按自身最大响应时间收紧，但不低于下限
+        Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(100),
+            timeouts.timeoutNanos(TimeUnit.MILLISECONDS.toNanos(10)));
+        Assertions.assertEquals(timeouts.timeoutNanos(), timeouts.timeoutNanos(TimeUnit.SECONDS.toNanos(1)));
+
+        // 固定超时不受样本影响
+        AdaptiveTimeout fixed = new AdaptiveTimeout(TimeoutPolicy.fixed(2000));
+        for (int i = 0; i < 100; i++) {
+            fixed.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(2000), fixed.timeoutNanos());
+    }
+}
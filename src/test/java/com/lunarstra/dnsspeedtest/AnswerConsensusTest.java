@@ -0,0 +1,119 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class AnswerConsensusTest {
+
+    private static DNSResult answer(String server, String domain, String ip) throws Exception {
+        byte[] query = DNSMessage.encodeQuery(1, domain, DNSMessage.TYPE_A);
+        byte[] reply = StubDNSServer.buildReply(query, query.length, InetAddress.getByName(ip).getAddress(),
+            DNSMessage.RCODE_NOERROR);
+        return DNSSpeedTest.toResult(server, new DNSQuery(domain), ByteBuffer.wrap(reply), 1_000_000)
+            .withDomain(domain);
+    }
+
+    private static DNSResult nxdomain(String server, String domain) {
+        byte[] query = DNSMessage.encodeQuery(1, domain, DNSMessage.TYPE_A);
+        byte[] reply = StubDNSServer.buildReply(query, query.length, new byte[4], DNSMessage.RCODE_NXDOMAIN);
+        return DNSSpeedTest.toResult(server, new DNSQuery(domain, true), ByteBuffer.wrap(reply), 1_000_000)
+            .withDomain(domain);
+    }
+
+    @Test
+    public void testAnswerSet() throws Exception {
+        AnswerSet answers = answer("a", "www.example.com", "10.1.2.3").getAnswers();
+        Assertions.assertEquals(1, answers.size());
+        Assertions.assertEquals(300, answers.getMinTtl());
+        Assertions.assertEquals("10.1.2.3", answers.toString());
+        Assertions.assertTrue(nxdomain("a", "x.example.com").getAnswers().isEmpty());
+    }
+
+    @Test
+    public void testMajority() throws Exception {
+        List<DNSResult> results = Arrays.asList(
+            answer("poisoned", "www.example.com", "6.6.6.6"),
+            answer("a", "www.example.com", "10.0.0.1"),
+            answer("b", "www.example.com", "10.0.0.2"),
+            answer("c", "www.example.com", "10.0.0.3"),
+            new DNSResult("dead", "请求超时").withDomain("www.example.com"));
+        AnswerConsensus consensus = new AnswerConsensus(Collections.emptyList(), 0.01);
+
+        List<DNSResult> flagged = consensus.apply(results, Collections.emptyList(), AnswerCheckMode.FLAG);
+        Assertions.assertEquals(AnswerVerdict.DIVERGENT, flagged.get(0).getAnswerVerdict());
+        Assertions.assertEquals(AnswerVerdict.CONSISTENT, flagged.get(1).getAnswerVerdict());
+        Assertions.assertEquals(AnswerVerdict.UNCHECKED, flagged.get(4).getAnswerVerdict());
+        Assertions.assertTrue(flagged.get(0).toString().contains("可疑"), flagged.get(0).toString());
+
+        // DEMOTE：可疑结果排在正常结果之后、失败结果之前
+        List<DNSResult> demoted = consensus.apply(results, Collections.emptyList(), AnswerCheckMode.DEMOTE);
+        Assertions.assertEquals(Arrays.asList("a", "b", "c", "poisoned", "dead"), servers(demoted));
+
+        // 参考服务器的应答优先于多数
+        List<DNSResult> referenced = new AnswerConsensus(Collections.singletonList("poisoned"), 0.01)
+            .apply(results, Collections.emptyList(), AnswerCheckMode.FLAG);
+        Assertions.assertEquals(AnswerVerdict.CONSISTENT, referenced.get(0).getAnswerVerdict());
+        Assertions.assertEquals(AnswerVerdict.DIVERGENT, referenced.get(1).getAnswerVerdict());
+
+        // 有效应答太少时无法判断多数
+        List<DNSResult> few = consensus.apply(results.subList(0, 2), Collections.emptyList(), AnswerCheckMode.FLAG);
+        Assertions.assertEquals(AnswerVerdict.UNCHECKED, few.get(0).getAnswerVerdict());
+    }
+
+    @Test
+    public void testNxdomainRedirect() throws Exception {
+        List<DNSResult> results = Arrays.asList(
+            answer("a", "www.example.com", "10.0.0.1"),
+            answer("b", "www.example.com", "10.0.0.1"),
+            answer("ads", "www.example.com", "10.0.0.1"));
+        List<DNSResult> canaries = Arrays.asList(
+            nxdomain("a", "example.com"),
+            nxdomain("b", "example.com"),
+            answer("ads", "example.com", "6.6.6.6"));
+
+        List<DNSResult> judged = new AnswerConsensus(Collections.emptyList(), 0.01)
+            .apply(results, canaries, AnswerCheckMode.FLAG);
+        Assertions.assertEquals(AnswerVerdict.CONSISTENT, judged.get(0).getAnswerVerdict());
+        Assertions.assertEquals(AnswerVerdict.NXDOMAIN_REDIRECT, judged.get(2).getAnswerVerdict());
+
+        // 多数服务器都返回地址时，金丝雀域名本身可能有泛解析，不判定重定向
+        judged = new AnswerConsensus(Collections.emptyList(), 0.01)
+            .apply(results, canaries.subList(2, 3), AnswerCheckMode.FLAG);
+        Assertions.assertEquals(AnswerVerdict.CONSISTENT, judged.get(2).getAnswerVerdict());
+    }
+
+    @Test
+    public void testManyResolvers() throws Exception {
+        // 网络按/24比较：同一网段内的地址轮换不算作不一致
+        List<DNSResult> results = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            results.add(answer("r" + i, "www.example.com", i % 1000 == 0 ? "6.6." + (i / 1000) + ".1"
+                : "10.0." + (i % 4) + "." + (i % 250)));
+        }
+        List<DNSResult> judged = new AnswerConsensus(Collections.emptyList(), 0.01)
+            .apply(results, Collections.emptyList(), AnswerCheckMode.FLAG);
+        int divergent = 0;
+        for (DNSResult result : judged) {
+            if (result.getAnswerVerdict() == AnswerVerdict.DIVERGENT) {
+                divergent++;
+                Assertions.assertTrue(result.getResolvedIP().startsWith("6.6."), result.toString());
+            }
+        }
+        Assertions.assertEquals(20, divergent);
+    }
+
+    private static List<String> servers(List<DNSResult> results) {
+        List<String> servers = new ArrayList<>();
+        for (DNSResult result : results) {
+            servers.add(result.getDnsServer());
+        }
+        return servers;
+    }
+}
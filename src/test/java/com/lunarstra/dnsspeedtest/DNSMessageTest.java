@@ -0,0 +1,89 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+public class DNSMessageTest {
+
+    @Test
+    public void testEncodeQuery() {
+        byte[] query = DNSMessage.encodeQuery(0x1234, "www.baidu.com", DNSMessage.TYPE_A);
+
+        Assertions.assertEquals(0x1234, DNSMessage.getId(ByteBuffer.wrap(query)));
+        // 12字节报文头 + 15字节QNAME + QTYPE/QCLASS
+        Assertions.assertEquals(12 + 15 + 4, query.length);
+        Assertions.assertEquals(3, query[12]);
+        Assertions.assertEquals('w', query[13]);
+        Assertions.assertEquals(0, query[12 + 14]);
+
+        DNSMessage.setId(query, 0xBEEF);
+        Assertions.assertEquals(0xBEEF, DNSMessage.getId(ByteBuffer.wrap(query)));
+    }
+
+    @Test
+    public void testEncodeInto() {
+        ByteBuffer buf = ByteBuffer.allocateDirect(DNSMessage.MAX_UDP_SIZE);
+        DNSQuery plain = new DNSQuery("www.baidu.com");
+        plain.encodeInto(buf, 0x1234);
+        byte[] encoded = new byte[buf.remaining()];
+        buf.get(encoded);
+        Assertions.assertArrayEquals(DNSMessage.encodeQuery(0x1234, "www.baidu.com", DNSMessage.TYPE_A), encoded);
+
+        // 缓存穿透：12字节的随机标签写在原域名之前
+        DNSQuery busting = new DNSQuery("www.baidu.com", true);
+        busting.encodeInto(buf, 0x1234);
+        Assertions.assertEquals(busting.encodedLength(), buf.remaining());
+        Assertions.assertEquals(0x1234, DNSMessage.getId(buf));
+        Assertions.assertEquals(12, buf.get(12));
+        Assertions.assertEquals(3, buf.get(12 + 13));
+        Assertions.assertEquals('w', buf.get(12 + 14));
+        Assertions.assertEquals(busting.encodedLength(), busting.encode(1).length);
+    }
+
+    @Test
+    public void testEncodeInvalidDomain() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+            () -> DNSMessage.encodeQuery(1, "", DNSMessage.TYPE_A));
+        Assertions.assertThrows(IllegalArgumentException.class,
+            () -> DNSMessage.encodeQuery(1, "a..b", DNSMessage.TYPE_A));
+        Assertions.assertThrows(IllegalArgumentException.class,
+            () -> DNSMessage.encodeQuery(1, "x".repeat(64) + ".com", DNSMessage.TYPE_A));
+    }
+
+    @Test
+    public void testDecodeResponse() {
+        byte[] query = DNSMessage.encodeQuery(7, "example.com", DNSMessage.TYPE_A);
+        ByteBuffer buf = ByteBuffer.allocate(query.length + 16 + 28);
+        buf.put(query);
+        buf.putShort(2, (short) 0x8180);
+        buf.putShort(6, (short) 2);
+        // CNAME记录，数据为压缩指针
+        buf.putShort((short) 0xC00C).putShort((short) DNSMessage.TYPE_CNAME).putShort((short) 1)
+            .putInt(60).putShort((short) 2).putShort((short) 0xC00C);
+        // A记录
+        buf.putShort((short) 0xC00C).putShort((short) DNSMessage.TYPE_A).putShort((short) 1)
+            .putInt(300).putShort((short) 4).put(new byte[]{93, (byte) 184, (byte) 216, 34});
+        buf.flip();
+
+        Assertions.assertEquals(DNSMessage.RCODE_NOERROR, DNSMessage.getRcode(buf));
+        Assertions.assertEquals(2, DNSMessage.getAnswerCount(buf));
+        DNSMessage.Response response = DNSMessage.decode(buf);
+        Assertions.assertEquals(7, response.getId());
+        Assertions.assertEquals(DNSMessage.RCODE_NOERROR, response.getRcode());
+        Assertions.assertEquals(2, response.getAnswers().size());
+        Assertions.assertEquals(300, response.getAnswers().get(1).getTtl());
+        Assertions.assertEquals("93.184.216.34", response.firstAddress(DNSMessage.TYPE_A));
+        Assertions.assertNull(response.firstAddress(DNSMessage.TYPE_AAAA));
+    }
+
+    @Test
+    public void testDecodeTruncatedMessage() {
+        byte[] query = DNSMessage.encodeQuery(7, "example.com", DNSMessage.TYPE_A);
+        ByteBuffer buf = ByteBuffer.wrap(query);
+        buf.putShort(2, (short) 0x8180);
+        buf.putShort(6, (short) 1);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> DNSMessage.decode(buf));
+    }
+}
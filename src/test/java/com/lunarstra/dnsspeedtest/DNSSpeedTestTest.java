@@ -5,8 +5,14 @@ import jakarta.inject.Inject;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Assertions;
 
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @QuarkusTest
 public class DNSSpeedTestTest {
@@ -89,4 +95,513 @@ public class DNSSpeedTestTest {
         Assertions.assertTrue(result2.compareTo(result3) < 0);
         Assertions.assertTrue(result1.compareTo(result3) < 0);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSingleDNSWithStubServer() throws Exception {
+        // 使用本地桩服务器测试UDP查询引擎
+        try (StubDNSServer stub = new StubDNSServer().answer("10.1.2.3")) {
+            DNSResult result = dnsSpeedTest.testSingleDNS("stub", stub.getAddress(), "www.example.com");
+
+            Assertions.assertTrue(result.isSuccess(), result.toString());
+            Assertions.assertEquals("stub", result.getDnsServer());
+            Assertions.assertEquals("10.1.2.3", result.getResolvedIP());
+        }
+    }
+
+    @Test
+    public void testSingleDNSErrorsWithStubServer() throws Exception {
+        try (StubDNSServer stub = new StubDNSServer().rcode(DNSMessage.RCODE_NXDOMAIN)) {
+            DNSResult result = dnsSpeedTest.testSingleDNS("stub", stub.getAddress(), "nx.example.com");
+            Assertions.assertFalse(result.isSuccess());
+            Assertions.assertTrue(result.getErrorMessage().contains("NXDOMAIN"));
+        }
+
+        try (StubDNSServer stub = new StubDNSServer().answer("::1")) {
+            DNSResult result = dnsSpeedTest.testSingleDNS("stub", stub.getAddress(), "v6.example.com");
+            Assertions.assertFalse(result.isSuccess());
+            Assertions.assertEquals("没有找到A记录", result.getErrorMessage());
+        }
+    }
+
+    @Test
+    public void testMultiplexedProberWithStubServers() throws Exception {
+        // 多个桩服务器，其中一个丢弃请求，验证响应匹配和超时处理
+        try (StubDNSServer fast = new StubDNSServer().answer("10.0.0.1");
+             StubDNSServer slow = new StubDNSServer().answer("10.0.0.2").delay(50);
+             StubDNSServer dead = new StubDNSServer().drop(true)) {
+            List<String> names = Arrays.asList("fast", "slow", "dead", "fast2");
+            List<InetSocketAddress> addresses = Arrays.asList(
+                fast.getAddress(), slow.getAddress(), dead.getAddress(), fast.getAddress());
+
+            MultiplexedDNSProber prober = new MultiplexedDNSProber(2, 16, 500);
+            List<DNSResult> streamed = new ArrayList<>();
+            List<DNSResult> results = prober.probe(names, addresses, "www.example.com",
+                SamplingOptions.SINGLE, streamed::add);
+
+            Assertions.assertEquals(4, results.size());
+            Assertions.assertEquals("10.0.0.1", results.get(0).getResolvedIP());
+            Assertions.assertEquals("10.0.0.2", results.get(1).getResolvedIP());
+            Assertions.assertTrue(results.get(1).getResponseTime() >= 50);
+            Assertions.assertFalse(results.get(2).isSuccess());
+            Assertions.assertEquals("请求超时", results.get(2).getErrorMessage());
+            Assertions.assertEquals("fast2", results.get(3).getDnsServer());
+            Assertions.assertTrue(results.get(3).isSuccess());
+
+            // 回调按完成顺序到达：慢服务器在快服务器之后，超时的最后
+            Assertions.assertEquals(4, streamed.size());
+            Assertions.assertEquals("slow", streamed.get(2).getDnsServer());
+            Assertions.assertEquals("dead", streamed.get(3).getDnsServer());
+        }
+    }
+
+    @Test
+    public void testSampledDNSWithStubServer() throws Exception {
+        SamplingOptions sampling = new SamplingOptions(5, 2, RankingStatistic.MEDIAN);
+        try (StubDNSServer stub = new StubDNSServer().answer("10.0.0.7").delay(5)) {
+            DNSResult result = dnsSpeedTest.testSingleDNS("stub", stub.getAddress(), "www.example.com", sampling);
+
+            Assertions.assertTrue(result.isSuccess(), result.toString());
+            Assertions.assertNotNull(result.getStats());
+            Assertions.assertEquals(5, result.getStats().getSamples());
+            Assertions.assertEquals(0, result.getStats().getLossRate(), 1e-9);
+            Assertions.assertEquals(result.getStats().getMedian(), result.getResponseTimeNanos());
+        }
+
+        // 多路复用模式下同一服务器的多轮查询
+        try (StubDNSServer fast = new StubDNSServer().answer("10.0.0.1");
+             StubDNSServer dead = new StubDNSServer().drop(true)) {
+            MultiplexedDNSProber prober = new MultiplexedDNSProber(1, 16, 200);
+            List<DNSResult> results = prober.probe(Arrays.asList("fast", "dead"),
+                Arrays.asList(fast.getAddress(), dead.getAddress()), "www.example.com",
+                new SamplingOptions(3, 1, RankingStatistic.P90), result -> { });
+
+            Assertions.assertEquals(3, results.get(0).getStats().getSamples());
+            Assertions.assertEquals(3, results.get(0).getStats().getAttempts());
+            Assertions.assertFalse(results.get(1).isSuccess());
+            Assertions.assertEquals("请求超时", results.get(1).getErrorMessage());
+        }
+    }
+
+    @Test
+    public void testSubMillisecondPrecision() {
+        // 亚毫秒级的结果不再并列为0ms
+        DNSResult fast = DNSResult.ofNanos("10.0.0.1", 120_000, "1.1.1.1");
+        DNSResult slower = DNSResult.ofNanos("10.0.0.2", 870_000, "1.1.1.1");
+
+        Assertions.assertEquals(0, fast.getResponseTime());
+        Assertions.assertEquals(120, fast.getResponseTimeMicros());
+        Assertions.assertTrue(fast.compareTo(slower) < 0);
+        Assertions.assertEquals("10.0.0.1 (0.120ms) -> 1.1.1.1", fast.toString());
+        Assertions.assertEquals(50_000_000, new DNSResult("8.8.8.8", 50, "1.1.1.1").getResponseTimeNanos());
+    }
+
+    @Test
+    public void testDomainMatrixWithCacheBusting() throws Exception {
+        // 随机子域名返回NXDOMAIN，在缓存穿透模式下仍算作一次成功的递归解析
+        try (StubDNSServer stub = new StubDNSServer().rcode(DNSMessage.RCODE_NXDOMAIN)) {
+            DNSResult plain = dnsSpeedTest.testSingleDNS("stub", stub.getAddress(), new DNSQuery("a.example.com"));
+            DNSResult busted = dnsSpeedTest.testSingleDNS("stub", stub.getAddress(), new DNSQuery("a.example.com", true));
+
+            Assertions.assertFalse(plain.isSuccess());
+            Assertions.assertTrue(busted.isSuccess(), busted.toString());
+            Assertions.assertEquals("NXDOMAIN", busted.getResolvedIP());
+        }
+
+        try (StubDNSServer a = new StubDNSServer().answer("10.0.0.1");
+             StubDNSServer b = new StubDNSServer().drop(true)) {
+            DNSQuery q1 = new DNSQuery("one.example.com");
+            DNSQuery q2 = new DNSQuery("two.example.com");
+            MultiplexedDNSProber prober = new MultiplexedDNSProber(1, 16, 200);
+            List<DNSResult> results = prober.probe(Arrays.asList("a", "b", "a", "b"),
+                Arrays.asList(a.getAddress(), b.getAddress(), a.getAddress(), b.getAddress()),
+                Arrays.asList(q1, q1, q2, q2), SamplingOptions.SINGLE, result -> { });
+
+            Assertions.assertEquals("one.example.com", results.get(0).getDomain());
+            Assertions.assertEquals("two.example.com", results.get(3).getDomain());
+
+            List<ServerScore> scores = ServerScore.aggregate(results);
+            Assertions.assertEquals(2, scores.size());
+            Assertions.assertEquals("a", scores.get(0).getDnsServer());
+            Assertions.assertEquals(2, scores.get(0).getSucceeded());
+            Assertions.assertFalse(scores.get(1).isSuccess());
+            Assertions.assertEquals("请求超时", scores.get(1).getFirstError());
+        }
+    }
+
+    @Test
+    public void testAdaptiveTimeoutAndTopK() throws Exception {
+        try (StubDNSServer fast = new StubDNSServer().answer("10.0.0.1");
+             StubDNSServer slow = new StubDNSServer().answer("10.0.0.2").delay(300);
+             StubDNSServer dead = new StubDNSServer().drop(true)) {
+            // 在途上限为4，失效服务器排在最后，发出时已有足够样本，超时收紧到下限附近
+            List<String> names = new ArrayList<>();
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                names.add("fast" + i);
+                addresses.add(fast.getAddress());
+            }
+            names.add("dead");
+            addresses.add(dead.getAddress());
+
+            MultiplexedDNSProber adaptive = new MultiplexedDNSProber(1, 4, TimeoutPolicy.adaptive(3000, 3.0, 50), 0);
+            long start = System.nanoTime();
+            List<DNSResult> results = adaptive.probe(names, addresses,
+                Collections.nCopies(names.size(), new DNSQuery("www.example.com")),
+                SamplingOptions.SINGLE, result -> { });
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+            Assertions.assertEquals("请求超时", results.get(20).getErrorMessage());
+            Assertions.assertTrue(elapsedMs < 1000, "elapsed=" + elapsedMs);
+
+            // 确认前2名后，慢服务器和失效服务器不再等待
+            MultiplexedDNSProber topK = new MultiplexedDNSProber(1, 16, TimeoutPolicy.fixed(3000), 2);
+            start = System.nanoTime();
+            results = topK.probe(Arrays.asList("fast1", "fast2", "slow", "dead"),
+                Arrays.asList(fast.getAddress(), fast.getAddress(), slow.getAddress(), dead.getAddress()),
+                Collections.nCopies(4, new DNSQuery("www.example.com")),
+                SamplingOptions.SINGLE, result -> { });
+            elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+            Assertions.assertTrue(results.get(0).isSuccess());
+            Assertions.assertTrue(results.get(1).isSuccess());
+            Assertions.assertEquals("已取消（已确认前2名）", results.get(2).getErrorMessage());
+            Assertions.assertEquals("已取消（已确认前2名）", results.get(3).getErrorMessage());
+            Assertions.assertTrue(elapsedMs < 300, "elapsed=" + elapsedMs);
+        }
+    }
+
+    @Test
+    public void testInterruptedPoolScan() throws Exception {
+        try (StubDNSServer fast = new StubDNSServer().answer("10.0.0.1");
+             StubDNSServer dead = new StubDNSServer().drop(true)) {
+            String fastName = "127.0.0.1:" + fast.getAddress().getPort();
+            String deadName = "127.0.0.1:" + dead.getAddress().getPort();
+            List<DNSResult> streamed = Collections.synchronizedList(new ArrayList<>());
+            List<List<DNSResult>> returned = new ArrayList<>();
+            Thread scan = new Thread(() -> returned.add(dnsSpeedTest.testMatrix(Arrays.asList(fastName, deadName),
+                Collections.singletonList("www.example.com"),
+                new ScanOptions().mode(ProbeMode.POOL).timeout(TimeoutPolicy.fixed(5000)), streamed::add)));
+            scan.start();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+            while (streamed.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            scan.interrupt();
+            scan.join(TimeUnit.SECONDS.toMillis(3));
+
+            // 已完成的结果保留，只有未完成的服务器记为中断，并同样回调
+            List<DNSResult> results = returned.get(0);
+            Assertions.assertEquals(2, results.size());
+            Assertions.assertEquals(fastName, results.get(0).getDnsServer());
+            Assertions.assertTrue(results.get(0).isSuccess(), results.get(0).toString());
+            Assertions.assertEquals(deadName, results.get(1).getDnsServer());
+            Assertions.assertEquals("测试被中断", results.get(1).getErrorMessage());
+            Assertions.assertEquals("www.example.com", results.get(1).getDomain());
+            Assertions.assertEquals(2, streamed.size());
+            Assertions.assertEquals("测试被中断", streamed.get(1).getErrorMessage());
+        }
+    }
+
+    @Test
+    public void testStreamingServerList() throws Exception {
+        try (StubDNSServer a = new StubDNSServer().answer("10.0.0.1");
+             StubDNSServer b = new StubDNSServer().answer("10.0.0.2").delay(20)) {
+            String list = "# 注释\n"
+                + "127.0.0.1:" + a.getAddress().getPort() + "\n"
+                + "not a server\n"
+                + "\n"
+                + "127.0.0.1:" + b.getAddress().getPort() + "\n";
+            for (ProbeMode mode : ProbeMode.values()) {
+                List<String> warnings = Collections.synchronizedList(new ArrayList<>());
+                List<DNSResult> results;
+                try (DNSServerSource source = dnsSpeedTest.openServerSource(new StringReader(list), warnings::add)) {
+                    results = dnsSpeedTest.testMatrix(source, Arrays.asList("www.example.com", "www.example.org"),
+                        new ScanOptions().mode(mode), result -> { });
+                }
+
+                Assertions.assertEquals(4, results.size(), mode.toString());
+                for (DNSResult result : results) {
+                    Assertions.assertTrue(result.isSuccess(), mode + ": " + result);
+                }
+                Assertions.assertEquals("127.0.0.1:" + a.getAddress().getPort(), results.get(0).getDnsServer());
+                Assertions.assertEquals(Collections.singletonList("警告：第3行包含无效的DNS地址: not a server"), warnings);
+            }
+        }
+    }
+
+    @Test
+    public void testHostnamesResolveWhileProbing() throws Exception {
+        // 主机名的解析尚未执行时，IP字面量的目标已经可以测试
+        List<Runnable> lookups = new ArrayList<>();
+        DNSQuery query = new DNSQuery("www.example.com");
+        TargetFeed feed = TargetFeed.resolving(Arrays.asList("dns.example", "127.0.0.1", "dns.example"),
+            Arrays.asList(InetSocketAddress.createUnresolved("dns.example", 53), new InetSocketAddress("127.0.0.1", 53),
+                InetSocketAddress.createUnresolved("dns.example", 53)),
+            Arrays.asList(query, query, query), lookups::add, 60000);
+        Assertions.assertEquals(1, feed.size());
+        Assertions.assertFalse(feed.isExhausted());
+        Assertions.assertEquals(0, feed.fill(0));
+        Assertions.assertEquals(1, lookups.size());
+
+        lookups.get(0).run();
+        Assertions.assertEquals(2, feed.fill(TimeUnit.SECONDS.toNanos(1)));
+        Assertions.assertTrue(feed.isExhausted());
+        Assertions.assertEquals(Arrays.asList("127.0.0.1", "dns.example", "dns.example"), feed.names);
+
+        try (StubDNSServer stub = new StubDNSServer().answer("10.0.0.1")) {
+            String literal = "127.0.0.1:" + stub.getAddress().getPort();
+            List<DNSResult> results = dnsSpeedTest.testMultipleDNS(Arrays.asList("no-such-host.invalid", literal),
+                "www.example.com", ProbeMode.NIO);
+            Assertions.assertEquals(2, results.size());
+            Assertions.assertEquals(literal, results.get(0).getDnsServer());
+            Assertions.assertTrue(results.get(0).isSuccess(), results.get(0).toString());
+            Assertions.assertEquals("无法解析DNS服务器地址", results.get(1).getErrorMessage());
+        }
+    }
+
+    @Test
+    public void testServerWithPort() throws Exception {
+        Assertions.assertTrue(dnsSpeedTest.isValidDNSServer("8.8.8.8:53"));
+        Assertions.assertTrue(dnsSpeedTest.isValidDNSServer("[2001:4860:4860::8888]:53"));
+        Assertions.assertFalse(dnsSpeedTest.isValidDNSServer("8.8.8.8:0"));
+
+        try (StubDNSServer stub = new StubDNSServer().answer("10.1.2.3")) {
+            DNSResult result = dnsSpeedTest.testSingleDNS("127.0.0.1:" + stub.getAddress().getPort(), "www.example.com");
+            Assertions.assertTrue(result.isSuccess(), result.toString());
+            Assertions.assertEquals("10.1.2.3", result.getResolvedIP());
+        }
+    }
+
+    @Test
+    public void testPhases() throws Exception {
+        try (StubDNSServer stub = new StubDNSServer().answer("10.0.0.1").delay(50)) {
+            List<String> names = Arrays.asList("stub0", "stub1", "stub2", "stub3");
+            List<InetSocketAddress> addresses = Collections.nCopies(names.size(), stub.getAddress());
+            List<DNSQuery> queries = Collections.nCopies(names.size(), new DNSQuery("www.example.com"));
+            for (ProbeMode mode : ProbeMode.values()) {
+                ProbePhases.Snapshot before = dnsSpeedTest.getPhases().snapshot();
+                List<DNSResult> results = dnsSpeedTest.testMultipleDNS(names, addresses, queries,
+                    new ScanOptions().mode(mode).maxPerServer(1), result -> { });
+                Assertions.assertTrue(results.stream().allMatch(DNSResult::isSuccess), mode.toString());
+
+                ProbePhases.Snapshot delta = dnsSpeedTest.getPhases().snapshot().minus(before);
+                Assertions.assertEquals(4, delta.getProbes(), mode.toString());
+                Assertions.assertTrue(delta.getMeanNanos(ProbePhase.RECEIVE) >= TimeUnit.MILLISECONDS.toNanos(45),
+                    mode + ": " + delta);
+                if (mode == ProbeMode.NIO) {
+                    Assertions.assertEquals(0, delta.getTotalNanos(ProbePhase.QUEUE), delta.toString());
+                } else {
+                    // 同一服务器只允许1个在途查询，后3个任务依次等待前面的查询，至少排队 50 + 100 + 150ms
+                    Assertions.assertTrue(delta.getTotalNanos(ProbePhase.QUEUE) >= TimeUnit.MILLISECONDS.toNanos(280),
+                        mode + ": " + delta);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPacing() throws Exception {
+        try (StubDNSServer stub = new StubDNSServer().answer("10.0.0.1").delay(50)) {
+            List<String> names = new ArrayList<>();
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                names.add("stub" + i);
+                addresses.add(stub.getAddress());
+            }
+            List<DNSQuery> queries = Collections.nCopies(names.size(), new DNSQuery("www.example.com"));
+            for (ProbeMode mode : ProbeMode.values()) {
+                // 同一服务器最多2个在途查询，12个查询至少需要6个响应周期
+                long sentBefore = dnsSpeedTest.getCounters().snapshot().getSent();
+                long start = System.nanoTime();
+                List<DNSResult> results = dnsSpeedTest.testMultipleDNS(names, addresses, queries,
+                    new ScanOptions().mode(mode).maxPerServer(2), result -> { });
+                long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+                Assertions.assertEquals(12, results.size(), mode.toString());
+                for (DNSResult result : results) {
+                    Assertions.assertTrue(result.isSuccess(), mode + ": " + result);
+                }
+                Assertions.assertTrue(elapsedMs >= 290, mode + " elapsed=" + elapsedMs);
+                Assertions.assertEquals(12, dnsSpeedTest.getCounters().snapshot().getSent() - sentBefore,
+                    mode.toString());
+            }
+
+            // 全局100次/秒：除突发窗口内的少量查询外，其余每10ms发出一个
+            long start = System.nanoTime();
+            List<DNSResult> results = dnsSpeedTest.testMultipleDNS(names, addresses, queries,
+                new ScanOptions().mode(ProbeMode.NIO).maxPerServer(0).qps(100.0), result -> { });
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            Assertions.assertTrue(results.stream().allMatch(DNSResult::isSuccess));
+            Assertions.assertTrue(elapsedMs >= 80, "elapsed=" + elapsedMs);
+        }
+    }
+
+    @Test
+    public void testPerServerLimitWithoutBlockingPool() throws Exception {
+        try (StubDNSServer busy = new StubDNSServer().answer("10.0.0.1").delay(100);
+             StubDNSServer other = new StubDNSServer().answer("10.0.0.2")) {
+            // 同一服务器的查询比线程池的线程还多，最后加一个其他服务器
+            List<String> names = new ArrayList<>();
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (int i = 0; i < 60; i++) {
+                names.add("busy" + i);
+                addresses.add(busy.getAddress());
+            }
+            names.add("other");
+            addresses.add(other.getAddress());
+            List<DNSQuery> queries = Collections.nCopies(names.size(), new DNSQuery("www.example.com"));
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            Thread scan = new Thread(() -> dnsSpeedTest.testMultipleDNS(names, addresses, queries,
+                new ScanOptions().mode(ProbeMode.POOL).maxPerServer(1), result -> order.add(result.getDnsServer())));
+            scan.start();
+            try {
+                // 等待许可的查询不占用线程，其他服务器不必等繁忙服务器的查询逐个完成
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+                while (!order.contains("other") && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                Assertions.assertTrue(order.indexOf("other") >= 0 && order.indexOf("other") <= 2, order.toString());
+            } finally {
+                scan.interrupt();
+                scan.join(TimeUnit.SECONDS.toMillis(5));
+            }
+        }
+    }
+
+    @Test
+    public void testAnswerCheck() throws Exception {
+        try (StubDNSServer a = new StubDNSServer().answer("10.0.0.1").only("www.example.com");
+             StubDNSServer b = new StubDNSServer().answer("10.0.0.2").only("www.example.com");
+             StubDNSServer c = new StubDNSServer().answer("10.0.0.3").only("www.example.com");
+             StubDNSServer poisoned = new StubDNSServer().answer("6.6.6.6").only("www.example.com");
+             StubDNSServer redirecting = new StubDNSServer().answer("10.0.0.4")) {
+            List<String> servers = new ArrayList<>();
+            for (StubDNSServer stub : Arrays.asList(redirecting, poisoned, a, b, c)) {
+                servers.add("127.0.0.1:" + stub.getAddress().getPort());
+            }
+            List<DNSResult> callbacks = Collections.synchronizedList(new ArrayList<>());
+            List<DNSResult> results = dnsSpeedTest.testMatrix(servers, Collections.singletonList("www.example.com"),
+                new ScanOptions().answerCheck(AnswerCheckMode.DEMOTE).nxdomainCheck(true), callbacks::add);
+
+            // 金丝雀查询不出现在回调和结果中
+            Assertions.assertEquals(5, callbacks.size());
+            Assertions.assertEquals(5, results.size());
+            for (int i = 0; i < 3; i++) {
+                Assertions.assertEquals(AnswerVerdict.CONSISTENT, results.get(i).getAnswerVerdict(),
+                    results.get(i).toString());
+            }
+            Assertions.assertEquals(AnswerVerdict.NXDOMAIN_REDIRECT, find(results, servers.get(0)).getAnswerVerdict());
+            Assertions.assertEquals(AnswerVerdict.DIVERGENT, find(results, servers.get(1)).getAnswerVerdict());
+            Assertions.assertTrue(results.indexOf(find(results, servers.get(1))) >= 3);
+
+            // 没有明确要求时不发出金丝雀查询，也就不检查NXDOMAIN重定向
+            long sentBefore = dnsSpeedTest.getCounters().snapshot().getSent();
+            List<DNSResult> noCanary = dnsSpeedTest.testMatrix(servers, Collections.singletonList("www.example.com"),
+                new ScanOptions().answerCheck(AnswerCheckMode.FLAG), result -> { });
+            Assertions.assertEquals(5, dnsSpeedTest.getCounters().snapshot().getSent() - sentBefore);
+            Assertions.assertEquals(AnswerVerdict.CONSISTENT, find(noCanary, servers.get(0)).getAnswerVerdict());
+            Assertions.assertEquals(AnswerVerdict.DIVERGENT, find(noCanary, servers.get(1)).getAnswerVerdict());
+
+            // 默认不检查
+            sentBefore = dnsSpeedTest.getCounters().snapshot().getSent();
+            List<DNSResult> unchecked = dnsSpeedTest.testMatrix(servers, Collections.singletonList("www.example.com"),
+                new ScanOptions(), result -> { });
+            Assertions.assertEquals(5, dnsSpeedTest.getCounters().snapshot().getSent() - sentBefore);
+            Assertions.assertEquals(5, unchecked.size());
+            Assertions.assertTrue(unchecked.stream().noneMatch(result -> result.getAnswerVerdict().isSuspect()));
+        }
+    }
+
+    @Test
+    public void testQueryTypes() throws Exception {
+        // HTTPS记录：优先级1，目标为根（使用查询的域名），没有参数
+        byte[] https = {0, 1, 0};
+        try (StubDNSServer dual = new StubDNSServer()
+                .record(DNSMessage.TYPE_A, InetAddress.getByName("10.0.0.1").getAddress())
+                .record(DNSMessage.TYPE_AAAA, InetAddress.getByName("2001:db8::1").getAddress())
+                .record(DNSMessage.TYPE_HTTPS, https)
+                .delay(DNSMessage.TYPE_AAAA, 60);
+             StubDNSServer v4only = new StubDNSServer()
+                .record(DNSMessage.TYPE_A, InetAddress.getByName("10.0.0.2").getAddress())) {
+            List<String> servers = Arrays.asList("127.0.0.1:" + dual.getAddress().getPort(),
+                "127.0.0.1:" + v4only.getAddress().getPort());
+            for (ProbeMode mode : ProbeMode.values()) {
+                List<DNSResult> callbacks = new ArrayList<>();
+                List<DNSResult> results = dnsSpeedTest.testMatrix(servers, Collections.singletonList("www.example.com"),
+                    new ScanOptions().mode(mode).answerCheck(AnswerCheckMode.OFF)
+                        .types(Arrays.asList(QueryType.HTTPS, QueryType.A, QueryType.AAAA)), callbacks::add);
+
+                // 每个服务器×域名只回调一次合并后的结果
+                Assertions.assertEquals(2, callbacks.size(), mode.toString());
+                Assertions.assertEquals(2, results.size(), mode.toString());
+                DNSResult combined = find(results, servers.get(0));
+                Assertions.assertTrue(combined.isSuccess(), combined.toString());
+                Assertions.assertNull(combined.getQueryType());
+                Assertions.assertEquals("www.example.com", combined.getDomain());
+                Assertions.assertEquals("10.0.0.1", combined.getResolvedIP());
+                Assertions.assertEquals(2, combined.getAnswers().size());
+
+                List<DNSResult> parts = combined.getTypeResults();
+                Assertions.assertEquals(Arrays.asList(QueryType.A, QueryType.AAAA, QueryType.HTTPS),
+                    Arrays.asList(parts.get(0).getQueryType(), parts.get(1).getQueryType(), parts.get(2).getQueryType()));
+                Assertions.assertEquals("2001:db8:0:0:0:0:0:1", parts.get(1).getResolvedIP());
+                Assertions.assertEquals("1条HTTPS记录", parts.get(2).getResolvedIP());
+                // 合并后的响应时间取最慢的类型
+                long slowest = 0;
+                for (DNSResult part : parts) {
+                    slowest = Math.max(slowest, part.getResponseTimeNanos());
+                }
+                Assertions.assertEquals(slowest, combined.getResponseTimeNanos());
+                Assertions.assertEquals(parts.get(1).getResponseTimeNanos(), slowest);
+                Assertions.assertTrue(slowest >= TimeUnit.MILLISECONDS.toNanos(60), combined.toString());
+                Assertions.assertTrue(combined.toString().contains("AAAA "), combined.toString());
+
+                // 没有IPv6地址和HTTPS记录的域名返回NODATA，同样是成功的解析
+                DNSResult v4 = find(results, servers.get(1));
+                Assertions.assertTrue(v4.isSuccess(), v4.toString());
+                Assertions.assertEquals("NODATA", v4.getTypeResults().get(1).getResolvedIP());
+                Assertions.assertSame(v4, results.get(0));
+            }
+        }
+    }
+
+    @Test
+    public void testTcpFallback() throws Exception {
+        try (StubDNSServer stub = new StubDNSServer().answer("10.0.0.9").truncate(true)) {
+            DNSResult result = dnsSpeedTest.testSingleDNS("stub", stub.getAddress(), "www.example.com");
+            Assertions.assertTrue(result.isSuccess(), result.toString());
+            Assertions.assertEquals("10.0.0.9", result.getResolvedIP());
+            Assertions.assertTrue(result.isTcpFallback());
+            Assertions.assertTrue(result.toString().contains("TCP回退"), result.toString());
+
+            // 多轮采样的后续轮次同样经TCP完成
+            DNSResult sampled = dnsSpeedTest.testSingleDNS("stub", stub.getAddress(), "www.example.com",
+                new SamplingOptions(3, 1, RankingStatistic.MEDIAN));
+            Assertions.assertEquals(3, sampled.getStats().getSamples(), sampled.toString());
+
+            // 多路复用模式在阻塞线程池中回退，多轮采样和分类型查询同样经TCP完成
+            List<DNSResult> results = dnsSpeedTest.testMatrix(
+                Collections.singletonList("127.0.0.1:" + stub.getAddress().getPort()),
+                Collections.singletonList("www.example.com"),
+                new ScanOptions().mode(ProbeMode.NIO).answerCheck(AnswerCheckMode.OFF)
+                    .sampling(new SamplingOptions(3, 1, RankingStatistic.MEDIAN)), r -> { });
+            Assertions.assertTrue(results.get(0).isSuccess(), results.get(0).toString());
+            Assertions.assertEquals(3, results.get(0).getStats().getSamples(), results.get(0).toString());
+
+            results = dnsSpeedTest.testMatrix(
+                Collections.singletonList("127.0.0.1:" + stub.getAddress().getPort()),
+                Collections.singletonList("www.example.com"),
+                new ScanOptions().mode(ProbeMode.NIO).answerCheck(AnswerCheckMode.OFF)
+                    .types(Arrays.asList(QueryType.A, QueryType.AAAA)), r -> { });
+            Assertions.assertEquals(1, results.size());
+            for (DNSResult part : results.get(0).getTypeResults()) {
+                Assertions.assertTrue(part.isTcpFallback(), part.toString());
+            }
+            Assertions.assertEquals("10.0.0.9", results.get(0).getResolvedIP());
+        }
+    }
+
+    private static DNSResult find(List<DNSResult> results, String dnsServer) {
+        return results.stream().filter(result -> result.getDnsServer().equals(dnsServer)).findFirst().orElseThrow();
+    }
+}
@@ -0,0 +1,44 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LatencyStatsTest {
+
+    @Test
+    public void testPercentiles() {
+        long[] values = new long[102];
+        // 在数组中间区间写入 100..1 的逆序采样，首尾两个位置不属于该服务器
+        values[0] = -1;
+        values[101] = -1;
+        for (int i = 0; i < 100; i++) {
+            values[1 + i] = 100 - i;
+        }
+
+        LatencyStats stats = LatencyStats.of(values, 1, 100, 100);
+
+        Assertions.assertEquals(1, stats.getMin());
+        Assertions.assertEquals(100, stats.getMax());
+        Assertions.assertEquals(50, stats.getMedian());
+        Assertions.assertEquals(90, stats.getP90());
+        Assertions.assertEquals(99, stats.getP99());
+        Assertions.assertEquals(50.5, stats.getMean(), 1e-9);
+        Assertions.assertEquals(0, stats.getLossRate(), 1e-9);
+        Assertions.assertEquals(-1, values[0]);
+        Assertions.assertEquals(-1, values[101]);
+    }
+
+    @Test
+    public void testLossRateAndRanking() {
+        LatencyStats stats = LatencyStats.of(new long[]{30, 10, 20, 0}, 0, 3, 4);
+
+        Assertions.assertEquals(0.25, stats.getLossRate(), 1e-9);
+        Assertions.assertEquals(10, RankingStatistic.MIN.valueOf(stats));
+        Assertions.assertEquals(20, RankingStatistic.MEDIAN.valueOf(stats));
+        Assertions.assertEquals(30, RankingStatistic.P99.valueOf(stats));
+
+        DNSResult result = new DNSResult("stub", stats, RankingStatistic.MIN, "10.0.0.1");
+        Assertions.assertEquals(10, result.getResponseTimeNanos());
+        Assertions.assertSame(stats, result.getStats());
+    }
+}
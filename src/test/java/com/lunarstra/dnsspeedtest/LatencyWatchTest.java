@@ -0,0 +1,103 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+public class LatencyWatchTest {
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void testWindowMatchesRecomputation() {
+        LatencyWindow window = new LatencyWindow(50);
+        Deque<Long> recent = new ArrayDeque<>();
+        Random random = new Random(42);
+        long[] scratch = new long[50];
+        for (int i = 0; i < 2000; i++) {
+            // 包含重复值和丢失的样本
+            long value = random.nextInt(10) == 0 ? LatencyWindow.LOST : random.nextInt(200) * MS;
+            window.add(value);
+            recent.addLast(value);
+            if (recent.size() > 50) {
+                recent.removeFirst();
+            }
+            List<Long> successes = new ArrayList<>();
+            for (long sample : recent) {
+                if (sample != LatencyWindow.LOST) {
+                    successes.add(sample);
+                }
+            }
+            Collections.sort(successes);
+            Assertions.assertEquals(recent.size(), window.size());
+            Assertions.assertEquals((double) (recent.size() - successes.size()) / recent.size(), window.getLossRate(),
+                1e-9);
+            for (int percent : new int[] {50, 95, 100}) {
+                int rank = (int) Math.ceil(percent / 100.0 * successes.size());
+                long expected = successes.isEmpty() ? LatencyWindow.LOST : successes.get(Math.max(0, rank - 1));
+                Assertions.assertEquals(expected, window.percentile(percent));
+            }
+        }
+
+        // 最新的3个样本与更早的样本分开求中位数
+        LatencyWindow small = new LatencyWindow(8);
+        for (long value : new long[] {1, 2, 3, 4, 5, LatencyWindow.LOST, 30, 10, 20}) {
+            small.add(value);
+        }
+        Assertions.assertEquals(20, small.median(0, 3, scratch));
+        Assertions.assertEquals(3, small.median(3, 5, scratch));
+        Assertions.assertEquals(8, small.size());
+    }
+
+    @Test
+    public void testAlerts() {
+        LatencyWatch watch = new LatencyWatch(20, 10, 100, 0.2, 2.0, 4);
+        for (int i = 0; i < 20; i++) {
+            watch.record(DNSResult.ofNanos("slow", 150 * MS, "ip"));
+            watch.record(DNSResult.ofNanos("stable", 20 * MS, "ip"));
+            watch.record(i % 2 == 0 ? new DNSResult("lossy", "请求超时") : DNSResult.ofNanos("lossy", 20 * MS, "ip"));
+            // 被提前取消的查询不计入
+            watch.record(new DNSResult("stable", "已取消：已确认最快的结果"));
+        }
+        List<WatchAlert> alerts = watch.evaluate(1000);
+        Assertions.assertEquals(2, alerts.size(), alerts.toString());
+        Assertions.assertEquals("lossy", alerts.get(0).getDnsServer());
+        Assertions.assertEquals(WatchAlert.Kind.LOSS, alerts.get(0).getKind());
+        Assertions.assertEquals(0.5, alerts.get(0).getValue(), 1e-9);
+        Assertions.assertEquals("slow", alerts.get(1).getDnsServer());
+        Assertions.assertEquals(WatchAlert.Kind.P95, alerts.get(1).getKind());
+        Assertions.assertTrue(alerts.get(1).toString().startsWith("告警 slow p95响应时间"), alerts.get(1).toString());
+
+        // 持续越界不重复告警
+        Assertions.assertTrue(watch.evaluate(2000).isEmpty());
+        Assertions.assertEquals(2, watch.getActiveAlerts().size());
+        Assertions.assertEquals(1000, watch.getActiveAlerts().get(0).getAtMillis());
+
+        // 稳定的服务器突然变慢：只有突变告警，p95还没有越过阈值
+        for (int i = 0; i < 4; i++) {
+            watch.record(DNSResult.ofNanos("stable", 60 * MS, "ip"));
+        }
+        List<WatchAlert> shifted = watch.evaluate(3000);
+        Assertions.assertEquals(1, shifted.size(), shifted.toString());
+        Assertions.assertEquals(WatchAlert.Kind.SHIFT, shifted.get(0).getKind());
+        Assertions.assertEquals(60.0, shifted.get(0).getValue(), 1e-9);
+        Assertions.assertEquals(40.0, shifted.get(0).getLimit(), 1e-9);
+
+        // 慢的服务器恢复正常后产生解除记录
+        for (int i = 0; i < 20; i++) {
+            watch.record(DNSResult.ofNanos("slow", 30 * MS, "ip"));
+        }
+        List<WatchAlert> cleared = watch.evaluate(4000);
+        Assertions.assertEquals(1, cleared.size(), cleared.toString());
+        Assertions.assertFalse(cleared.get(0).isRaised());
+        Assertions.assertEquals(Arrays.asList("lossy", "stable"),
+            Arrays.asList(watch.getActiveAlerts().get(0).getDnsServer(), watch.getActiveAlerts().get(1).getDnsServer()));
+    }
+}
@@ -0,0 +1,142 @@
+package com.lunarstra.dnsspeedtest;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ProbeContextTest {
+
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final int WARMUP = 5_000;
+    private static final int PROBES = 2_000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void testExchange() throws Exception {
+        try (StubDNSServer first = new StubDNSServer().answer("10.0.0.1");
+             StubDNSServer second = new StubDNSServer().answer("10.0.0.2");
+             ProbeContext probe = new ProbeContext()) {
+            DNSQuery query = new DNSQuery("www.example.com");
+            ProbeCounters counters = new ProbeCounters();
+            // 在两个服务器之间切换时重新连接
+            for (StubDNSServer stub : new StubDNSServer[] {first, second, first}) {
+                long nanos = probe.exchange(stub.getAddress(), query, TIMEOUT_NANOS, counters);
+                Assertions.assertTrue(nanos > 0);
+                Assertions.assertEquals(nanos, probe.getLastNanos());
+                Assertions.assertEquals(stub == first ? "10.0.0.1" : "10.0.0.2",
+                    DNSMessage.decode(probe.response()).firstAddress(DNSMessage.TYPE_A));
+            }
+
+            first.drop(true);
+            Assertions.assertEquals(ProbeContext.TIMED_OUT,
+                probe.exchange(first.getAddress(), query, TimeUnit.MILLISECONDS.toNanos(50), counters));
+            Assertions.assertEquals(4, counters.snapshot().getSent());
+            Assertions.assertEquals(1, counters.snapshot().getTimedOut());
+        }
+    }
+
+    @Test
+    public void testPool() throws Exception {
+        try (ProbeContext.Pool pool = new ProbeContext.Pool(1)) {
+            ProbeContext a = pool.acquire();
+            ProbeContext b = pool.acquire();
+            pool.release(a);
+            // 超过上限的上下文直接关闭
+            pool.release(b);
+            Assertions.assertEquals(1, pool.getIdle());
+            Assertions.assertFalse(b.isOpen());
+            Assertions.assertSame(a, pool.acquire());
+
+            // 出错后关闭的上下文不再复用
+            a.close();
+            pool.release(a);
+            Assertions.assertEquals(0, pool.getIdle());
+        }
+    }
+
+    @Test
+    public void testSteadyStateWithoutAllocation() throws Exception {
+        Assertions.assertTrue(THREADS.isThreadAllocatedMemorySupported());
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+        // 先占用一批文件描述符，让查询通道的描述符超过Integer缓存的默认上限127
+        List<DatagramChannel> filler = new ArrayList<>();
+        try (StubDNSServer stub = new StubDNSServer().answer("10.0.0.1")) {
+            for (int i = 0; i < 128; i++) {
+                filler.add(DatagramChannel.open());
+            }
+            try (ProbeContext probe = new ProbeContext()) {
+                ProbeCounters counters = new ProbeCounters();
+                InetSocketAddress address = stub.getAddress();
+                for (DNSQuery query : new DNSQuery[] {new DNSQuery("www.example.com"), new DNSQuery("www.example.com", true)}) {
+                    for (int i = 0; i < WARMUP; i++) {
+                        probe.exchange(address, query, TIMEOUT_NANOS, counters);
+                    }
+                    long before = THREADS.getCurrentThreadAllocatedBytes();
+                    for (int i = 0; i < PROBES; i++) {
+                        if (probe.exchange(address, query, TIMEOUT_NANOS, counters) < 0) {
+                            Assertions.fail("查询超时");
+                        }
+                    }
+                    long allocated = THREADS.getCurrentThreadAllocatedBytes() - before;
+                    // 读取计数本身可能分配少量字节，但远少于每次查询一个对象
+                    Assertions.assertTrue(allocated < PROBES, "allocated " + allocated + " bytes in " + PROBES + " probes");
+                }
+            }
+        } finally {
+            for (DatagramChannel channel : filler) {
+                channel.close();
+            }
+        }
+    }
+
+    @Test
+    public void testSampledRoundsWithoutAllocation() throws Exception {
+        assertSampledRoundsWithoutAllocation();
+    }
+
+    @Test
+    public void testSampledRoundsWithoutAllocationWhileRecording() throws Exception {
+        // JFR已初始化、正在记录但没有启用查询事件时，同样不创建事件对象
+        try (Recording recording = new Recording()) {
+            recording.disable(ProbeEvent.class);
+            recording.start();
+            Assertions.assertTrue(FlightRecorder.isInitialized());
+            assertSampledRoundsWithoutAllocation();
+        }
+    }
+
+    private static void assertSampledRoundsWithoutAllocation() throws Exception {
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+        DNSSpeedTest dnsSpeedTest = new DNSSpeedTest();
+        try (StubDNSServer stub = new StubDNSServer().answer("10.0.0.1")) {
+            DNSQuery query = new DNSQuery("www.example.com");
+            dnsSpeedTest.testSingleDNS("stub", stub.getAddress(), query, new SamplingOptions(WARMUP, 0, RankingStatistic.MEDIAN));
+
+            // 多出来的轮次只多占用采样数组中的8字节
+            long few = allocatedBy(() -> dnsSpeedTest.testSingleDNS("stub", stub.getAddress(), query,
+                new SamplingOptions(100, 0, RankingStatistic.MEDIAN)));
+            long many = allocatedBy(() -> dnsSpeedTest.testSingleDNS("stub", stub.getAddress(), query,
+                new SamplingOptions(100 + PROBES, 0, RankingStatistic.MEDIAN)));
+            long perRound = (many - few) / PROBES;
+            Assertions.assertTrue(perRound <= 8, "allocated " + perRound + " bytes per round");
+        } finally {
+            dnsSpeedTest.close();
+        }
+    }
+
+    private static long allocatedBy(Runnable task) {
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        task.run();
+        return THREADS.getCurrentThreadAllocatedBytes() - before;
+    }
+}
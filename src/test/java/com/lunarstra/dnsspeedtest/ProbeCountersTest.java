@@ -0,0 +1,48 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+public class ProbeCountersTest {
+
+    @Test
+    public void testParseUdpErrors() {
+        long[] ipv4 = ProbeCounters.parseUdpErrors(Arrays.asList(
+            "Ip: Forwarding DefaultTTL InReceives",
+            "Ip: 1 64 1000",
+            "Udp: InDatagrams NoPorts InErrors OutDatagrams RcvbufErrors SndbufErrors InCsumErrors IgnoredMulti MemErrors",
+            "Udp: 500 3 7 600 5 2 0 0 0",
+            "UdpLite: InDatagrams NoPorts InErrors OutDatagrams RcvbufErrors SndbufErrors InCsumErrors IgnoredMulti MemErrors",
+            "UdpLite: 0 0 0 0 99 99 0 0 0"));
+        Assertions.assertArrayEquals(new long[] {5, 2}, ipv4);
+
+        long[] ipv6 = ProbeCounters.parseUdpErrors(Arrays.asList(
+            "Udp6InDatagrams                 	10",
+            "Udp6RcvbufErrors                	4",
+            "Udp6SndbufErrors                	1"));
+        Assertions.assertArrayEquals(new long[] {4, 1}, ipv6);
+
+        Assertions.assertNull(ProbeCounters.parseUdpErrors(Arrays.asList("Ip: Forwarding", "Ip: 1")));
+    }
+
+    @Test
+    public void testSnapshot() {
+        ProbeCounters counters = new ProbeCounters();
+        ProbeCounters.Snapshot before = counters.snapshot();
+        counters.onSent();
+        counters.onSent();
+        counters.onReceived();
+        counters.onResult(new DNSResult("tls://127.0.0.1", "请求超时"));
+
+        ProbeCounters.Snapshot delta = counters.snapshot().minus(before);
+        Assertions.assertEquals(2, delta.getSent());
+        Assertions.assertEquals(1, delta.getReceived());
+        Assertions.assertEquals(1, delta.getTimedOut());
+        Assertions.assertEquals(0, delta.getSendErrors());
+
+        counters.onSendBufferFull();
+        Assertions.assertTrue(counters.snapshot().minus(before).isLocalBottleneck());
+    }
+}
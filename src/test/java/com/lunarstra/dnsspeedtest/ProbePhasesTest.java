@@ -0,0 +1,42 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ProbePhasesTest {
+
+    @Test
+    public void testSnapshot() {
+        ProbePhases phases = new ProbePhases();
+        DNSQuery query = new DNSQuery("www.example.com");
+        phases.record("a", query, new DNSResult("a", "请求超时"), 0, 10, 15, 16, 116, 116);
+        ProbePhases.Snapshot before = phases.snapshot();
+        phases.record("b", query, DNSResult.ofNanos("b", 40, "10.0.0.1"), 100, 130, 131, 133, 173, 180);
+        phases.record("b", query, DNSResult.ofNanos("b", 20, "10.0.0.1"), 200, 210, 211, 212, 232, 234);
+
+        ProbePhases.Snapshot delta = phases.snapshot().minus(before);
+        Assertions.assertEquals(2, delta.getProbes());
+        Assertions.assertEquals(40, delta.getTotalNanos(ProbePhase.QUEUE));
+        Assertions.assertEquals(2, delta.getTotalNanos(ProbePhase.SETUP));
+        Assertions.assertEquals(3, delta.getTotalNanos(ProbePhase.SEND));
+        Assertions.assertEquals(60, delta.getTotalNanos(ProbePhase.RECEIVE));
+        Assertions.assertEquals(9, delta.getTotalNanos(ProbePhase.DECODE));
+        Assertions.assertEquals(30, delta.getMeanNanos(ProbePhase.RECEIVE));
+        // 最大值包括增量之前的记录
+        Assertions.assertEquals(100, delta.getMaxNanos(ProbePhase.RECEIVE));
+        Assertions.assertEquals(0, new ProbePhases().snapshot().getMeanNanos(ProbePhase.QUEUE));
+    }
+
+    @Test
+    public void testPrometheusText() {
+        ProbePhases phases = new ProbePhases();
+        phases.record("a", new DNSQuery("www.example.com"), DNSResult.ofNanos("a", 2_000_000, "10.0.0.1"),
+            0, 1_000_000, 1_000_000, 1_000_000, 3_000_000, 3_000_000);
+        StringBuilder out = new StringBuilder();
+        phases.snapshot().appendPrometheusText(out);
+        String text = out.toString();
+        Assertions.assertTrue(text.contains("dnsspeedtest_probe_phase_seconds_sum{phase=\"queue\"} 0.001\n"), text);
+        Assertions.assertTrue(text.contains("dnsspeedtest_probe_phase_seconds_count{phase=\"receive\"} 1\n"), text);
+        Assertions.assertTrue(text.contains("dnsspeedtest_probe_phase_max_seconds{phase=\"receive\"} 0.002\n"), text);
+    }
+}
@@ -0,0 +1,52 @@
+package com.lunarstra.dnsspeedtest;
+
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+
+@QuarkusTest
+public class RankingResourceTest {
+
+    @Inject
+    ProbeScheduler scheduler;
+
+    @Test
+    public void testEndpointsServeLatestSnapshot() {
+        DNSResult fast = DNSResult.ofNanos("10.0.0.1", 2_000_000, "1.1.1.1").withDomain("a.com");
+        DNSResult failed = new DNSResult("10.0.0.2", "请求超时").withDomain("a.com");
+        scheduler.getMetrics().record(fast);
+        scheduler.getMetrics().record(failed);
+        scheduler.publish(Arrays.asList(fast, failed), 5_000_000);
+
+        given().when().get("/ranking").then()
+            .statusCode(200)
+            .body("ready", equalTo(true))
+            .body("ranking[0].resolver", equalTo("10.0.0.1"))
+            .body("ranking[0].meanMs", equalTo(2.0f))
+            .body("ranking[1].error", equalTo("请求超时"));
+
+        given().when().get("/resolver/10.0.0.1").then()
+            .statusCode(200)
+            .body("[0].resolvedIp", equalTo("1.1.1.1"));
+        given().when().get("/resolver/10.9.9.9").then()
+            .statusCode(404);
+
+        given().when().get("/alerts").then()
+            .statusCode(200)
+            .body("size()", equalTo(0));
+
+        given().when().get("/metrics").then()
+            .statusCode(200)
+            .body(containsString("dnsspeedtest_probe_duration_seconds_bucket{resolver=\"10.0.0.1\",le=\"0.0025\"} 1"))
+            .body(containsString("dnsspeedtest_probe_errors_total{resolver=\"10.0.0.2\"} 1"))
+            .body(containsString("dnsspeedtest_scans_total 1"))
+            .body(containsString("# TYPE dnsspeedtest_queries_sent_total counter"))
+            .body(containsString("# TYPE dnsspeedtest_probe_phase_seconds summary"));
+    }
+}
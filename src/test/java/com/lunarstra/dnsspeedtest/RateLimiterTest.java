@@ -0,0 +1,49 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiterTest {
+
+    @Test
+    public void testTryAcquire() {
+        // 1000次/秒，突发窗口20ms：空闲后立即可取20个令牌，之后每1ms一个
+        RateLimiter limiter = new RateLimiter(1000);
+        long now = System.nanoTime();
+        int granted = 0;
+        while (limiter.tryAcquire(now)) {
+            granted++;
+        }
+        Assertions.assertTrue(granted >= 20 && granted <= 21, "granted=" + granted);
+        Assertions.assertTrue(limiter.nanosUntilAvailable(now) > 0);
+        Assertions.assertTrue(limiter.nanosUntilAvailable(now) <= TimeUnit.MILLISECONDS.toNanos(1));
+
+        long later = now + TimeUnit.MILLISECONDS.toNanos(5);
+        granted = 0;
+        while (limiter.tryAcquire(later)) {
+            granted++;
+        }
+        Assertions.assertEquals(5, granted);
+
+        RateLimiter unlimited = new RateLimiter(0);
+        Assertions.assertFalse(unlimited.isEnabled());
+        for (int i = 0; i < 10_000; i++) {
+            Assertions.assertTrue(unlimited.tryAcquire(now));
+        }
+        Assertions.assertEquals("不限速", unlimited.toString());
+    }
+
+    @Test
+    public void testAcquire() throws InterruptedException {
+        // 200次/秒取50个令牌：突发窗口内的5个之外，其余45个至少需要225ms
+        RateLimiter limiter = new RateLimiter(200);
+        long start = System.nanoTime();
+        for (int i = 0; i < 50; i++) {
+            limiter.acquire();
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assertions.assertTrue(elapsedMs >= 215, "elapsed=" + elapsedMs);
+    }
+}
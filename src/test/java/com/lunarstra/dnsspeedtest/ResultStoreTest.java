@@ -0,0 +1,85 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ResultStoreTest {
+
+    private static final long MINUTE = 60_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testPersistAndStaleness() throws Exception {
+        Path file = dir.resolve("results.db");
+        long now = 1_000_000;
+        try (ResultStore store = ResultStore.open(file)) {
+            store.record(Arrays.asList(
+                DNSResult.ofNanos("10.0.0.1", 10_000_000, "1.1.1.1").withDomain("a.com"),
+                new DNSResult("10.0.0.2", "请求超时").withDomain("a.com"),
+                new DNSResult("10.0.0.3", "已取消（已确认前1名）").withDomain("a.com")), now);
+            store.record(Arrays.asList(
+                DNSResult.ofNanos("10.0.0.1", 12_000_000, "1.1.1.1").withDomain("a.com")), now + MINUTE);
+        }
+
+        // 重新打开后状态一致
+        try (ResultStore store = ResultStore.open(file)) {
+            ResultStore.Entry entry = store.get("10.0.0.1", "a.com");
+            Assertions.assertEquals(2, entry.getProbes());
+            Assertions.assertEquals(10_600_000, entry.getMeanNanos(), 1);
+            Assertions.assertEquals(12_000_000, entry.toResult().getResponseTimeNanos());
+            Assertions.assertEquals("a.com", entry.toResult().getDomain());
+            Assertions.assertEquals("请求超时", store.get("10.0.0.2", "a.com").toResult().getErrorMessage());
+            Assertions.assertNull(store.get("10.0.0.3", "a.com"));
+
+            Assertions.assertFalse(store.isStale("10.0.0.1", "a.com", now + 2 * MINUTE, 60 * MINUTE, 0.5));
+            Assertions.assertTrue(store.isStale("10.0.0.1", "a.com", now + 61 * MINUTE, 60 * MINUTE, 0.5));
+            Assertions.assertTrue(store.isStale("10.0.0.1", "b.com", now, 60 * MINUTE, 0.5));
+            // 波动超过阈值时重新测试
+            Assertions.assertTrue(store.isStale("10.0.0.1", "a.com", now + 2 * MINUTE, 60 * MINUTE, 0.01));
+        }
+    }
+
+    @Test
+    public void testTruncatedTailAndCompaction() throws Exception {
+        Path file = dir.resolve("results.db");
+        try (ResultStore store = ResultStore.open(file)) {
+            store.record(Arrays.asList(DNSResult.ofNanos("10.0.0.1", 1_000_000, "1.1.1.1")), 0);
+        }
+        long complete = Files.size(file);
+        try (ResultStore store = ResultStore.open(file)) {
+            store.record(Arrays.asList(DNSResult.ofNanos("10.0.0.2", 2_000_000, "1.1.1.1")), 0);
+        }
+        // 模拟写入中途断电：第二条记录只写了一部分
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(complete + 5);
+        }
+        try (ResultStore store = ResultStore.open(file)) {
+            Assertions.assertNotNull(store.get("10.0.0.1", null));
+            Assertions.assertNull(store.get("10.0.0.2", null));
+            Assertions.assertEquals(complete, Files.size(file));
+
+            // 反复更新同一条记录，日志增长后自动压缩
+            for (int i = 0; i < 100; i++) {
+                List<DNSResult> batch = new ArrayList<>();
+                batch.add(DNSResult.ofNanos("10.0.0.1", 1_000_000 + i, "1.1.1.1"));
+                store.record(batch, i);
+            }
+            Assertions.assertTrue(store.getLogRecords() <= 64, "records=" + store.getLogRecords());
+            Assertions.assertEquals(101, store.get("10.0.0.1", null).getProbes());
+        }
+        try (ResultStore store = ResultStore.open(file)) {
+            Assertions.assertEquals(101, store.get("10.0.0.1", null).getProbes());
+        }
+    }
+}
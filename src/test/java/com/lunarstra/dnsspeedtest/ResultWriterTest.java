@@ -0,0 +1,154 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+public class ResultWriterTest {
+
+    @TempDir
+    Path dir;
+
+    private static List<DNSResult> sampleResults() {
+        long[] samples = {3_000_000, 1_000_000, 2_000_000};
+        return Arrays.asList(
+            DNSResult.ofNanos("8.8.8.8", 1_234_567, "1.2.3.4").withDomain("www.example.com"),
+            new DNSResult("tls://dns.example:853", "DNS查询失败: 服务器返回 \"SERVFAIL\", 重试").withDomain("a,b"),
+            new DNSResult("9.9.9.9", LatencyStats.of(samples, 0, 3, 4), RankingStatistic.MEDIAN, "::1")
+                .withDomain("www.example.com").withConnectNanos(500));
+    }
+
+    private static void writeAll(Path path, OutputFormat format) throws IOException {
+        try (ResultWriter writer = ResultWriter.open(path, format)) {
+            for (DNSResult result : sampleResults()) {
+                writer.write(result);
+            }
+        }
+    }
+
+    @Test
+    public void testJsonLines() throws IOException {
+        Path path = dir.resolve("result.jsonl");
+        writeAll(path, OutputFormat.JSONL);
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+
+        Assertions.assertEquals(3, lines.size());
+        Assertions.assertEquals("{\"server\":\"8.8.8.8\",\"domain\":\"www.example.com\",\"success\":true,"
+            + "\"responseTimeNanos\":1234567,\"connectNanos\":0,\"resolvedIP\":\"1.2.3.4\",\"error\":null,"
+            + "\"answers\":[],\"ttl\":-1,\"answerVerdict\":\"UNCHECKED\",\"stats\":null,\"tcpFallback\":false,"
+            + "\"types\":null}", lines.get(0));
+        Assertions.assertTrue(lines.get(1).contains("\"responseTimeNanos\":null"), lines.get(1));
+        Assertions.assertTrue(lines.get(1).contains("\"error\":\"DNS查询失败: 服务器返回 \\\"SERVFAIL\\\", 重试\""),
+            lines.get(1));
+        Assertions.assertTrue(lines.get(2).contains("\"stats\":{\"samples\":3,\"attempts\":4,\"minNanos\":1000000,"
+            + "\"maxNanos\":3000000,\"medianNanos\":2000000"), lines.get(2));
+    }
+
+    @Test
+    public void testCsv() throws IOException {
+        Path path = dir.resolve("result.csv");
+        writeAll(path, OutputFormat.CSV);
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+
+        Assertions.assertEquals(4, lines.size());
+        Assertions.assertEquals(TextResultWriter.CSV_HEADER, lines.get(0));
+        Assertions.assertEquals("8.8.8.8,www.example.com,true,1234567,0,1.2.3.4,,,,,,,,,,,,-1,UNCHECKED,false,",
+            lines.get(1));
+        Assertions.assertEquals("tls://dns.example:853,\"a,b\",false,,0,,"
+            + "\"DNS查询失败: 服务器返回 \"\"SERVFAIL\"\", 重试\",,,,,,,,,,,-1,UNCHECKED,false,", lines.get(2));
+        Assertions.assertTrue(lines.get(3).startsWith("9.9.9.9,www.example.com,true,2000000,500,::1,,3,4,1000000,"
+            + "3000000,2000000,3000000,3000000,2000000.0,"), lines.get(3));
+    }
+
+    @Test
+    public void testVerdicts() throws IOException {
+        Path path = dir.resolve("result.csv.verdicts.csv");
+        List<DNSResult> results = sampleResults();
+        TextResultWriter.writeVerdicts(path, Arrays.asList(
+            results.get(0).withAnswerVerdict(AnswerVerdict.CONSISTENT),
+            results.get(1),
+            results.get(2).withAnswerVerdict(AnswerVerdict.DIVERGENT)));
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+
+        Assertions.assertEquals(Arrays.asList(TextResultWriter.VERDICT_CSV_HEADER,
+            "8.8.8.8,www.example.com,CONSISTENT",
+            "tls://dns.example:853,\"a,b\",UNCHECKED",
+            "9.9.9.9,www.example.com,DIVERGENT"), lines);
+    }
+
+    @Test
+    public void testBinary() throws IOException {
+        Path path = dir.resolve("result.bin");
+        writeAll(path, OutputFormat.BIN);
+        Assertions.assertEquals(BinaryResultWriter.HEADER_SIZE + 3 * BinaryResultWriter.RECORD_SIZE, Files.size(path));
+
+        try (FileChannel channel = FileChannel.open(path)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            Assertions.assertEquals(BinaryResultWriter.MAGIC, map.getInt(0));
+            Assertions.assertEquals(BinaryResultWriter.RECORD_SIZE, map.getShort(6));
+            Assertions.assertEquals(3, map.getLong(8));
+
+            int first = BinaryResultWriter.HEADER_SIZE;
+            Assertions.assertEquals(1_234_567, map.getLong(first + BinaryResultWriter.OFFSET_RESPONSE));
+            Assertions.assertEquals(BinaryResultWriter.FLAG_SUCCESS, map.get(first + BinaryResultWriter.OFFSET_FLAGS));
+            Assertions.assertEquals("8.8.8.8", text(map, first + BinaryResultWriter.OFFSET_SERVER, 64));
+
+            int second = first + BinaryResultWriter.RECORD_SIZE;
+            Assertions.assertEquals(-1, map.getLong(second + BinaryResultWriter.OFFSET_RESPONSE));
+            Assertions.assertEquals(0, map.get(second + BinaryResultWriter.OFFSET_FLAGS));
+            Assertions.assertEquals("DNS查询失败: 服务器返回 \"SERVFAIL\", 重试",
+                text(map, second + BinaryResultWriter.OFFSET_ERROR, 56));
+
+            int third = second + BinaryResultWriter.RECORD_SIZE;
+            Assertions.assertEquals(BinaryResultWriter.FLAG_SUCCESS | BinaryResultWriter.FLAG_STATS,
+                map.get(third + BinaryResultWriter.OFFSET_FLAGS));
+            Assertions.assertEquals(2_000_000, map.getLong(third + BinaryResultWriter.OFFSET_MEDIAN));
+            Assertions.assertEquals(4, map.getInt(third + BinaryResultWriter.OFFSET_ATTEMPTS));
+            Assertions.assertEquals(500, map.getLong(third + BinaryResultWriter.OFFSET_CONNECT));
+        }
+    }
+
+    @Test
+    public void testBinaryTruncation() throws IOException {
+        // 过长的文本在UTF-8字符边界截断并标记，记录仍保持定长
+        Path path = dir.resolve("long.bin");
+        String longError = "错".repeat(30);
+        try (ResultWriter writer = ResultWriter.open(path, OutputFormat.BIN)) {
+            for (int i = 0; i < 5000; i++) {
+                writer.write(new DNSResult("10.0.0." + (i % 256), longError));
+            }
+        }
+        Assertions.assertEquals(BinaryResultWriter.HEADER_SIZE + 5000L * BinaryResultWriter.RECORD_SIZE,
+            Files.size(path));
+        try (FileChannel channel = FileChannel.open(path)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            Assertions.assertEquals(5000, map.getLong(8));
+            int last = BinaryResultWriter.HEADER_SIZE + 4999 * BinaryResultWriter.RECORD_SIZE;
+            Assertions.assertEquals(BinaryResultWriter.FLAG_TRUNCATED, map.get(last + BinaryResultWriter.OFFSET_FLAGS));
+            Assertions.assertEquals("错".repeat(18), text(map, last + BinaryResultWriter.OFFSET_ERROR, 56));
+            Assertions.assertEquals("10.0.0.135", text(map, last + BinaryResultWriter.OFFSET_SERVER, 64));
+        }
+    }
+
+    private static String text(MappedByteBuffer map, int offset, int length) {
+        byte[] bytes = new byte[length];
+        map.get(offset, bytes);
+        int end = 0;
+        while (end < length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, 0, end, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,204 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ScanCoordinatorTest {
+
+    @Test
+    public void testShardRing() {
+        List<String> servers = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            servers.add("10." + (i >> 16 & 0xFF) + "." + (i >> 8 & 0xFF) + "." + (i & 0xFF));
+        }
+        ShardRing four = new ShardRing(4);
+        List<List<String>> parts = four.partition(servers);
+        for (List<String> part : parts) {
+            // 每个分片的服务器数与平均值相差不超过20%
+            Assertions.assertTrue(Math.abs(part.size() - 5000) < 1000, "分片大小: " + part.size());
+        }
+        Assertions.assertEquals(parts, new ShardRing(4).partition(servers));
+
+        // 增加一个分片时只有约1/5的服务器换了分片，并且都换到了新分片
+        ShardRing five = new ShardRing(5);
+        int moved = 0;
+        for (String server : servers) {
+            int before = four.shardOf(server);
+            int after = five.shardOf(server);
+            if (before != after) {
+                moved++;
+                Assertions.assertEquals(4, after);
+            }
+        }
+        Assertions.assertTrue(moved > 3000 && moved < 5000, "换分片的服务器数: " + moved);
+    }
+
+    @Test
+    public void testMerge() {
+        List<DNSResult> merged = ScanCoordinator.merge(Arrays.asList(
+            Arrays.asList(DNSResult.ofNanos("a", 1, "ip"), DNSResult.ofNanos("d", 4, "ip"), new DNSResult("x", "请求超时")),
+            Collections.emptyList(),
+            Arrays.asList(DNSResult.ofNanos("b", 2, "ip"), DNSResult.ofNanos("c", 3, "ip"))));
+        List<String> servers = new ArrayList<>();
+        merged.forEach(result -> servers.add(result.getDnsServer()));
+        Assertions.assertEquals(Arrays.asList("a", "b", "c", "d", "x"), servers);
+    }
+
+    @Test
+    public void testTypedResultRoundTrip() throws Exception {
+        DNSQuery a = new DNSQuery("www.example.com", false, QueryType.A);
+        DNSQuery aaaa = new DNSQuery("www.example.com", false, QueryType.AAAA);
+        DNSResult combined = DNSResult.combine("8.8.8.8", "www.example.com", Arrays.asList(
+            DNSResult.ofNanos("8.8.8.8", 1_000, "1.2.3.4").withQuery(a),
+            DNSResult.ofNanos("8.8.8.8", 3_000, "NODATA").withQuery(aaaa).withTcpFallback()));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ScanProtocol.writeResult(new DataOutputStream(bytes), combined);
+        DNSResult restored = ScanProtocol.readResult(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        Assertions.assertEquals(combined.toString(), restored.toString());
+        Assertions.assertEquals(3_000, restored.getResponseTimeNanos());
+        Assertions.assertTrue(restored.isTcpFallback());
+        Assertions.assertEquals(QueryType.AAAA, restored.getTypeResults().get(1).getQueryType());
+        Assertions.assertTrue(restored.getTypeResults().get(1).isTcpFallback());
+    }
+
+    @Test
+    public void testDistributedScan() throws Exception {
+        List<StubDNSServer> stubs = new ArrayList<>();
+        List<String> servers = new ArrayList<>();
+        ExecutorService workers = Executors.newFixedThreadPool(3);
+        try (ScanCoordinator coordinator = new ScanCoordinator(0)) {
+            for (int i = 0; i < 12; i++) {
+                // 最后一个服务器明显更慢，负载较高时排名也不会与前一个互换
+                StubDNSServer stub = new StubDNSServer().answer("10.0.0." + (i + 1)).delay(i < 11 ? i * 5L : 200);
+                stubs.add(stub);
+                servers.add("127.0.0.1:" + stub.getAddress().getPort());
+            }
+            List<Future<List<DNSResult>>> shards = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                shards.add(workers.submit(() -> new ScanWorker(new DNSSpeedTest())
+                    .run("127.0.0.1", coordinator.getPort(), result -> { })));
+            }
+            List<String> domains = Arrays.asList("www.example.com", "www.example.org");
+            List<DNSResult> streamed = new ArrayList<>();
+            List<DNSResult> results = coordinator.run(3, servers, domains,
+                new ScanOptions().mode(ProbeMode.POOL).timeout(TimeoutPolicy.fixed(2000)), streamed::add);
+
+            Assertions.assertEquals(24, results.size());
+            Assertions.assertEquals(24, streamed.size());
+            Set<String> pairs = new HashSet<>();
+            for (int i = 0; i < results.size(); i++) {
+                DNSResult result = results.get(i);
+                Assertions.assertTrue(result.isSuccess(), result.toString());
+                Assertions.assertEquals(AnswerVerdict.UNCHECKED, result.getAnswerVerdict());
+                pairs.add(result.getDnsServer() + " " + result.getDomain());
+                if (i > 0) {
+                    Assertions.assertTrue(results.get(i - 1).compareTo(result) <= 0, "合并结果未排序");
+                }
+            }
+            Assertions.assertEquals(24, pairs.size());
+            // 最慢的服务器排在最后
+            Assertions.assertEquals(servers.get(11), results.get(23).getDnsServer());
+
+            int total = 0;
+            for (Future<List<DNSResult>> shard : shards) {
+                List<DNSResult> part = shard.get(10, TimeUnit.SECONDS);
+                total += part.size();
+            }
+            Assertions.assertEquals(24, total);
+            Assertions.assertEquals(24, coordinator.getTraffic().getSent());
+            Assertions.assertEquals(24, coordinator.getTraffic().getReceived());
+        } finally {
+            workers.shutdownNow();
+            stubs.forEach(StubDNSServer::close);
+        }
+    }
+
+    @Test
+    public void testWorkerFailure() throws Exception {
+        List<String> servers = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            servers.add("192.0.2." + i);
+        }
+        ExecutorService workers = Executors.newSingleThreadExecutor();
+        try (ScanCoordinator coordinator = new ScanCoordinator(0)) {
+            // 领取任务后直接断开的工作进程
+            workers.submit(() -> {
+                try (Socket socket = new Socket("127.0.0.1", coordinator.getPort())) {
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    ScanProtocol.writeHello(out, "broken");
+                    ScanProtocol.readJob(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+                }
+                return null;
+            });
+            List<DNSResult> results = coordinator.run(1, servers, Collections.singletonList("www.example.com"),
+                new ScanOptions(), result -> { });
+            Assertions.assertEquals(50, results.size());
+            for (DNSResult result : results) {
+                Assertions.assertFalse(result.isSuccess());
+                Assertions.assertTrue(result.getErrorMessage().startsWith("工作进程失败"), result.getErrorMessage());
+                Assertions.assertEquals("www.example.com", result.getDomain());
+            }
+            Assertions.assertNull(coordinator.getTraffic());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStalledWorker() throws Exception {
+        List<String> servers = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            servers.add("192.0.2." + i);
+        }
+        CountDownLatch finished = new CountDownLatch(1);
+        ExecutorService workers = Executors.newSingleThreadExecutor();
+        try (ScanCoordinator coordinator = new ScanCoordinator(0, 500)) {
+            // 领取任务后不再发送任何数据、也不断开的工作进程；第二个工作进程始终没有连接
+            workers.submit(() -> {
+                try (Socket socket = new Socket("127.0.0.1", coordinator.getPort())) {
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    ScanProtocol.writeHello(out, "stalled");
+                    ScanProtocol.readJob(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+                    finished.await();
+                }
+                return null;
+            });
+            long start = System.nanoTime();
+            List<DNSResult> results = coordinator.run(2, servers, Collections.singletonList("www.example.com"),
+                new ScanOptions(), result -> { });
+            Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "等待超时未生效");
+
+            Assertions.assertEquals(50, results.size());
+            Set<String> errors = new HashSet<>();
+            for (DNSResult result : results) {
+                Assertions.assertFalse(result.isSuccess());
+                errors.add(result.getErrorMessage());
+            }
+            Assertions.assertEquals(new HashSet<>(Arrays.asList(
+                "工作进程失败: 超过 500 毫秒没有收到数据", "等待工作进程连接超时")), errors);
+        } finally {
+            finished.countDown();
+            workers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.lunarstra.dnsspeedtest;
+
+import io.vertx.core.http.HttpVersion;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class SecureDNSClientTest {
+
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(3);
+
+    @Test
+    public void testPipelinedQueriesShareOneConnection() throws Exception {
+        try (StubSecureDNSServer dot = StubSecureDNSServer.tls().answer("10.0.0.1").delay(50);
+             StubSecureDNSServer doh = StubSecureDNSServer.https().answer("10.0.0.2").delay(50);
+             SecureDNSClient client = new SecureDNSClient(StubSecureDNSServer.clientContext(), 3000)) {
+            for (StubSecureDNSServer stub : Arrays.asList(dot, doh)) {
+                InetSocketAddress address = ServerAddress.parse(stub.getUrl()).toSocketAddress();
+                List<CompletableFuture<DNSResult>> futures = new ArrayList<>();
+                long start = System.nanoTime();
+                for (int i = 0; i < 20; i++) {
+                    futures.add(client.query(stub.getUrl(), address, new DNSQuery("www.example.com"), TIMEOUT_NANOS));
+                }
+                for (CompletableFuture<DNSResult> future : futures) {
+                    DNSResult result = future.get(5, TimeUnit.SECONDS);
+                    Assertions.assertTrue(result.isSuccess(), result.toString());
+                    Assertions.assertTrue(result.getConnectNanos() > 0, result.toString());
+                    // 响应时间不含建立连接的时间
+                    Assertions.assertTrue(result.getResponseTimeNanos() < TimeUnit.MILLISECONDS.toNanos(1000),
+                        result.toString());
+                }
+                long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+                // 20个查询在同一条连接上同时在途，而不是逐个等待；建立连接时不额外发送DNS查询
+                Assertions.assertEquals(1, stub.getConnections(), stub.getUrl());
+                Assertions.assertEquals(20, stub.getQueries(), stub.getUrl());
+                Assertions.assertTrue(elapsedMs < 20 * 50, "elapsed=" + elapsedMs);
+            }
+            Assertions.assertEquals(Collections.singleton(HttpVersion.HTTP_2), doh.getHttpVersions());
+        }
+    }
+
+    @Test
+    public void testSingleServerTestsShareConnection() throws Exception {
+        DNSSpeedTest dnsSpeedTest = new DNSSpeedTest();
+        dnsSpeedTest.sslContext = StubSecureDNSServer.clientContext();
+        try (StubSecureDNSServer dot = StubSecureDNSServer.tls().answer("10.0.0.1");
+             StubSecureDNSServer doh = StubSecureDNSServer.https().answer("10.0.0.2")) {
+            for (StubSecureDNSServer stub : Arrays.asList(dot, doh)) {
+                for (int i = 0; i < 3; i++) {
+                    DNSResult result = dnsSpeedTest.testSingleDNS(stub.getUrl(), "www.example.com");
+                    Assertions.assertTrue(result.isSuccess(), result.toString());
+                }
+                // 多次单服务器测试复用同一条连接
+                Assertions.assertEquals(1, stub.getConnections(), stub.getUrl());
+                Assertions.assertEquals(3, stub.getQueries(), stub.getUrl());
+            }
+        } finally {
+            dnsSpeedTest.close();
+        }
+    }
+
+    @Test
+    public void testUntrustedCertificate() throws Exception {
+        try (StubSecureDNSServer dot = StubSecureDNSServer.tls();
+             SecureDNSClient client = new SecureDNSClient(null, 3000)) {
+            DNSResult result = client.query(dot.getUrl(), ServerAddress.parse(dot.getUrl()).toSocketAddress(),
+                new DNSQuery("www.example.com"), TIMEOUT_NANOS).get(5, TimeUnit.SECONDS);
+            Assertions.assertFalse(result.isSuccess());
+            Assertions.assertTrue(result.getErrorMessage().startsWith("建立连接失败"), result.getErrorMessage());
+        }
+    }
+
+    @Test
+    public void testSecureServersInEveryMode() throws Exception {
+        DNSSpeedTest dnsSpeedTest = new DNSSpeedTest();
+        dnsSpeedTest.sslContext = StubSecureDNSServer.clientContext();
+        try (StubSecureDNSServer dot = StubSecureDNSServer.tls().answer("10.0.0.1");
+             StubSecureDNSServer doh = StubSecureDNSServer.https().answer("10.0.0.2");
+             StubDNSServer udp = new StubDNSServer().answer("10.0.0.3")) {
+            List<String> servers = Arrays.asList(dot.getUrl(), doh.getUrl(), "127.0.0.1:" + udp.getAddress().getPort());
+            for (ProbeMode mode : ProbeMode.values()) {
+                List<DNSResult> results = dnsSpeedTest.testMatrix(servers, Arrays.asList("a.example", "b.example"),
+                    new ScanOptions().mode(mode).sampling(new SamplingOptions(3, 1, RankingStatistic.MEDIAN)),
+                    result -> { });
+
+                Assertions.assertEquals(6, results.size(), mode.toString());
+                for (DNSResult result : results) {
+                    Assertions.assertTrue(result.isSuccess(), mode + ": " + result);
+                    boolean secure = SecureDNSClient.isSecure(result.getDnsServer());
+                    Assertions.assertEquals(secure, result.getConnectNanos() > 0, mode + ": " + result);
+                }
+            }
+            // 每次测试各自建立一条连接，同一服务器的多个域名和多轮查询复用这条连接
+            Assertions.assertEquals(ProbeMode.values().length, dot.getConnections());
+            Assertions.assertEquals(ProbeMode.values().length, doh.getConnections());
+        }
+    }
+}
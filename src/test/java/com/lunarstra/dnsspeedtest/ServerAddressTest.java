@@ -0,0 +1,79 @@
+package com.lunarstra.dnsspeedtest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+
+public class ServerAddressTest {
+
+    @Test
+    public void testParseLiterals() {
+        ServerAddress v4 = ServerAddress.parse(" 8.8.8.8 ");
+        Assertions.assertTrue(v4.isLiteral());
+        Assertions.assertEquals("8.8.8.8", v4.getText());
+        Assertions.assertEquals(53, v4.getPort());
+        InetSocketAddress address = v4.toSocketAddress();
+        Assertions.assertFalse(address.isUnresolved());
+        Assertions.assertEquals("8.8.8.8", address.getAddress().getHostAddress());
+
+        ServerAddress v4Port = ServerAddress.parse("127.0.0.1:5353");
+        Assertions.assertEquals("127.0.0.1", v4Port.getHost());
+        Assertions.assertEquals(5353, v4Port.getPort());
+
+        ServerAddress v6 = ServerAddress.parse("2001:4860:4860::8888");
+        Assertions.assertTrue(v6.isLiteral());
+        Assertions.assertEquals(53, v6.getPort());
+        Assertions.assertEquals("2001:4860:4860:0:0:0:0:8888", v6.toSocketAddress().getAddress().getHostAddress());
+
+        ServerAddress v6Port = ServerAddress.parse("[::1]:5353");
+        Assertions.assertEquals(5353, v6Port.getPort());
+        Assertions.assertEquals("0:0:0:0:0:0:0:1", v6Port.toSocketAddress().getAddress().getHostAddress());
+
+        ServerAddress mapped = ServerAddress.parse("::ffff:1.2.3.4");
+        Assertions.assertTrue(mapped.isLiteral());
+    }
+
+    @Test
+    public void testParseHostnames() {
+        ServerAddress host = ServerAddress.parse("dns.google");
+        Assertions.assertFalse(host.isLiteral());
+        Assertions.assertTrue(host.toSocketAddress().isUnresolved());
+
+        ServerAddress hostPort = ServerAddress.parse("dns.google:853");
+        Assertions.assertEquals("dns.google", hostPort.getHost());
+        Assertions.assertEquals(853, hostPort.getPort());
+    }
+
+    @Test
+    public void testParseSecureTransports() {
+        ServerAddress dot = ServerAddress.parse("tls://1.1.1.1");
+        Assertions.assertEquals(DNSTransport.TLS, dot.getTransport());
+        Assertions.assertEquals(853, dot.getPort());
+        Assertions.assertTrue(dot.isLiteral());
+
+        ServerAddress doh = ServerAddress.parse("https://dns.google");
+        Assertions.assertEquals(DNSTransport.HTTPS, doh.getTransport());
+        Assertions.assertEquals(443, doh.getPort());
+        Assertions.assertEquals("https://dns.google:443/dns-query", doh.toURI().toString());
+
+        ServerAddress dohV6 = ServerAddress.parse("HTTPS://[::1]:8443/resolve");
+        Assertions.assertEquals("https://[::1]:8443/resolve", dohV6.toURI().toString());
+        Assertions.assertEquals(DNSTransport.UDP, ServerAddress.parse("udp://9.9.9.9").getTransport());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ServerAddress.parse("quic://1.1.1.1"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ServerAddress.parse("tls://1.1.1.1/path"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ServerAddress.parse("tls://"));
+    }
+
+    @Test
+    public void testParseInvalid() {
+        String[] invalid = {
+            "", "999.999.999.999", "1.2.3", "1.2.3.4.5", "8.8.8.8:", "8.8.8.8:70000", "8.8.8.8:abc",
+            "1::2::3", "[::1", "[::1]x", "1:2:3:4:5:6:7:8:9", "bad host", "-bad.example", "a..b"
+        };
+        for (String text : invalid) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> ServerAddress.parse(text), text);
+        }
+    }
+}
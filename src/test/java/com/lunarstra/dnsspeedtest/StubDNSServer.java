@@ -0,0 +1,306 @@
+package com.lunarstra.dnsspeedtest;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内的DNS桩服务器，用于离线测试
+ * 对任何查询都返回固定的A记录，可配置延迟、响应码或丢弃请求；指定域名后，其它域名返回NXDOMAIN。
+ * 按类型配置记录后，只对配置了的类型返回记录，其它类型返回NODATA；
+ * 开启截断后UDP只返回带TC标志的空应答，完整应答由同一端口上的TCP提供
+ */
+public class StubDNSServer implements AutoCloseable {
+
+    private final DatagramSocket socket;
+    private final Thread worker;
+    private final ScheduledExecutorService delayed = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "stub-dns-delayed");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile byte[] answerAddress = {10, 0, 0, 1};
+    private volatile int rcode = DNSMessage.RCODE_NOERROR;
+    private volatile long delayMs = 0;
+    private volatile boolean drop = false;
+    private volatile byte[] onlyName;
+    private volatile boolean truncate = false;
+    private final Map<Integer, byte[]> records = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> typeDelays = new ConcurrentHashMap<>();
+    private ServerSocket tcp;
+
+    public StubDNSServer() throws SocketException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    public StubDNSServer(InetSocketAddress bindAddress) throws SocketException {
+        socket = new DatagramSocket(bindAddress);
+        socket.setReceiveBufferSize(1 << 20);
+        worker = new Thread(this::serve, "stub-dns-" + socket.getLocalPort());
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    public StubDNSServer answer(String ip) throws IOException {
+        this.answerAddress = InetAddress.getByName(ip).getAddress();
+        return this;
+    }
+
+    public StubDNSServer rcode(int rcode) {
+        this.rcode = rcode;
+        return this;
+    }
+
+    public StubDNSServer delay(long delayMs) {
+        this.delayMs = delayMs;
+        return this;
+    }
+
+    public StubDNSServer drop(boolean drop) {
+        this.drop = drop;
+        return this;
+    }
+
+    /**
+     * 对指定类型返回一条记录；配置过任一类型后，未配置的类型返回NODATA
+     */
+    public StubDNSServer record(int type, byte[] rdata) {
+        records.put(type, rdata);
+        return this;
+    }
+
+    /**
+     * 指定类型的查询额外延迟，用于模拟各类型解析快慢不同
+     */
+    public StubDNSServer delay(int type, long delayMs) {
+        typeDelays.put(type, delayMs);
+        return this;
+    }
+
+    /**
+     * UDP只返回带TC标志的空应答，客户端须改用TCP；第一次开启时在同一端口上监听TCP
+     */
+    public synchronized StubDNSServer truncate(boolean truncate) throws IOException {
+        if (truncate && tcp == null) {
+            tcp = new ServerSocket(getAddress().getPort(), 50, getAddress().getAddress());
+            Thread acceptor = new Thread(this::serveTcp, "stub-dns-tcp-" + tcp.getLocalPort());
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+        this.truncate = truncate;
+        return this;
+    }
+
+    /**
+     * 只解析指定的域名，其它域名返回NXDOMAIN
+     */
+    public StubDNSServer only(String domain) {
+        this.onlyName = DNSMessage.encodeName(domain);
+        return this;
+    }
+
+    private boolean isKnown(byte[] query, int length) {
+        byte[] name = onlyName;
+        if (name == null) {
+            return true;
+        }
+        if (length < DNSMessage.HEADER_SIZE + name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (Character.toLowerCase(query[DNSMessage.HEADER_SIZE + i]) != Character.toLowerCase(name[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void serve() {
+        byte[] buffer = new byte[DNSMessage.MAX_UDP_SIZE];
+        while (!socket.isClosed()) {
+            try {
+                DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+                socket.receive(request);
+                if (drop) {
+                    continue;
+                }
+                byte[] data = reply(buffer, request.getLength(), truncate);
+                DatagramPacket reply = new DatagramPacket(data, data.length, request.getSocketAddress());
+                long delay = delayOf(buffer, request.getLength());
+                if (delay > 0) {
+                    // 延迟发送不阻塞接收线程，模拟网络往返时间
+                    delayed.schedule(() -> send(reply), delay, TimeUnit.MILLISECONDS);
+                } else {
+                    send(reply);
+                }
+            } catch (IOException e) {
+                // 关闭时退出
+            }
+        }
+    }
+
+    /**
+     * 每个TCP连接按2字节长度前缀读取查询并应答，连接关闭时结束
+     */
+    private void serveTcp() {
+        while (!tcp.isClosed()) {
+            try {
+                Socket connection = tcp.accept();
+                Thread handler = new Thread(() -> {
+                    try (Socket socket = connection) {
+                        DataInputStream in = new DataInputStream(socket.getInputStream());
+                        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                        while (true) {
+                            byte[] query = new byte[in.readUnsignedShort()];
+                            in.readFully(query);
+                            byte[] data = reply(query, query.length, false);
+                            long delay = delayOf(query, query.length);
+                            if (delay > 0) {
+                                Thread.sleep(delay);
+                            }
+                            out.writeShort(data.length);
+                            out.write(data);
+                            out.flush();
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        // 客户端关闭连接
+                    }
+                }, "stub-dns-tcp-conn");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                // 关闭时退出
+            }
+        }
+    }
+
+    private long delayOf(byte[] query, int length) {
+        Long typeDelay = typeDelays.isEmpty() ? null : typeDelays.get(queryType(query, length));
+        return delayMs + (typeDelay != null ? typeDelay : 0);
+    }
+
+    /**
+     * 按当前配置生成应答；截断时不带应答记录并设置TC标志
+     */
+    private byte[] reply(byte[] query, int length, boolean truncated) {
+        int code = isKnown(query, length) ? rcode : DNSMessage.RCODE_NXDOMAIN;
+        byte[] data;
+        if (truncated) {
+            data = buildReply(query, length, 0, null, code);
+            data[2] |= 0x02;
+        } else if (records.isEmpty()) {
+            data = buildReply(query, length, answerAddress, code);
+        } else {
+            int type = queryType(query, length);
+            data = buildReply(query, length, type, records.get(type), code);
+        }
+        return data;
+    }
+
+    /**
+     * 读取查询报文问题区的类型
+     */
+    static int queryType(byte[] query, int length) {
+        int pos = DNSMessage.HEADER_SIZE;
+        while (pos < length && query[pos] != 0) {
+            pos += (query[pos] & 0xFF) + 1;
+        }
+        return pos + 2 < length ? (query[pos + 1] & 0xFF) << 8 | (query[pos + 2] & 0xFF) : -1;
+    }
+
+    private void send(DatagramPacket reply) {
+        try {
+            socket.send(reply);
+        } catch (IOException e) {
+            // 关闭后发送失败可忽略
+        }
+    }
+
+    /**
+     * 复制查询的报文头和问题区，并追加一条指向问题名称的A/AAAA记录
+     */
+    static byte[] buildReply(byte[] query, int length, byte[] address, int rcode) {
+        return buildReply(query, length, address.length == 4 ? DNSMessage.TYPE_A : DNSMessage.TYPE_AAAA, address,
+            rcode);
+    }
+
+    /**
+     * 复制查询的报文头和问题区，并追加一条指定类型的记录；rdata为null时不带记录（NODATA）
+     */
+    static byte[] buildReply(byte[] query, int length, int type, byte[] rdata, int rcode) {
+        boolean answered = rcode == DNSMessage.RCODE_NOERROR && rdata != null;
+        ByteBuffer reply = ByteBuffer.allocate(length + 12 + (rdata != null ? rdata.length : 0));
+        reply.put(query, 0, length);
+        reply.putShort(2, (short) (0x8180 | rcode)); // QR + RD + RA
+        reply.putShort(6, (short) (answered ? 1 : 0));
+        reply.putShort(8, (short) 0);
+        reply.putShort(10, (short) 0);
+        if (answered) {
+            reply.putShort((short) 0xC00C); // 指向问题区的名称
+            reply.putShort((short) type);
+            reply.putShort((short) DNSMessage.CLASS_IN);
+            reply.putInt(300);
+            reply.putShort((short) rdata.length);
+            reply.put(rdata);
+        }
+        byte[] out = new byte[reply.position()];
+        reply.flip();
+        reply.get(out);
+        return out;
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+        synchronized (this) {
+            if (tcp != null) {
+                try {
+                    tcp.close();
+                } catch (IOException e) {
+                    // 忽略关闭时的错误
+                }
+            }
+        }
+        worker.interrupt();
+        delayed.shutdownNow();
+    }
+
+    /**
+     * 作为独立进程运行，供 scripts/ 下的对比脚本使用
+     * 参数：绑定地址 端口 [延迟毫秒|drop|truncate]
+     */
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "127.0.0.1";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 53;
+        StubDNSServer server = new StubDNSServer(new InetSocketAddress(host, port));
+        if (args.length > 2) {
+            if ("drop".equals(args[2])) {
+                server.drop(true);
+            } else if ("truncate".equals(args[2])) {
+                server.truncate(true);
+            } else {
+                server.delay(Long.parseLong(args[2]));
+            }
+        }
+        System.out.println("stub dns listening on " + server.getAddress());
+        Thread.currentThread().join();
+    }
+}
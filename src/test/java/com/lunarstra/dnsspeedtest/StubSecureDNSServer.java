@@ -0,0 +1,239 @@
+package com.lunarstra.dnsspeedtest;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.net.PfxOptions;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 进程内的加密DNS桩服务器，使用 stub-tls.p12 中的自签名证书（127.0.0.1、localhost）
+ * DoT模式下每条连接可以流水线发送多个查询，响应按各自的延迟乱序返回；
+ * DoH模式下通过ALPN协商HTTP/2，POST以外的请求返回405。记录建立的连接数和收到的DNS查询数，用于验证连接复用
+ */
+public class StubSecureDNSServer implements AutoCloseable {
+
+    private static final String KEY_STORE = "/stub-tls.p12";
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private final DNSTransport transport;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger queries = new AtomicInteger();
+    private final Set<HttpVersion> httpVersions = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService delayed = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "stub-secure-dns-delayed");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ServerSocket tlsServer;
+    private Vertx vertx;
+    private HttpServer httpServer;
+
+    private volatile byte[] answerAddress = {10, 0, 0, 1};
+    private volatile long delayMs = 0;
+
+    private StubSecureDNSServer(DNSTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * 启动DoT桩服务器
+     */
+    public static StubSecureDNSServer tls() throws Exception {
+        StubSecureDNSServer server = new StubSecureDNSServer(DNSTransport.TLS);
+        server.tlsServer = serverContext().getServerSocketFactory()
+            .createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(server::accept, "stub-dot-" + server.tlsServer.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server;
+    }
+
+    /**
+     * 启动DoH桩服务器
+     */
+    public static StubSecureDNSServer https() throws Exception {
+        StubSecureDNSServer server = new StubSecureDNSServer(DNSTransport.HTTPS);
+        server.vertx = Vertx.vertx();
+        HttpServerOptions options = new HttpServerOptions()
+            .setSsl(true)
+            .setUseAlpn(true)
+            .setKeyCertOptions(new PfxOptions().setPath(keyStorePath()).setPassword(new String(PASSWORD)));
+        server.httpServer = server.vertx.createHttpServer(options)
+            .connectionHandler(connection -> server.connections.incrementAndGet())
+            .requestHandler(server::handle);
+        server.httpServer.listen(0, "127.0.0.1").toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        return server;
+    }
+
+    /**
+     * @return 信任桩服务器证书的客户端SSL上下文
+     */
+    public static SSLContext clientContext() throws Exception {
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore());
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        return context;
+    }
+
+    private static SSLContext serverContext() throws Exception {
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore(), PASSWORD);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        return context;
+    }
+
+    private static KeyStore keyStore() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = StubSecureDNSServer.class.getResourceAsStream(KEY_STORE)) {
+            keyStore.load(in, PASSWORD);
+        }
+        return keyStore;
+    }
+
+    private static String keyStorePath() throws URISyntaxException {
+        return Paths.get(StubSecureDNSServer.class.getResource(KEY_STORE).toURI()).toString();
+    }
+
+    public StubSecureDNSServer answer(String ip) throws IOException {
+        this.answerAddress = InetAddress.getByName(ip).getAddress();
+        return this;
+    }
+
+    public StubSecureDNSServer delay(long delayMs) {
+        this.delayMs = delayMs;
+        return this;
+    }
+
+    /**
+     * @return 带协议的服务器地址，可以直接写入DNS文件
+     */
+    public String getUrl() {
+        if (transport == DNSTransport.TLS) {
+            return "tls://127.0.0.1:" + tlsServer.getLocalPort();
+        }
+        return "https://127.0.0.1:" + httpServer.actualPort() + "/dns-query";
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * @return 收到的DNS查询数
+     */
+    public int getQueries() {
+        return queries.get();
+    }
+
+    public Set<HttpVersion> getHttpVersions() {
+        return httpVersions;
+    }
+
+    private void accept() {
+        while (!tlsServer.isClosed()) {
+            try {
+                Socket socket = tlsServer.accept();
+                connections.incrementAndGet();
+                Thread worker = new Thread(() -> serve(socket), "stub-dot-connection");
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException e) {
+                // 关闭时退出
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket connection = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()))) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            while (true) {
+                byte[] query = new byte[in.readUnsignedShort()];
+                in.readFully(query);
+                queries.incrementAndGet();
+                byte[] reply = StubDNSServer.buildReply(query, query.length, answerAddress, DNSMessage.RCODE_NOERROR);
+                long delay = delayMs;
+                if (delay > 0) {
+                    delayed.schedule(() -> write(out, reply), delay, TimeUnit.MILLISECONDS);
+                } else {
+                    write(out, reply);
+                }
+            }
+        } catch (IOException e) {
+            // 客户端断开
+        }
+    }
+
+    private static void write(DataOutputStream out, byte[] reply) {
+        synchronized (out) {
+            try {
+                out.writeShort(reply.length);
+                out.write(reply);
+                out.flush();
+            } catch (IOException e) {
+                // 连接已关闭
+            }
+        }
+    }
+
+    private void handle(HttpServerRequest request) {
+        httpVersions.add(request.version());
+        if (request.method() != HttpMethod.POST) {
+            request.response().setStatusCode(405).end();
+            return;
+        }
+        queries.incrementAndGet();
+        request.body().onSuccess(body -> {
+            byte[] query = body.getBytes();
+            byte[] reply = StubDNSServer.buildReply(query, query.length, answerAddress, DNSMessage.RCODE_NOERROR);
+            Runnable respond = () -> request.response()
+                .putHeader("Content-Type", "application/dns-message")
+                .end(Buffer.buffer(reply));
+            long delay = delayMs;
+            if (delay > 0) {
+                vertx.setTimer(delay, id -> respond.run());
+            } else {
+                respond.run();
+            }
+        });
+    }
+
+    @Override
+    public void close() throws Exception {
+        delayed.shutdownNow();
+        if (tlsServer != null) {
+            tlsServer.close();
+        }
+        if (vertx != null) {
+            vertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        }
+    }
+}